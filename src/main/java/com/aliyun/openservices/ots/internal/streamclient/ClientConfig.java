@@ -1,5 +1,7 @@
 package com.aliyun.openservices.ots.internal.streamclient;
 
+import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
 import com.aliyun.openservices.ots.internal.streamclient.model.IRetryStrategy;
 
 public class ClientConfig {
@@ -21,13 +23,15 @@ public class ClientConfig {
 
     /**
      * 轮询ParentShard状态的间隔时间。
+     * 每个轮询周期对所有等待中的Shard只做一次listLeases；本地处理完的ParentShard会立即通知子Shard，不受该间隔限制。
      */
     private long parentShardPollIntervalMillis = 5 * 1000;
 
     /**
-     * Worker主线程轮询的间隔时间。
+     * Worker主线程在没有收到任何事件通知时的最长等待时间。
+     * Task完成后会立即唤醒Worker主线程，该值只决定新获取的Lease、Shard同步等定期工作的最大延迟。
      */
-    private long workerIdleTimeMillis = 20;
+    private long workerIdleTimeMillis = 100;
 
     /**
      * 最长等待表Ready的时间。
@@ -40,10 +44,24 @@ public class ClientConfig {
     private long checkTableReadyIntervalMillis = 100;
 
     /**
-     * 定时获取最新Shard列表的间隔时间。
+     * 定时获取最新Shard列表的最短间隔时间。
+     * Shard读到SHARD_END时会立即触发同步，定时同步只作为兜底：
+     * 定时同步的间隔从syncShardIntervalMillis开始逐次翻倍，直到maxSyncShardIntervalMillis，发生事件触发的同步后重置。
      */
     private long syncShardIntervalMillis = 10 * 1000;
 
+    /**
+     * 定时获取最新Shard列表的最长间隔时间，不大于syncShardIntervalMillis时间隔固定为syncShardIntervalMillis。
+     */
+    private long maxSyncShardIntervalMillis = 5 * 60 * 1000;
+
+    /**
+     * 全量同步Shard列表和Lease列表的间隔时间。
+     * 两次全量同步之间只从上次读到的位置开始获取新增的Shard，并基于本地缓存的Lease列表创建Lease；
+     * 过期Lease的清理只在全量同步时进行。为0时每次都进行全量同步。
+     */
+    private long fullShardSyncIntervalMillis = 5 * 60 * 1000;
+
     /**
      * 距离上次成功RenewLease或TakeLease的最长间隔时间。
      */
@@ -64,6 +82,80 @@ public class ClientConfig {
      */
     private boolean autoStealLease = true;
 
+    /**
+     * 每次TakeLease最多偷取的Lease数量，一次可以从多个Lease较多的Worker偷取。
+     */
+    private int maxStealLeasesPerTake = 10;
+
+    /**
+     * 均衡Lease时Shard吞吐所占的权重，取值范围[0, 1]。
+     * 每个Lease的权重为 (1 - w) + w * 该Shard的吞吐占全部Shard吞吐的比例 * Lease总数，吞吐综合每秒处理的数据条数、数据大小和处理耗时。
+     * 为0时只按Lease数量均衡，与之前的行为一致；大于0时Worker会统计各Shard的负载并随续租写入StatusTable，热点Shard会被分散到不同的Worker。
+     * 同一个Stream下的所有Worker需要使用相同的设置。
+     */
+    private double loadBalanceThroughputWeight = 0;
+
+    /**
+     * 是否开启粘性分配。开启后每个Lease按Rendezvous哈希分配给当前Worker集合中固定的一个Worker，不再按数量或吞吐均衡：
+     * Worker集合不变时Lease不会迁移，N个Worker扩容到N+1个时约有1/(N+1)的Lease迁移，有利于保留RecordProcessor的本地缓存。
+     * Lease过期后在stickyLeaseGraceMillis内只由原Owner重新获取。同一个Stream下的所有Worker需要使用相同的设置。
+     */
+    private boolean enableStickyLeaseAssignment = false;
+
+    /**
+     * 粘性分配时，Lease过期后只允许原Owner重新获取的时间，超过后由Rendezvous哈希分配到的Worker获取。
+     * 应不小于Worker重启所需的时间。
+     */
+    private long stickyLeaseGraceMillis = 20 * 1000;
+
+    /**
+     * 自定义的Lease分配策略，如StaticLeaseAssignmentStrategy。
+     * 设置后AutoStealLease、MaxStealLeasesPerTake、LoadBalanceThroughputWeight以及粘性分配相关的配置不再生效；
+     * 为null时根据这些配置使用内置的均衡或粘性分配策略。
+     */
+    private ILeaseAssignmentStrategy<ShardLease> leaseAssignmentStrategy = null;
+
+    /**
+     * 每个Worker最多持有的Lease数量，不大于0时不限制。
+     * Lease的平均数量超过该值时，本Worker只获取该数量的Lease，其余的由其他Worker获取。
+     */
+    private int maxLeasesPerWorker = 0;
+
+    /**
+     * 是否根据本机的资源使用情况限制Worker持有的Lease数量。
+     * 开启后CPU负载、堆内存使用率或者线程池排队任务数任一超过阈值时，Worker不再获取新的Lease。
+     */
+    private boolean enableAdaptiveLeaseCapacity = false;
+
+    /**
+     * 每个CPU核的平均系统负载（Load Average）的阈值，不大于0时不检查。
+     */
+    private double adaptiveCapacityMaxCpuLoad = 1.0;
+
+    /**
+     * 已使用的堆内存占最大堆内存的比例的阈值，不大于0时不检查。
+     */
+    private double adaptiveCapacityMaxHeapUsage = 0.9;
+
+    /**
+     * 执行Task的线程池中排队任务数的阈值，不大于0时不检查。
+     */
+    private int adaptiveCapacityMaxQueuedTasks = 100;
+
+    /**
+     * 是否开启Worker心跳模式。
+     * 开启后每个Worker在StatusTable中维护一行心跳，每个续租周期只更新该行，Owner的心跳在更新时其全部Lease都视为有效，
+     * Lease所在的行只在Take、Steal、Transfer以及Checkpoint时写入。同一个Stream下的所有Worker需要使用相同的设置。
+     */
+    private boolean enableWorkerHeartbeat = false;
+
+    /**
+     * Lease被偷或被转交时（ShutdownReason为STOLEN或WORKER_SHUTDOWN），在用户的shutdown之后、转交Lease之前，
+     * 若用户未将Checkpoint写到最后一批已处理完的数据之后，则自动写入该位置，新的Owner从该位置继续处理，减少重复处理。
+     * 若用户在processRecords返回后仍异步处理数据，需要在shutdown中处理完毕，或者关闭该选项。
+     */
+    private boolean checkpointOnLeaseHandoff = true;
+
     /**
      * 自定义Task的重试逻辑。
      */
@@ -79,6 +171,26 @@ public class ClientConfig {
      */
     private int renewThreadPoolSize = 20;
 
+    /**
+     * Shard没有新数据时的初始退避时间，之后每次仍没有新数据则翻倍，直到idleShardMaxBackoffMillis。
+     */
+    private long idleShardInitialBackoffMillis = 50;
+
+    /**
+     * Shard没有新数据时的最长退避时间，也即空闲Shard上新数据最多额外等待的时间。为0时不进行空闲退避。
+     */
+    private long idleShardMaxBackoffMillis = 1000;
+
+    /**
+     * 是否由一个低优先级的轮询线程统一探测空闲Shard的新数据，而不是为每个空闲Shard提交ProcessTask。
+     */
+    private boolean enableIdleShardPoller = true;
+
+    /**
+     * Shard有数据可处理时，一个ProcessTask在让出线程前最多连续处理的时间，为0时每个ProcessTask只处理一批数据。
+     */
+    private long processTimeSliceMillis = 50;
+
     public ClientConfig() {
     }
 
@@ -178,6 +290,102 @@ public class ClientConfig {
         this.autoStealLease = autoStealLease;
     }
 
+    public int getMaxStealLeasesPerTake() {
+        return maxStealLeasesPerTake;
+    }
+
+    public void setMaxStealLeasesPerTake(int maxStealLeasesPerTake) {
+        this.maxStealLeasesPerTake = maxStealLeasesPerTake;
+    }
+
+    public double getLoadBalanceThroughputWeight() {
+        return loadBalanceThroughputWeight;
+    }
+
+    public void setLoadBalanceThroughputWeight(double loadBalanceThroughputWeight) {
+        this.loadBalanceThroughputWeight = loadBalanceThroughputWeight;
+    }
+
+    public boolean isEnableStickyLeaseAssignment() {
+        return enableStickyLeaseAssignment;
+    }
+
+    public void setEnableStickyLeaseAssignment(boolean enableStickyLeaseAssignment) {
+        this.enableStickyLeaseAssignment = enableStickyLeaseAssignment;
+    }
+
+    public long getStickyLeaseGraceMillis() {
+        return stickyLeaseGraceMillis;
+    }
+
+    public void setStickyLeaseGraceMillis(long stickyLeaseGraceMillis) {
+        this.stickyLeaseGraceMillis = stickyLeaseGraceMillis;
+    }
+
+    public ILeaseAssignmentStrategy<ShardLease> getLeaseAssignmentStrategy() {
+        return leaseAssignmentStrategy;
+    }
+
+    public void setLeaseAssignmentStrategy(ILeaseAssignmentStrategy<ShardLease> leaseAssignmentStrategy) {
+        this.leaseAssignmentStrategy = leaseAssignmentStrategy;
+    }
+
+    public int getMaxLeasesPerWorker() {
+        return maxLeasesPerWorker;
+    }
+
+    public void setMaxLeasesPerWorker(int maxLeasesPerWorker) {
+        this.maxLeasesPerWorker = maxLeasesPerWorker;
+    }
+
+    public boolean isEnableAdaptiveLeaseCapacity() {
+        return enableAdaptiveLeaseCapacity;
+    }
+
+    public void setEnableAdaptiveLeaseCapacity(boolean enableAdaptiveLeaseCapacity) {
+        this.enableAdaptiveLeaseCapacity = enableAdaptiveLeaseCapacity;
+    }
+
+    public double getAdaptiveCapacityMaxCpuLoad() {
+        return adaptiveCapacityMaxCpuLoad;
+    }
+
+    public void setAdaptiveCapacityMaxCpuLoad(double adaptiveCapacityMaxCpuLoad) {
+        this.adaptiveCapacityMaxCpuLoad = adaptiveCapacityMaxCpuLoad;
+    }
+
+    public double getAdaptiveCapacityMaxHeapUsage() {
+        return adaptiveCapacityMaxHeapUsage;
+    }
+
+    public void setAdaptiveCapacityMaxHeapUsage(double adaptiveCapacityMaxHeapUsage) {
+        this.adaptiveCapacityMaxHeapUsage = adaptiveCapacityMaxHeapUsage;
+    }
+
+    public int getAdaptiveCapacityMaxQueuedTasks() {
+        return adaptiveCapacityMaxQueuedTasks;
+    }
+
+    public void setAdaptiveCapacityMaxQueuedTasks(int adaptiveCapacityMaxQueuedTasks) {
+        this.adaptiveCapacityMaxQueuedTasks = adaptiveCapacityMaxQueuedTasks;
+    }
+
+    public boolean isEnableWorkerHeartbeat() {
+        return enableWorkerHeartbeat;
+    }
+
+    public void setEnableWorkerHeartbeat(boolean enableWorkerHeartbeat) {
+        this.enableWorkerHeartbeat = enableWorkerHeartbeat;
+    }
+
+    public boolean isCheckpointOnLeaseHandoff() {
+        return checkpointOnLeaseHandoff;
+    }
+
+    public void setCheckpointOnLeaseHandoff(boolean checkpointOnLeaseHandoff) {
+        this.checkpointOnLeaseHandoff = checkpointOnLeaseHandoff;
+    }
+
     public long getSyncShardIntervalMillis() {
         return syncShardIntervalMillis;
     }
@@ -186,6 +394,22 @@ public class ClientConfig {
         this.syncShardIntervalMillis = syncShardIntervalMillis;
     }
 
+    public long getMaxSyncShardIntervalMillis() {
+        return maxSyncShardIntervalMillis;
+    }
+
+    public void setMaxSyncShardIntervalMillis(long maxSyncShardIntervalMillis) {
+        this.maxSyncShardIntervalMillis = maxSyncShardIntervalMillis;
+    }
+
+    public long getFullShardSyncIntervalMillis() {
+        return fullShardSyncIntervalMillis;
+    }
+
+    public void setFullShardSyncIntervalMillis(long fullShardSyncIntervalMillis) {
+        this.fullShardSyncIntervalMillis = fullShardSyncIntervalMillis;
+    }
+
     public long getMaxDurationBeforeLastSuccessfulRenewOrTakeLease() {
         return maxDurationBeforeLastSuccessfulRenewOrTakeLease;
     }
@@ -202,6 +426,38 @@ public class ClientConfig {
         this.renewThreadPoolSize = renewThreadPoolSize;
     }
 
+    public long getIdleShardInitialBackoffMillis() {
+        return idleShardInitialBackoffMillis;
+    }
+
+    public void setIdleShardInitialBackoffMillis(long idleShardInitialBackoffMillis) {
+        this.idleShardInitialBackoffMillis = idleShardInitialBackoffMillis;
+    }
+
+    public long getIdleShardMaxBackoffMillis() {
+        return idleShardMaxBackoffMillis;
+    }
+
+    public void setIdleShardMaxBackoffMillis(long idleShardMaxBackoffMillis) {
+        this.idleShardMaxBackoffMillis = idleShardMaxBackoffMillis;
+    }
+
+    public boolean isEnableIdleShardPoller() {
+        return enableIdleShardPoller;
+    }
+
+    public void setEnableIdleShardPoller(boolean enableIdleShardPoller) {
+        this.enableIdleShardPoller = enableIdleShardPoller;
+    }
+
+    public long getProcessTimeSliceMillis() {
+        return processTimeSliceMillis;
+    }
+
+    public void setProcessTimeSliceMillis(long processTimeSliceMillis) {
+        this.processTimeSliceMillis = processTimeSliceMillis;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -213,11 +469,29 @@ public class ClientConfig {
                 .append(", MaxWaitTableReadyTimeMillis: ").append(maxWaitTableReadyTimeMillis)
                 .append(", CheckTableReadyIntervalMillis: ").append(checkTableReadyIntervalMillis)
                 .append(", SyncShardIntervalMillis: ").append(syncShardIntervalMillis)
+                .append(", MaxSyncShardIntervalMillis: ").append(maxSyncShardIntervalMillis)
+                .append(", FullShardSyncIntervalMillis: ").append(fullShardSyncIntervalMillis)
                 .append(", MaxDurationBeforeLastSuccessfulRenewOrTakeLease: ").append(maxDurationBeforeLastSuccessfulRenewOrTakeLease)
                 .append(", StatusTableReadCapacity: ").append(statusTableReadCapacity)
                 .append(", StatusTableWriteCapacity: ").append(statusTableWriteCapacity)
                 .append(", AutoStealLease: ").append(autoStealLease)
+                .append(", MaxStealLeasesPerTake: ").append(maxStealLeasesPerTake)
+                .append(", LoadBalanceThroughputWeight: ").append(loadBalanceThroughputWeight)
+                .append(", EnableStickyLeaseAssignment: ").append(enableStickyLeaseAssignment)
+                .append(", StickyLeaseGraceMillis: ").append(stickyLeaseGraceMillis)
+                .append(", LeaseAssignmentStrategy: ").append(leaseAssignmentStrategy == null ? "null" : leaseAssignmentStrategy.getClass().getName())
+                .append(", MaxLeasesPerWorker: ").append(maxLeasesPerWorker)
+                .append(", EnableAdaptiveLeaseCapacity: ").append(enableAdaptiveLeaseCapacity)
+                .append(", AdaptiveCapacityMaxCpuLoad: ").append(adaptiveCapacityMaxCpuLoad)
+                .append(", AdaptiveCapacityMaxHeapUsage: ").append(adaptiveCapacityMaxHeapUsage)
+                .append(", AdaptiveCapacityMaxQueuedTasks: ").append(adaptiveCapacityMaxQueuedTasks)
+                .append(", EnableWorkerHeartbeat: ").append(enableWorkerHeartbeat)
+                .append(", CheckpointOnLeaseHandoff: ").append(checkpointOnLeaseHandoff)
                 .append(", RenewThreadPoolSize: ").append(renewThreadPoolSize)
+                .append(", IdleShardInitialBackoffMillis: ").append(idleShardInitialBackoffMillis)
+                .append(", IdleShardMaxBackoffMillis: ").append(idleShardMaxBackoffMillis)
+                .append(", EnableIdleShardPoller: ").append(enableIdleShardPoller)
+                .append(", ProcessTimeSliceMillis: ").append(processTimeSliceMillis)
                 .append(", TaskRetryStrategy: ").append(taskRetryStrategy == null? "null" : taskRetryStrategy.getClass().getName())
                 .append(", LeaseManagerRetryStrategy: ").append(leaseManagerRetryStrategy == null? "null" : leaseManagerRetryStrategy.getClass().getName());
         return sb.toString();
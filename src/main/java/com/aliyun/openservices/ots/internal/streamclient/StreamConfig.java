@@ -2,14 +2,48 @@ package com.aliyun.openservices.ots.internal.streamclient;
 
 import com.alicloud.openservices.tablestore.SyncClient;
 import com.alicloud.openservices.tablestore.SyncClientInterface;
+import com.aliyun.openservices.ots.internal.streamclient.utils.Preconditions;
 
 public class StreamConfig {
 
+    /**
+     * 服务端GetStreamRecord一次请求最多返回的Records数，limit超过该值时服务端按该值返回。
+     */
+    public static final int MAX_RECORDS_PER_REQUEST = 1000;
+
     /**
      * 一次请求最多获取的Records数。
      */
     private int maxRecords = 1000;
 
+    /**
+     * 每个Shard最多预取并缓存的批数，为0时不预取。
+     * 开启后，拉取下一批数据会与用户的processRecords并行执行，预取任务运行在Worker的线程池中。
+     */
+    private int maxPrefetchBatches = 0;
+
+    /**
+     * 是否根据每个Shard的消费延迟动态调整一次请求获取的Records数和预取深度。
+     * 开启后，maxRecords作为初始值，实际值在[adaptiveMinRecords, adaptiveMaxRecords]间调整，
+     * 预取深度在[0, maxPrefetchBatches]间调整。
+     */
+    private boolean enableAdaptiveBatchSize = false;
+
+    /**
+     * 动态调整时，一次请求获取的Records数的下限。
+     */
+    private int adaptiveMinRecords = 100;
+
+    /**
+     * 动态调整时，一次请求获取的Records数的上限，不能超过MAX_RECORDS_PER_REQUEST。
+     */
+    private int adaptiveMaxRecords = MAX_RECORDS_PER_REQUEST;
+
+    /**
+     * 拉取到满批数据且数据时间戳落后超过该值时，认为Shard处于追赶状态，会增大请求的Records数和预取深度。
+     */
+    private long catchUpLagMillis = 60000;
+
     /**
      * 用于访问OTS。
      */
@@ -33,6 +67,48 @@ public class StreamConfig {
         this.maxRecords = maxRecords;
     }
 
+    public int getMaxPrefetchBatches() {
+        return maxPrefetchBatches;
+    }
+
+    public void setMaxPrefetchBatches(int maxPrefetchBatches) {
+        this.maxPrefetchBatches = maxPrefetchBatches;
+    }
+
+    public boolean isEnableAdaptiveBatchSize() {
+        return enableAdaptiveBatchSize;
+    }
+
+    public void setEnableAdaptiveBatchSize(boolean enableAdaptiveBatchSize) {
+        this.enableAdaptiveBatchSize = enableAdaptiveBatchSize;
+    }
+
+    public int getAdaptiveMinRecords() {
+        return adaptiveMinRecords;
+    }
+
+    public void setAdaptiveMinRecords(int adaptiveMinRecords) {
+        this.adaptiveMinRecords = adaptiveMinRecords;
+    }
+
+    public int getAdaptiveMaxRecords() {
+        return adaptiveMaxRecords;
+    }
+
+    public void setAdaptiveMaxRecords(int adaptiveMaxRecords) {
+        Preconditions.checkArgument(adaptiveMaxRecords > 0 && adaptiveMaxRecords <= MAX_RECORDS_PER_REQUEST,
+                "AdaptiveMaxRecords must be in (0, " + MAX_RECORDS_PER_REQUEST + "].");
+        this.adaptiveMaxRecords = adaptiveMaxRecords;
+    }
+
+    public long getCatchUpLagMillis() {
+        return catchUpLagMillis;
+    }
+
+    public void setCatchUpLagMillis(long catchUpLagMillis) {
+        this.catchUpLagMillis = catchUpLagMillis;
+    }
+
     public SyncClientInterface getOTSClient() {
         return otsClient;
     }
@@ -61,6 +137,11 @@ public class StreamConfig {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("MaxRecords: ").append(maxRecords)
+                .append(", MaxPrefetchBatches: ").append(maxPrefetchBatches)
+                .append(", EnableAdaptiveBatchSize: ").append(enableAdaptiveBatchSize)
+                .append(", AdaptiveMinRecords: ").append(adaptiveMinRecords)
+                .append(", AdaptiveMaxRecords: ").append(adaptiveMaxRecords)
+                .append(", CatchUpLagMillis: ").append(catchUpLagMillis)
                 .append(", DataTableName: ").append(dataTableName)
                 .append(", StatusTableName: ").append(statusTableName);
         return sb.toString();
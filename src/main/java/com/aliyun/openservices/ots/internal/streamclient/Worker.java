@@ -62,6 +62,32 @@ public class Worker implements Runnable {
         innerWorker.shutdown();
     }
 
+    /**
+     * 正常退出Worker，处理完正在处理的数据并释放持有的Lease，其他Worker可以立即接手，不需要等待Lease过期。
+     *
+     * @param timeoutMillis 超时后直接调用shutdown()
+     * @return 是否在超时前释放了全部Lease
+     * @throws InterruptedException
+     */
+    public boolean gracefulShutdown(long timeoutMillis) throws InterruptedException {
+        return innerWorker.gracefulShutdown(timeoutMillis);
+    }
+
+    /**
+     * 将Worker移出轮转但不退出，持有的Lease在处理完当前数据后逐个转交给负载最低的其他Worker。
+     * 例如在重启机器前调用，待isDrained()返回true后再退出，避免重复处理以及等待Lease过期。
+     */
+    public void drain() {
+        innerWorker.drain();
+    }
+
+    /**
+     * @return 调用drain()后是否已经转交了全部Lease
+     */
+    public boolean isDrained() {
+        return innerWorker.isDrained();
+    }
+
     public WorkerStatus getWorkerStatus() {
         return innerWorker.getWorkerStatus();
     }
@@ -0,0 +1,132 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
+import com.aliyun.openservices.ots.internal.streamclient.utils.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 每个Shard一个BatchSizeController，根据最近一批数据的情况调整GetStreamRecord的limit和预取深度。
+ * 当拉取到的是满批数据，且数据的时间戳落后于当前时间超过catchUpLagMillis(或无法判断延迟)时，认为该Shard处于追赶状态，
+ * 将limit翻倍、预取深度加一；当拉取到的数据不满一批时，认为已经追上尾部，将limit减半、预取深度减一，以降低处理延迟。
+ * limit不超过服务端一次请求允许返回的最大Records数。服务端按数量或数据大小截断时返回的数据也不满一批，
+ * 因此还有后续数据且这批数据仍然落后时，同样视为满批，避免limit在上限附近来回震荡。
+ * 延迟通过Record中属性列的时间戳估算，若用户写入时自行指定了时间戳，估算值可能不准确。
+ */
+public class BatchSizeController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchSizeController.class);
+
+    private final String shardId;
+    private final int minRecords;
+    private final int maxRecords;
+    private final int maxPrefetchBatches;
+    private final long catchUpLagMillis;
+
+    private int recordLimit;
+    private int prefetchDepth;
+    private long lastObservedLagMillis = -1;
+
+    public BatchSizeController(String shardId, StreamConfig streamConfig) {
+        Preconditions.checkArgument(streamConfig.getAdaptiveMinRecords() > 0,
+                "AdaptiveMinRecords must be greater than 0.");
+        Preconditions.checkArgument(streamConfig.getAdaptiveMaxRecords() >= streamConfig.getAdaptiveMinRecords(),
+                "AdaptiveMaxRecords must not be less than AdaptiveMinRecords.");
+        this.shardId = shardId;
+        this.minRecords = streamConfig.getAdaptiveMinRecords();
+        this.maxRecords = Math.min(streamConfig.getAdaptiveMaxRecords(), StreamConfig.MAX_RECORDS_PER_REQUEST);
+        this.maxPrefetchBatches = Math.max(0, streamConfig.getMaxPrefetchBatches());
+        this.catchUpLagMillis = streamConfig.getCatchUpLagMillis();
+        this.recordLimit = Math.min(maxRecords, Math.max(minRecords, streamConfig.getMaxRecords()));
+        this.prefetchDepth = 0;
+    }
+
+    public synchronized int getRecordLimit() {
+        return recordLimit;
+    }
+
+    public synchronized int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    public synchronized long getLastObservedLagMillis() {
+        return lastObservedLagMillis;
+    }
+
+    /**
+     * 根据拉取到的一批数据调整limit和预取深度，不区分这批数据之后是否还有数据。
+     *
+     * @param requestedLimit 拉取这批数据时使用的limit
+     * @param records        拉取到的数据
+     */
+    public void onRecordsFetched(int requestedLimit, List<StreamRecord> records) {
+        onRecordsFetched(requestedLimit, records, false);
+    }
+
+    /**
+     * 根据拉取到的一批数据调整limit和预取深度。
+     *
+     * @param requestedLimit  拉取这批数据时使用的limit
+     * @param records         拉取到的数据
+     * @param hasNextIterator 返回的nextShardIterator是否不为null
+     */
+    public synchronized void onRecordsFetched(int requestedLimit, List<StreamRecord> records, boolean hasNextIterator) {
+        long lagMillis = estimateLagMillis(records);
+        lastObservedLagMillis = lagMillis;
+
+        int oldLimit = recordLimit;
+        int oldDepth = prefetchDepth;
+        if (isFullBatch(requestedLimit, records, hasNextIterator, lagMillis)) {
+            if (lagMillis < 0 || lagMillis >= catchUpLagMillis) {
+                recordLimit = (int) Math.min((long) maxRecords, (long) recordLimit * 2);
+                prefetchDepth = Math.min(maxPrefetchBatches, prefetchDepth + 1);
+            }
+        } else {
+            recordLimit = Math.max(minRecords, recordLimit / 2);
+            prefetchDepth = Math.max(0, prefetchDepth - 1);
+        }
+
+        if (oldLimit != recordLimit || oldDepth != prefetchDepth) {
+            LOG.debug("AdjustBatchSize, ShardId: {}, LagMillis: {}, RecordLimit: {}, PrefetchDepth: {}.",
+                    shardId, lagMillis, recordLimit, prefetchDepth);
+        }
+    }
+
+    /**
+     * 返回的数据达到了limit或服务端的上限，或者服务端截断了这批数据(还有后续数据且数据仍然落后)。
+     */
+    private boolean isFullBatch(int requestedLimit, List<StreamRecord> records, boolean hasNextIterator, long lagMillis) {
+        if (records.size() >= Math.min(requestedLimit, StreamConfig.MAX_RECORDS_PER_REQUEST)) {
+            return true;
+        }
+        return hasNextIterator && !records.isEmpty() && lagMillis >= catchUpLagMillis;
+    }
+
+    /**
+     * 取这批数据中最后一条带有时间戳的属性列，估算其与当前时间的差值，无法估算时返回-1。
+     */
+    static long estimateLagMillis(List<StreamRecord> records) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            List<RecordColumn> columns = records.get(i).getColumns();
+            if (columns == null) {
+                continue;
+            }
+            long timestamp = -1;
+            for (RecordColumn recordColumn : columns) {
+                Column column = recordColumn.getColumn();
+                if (column != null && column.hasSetTimestamp()) {
+                    timestamp = Math.max(timestamp, column.getTimestamp());
+                }
+            }
+            if (timestamp >= 0) {
+                return Math.max(0, System.currentTimeMillis() - timestamp);
+            }
+        }
+        return -1;
+    }
+}
@@ -4,6 +4,7 @@ import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.ShutdownException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseCoordinator;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseSnapshot;
 import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.model.ICheckpointTracker;
@@ -35,20 +36,31 @@ class CheckpointTracker implements ICheckpointTracker {
     }
 
     private boolean setCheckpointByUpdateLease(String shardId, String checkpointValue, String leaseIdentifier) throws StreamClientException, DependencyException {
-        ShardLease lease = leaseCoordinator.getCurrentlyHeldLease(shardId);
-        if (lease == null) {
+        ShardLease heldLease = leaseCoordinator.getCurrentlyHeldLease(shardId);
+        if (heldLease == null) {
             return false;
         }
+        ShardLease lease = heldLease.copy();
         lease.setCheckpoint(checkpointValue);
         boolean result = leaseCoordinator.updateLease(lease, leaseIdentifier);
         LOG.debug("Set, ShardId: {}, CheckpointValue: {}", shardId, checkpointValue);
         return result;
     }
 
+    /**
+     * 本Worker持有的Lease直接返回其Checkpoint；
+     * 其余的Lease优先从LeaseCoordinator共享的快照中获取，快照中不存在时才读取StatusTable确认。
+     */
     public String getCheckpoint(String shardId) throws StreamClientException, DependencyException {
-        if (leaseManager.getLease(shardId) == null) {
-            return null;
+        ShardLease heldLease = leaseCoordinator.getCurrentlyHeldLease(shardId);
+        if (heldLease != null) {
+            return heldLease.getCheckpoint();
+        }
+        LeaseSnapshot<ShardLease> snapshot = leaseCoordinator.getLeaseSnapshotService().getSnapshot();
+        ShardLease lease = snapshot.getLease(shardId);
+        if (lease == null) {
+            lease = leaseManager.getLease(shardId);
         }
-        return leaseManager.getLease(shardId).getCheckpoint();
+        return lease == null ? null : lease.getCheckpoint();
     }
 }
@@ -10,39 +10,86 @@ import com.aliyun.openservices.ots.internal.streamclient.model.ShardInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * DataFetcher用于获取StreamRecords数据。
  * DataFetcher内部也会保存一个Checkpoint，每次从这个Checkpoint开始获取数据，
  * 该Checkpoint会在用户更新Checkpoint时同步更新。
+ *
+ * 若开启了预取(maxPrefetchBatches > 0)，DataFetcher会在拿到nextShardIterator后立即在prefetchExecutor中
+ * 发起下一次GetStreamRecord请求，最多缓存maxPrefetchBatches批数据，使拉取数据与用户的processRecords并行。
+ * 缓存的每一批数据都记录了请求时使用的ShardIterator，只有与当前Checkpoint一致时才会被使用，
+ * 当用户将Checkpoint更新到其他位置时，缓存会被丢弃并从新的位置重新拉取。
+ * 拉取到空的一批数据(已读到尾部)后不再继续预取，空闲的Shard由IdleShardPoller探测，
+ * 探测到新数据后，getRecords返回这批数据时重新开始预取。
  */
 public class DataFetcher {
 
     private static final Logger LOG = LoggerFactory.getLogger(DataFetcher.class);
 
-    private String checkpointValue;
+    private volatile String checkpointValue;
     private SyncClientInterface ots;
     private final String shardId;
     private final String streamId;
     private boolean isInitialized;
 
+    private final ExecutorService prefetchExecutor;
+    private int maxPrefetchBatches;
+    private final Object prefetchLock = new Object();
+    private final LinkedList<PrefetchedBatch> prefetchedBatches = new LinkedList<PrefetchedBatch>();
+    /**
+     * 预取的下一批数据所使用的ShardIterator，为null表示当前没有可预取的位置。
+     */
+    private String prefetchIterator;
+    private int prefetchLimit;
+    /**
+     * 每次丢弃缓存时递增，旧的预取任务据此发现自己已经过期。
+     */
+    private long prefetchGeneration;
+    private boolean prefetchInFlight;
+    private boolean prefetchRunning;
+    private boolean isStopped;
+    private int lastFetchLimit;
+
     public DataFetcher(SyncClientInterface ots, ShardInfo shardInfo) {
+        this(ots, shardInfo, null, 0);
+    }
+
+    public DataFetcher(SyncClientInterface ots,
+                       ShardInfo shardInfo,
+                       ExecutorService prefetchExecutor,
+                       int maxPrefetchBatches) {
         this.shardId = shardInfo.getShardId();
         this.streamId = shardInfo.getStreamId();
         this.ots = ots;
+        this.prefetchExecutor = prefetchExecutor;
+        this.maxPrefetchBatches = prefetchExecutor == null ? 0 : Math.max(0, maxPrefetchBatches);
     }
 
     public GetStreamRecordResponse getRecords(int maxRecords) throws DependencyException, StreamClientException {
         if (!isInitialized) {
             throw new StreamClientException("DataFetcherNotInitialized");
         }
-        GetStreamRecordResponse result = null;
-        try {
-            GetStreamRecordRequest request = new GetStreamRecordRequest(getShardIterator());
-            request.setLimit(maxRecords);
-            result = ots.getStreamRecord(request);
-            this.updateCheckpoint(result.getNextShardIterator());
-        } catch (TableStoreException ex) {
-            throw new DependencyException(ex.toString(), ex);
+        String shardIterator = getShardIterator();
+        if (!isPrefetchActive()) {
+            GetStreamRecordResponse result = fetch(shardIterator, maxRecords);
+            lastFetchLimit = maxRecords;
+            this.updateCheckpoint(toCheckpointValue(result.getNextShardIterator()));
+            return result;
+        }
+
+        GetStreamRecordResponse result = takePrefetchedBatch(shardIterator);
+        if (result == null) {
+            LOG.debug("PrefetchMiss, ShardId: {}.", shardId);
+            result = fetch(shardIterator, maxRecords);
+            lastFetchLimit = maxRecords;
+        }
+        this.updateCheckpoint(toCheckpointValue(result.getNextShardIterator()));
+        if (!isEmptyBatch(result)) {
+            startPrefetch(result.getNextShardIterator(), maxRecords);
         }
         return result;
     }
@@ -62,6 +109,76 @@ public class DataFetcher {
         this.checkpointValue = checkpointValue;
     }
 
+    /**
+     * 在Shard空闲时由IdleShardPoller调用，探测当前位置之后是否有新数据。
+     * 拉取到数据或到达分区尾部时，将这批数据缓存起来供下一次getRecords直接使用，返回true；
+     * 没有新数据时仅前移DataFetcher内部的Checkpoint，返回false。
+     * 缓存中只有空的数据或者预取仍在执行时，丢弃缓存后重新探测，不视为有新数据。
+     */
+    public boolean pollForRecords(int maxRecords) throws DependencyException, StreamClientException {
+        if (!isInitialized) {
+            throw new StreamClientException("DataFetcherNotInitialized");
+        }
+        long generation;
+        synchronized (prefetchLock) {
+            if (isStopped || (!prefetchedBatches.isEmpty() && hasData(prefetchedBatches.getFirst()))) {
+                return true;
+            }
+            discardPrefetchedBatches();
+            generation = prefetchGeneration;
+        }
+        String checkpointBefore = checkpointValue;
+        String shardIterator = getShardIterator();
+        GetStreamRecordResponse result = fetch(shardIterator, maxRecords);
+        if (isEmptyBatch(result)) {
+            if (checkpointBefore.equals(checkpointValue)) {
+                updateCheckpoint(result.getNextShardIterator());
+            }
+            return false;
+        }
+        synchronized (prefetchLock) {
+            if (generation == prefetchGeneration && prefetchedBatches.isEmpty() && !prefetchInFlight
+                    && checkpointBefore.equals(checkpointValue)) {
+                if (checkpointBefore.equals(CheckpointPosition.TRIM_HORIZON)) {
+                    updateCheckpoint(shardIterator);
+                }
+                PrefetchedBatch batch = new PrefetchedBatch(shardIterator, maxRecords);
+                batch.response = result;
+                prefetchedBatches.addLast(batch);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 调整预取深度，未指定prefetchExecutor时不生效。减小深度时已缓存的数据仍会被使用。
+     */
+    public void setMaxPrefetchBatches(int maxPrefetchBatches) {
+        if (prefetchExecutor == null) {
+            return;
+        }
+        synchronized (prefetchLock) {
+            this.maxPrefetchBatches = Math.max(0, maxPrefetchBatches);
+        }
+    }
+
+    /**
+     * 上一次getRecords返回的数据在请求时所使用的limit，预取的数据可能使用的是之前的limit。
+     */
+    public int getLastFetchLimit() {
+        return lastFetchLimit;
+    }
+
+    /**
+     * 停止预取并丢弃已缓存的数据，在ShardConsumer结束处理时调用。
+     */
+    public void stopPrefetch() {
+        synchronized (prefetchLock) {
+            isStopped = true;
+            discardPrefetchedBatches();
+        }
+    }
+
     String getShardIterator() throws DependencyException, StreamClientException {
         if (!isInitialized) {
             throw new StreamClientException("DataFetcherNotInitialized");
@@ -79,4 +196,168 @@ public class DataFetcher {
             throw new DependencyException(ex.toString(), ex);
         }
     }
+
+    int getPrefetchedBatchCount() {
+        synchronized (prefetchLock) {
+            return prefetchedBatches.size();
+        }
+    }
+
+    private boolean isPrefetchActive() {
+        synchronized (prefetchLock) {
+            return maxPrefetchBatches > 0 || !prefetchedBatches.isEmpty() || prefetchInFlight;
+        }
+    }
+
+    private GetStreamRecordResponse fetch(String shardIterator, int maxRecords) throws DependencyException {
+        try {
+            GetStreamRecordRequest request = new GetStreamRecordRequest(shardIterator);
+            request.setLimit(maxRecords);
+            return ots.getStreamRecord(request);
+        } catch (TableStoreException ex) {
+            throw new DependencyException(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * 没有拉取到数据且分区尚未结束。
+     */
+    private static boolean isEmptyBatch(GetStreamRecordResponse response) {
+        return response.getRecords().isEmpty() && response.getNextShardIterator() != null;
+    }
+
+    /**
+     * 缓存的这批数据是否需要交给getRecords处理，包括有数据、分区结束以及预取出错。
+     */
+    private static boolean hasData(PrefetchedBatch batch) {
+        return batch.exception != null || !isEmptyBatch(batch.response);
+    }
+
+    /**
+     * 分区结束时nextShardIterator为null，此时Checkpoint为SHARD_END。
+     */
+    private static String toCheckpointValue(String nextShardIterator) {
+        return nextShardIterator == null ? CheckpointPosition.SHARD_END : nextShardIterator;
+    }
+
+    /**
+     * 从缓存中取出以shardIterator为起点的一批数据。若对应的请求正在执行中，则等待其完成。
+     * 缓存与shardIterator不一致、或预取出错时返回null，并丢弃全部缓存。
+     */
+    private GetStreamRecordResponse takePrefetchedBatch(String shardIterator) throws StreamClientException {
+        synchronized (prefetchLock) {
+            while (prefetchedBatches.isEmpty()
+                    && prefetchRunning
+                    && shardIterator.equals(prefetchIterator)) {
+                try {
+                    prefetchLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StreamClientException("InterruptedWhileWaitingPrefetch", e);
+                }
+            }
+            if (!prefetchedBatches.isEmpty() && prefetchedBatches.getFirst().shardIterator.equals(shardIterator)) {
+                PrefetchedBatch batch = prefetchedBatches.removeFirst();
+                if (batch.exception == null) {
+                    lastFetchLimit = batch.limit;
+                    return batch.response;
+                }
+                LOG.debug("PrefetchFailed, ShardId: {}, Exception: {}.", shardId, batch.exception);
+            }
+            discardPrefetchedBatches();
+            return null;
+        }
+    }
+
+    private void startPrefetch(String nextShardIterator, int maxRecords) {
+        synchronized (prefetchLock) {
+            if (isStopped) {
+                return;
+            }
+            if (prefetchedBatches.isEmpty() && !prefetchInFlight) {
+                prefetchIterator = nextShardIterator;
+            }
+            prefetchLimit = maxRecords;
+            if (prefetchInFlight || prefetchIterator == null || prefetchedBatches.size() >= maxPrefetchBatches) {
+                return;
+            }
+            prefetchInFlight = true;
+            try {
+                prefetchExecutor.execute(new PrefetchRunner(prefetchGeneration));
+            } catch (RejectedExecutionException e) {
+                LOG.warn("PrefetchRejected, ShardId: {}, Exception: {}.", shardId, e);
+                prefetchInFlight = false;
+            }
+        }
+    }
+
+    private void discardPrefetchedBatches() {
+        prefetchGeneration++;
+        prefetchedBatches.clear();
+        prefetchIterator = null;
+        prefetchInFlight = false;
+        prefetchRunning = false;
+        prefetchLock.notifyAll();
+    }
+
+    private static class PrefetchedBatch {
+        private final String shardIterator;
+        private final int limit;
+        private GetStreamRecordResponse response;
+        private Exception exception;
+
+        PrefetchedBatch(String shardIterator, int limit) {
+            this.shardIterator = shardIterator;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * 沿着nextShardIterator连续拉取数据，直到缓存满、分区结束、出错或缓存被丢弃。
+     */
+    private class PrefetchRunner implements Runnable {
+
+        private final long generation;
+
+        PrefetchRunner(long generation) {
+            this.generation = generation;
+        }
+
+        public void run() {
+            while (true) {
+                PrefetchedBatch batch;
+                synchronized (prefetchLock) {
+                    if (generation != prefetchGeneration) {
+                        return;
+                    }
+                    if (isStopped || prefetchIterator == null || prefetchedBatches.size() >= maxPrefetchBatches) {
+                        prefetchInFlight = false;
+                        prefetchRunning = false;
+                        prefetchLock.notifyAll();
+                        return;
+                    }
+                    batch = new PrefetchedBatch(prefetchIterator, prefetchLimit);
+                    prefetchRunning = true;
+                }
+
+                try {
+                    batch.response = fetch(batch.shardIterator, batch.limit);
+                } catch (Exception e) {
+                    batch.exception = e;
+                }
+
+                synchronized (prefetchLock) {
+                    if (generation != prefetchGeneration) {
+                        return;
+                    }
+                    prefetchedBatches.addLast(batch);
+                    // 出错或者拉取到空的数据后停止预取
+                    prefetchIterator = hasData(batch) && batch.exception == null ?
+                            batch.response.getNextShardIterator() : null;
+                    prefetchRunning = false;
+                    prefetchLock.notifyAll();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+
+/**
+ * 一个Worker内所有空闲Shard共用的轮询线程。
+ * Shard没有新数据时不再每轮提交ProcessTask，而是由该线程按各自的退避时间依次探测是否有新数据，
+ * 探测到数据后再交还给ShardConsumer处理。该线程为低优先级的守护线程。
+ */
+class IdleShardPoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdleShardPoller.class);
+
+    private static final String THREAD_PREFIX = "IdleShardPoller-";
+
+    private final ScheduledExecutorService scheduler;
+
+    IdleShardPoller(final String workerIdentifier) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                thread.setName(THREAD_PREFIX + workerIdentifier);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 在delayMillis后执行一次探测。
+     *
+     * @return 若Poller已经停止，返回false，此时调用方需要自行退避。
+     */
+    boolean schedule(Runnable poll, long delayMillis) {
+        try {
+            scheduler.schedule(poll, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            LOG.debug("IdleShardPoller is stopped.");
+            return false;
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
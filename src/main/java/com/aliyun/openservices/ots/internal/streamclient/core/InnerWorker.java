@@ -8,17 +8,23 @@ import com.aliyun.openservices.ots.internal.streamclient.core.task.*;
 import com.aliyun.openservices.ots.internal.streamclient.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
 import com.aliyun.openservices.ots.internal.streamclient.lease.*;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseCapacityProvider;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.utils.OTSHelper;
 import com.aliyun.openservices.ots.internal.streamclient.utils.Preconditions;
-import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * InnerWorker对象由Worker对象进行创建，执行具体逻辑。
@@ -27,6 +33,12 @@ public class InnerWorker implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(InnerWorker.class);
 
+    private static final String RETRY_THREAD_PREFIX = "TaskRetryScheduler-";
+    /**
+     * 退出时等待已经安排的重试(包括ShutdownTask、Checkpoint的重试)执行完毕的最长时间。
+     */
+    private static final long RETRY_SCHEDULER_TERMINATION_TIMEOUT_MILLIS = 2000;
+
     private final String workerIdentifier;
     private final ClientConfig clientConfig;
     private final StreamConfig streamConfig;
@@ -38,13 +50,39 @@ public class InnerWorker implements Runnable {
     private final ICheckpointTracker checkpointTracker;
     private final IRetryStrategy taskRetryStrategy;
     private final IRetryStrategy leaseManagerRetryStrategy;
+    private final IdleShardPoller idleShardPoller;
+    private final WorkerSignal workerSignal = new WorkerSignal();
+    private final ScheduledExecutorService retryScheduler;
+    private final ShardLineageWaiter shardLineageWaiter;
 
     long lastSyncShardTimeMillis;
+    /**
+     * 当前的定时同步间隔，在没有事件触发的同步时逐次翻倍。
+     */
+    long syncShardIntervalMillis;
+    long lastPublishShardLoadTimeMillis;
 
     private ConcurrentMap<ShardInfo, ShardConsumer> shardConsumerMap =
             new ConcurrentHashMap<ShardInfo, ShardConsumer>();
+    /**
+     * 最近一次读取的持有的Lease，只在Lease集合的版本号变化或其中最早的Lease过期时重新读取。
+     */
+    private long heldLeasesVersion = -1;
+    private long heldLeasesExpireTimeMillis;
+    private final List<ShardInfo> heldShards = new ArrayList<ShardInfo>();
+    private final List<ShardInfo> stolenShards = new ArrayList<ShardInfo>();
+    private final Set<ShardInfo> heldShardSet = new HashSet<ShardInfo>();
+    private final Set<ShardInfo> stolenShardSet = new HashSet<ShardInfo>();
+    /**
+     * 与heldShards一一对应的ShardConsumer，每轮处理直接遍历，不再查找shardConsumerMap。
+     */
+    private ShardInfo[] activeShards = new ShardInfo[0];
+    private ShardConsumer[] activeConsumers = new ShardConsumer[0];
     private volatile boolean running;
     private volatile boolean shutdown;
+    private volatile boolean gracefulShutdownRequested;
+    private boolean drainedReported;
+    private final CountDownLatch gracefulShutdownComplete = new CountDownLatch(1);
     private Exception exception;
     private String streamId;
 
@@ -104,8 +142,22 @@ public class InnerWorker implements Runnable {
         if (shardLeaseCoordinator != null) {
             this.leaseCoordinator = shardLeaseCoordinator;
         } else {
-            this.leaseCoordinator = new LeaseCoordinator<ShardLease>(
-                    this.leaseManager, this.workerIdentifier, this.clientConfig);
+            ILeaseCapacityProvider capacityProvider = null;
+            if (this.clientConfig.isEnableAdaptiveLeaseCapacity()) {
+                capacityProvider = new WorkerCapacityProvider(this.clientConfig.getMaxLeasesPerWorker(),
+                        this.executorService, this.clientConfig.getAdaptiveCapacityMaxCpuLoad(),
+                        this.clientConfig.getAdaptiveCapacityMaxHeapUsage(),
+                        this.clientConfig.getAdaptiveCapacityMaxQueuedTasks());
+            } else if (this.clientConfig.getMaxLeasesPerWorker() > 0) {
+                capacityProvider = new WorkerCapacityProvider(this.clientConfig.getMaxLeasesPerWorker(),
+                        this.executorService, 0, 0, 0);
+            }
+            ILeaseAssignmentStrategy<ShardLease> assignmentStrategy = this.clientConfig.getLeaseAssignmentStrategy();
+            if (assignmentStrategy == null) {
+                assignmentStrategy = LeaseCoordinator.createAssignmentStrategy(this.clientConfig);
+            }
+            this.leaseCoordinator = new LeaseCoordinator<ShardLease>(this.leaseManager, this.workerIdentifier,
+                    this.clientConfig, assignmentStrategy, capacityProvider);
         }
 
         if (checkpointTracker != null) {
@@ -114,11 +166,35 @@ public class InnerWorker implements Runnable {
             this.checkpointTracker = new CheckpointTracker(this.leaseManager, this.leaseCoordinator);
         }
 
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                thread.setName(RETRY_THREAD_PREFIX + InnerWorker.this.workerIdentifier);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
         this.shardSyncer = new ShardSyncer(
                 this.streamConfig,
                 this.leaseManager,
                 this.executorService,
-                this.taskRetryStrategy);
+                this.taskRetryStrategy,
+                this.retryScheduler,
+                this.clientConfig.getFullShardSyncIntervalMillis(),
+                this.leaseCoordinator.getLeaseSnapshotService());
+
+        this.shardLineageWaiter = new ShardLineageWaiter(
+                this.leaseCoordinator.getLeaseSnapshotService(),
+                this.executorService,
+                this.retryScheduler,
+                this.clientConfig.getParentShardPollIntervalMillis());
+
+        if (clientConfig.isEnableIdleShardPoller() && clientConfig.getIdleShardMaxBackoffMillis() > 0) {
+            this.idleShardPoller = new IdleShardPoller(workerIdentifier);
+        } else {
+            this.idleShardPoller = null;
+        }
     }
 
     public void run() {
@@ -130,12 +206,22 @@ public class InnerWorker implements Runnable {
             initialize();
             leaseCoordinator.start();
             lastSyncShardTimeMillis = System.currentTimeMillis();
+            syncShardIntervalMillis = clientConfig.getSyncShardIntervalMillis();
 
             while (!shutdown) {
-                runProcessLoop();
+                if (gracefulShutdownRequested) {
+                    if (runGracefulShutdownLoop()) {
+                        LOG.info("All leases are released, shutdown worker.");
+                        shutdown();
+                        gracefulShutdownComplete.countDown();
+                        break;
+                    }
+                } else {
+                    runProcessLoop();
+                }
 
-                // todo optimize: only sleep when there is no data to consume
-                TimeUtils.sleepMillis(clientConfig.getWorkerIdleTimeMillis());
+                // 有数据的Shard会在Task完成回调中直接提交下一个Task，这里只需等待状态变化的通知
+                workerSignal.await(clientConfig.getWorkerIdleTimeMillis());
             }
         } catch (Throwable ex) {
             LOG.error("Exception: {}.", ex);
@@ -149,33 +235,171 @@ public class InnerWorker implements Runnable {
     }
 
     void runProcessLoop() throws Exception {
-        List<ShardInfo> heldShards = new ArrayList<ShardInfo>();
-        List<ShardInfo> stolenShards = new ArrayList<ShardInfo>();
-        getCurrentlyHeldShards(heldShards, stolenShards);
-        for (ShardInfo shardInfo : heldShards) {
-            ShardConsumer shardConsumer = createOrGetShardConsumer(shardInfo);
+        if (refreshHeldShards(false)) {
+            rebuildActiveConsumers();
+        }
+        for (int i = 0; i < activeConsumers.length; i++) {
+            ShardConsumer shardConsumer = activeConsumers[i];
+            if (shardConsumer.isShutdown() && shardConsumer.getShutdownReason() == ShutdownReason.PROCESS_RESTART) {
+                shardConsumer = createOrGetShardConsumer(activeShards[i]);
+                activeConsumers[i] = shardConsumer;
+            }
             if (!shardConsumer.isShutdown()) {
                 shardConsumer.consumeShard();
             }
         }
 
-        // todo optimize: need to sync only when there is any shard has been consumed to end.
-        if (System.currentTimeMillis() - lastSyncShardTimeMillis > clientConfig.getSyncShardIntervalMillis()) {
-            if (shardSyncer.syncShardAndLeaseInfo(false)) {
-                lastSyncShardTimeMillis = System.currentTimeMillis();
+        publishShardLoadsIfNeeded();
+        syncShardsIfNeeded();
+
+        // 只有存在不再持有或者被偷的Shard时才需要清理
+        if (shardConsumerMap.size() > activeConsumers.length || !stolenShards.isEmpty()) {
+            cleanupShardConsumers();
+        }
+        if (!drainedReported && isDrained()) {
+            LOG.info("All leases are handed off, worker is drained.");
+            drainedReported = true;
+        }
+        leaseCoordinator.checkRenewerAndTakerStatus(clientConfig.getMaxDurationBeforeLastSuccessfulRenewOrTakeLease());
+    }
+
+    /**
+     * 每个续租周期将各Shard的负载设置到对应的Lease上，随下一次续租或更新Checkpoint写入StatusTable。
+     * 不按负载均衡时不统计。
+     */
+    void publishShardLoadsIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (clientConfig.getLoadBalanceThroughputWeight() <= 0
+                || now - lastPublishShardLoadTimeMillis < clientConfig.getRenewerIntervalMillis()) {
+            return;
+        }
+        lastPublishShardLoadTimeMillis = now;
+        for (Map.Entry<ShardInfo, ShardConsumer> entry : shardConsumerMap.entrySet()) {
+            if (!entry.getValue().isShutdown()) {
+                LeaseLoad load = entry.getValue().sampleLoad(now);
+                LOG.debug("ShardLoad, ShardId: {}, Load: {}.", entry.getKey().getShardId(), load);
+                leaseCoordinator.updateLeaseLoad(entry.getKey().getShardId(), load);
             }
         }
+    }
 
-        cleanupShardConsumers(heldShards, stolenShards);
-        leaseCoordinator.checkRenewerAndTakerStatus(clientConfig.getMaxDurationBeforeLastSuccessfulRenewOrTakeLease());
+    /**
+     * Shard读到SHARD_END等事件触发时立即同步，否则按逐渐变长的间隔定时同步。
+     */
+    void syncShardsIfNeeded() throws StreamClientException, DependencyException {
+        boolean requested = shardSyncer.isSyncRequested();
+        if (!requested && System.currentTimeMillis() - lastSyncShardTimeMillis <= syncShardIntervalMillis) {
+            return;
+        }
+        if (shardSyncer.syncShardAndLeaseInfo(false)) {
+            lastSyncShardTimeMillis = System.currentTimeMillis();
+            if (requested) {
+                syncShardIntervalMillis = clientConfig.getSyncShardIntervalMillis();
+            } else {
+                syncShardIntervalMillis = Math.max(clientConfig.getSyncShardIntervalMillis(),
+                        Math.min(syncShardIntervalMillis * 2, clientConfig.getMaxSyncShardIntervalMillis()));
+            }
+            LOG.debug("SyncShard, Requested: {}, NextIntervalMillis: {}.", requested, syncShardIntervalMillis);
+        }
+    }
+
+    /**
+     * 正常退出Worker：停止获取新的Lease，等待各Shard正在处理的数据处理完毕后，并行地对各Shard调用用户的shutdown，
+     * ShutdownReason为WORKER_SHUTDOWN，用户可以在其中做最后一次Checkpoint。
+     * 之后主动释放各Shard的Lease（正在被偷的Lease直接转交给Stealer），其他Worker在下一次TakeLease时即可接手，不需要等待Lease过期。
+     * 超过timeoutMillis仍未完成时调用shutdown()，尚未释放的Lease需要等待过期。
+     *
+     * @param timeoutMillis
+     * @return 是否在超时前释放了全部Lease
+     * @throws InterruptedException
+     */
+    public boolean gracefulShutdown(long timeoutMillis) throws InterruptedException {
+        if (!running || shutdown) {
+            shutdown();
+            return true;
+        }
+        LOG.info("Start graceful shutdown, TimeoutMillis: {}.", timeoutMillis);
+        leaseCoordinator.stopTakingLeases();
+        gracefulShutdownRequested = true;
+        workerSignal.signal();
+        if (gracefulShutdownComplete.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        LOG.warn("Graceful shutdown timeout, shutdown worker directly.");
+        shutdown();
+        return false;
+    }
+
+    /**
+     * 将Worker移出轮转但不退出：停止获取新的Lease，并将持有的Lease逐个转交给负载最低的其他Worker。
+     * 转交与被偷的处理方式相同，各Shard处理完当前数据、调用用户的shutdown（ShutdownReason为STOLEN）后完成Transfer，
+     * 接收方从最后一次Checkpoint继续处理，不需要等待Lease过期。没有其他Worker时Lease仍由本Worker处理。
+     * 可以通过isDrained()查询是否已经排空。
+     */
+    public void drain() {
+        LOG.info("Start draining worker.");
+        leaseCoordinator.drain();
+        workerSignal.signal();
+    }
+
+    /**
+     * 是否已排空，即已调用drain()且所有Lease均已转交、所有ShardConsumer均已关闭。
+     */
+    public boolean isDrained() {
+        return leaseCoordinator.isDrained() && shardConsumerMap.isEmpty();
+    }
+
+    /**
+     * 正常退出过程中的一轮处理，不再创建新的ShardConsumer。
+     * 被偷以及已经丢失的Shard与平时一样处理，其余Shard在ShardConsumer Shutdown完毕后释放其Lease。
+     *
+     * @return 是否已经释放了全部Lease
+     */
+    boolean runGracefulShutdownLoop() throws StreamClientException, DependencyException {
+        refreshHeldShards(true);
+        cleanupShardConsumers();
+
+        for (ShardInfo shardInfo : heldShards) {
+            ShardConsumer consumer = shardConsumerMap.get(shardInfo);
+            if (consumer == null || consumer.beginWorkerShutdown()) {
+                shardConsumerMap.remove(shardInfo);
+                boolean released = leaseCoordinator.releaseLease(shardInfo.getShardId(), shardInfo.getLeaseIdentifier());
+                LOG.info("ReleaseLease, ShardInfo: {}, Released: {}.", shardInfo, released);
+            }
+        }
+        return shardConsumerMap.isEmpty() && leaseCoordinator.getCurrentlyHeldLeases().isEmpty();
     }
 
     public void shutdown() {
         this.running = false;
         this.shutdown = true;
+        if (idleShardPoller != null) {
+            idleShardPoller.shutdown();
+        }
+        workerSignal.signal();
+        stopRetryScheduler();
         leaseCoordinator.stop();
     }
 
+    /**
+     * 不再接受新的重试，等待已经安排的重试执行完毕，超时后丢弃剩余的重试并打印出来。
+     * 正常退出时各ShardConsumer已经Shutdown完毕，剩余的通常只有等待ParentShard的轮询。
+     */
+    private void stopRetryScheduler() {
+        retryScheduler.shutdown();
+        try {
+            if (retryScheduler.awaitTermination(RETRY_SCHEDULER_TERMINATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> pendingTasks = retryScheduler.shutdownNow();
+        if (!pendingTasks.isEmpty()) {
+            LOG.warn("DiscardPendingRetries, Count: {}, Tasks: {}.", pendingTasks.size(), pendingTasks);
+        }
+    }
+
     public WorkerStatus getWorkerStatus() {
         if (this.exception != null) {
             return WorkerStatus.ERROR;
@@ -198,23 +422,57 @@ public class InnerWorker implements Runnable {
         shardSyncer.syncShardAndLeaseInfo(true);
     }
 
-    private void getCurrentlyHeldShards(List<ShardInfo> heldShards, List<ShardInfo> stolenShards) {
+    /**
+     * 持有的Lease集合的版本号变化，或者其中最早的Lease已经过期时，重新读取持有以及被偷的Shard。
+     * 续租不改变版本号，因此每个续租周期最多因过期时间重新读取一次。
+     *
+     * @param force 是否不论版本号均重新读取
+     * @return 是否重新读取了
+     */
+    boolean refreshHeldShards(boolean force) {
+        long version = leaseCoordinator.getHeldLeasesVersion();
+        long now = System.currentTimeMillis();
+        if (!force && version == heldLeasesVersion && now <= heldLeasesExpireTimeMillis) {
+            return false;
+        }
+        heldLeasesVersion = version;
+        heldLeasesExpireTimeMillis = Long.MAX_VALUE;
         heldShards.clear();
         stolenShards.clear();
+        heldShardSet.clear();
+        stolenShardSet.clear();
         Collection<ShardLease> heldLeases = leaseCoordinator.getCurrentlyHeldLeases();
         for (ShardLease shardLease : heldLeases) {
+            heldLeasesExpireTimeMillis = Math.min(heldLeasesExpireTimeMillis,
+                    shardLease.getLastCounterIncrementMillis() + clientConfig.getLeaseDurationMillis());
+            ShardInfo shardInfo = shardLease.toShardInfo();
             if (shardLease.getLeaseStealer().isEmpty()) {
                 LOG.debug("Currently held shard: {}", shardLease);
-                heldShards.add(shardLease.toShardInfo());
+                heldShards.add(shardInfo);
+                heldShardSet.add(shardInfo);
             } else {
                 LOG.debug("Currently stolen shard: {}", shardLease);
-                stolenShards.add(shardLease.toShardInfo());
+                stolenShards.add(shardInfo);
+                stolenShardSet.add(shardInfo);
             }
         }
+        LOG.debug("RefreshHeldShards, Version: {}, Held: {}, Stolen: {}.", version, heldShards.size(), stolenShards.size());
+        return true;
+    }
+
+    private void rebuildActiveConsumers() {
+        ShardInfo[] shards = heldShards.toArray(new ShardInfo[heldShards.size()]);
+        ShardConsumer[] consumers = new ShardConsumer[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            consumers[i] = createOrGetShardConsumer(shards[i]);
+        }
+        activeShards = shards;
+        activeConsumers = consumers;
     }
 
     private ShardConsumer createOrGetShardConsumer(ShardInfo shardInfo) {
         ShardConsumer consumer = shardConsumerMap.get(shardInfo);
+        boolean firstConsumer = consumer == null;
         if ((consumer == null) ||
                 (consumer.isShutdown() && consumer.getShutdownReason() == ShutdownReason.PROCESS_RESTART)) {
             IRecordProcessor recordProcessor = recordProcessorFactory.createProcessor();
@@ -227,23 +485,24 @@ public class InnerWorker implements Runnable {
                         clientConfig.getParentShardPollIntervalMillis(),
                         executorService,
                         shardSyncer,
-                        taskRetryStrategy);
+                        taskRetryStrategy,
+                        clientConfig,
+                        idleShardPoller,
+                        workerSignal,
+                        retryScheduler,
+                        shardLineageWaiter);
+            ShardLease lease = leaseCoordinator.getCurrentlyHeldLease(shardInfo.getShardId());
+            if (firstConsumer && lease != null && lease.getStealRequestMillis() > 0) {
+                consumer.setStealRequestMillis(lease.getStealRequestMillis());
+            }
             shardConsumerMap.put(shardInfo, consumer);
             LOG.info("CreateNewConsumer, ShardInfo: {}.", shardInfo);
         }
         return consumer;
     }
 
-    private void cleanupShardConsumers(List<ShardInfo> heldShards, List<ShardInfo> stolenShards) throws StreamClientException, DependencyException {
-        Set<ShardInfo> heldShardSet = new HashSet<ShardInfo>();
-        Set<ShardInfo> stolenShardSet = new HashSet<ShardInfo>();
-        for (ShardInfo shardInfo : heldShards) {
-            heldShardSet.add(shardInfo);
-        }
-        for (ShardInfo shardInfo : stolenShards) {
-            stolenShardSet.add(shardInfo);
-        }
-
+    private void cleanupShardConsumers() throws StreamClientException, DependencyException {
+        Set<ShardInfo> transferredShards = new HashSet<ShardInfo>();
         for (ShardInfo shardInfo : shardConsumerMap.keySet()) {
             if (!heldShardSet.contains(shardInfo)) {
                 boolean stolen = stolenShardSet.contains(shardInfo);
@@ -255,9 +514,18 @@ public class InnerWorker implements Runnable {
                     if (stolen) {
                         LOG.info("Transfer lease: {}.", shardInfo);
                         leaseCoordinator.transferLease(shardInfo.getShardId(), shardInfo.getLeaseIdentifier());
+                        transferredShards.add(shardInfo);
                     }
                 }
             }
         }
+
+        // 还未创建ShardConsumer就被偷（如刚获取就开始排空）的Lease没有需要处理完的数据，直接转交
+        for (ShardInfo shardInfo : stolenShards) {
+            if (!shardConsumerMap.containsKey(shardInfo) && !transferredShards.contains(shardInfo)) {
+                LOG.info("Transfer lease without consumer: {}.", shardInfo);
+                leaseCoordinator.transferLease(shardInfo.getShardId(), shardInfo.getLeaseIdentifier());
+            }
+        }
     }
 }
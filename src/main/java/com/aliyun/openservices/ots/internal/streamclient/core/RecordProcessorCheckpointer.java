@@ -3,6 +3,7 @@ package com.aliyun.openservices.ots.internal.streamclient.core;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.ShutdownException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.model.CheckpointPosition;
 import com.aliyun.openservices.ots.internal.streamclient.model.IRecordProcessorCheckpointer;
 import com.aliyun.openservices.ots.internal.streamclient.model.ICheckpointTracker;
 import com.aliyun.openservices.ots.internal.streamclient.model.ShardInfo;
@@ -20,6 +21,8 @@ public class RecordProcessorCheckpointer implements IRecordProcessorCheckpointer
     private ICheckpointTracker checkpointTracker;
     private String largestPermittedCheckpointValue;
     private DataFetcher dataFetcher;
+    private volatile String lastCheckpointValue;
+    private volatile String processedCheckpointValue;
 
     public RecordProcessorCheckpointer(ShardInfo shardInfo,
                                 ICheckpointTracker checkpointTracker,
@@ -45,9 +48,44 @@ public class RecordProcessorCheckpointer implements IRecordProcessorCheckpointer
         this.largestPermittedCheckpointValue = largestPermittedCheckpointValue;
     }
 
+    /**
+     * 最近一次成功写入的Checkpoint，尚未写入过时为null。
+     */
+    public String getLastCheckpointValue() {
+        return lastCheckpointValue;
+    }
+
+    /**
+     * 最后一批processRecords成功返回的数据之后的位置，即该批数据对应的largestPermittedCheckpointValue，尚未处理完任何数据时为null。
+     */
+    public String getProcessedCheckpointValue() {
+        return processedCheckpointValue;
+    }
+
+    public void setProcessedCheckpointValue(String processedCheckpointValue) {
+        this.processedCheckpointValue = processedCheckpointValue;
+    }
+
+    /**
+     * 转交Lease前调用，若最后一批已处理完的数据之后的位置尚未写入，则写入该位置。
+     * SHARD_END只在TERMINATE时写入，这里不写。
+     *
+     * @return 是否写入了Checkpoint
+     */
+    public synchronized boolean checkpointProcessed() throws ShutdownException, StreamClientException, DependencyException {
+        String checkpointValue = processedCheckpointValue;
+        if (checkpointValue == null || CheckpointPosition.SHARD_END.equals(checkpointValue)
+                || checkpointValue.equals(lastCheckpointValue)) {
+            return false;
+        }
+        doCheckpoint(checkpointValue);
+        return true;
+    }
+
     private void doCheckpoint(String checkpointValue) throws ShutdownException, StreamClientException, DependencyException {
         LOG.debug("DoCheckpoint, ShardId: {}, Checkpoint: {}.", shardInfo.getShardId(), checkpointValue);
         checkpointTracker.setCheckpoint(shardInfo.getShardId(), checkpointValue, shardInfo.getLeaseIdentifier());
         dataFetcher.updateCheckpoint(checkpointValue);
+        lastCheckpointValue = checkpointValue;
     }
 }
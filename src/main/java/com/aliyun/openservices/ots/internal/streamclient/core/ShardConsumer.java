@@ -1,18 +1,32 @@
 package com.aliyun.openservices.ots.internal.streamclient.core;
 
+import com.aliyun.openservices.ots.internal.streamclient.ClientConfig;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
 import com.aliyun.openservices.ots.internal.streamclient.core.task.*;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseLoad;
 import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * 驱动单个Shard按WAITING_ON_PARENT_SHARDS -> INITIALIZING -> PROCESSING -> SHUTTING_DOWN -> SHUTDOWN_COMPLETE的顺序执行各个Task。
+ *
+ * 不使用锁：推进状态机之前需要通过CAS获得所有权(busy)，获得所有权的线程提交Task后所有权随之转交给该Task，
+ * Task完成时在回调中直接提交下一个Task或者释放所有权，因此同一时刻只有一个提交者，未获得所有权的线程立即返回而不是等待。
+ * 只有所有权的持有者会修改currentTask、completedTaskResult、空闲退避等状态，状态切换通过CAS完成，可以被任意线程无锁读取。
+ * ShutdownReason通过CAS设置，IShutdownMarker的回调以及Worker主线程不会互相阻塞。
+ */
 class ShardConsumer {
 
     private static final Logger LOG = LoggerFactory.getLogger(ShardConsumer.class);
@@ -30,15 +44,69 @@ class ShardConsumer {
     private ICheckpointTracker checkpointTracker;
     private final RecordProcessorCheckpointer recordProcessorCheckpointer;
     private final DataFetcher dataFetcher;
+    private final BatchSizeController batchSizeController;
     private final ShardSyncer shardSyncer;
     private final IRetryStrategy taskRetryStrategy;
+    private final IdleShardPoller idleShardPoller;
+    private final long idleInitialBackoffMillis;
+    private final long idleMaxBackoffMillis;
+    private final long processTimeSliceMillis;
+    private final boolean checkpointOnLeaseHandoff;
+    private final WorkerSignal workerSignal;
+    private final ScheduledExecutorService retryScheduler;
+    private final ShardLineageWaiter shardLineageWaiter;
+    private final ShardLoadMeter loadMeter = new ShardLoadMeter(System.currentTimeMillis());
 
     private ITask currentTask;
+    /**
+     * PROCESSING状态下每批数据重复执行的Task及其TaskRunner，第一次进入PROCESSING状态时创建。
+     * 同一时刻最多只有一个Task在执行，因此可以复用。
+     */
+    private ITask processTask;
+    private TaskRunner processTaskRunner;
     private long currentTaskSubmitTime;
-    private Future<TaskResult> future;
-    private ShardConsumerState currentState = ShardConsumerState.WAITING_ON_PARENT_SHARDS;
-    private boolean beginShutdown;
-    private ShutdownReason shutdownReason;
+    /**
+     * 为true时表示有线程正在推进状态机，或者已提交的Task尚未完成，此时其他线程不能提交Task。
+     */
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    /**
+     * 已完成但尚未被处理的Task结果。
+     */
+    private TaskResult completedTaskResult;
+    /**
+     * 在Task完成回调中提交下一个Task时遇到的异常，在Worker主线程中取出并抛出一次。
+     */
+    private final AtomicReference<Exception> asyncException = new AtomicReference<Exception>();
+    private final AtomicReference<ShardConsumerState> currentState =
+            new AtomicReference<ShardConsumerState>(ShardConsumerState.WAITING_ON_PARENT_SHARDS);
+    /**
+     * 为null表示尚未开始Shutdown。
+     */
+    private final AtomicReference<ShutdownReason> shutdownReason = new AtomicReference<ShutdownReason>();
+    /**
+     * 当前的空闲退避时间，为0表示Shard不处于空闲状态。空闲探测期间由IdleShardPoller线程更新。
+     */
+    private volatile long idleBackoffMillis;
+    private long idleUntilMillis;
+    private boolean isIdlePolling;
+    /**
+     * 当前空闲探测的序号，只由所有权的持有者修改，序号变化后之前的探测不再生效。
+     */
+    private volatile long idlePollSeq;
+    /**
+     * IdleShardPoller探测到新数据(或出错)时设置为对应探测的序号，由所有权的持有者据此退出空闲状态。
+     */
+    private volatile long idleWakeSeq;
+    /**
+     * 是否已在ShardLineageWaiter中等待ParentShard完成。
+     */
+    private boolean isWaitingOnParentShards;
+    private volatile boolean parentShardsCompleted;
+    /**
+     * 通过偷取获得该Shard时发起偷取的时间，第一批数据处理完成后统计转交延迟并清零。
+     */
+    private volatile long stealRequestMillis;
+    private volatile long handoffLatencyMillis = -1;
     private IShutdownMarker shutdownMarker = new IShutdownMarker() {
 
         public void markForProcessDone() {
@@ -59,6 +127,31 @@ class ShardConsumer {
                          ExecutorService executorService,
                          ShardSyncer shardSyncer,
                          IRetryStrategy taskRetryStrategy) {
+        this(shardInfo, streamConfig, checkpointTracker, recordProcessor, leaseManager, parentShardPollIntervalMillis,
+                executorService, shardSyncer, taskRetryStrategy, legacyClientConfig(), null, null, null, null);
+    }
+
+    /**
+     * @param clientConfig    提供空闲退避、处理时间片等配置
+     * @param idleShardPoller 为null时，空闲的Shard在退避时间到达后仍通过ProcessTask拉取数据
+     * @param workerSignal    Task完成后用于唤醒Worker主线程，可以为null
+     * @param retryScheduler  不为null时，Task失败后由retryScheduler在退避时间后重新提交，等待期间不占用线程池的线程
+     * @param shardLineageWaiter 不为null时，通过ShardLineageWaiter等待ParentShard完成，否则通过BlockOnParentShardTask轮询
+     */
+    public ShardConsumer(ShardInfo shardInfo,
+                         StreamConfig streamConfig,
+                         ICheckpointTracker checkpointTracker,
+                         IRecordProcessor recordProcessor,
+                         ILeaseManager<ShardLease> leaseManager,
+                         long parentShardPollIntervalMillis,
+                         ExecutorService executorService,
+                         ShardSyncer shardSyncer,
+                         IRetryStrategy taskRetryStrategy,
+                         ClientConfig clientConfig,
+                         IdleShardPoller idleShardPoller,
+                         WorkerSignal workerSignal,
+                         ScheduledExecutorService retryScheduler,
+                         ShardLineageWaiter shardLineageWaiter) {
         this.shardInfo = shardInfo;
         this.streamConfig = streamConfig;
         this.checkpointTracker = checkpointTracker;
@@ -68,28 +161,95 @@ class ShardConsumer {
         this.executorService = executorService;
         this.shardSyncer = shardSyncer;
         this.taskRetryStrategy = taskRetryStrategy;
-        this.dataFetcher = new DataFetcher(streamConfig.getOTSClient(), shardInfo);
+        this.idleShardPoller = idleShardPoller;
+        this.idleMaxBackoffMillis = clientConfig.getIdleShardMaxBackoffMillis();
+        this.idleInitialBackoffMillis = Math.max(1,
+                Math.min(clientConfig.getIdleShardInitialBackoffMillis(), idleMaxBackoffMillis));
+        this.processTimeSliceMillis = clientConfig.getProcessTimeSliceMillis();
+        this.checkpointOnLeaseHandoff = clientConfig.isCheckpointOnLeaseHandoff();
+        this.workerSignal = workerSignal;
+        this.retryScheduler = retryScheduler;
+        this.shardLineageWaiter = shardLineageWaiter;
+        if (streamConfig.isEnableAdaptiveBatchSize()) {
+            this.batchSizeController = new BatchSizeController(shardInfo.getShardId(), streamConfig);
+            this.dataFetcher = new DataFetcher(streamConfig.getOTSClient(), shardInfo,
+                    executorService, batchSizeController.getPrefetchDepth());
+        } else {
+            this.batchSizeController = null;
+            this.dataFetcher = new DataFetcher(streamConfig.getOTSClient(), shardInfo,
+                    executorService, streamConfig.getMaxPrefetchBatches());
+        }
         this.recordProcessorCheckpointer =
                 new RecordProcessorCheckpointer(shardInfo, checkpointTracker, dataFetcher);
     }
 
-    public synchronized boolean consumeShard() throws StreamClientException, DependencyException {
+    /**
+     * 不进行空闲退避、每个ProcessTask只处理一批数据、转交Lease前不自动写Checkpoint，与之前的行为一致。
+     */
+    private static ClientConfig legacyClientConfig() {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setIdleShardMaxBackoffMillis(0);
+        clientConfig.setProcessTimeSliceMillis(0);
+        clientConfig.setCheckpointOnLeaseHandoff(false);
+        return clientConfig;
+    }
+
+    public boolean consumeShard() throws StreamClientException, DependencyException {
         return checkAndSubmitNextTask();
     }
 
-    synchronized boolean checkAndSubmitNextTask() throws StreamClientException, DependencyException {
-        if (future != null && !future.isCancelled() && !future.isDone()) {
+    /**
+     * 获得所有权后推进状态机，若其他线程正在推进或者Task尚未完成，立即返回false。
+     *
+     * @return 是否提交了新的Task
+     */
+    boolean checkAndSubmitNextTask() throws StreamClientException, DependencyException {
+        Exception e = asyncException.getAndSet(null);
+        if (e != null) {
+            if (e instanceof DependencyException) {
+                throw (DependencyException) e;
+            } else if (e instanceof StreamClientException) {
+                throw (StreamClientException) e;
+            }
+            throw new StreamClientException(e.getMessage(), e);
+        }
+        if (!busy.compareAndSet(false, true)) {
+            return false;
+        }
+        boolean submitted = false;
+        try {
+            submitted = advance();
+        } finally {
+            if (!submitted) {
+                busy.set(false);
+            }
+        }
+        return submitted;
+    }
+
+    /**
+     * 只能由所有权的持有者调用。提交了新的Task时所有权转交给该Task，由Task完成时的回调释放。
+     *
+     * @return 是否提交了新的Task
+     */
+    private boolean advance() throws StreamClientException, DependencyException {
+        if (isIdle()) {
             return false;
         }
 
         boolean isPhaseCompleted = false;
-        if (future != null && future.isDone()) {
+        boolean isIdleResult = false;
+        boolean hasTaskResult = completedTaskResult != null;
+        if (hasTaskResult) {
             try {
-                TaskResult result = future.get();
+                TaskResult result = completedTaskResult;
                 if (result.getException() == null) {
                     isPhaseCompleted = result.isPhaseCompleted();
-                    LOG.debug("PreviousTaskDone, ShardId: {}, Task: {}, IsPhaseCompleted: {}.",
-                            shardInfo.getShardId(), currentTask.getTaskType(), isPhaseCompleted);
+                    isIdleResult = result.isIdle();
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("PreviousTaskDone, ShardId: {}, Task: {}, IsPhaseCompleted: {}.",
+                                shardInfo.getShardId(), currentTask.getTaskType(), isPhaseCompleted);
+                    }
                 } else {
                     LOG.error("ShardId: {}, Task: {}, Exception: {}.",
                             shardInfo.getShardId(), currentTask.getTaskType(), result.getException());
@@ -104,17 +264,77 @@ class ShardConsumer {
             }
         }
 
-        boolean submittedNewTask = false;
         updateState(isPhaseCompleted);
+        ShardConsumerState state = currentState.get();
+        if (state == ShardConsumerState.SHUTTING_DOWN || state == ShardConsumerState.SHUTDOWN_COMPLETE) {
+            dataFetcher.stopPrefetch();
+            if (isWaitingOnParentShards) {
+                shardLineageWaiter.cancel(shardInfo.getShardId());
+                isWaitingOnParentShards = false;
+            }
+        }
+        if (state == ShardConsumerState.WAITING_ON_PARENT_SHARDS && !checkParentShardsCompleted()) {
+            return false;
+        }
+        if (hasTaskResult) {
+            completedTaskResult = null;
+            if (currentState.get() == ShardConsumerState.PROCESSING) {
+                if (isIdleResult && !isShutdownRequested() && idleMaxBackoffMillis > 0) {
+                    enterIdle();
+                    return false;
+                }
+                idleBackoffMillis = 0;
+            }
+        }
         ITask nextTask = getNextTask();
-        if (nextTask != null) {
-            currentTask = nextTask;
-            future = executorService.submit(currentTask);
-            currentTaskSubmitTime = System.currentTimeMillis();
-            submittedNewTask = true;
-            LOG.debug("SubmitNewTask, ShardId: {}, Task: {}.", shardInfo.getShardId(), currentTask.getTaskType());
+        if (nextTask == null) {
+            return false;
         }
-        return submittedNewTask;
+        currentTask = nextTask;
+        currentTaskSubmitTime = System.currentTimeMillis();
+        LOG.debug("SubmitNewTask, ShardId: {}, Task: {}.", shardInfo.getShardId(), nextTask.getTaskType());
+        // 提交之后所有权属于该Task，不能再访问currentTask等状态
+        executorService.execute(nextTask == processTask ? processTaskRunner : new TaskRunner(nextTask));
+        return true;
+    }
+
+    /**
+     * 只由所有权的持有者调用，CAS失败说明有多个线程同时推进状态机。
+     */
+    private void transitionTo(ShardConsumerState from, ShardConsumerState to) {
+        if (!currentState.compareAndSet(from, to)) {
+            throw new IllegalStateException("Concurrent state transition, ShardId: " + shardInfo.getShardId()
+                    + ", Expected: " + from + ", Actual: " + currentState.get() + ".");
+        }
+    }
+
+    /**
+     * 通过ShardLineageWaiter等待ParentShard完成，等待期间不提交任何Task，完成后直接进入INITIALIZING状态。
+     *
+     * @return 是否可以继续提交下一个Task
+     */
+    private boolean checkParentShardsCompleted() {
+        if (shardLineageWaiter == null || isShutdownRequested()) {
+            return true;
+        }
+        if (parentShardsCompleted) {
+            isWaitingOnParentShards = false;
+            transitionTo(ShardConsumerState.WAITING_ON_PARENT_SHARDS, ShardConsumerState.INITIALIZING);
+            return true;
+        }
+        if (!isWaitingOnParentShards) {
+            isWaitingOnParentShards = true;
+            shardLineageWaiter.await(shardInfo, new Runnable() {
+                public void run() {
+                    parentShardsCompleted = true;
+                    signalWorker();
+                }
+            });
+            if (parentShardsCompleted) {
+                return checkParentShardsCompleted();
+            }
+        }
+        return false;
     }
 
     /**
@@ -125,7 +345,7 @@ class ShardConsumer {
     ITask getNextTask() {
         ITask task = null;
         ITask taskDecorated = null;
-        switch (currentState) {
+        switch (currentState.get()) {
             case WAITING_ON_PARENT_SHARDS:
                 task =
                         new BlockOnParentShardTask(shardInfo,
@@ -136,7 +356,8 @@ class ShardConsumer {
                         new RetryingTaskDecorator(
                                 IRetryStrategy.RetryableAction.TASK_BLOCK_ON_PARENT_SHARD,
                                 taskRetryStrategy,
-                                task);
+                                task,
+                                retryScheduler != null);
                 break;
             case INITIALIZING:
                 task =
@@ -150,34 +371,43 @@ class ShardConsumer {
                         new RetryingTaskDecorator(
                                 IRetryStrategy.RetryableAction.TASK_INITIALIZE,
                                 taskRetryStrategy,
-                                task);
+                                task,
+                                retryScheduler != null);
                 break;
             case PROCESSING:
-                task =
-                        new ProcessTask(shardInfo,
-                                recordProcessor,
-                                recordProcessorCheckpointer,
-                                dataFetcher,
-                                streamConfig,
-                                shutdownMarker);
-                taskDecorated =
-                        new RetryingTaskDecorator(
-                                IRetryStrategy.RetryableAction.TASK_PROCESS,
-                                taskRetryStrategy,
-                                task);
+                if (processTask == null) {
+                    task =
+                            new ProcessTask(shardInfo,
+                                    recordProcessor,
+                                    recordProcessorCheckpointer,
+                                    dataFetcher,
+                                    streamConfig,
+                                    shutdownMarker,
+                                    batchSizeController);
+                    processTask =
+                            new RetryingTaskDecorator(
+                                    IRetryStrategy.RetryableAction.TASK_PROCESS,
+                                    taskRetryStrategy,
+                                    task,
+                                    retryScheduler != null);
+                    processTaskRunner = new TaskRunner(processTask);
+                }
+                taskDecorated = processTask;
                 break;
             case SHUTTING_DOWN:
                 task =
                         new ShutdownTask(shardInfo,
                                 recordProcessor,
                                 recordProcessorCheckpointer,
-                                shutdownReason,
-                                shardSyncer);
+                                shutdownReason.get(),
+                                shardSyncer,
+                                checkpointOnLeaseHandoff);
                 taskDecorated =
                         new RetryingTaskDecorator(
                                 IRetryStrategy.RetryableAction.TASK_SHUTDOWN,
                                 taskRetryStrategy,
-                                task);
+                                task,
+                                retryScheduler != null);
                 break;
             case SHUTDOWN_COMPLETE:
                 break;
@@ -188,7 +418,215 @@ class ShardConsumer {
         return taskDecorated;
     }
 
-    synchronized boolean beginShutdown(ShutdownReason reason) throws StreamClientException, DependencyException {
+    /**
+     * 在线程池中执行Task。对于ProcessTask，若仍有数据可处理，会在processTimeSliceMillis内连续处理多批数据后再让出线程。
+     */
+    private class TaskRunner implements Runnable {
+
+        private final ITask task;
+
+        TaskRunner(ITask task) {
+            this.task = task;
+        }
+
+        public void run() {
+            long sliceStartTime = System.currentTimeMillis();
+            TaskResult result;
+            while (true) {
+                try {
+                    result = task.call();
+                } catch (Throwable t) {
+                    result = new TaskResult(t instanceof Exception ? (Exception) t : new RuntimeException(t));
+                }
+                loadMeter.record(result.getProcessedRecordCount(), result.getProcessedBytes(), result.getProcessMillis());
+                if (!canContinueProcessing(task, result)
+                        || System.currentTimeMillis() - sliceStartTime >= processTimeSliceMillis) {
+                    break;
+                }
+            }
+            if (result.getRetryDelayMillis() > 0 && scheduleRetry(this, result.getRetryDelayMillis())) {
+                return;
+            }
+            onTaskCompleted(task, result);
+        }
+    }
+
+    /**
+     * 在退避时间之后重新提交同一个Task，等待期间Task仍视为未完成。
+     *
+     * @return 若retryScheduler已经停止，返回false
+     */
+    private boolean scheduleRetry(final TaskRunner runner, long delayMillis) {
+        if (retryScheduler == null) {
+            return false;
+        }
+        LOG.debug("ScheduleRetry, ShardId: {}, Task: {}, DelayMillis: {}.",
+                shardInfo.getShardId(), runner.task.getTaskType(), delayMillis);
+        try {
+            retryScheduler.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        executorService.execute(runner);
+                    } catch (RejectedExecutionException e) {
+                        onTaskCompleted(runner.task, new TaskResult(e));
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private boolean canContinueProcessing(ITask task, TaskResult result) {
+        return TaskType.PROCESS.equals(task.getTaskType())
+                && result.getException() == null
+                && !result.isPhaseCompleted()
+                && !result.isIdle()
+                && !isShutdownRequested();
+    }
+
+    /**
+     * Task完成后的回调，在线程池中执行，此时所有权仍属于该Task。
+     * 若Shard仍有数据可处理，直接提交下一个ProcessTask，不需要等待Worker主线程；
+     * 否则(状态切换、空闲、异常等)释放所有权并唤醒Worker主线程进行处理。
+     */
+    private void onTaskCompleted(ITask task, TaskResult result) {
+        if (stealRequestMillis > 0 && TaskType.PROCESS.equals(task.getTaskType()) && result.getException() == null) {
+            handoffLatencyMillis = System.currentTimeMillis() - stealRequestMillis;
+            stealRequestMillis = 0;
+            LOG.info("HandoffLatency, ShardId: {}, LatencyMillis: {}.", shardInfo.getShardId(), handoffLatencyMillis);
+        }
+        if (isShardEnd(task, result)) {
+            shardLineageWaiter.markShardEnd(shardInfo.getShardId());
+        }
+        if (TaskType.PROCESS.equals(task.getTaskType()) && result.isPhaseCompleted()) {
+            // Shard已经读完，可能已经产生了新的子Shard
+            shardSyncer.requestSync();
+        }
+        boolean submitted = false;
+        completedTaskResult = result;
+        if (canContinueProcessing(task, result)) {
+            try {
+                submitted = advance();
+            } catch (Exception e) {
+                LOG.warn("ShardId: {}, SubmitNextTaskFailed, Exception: {}.", shardInfo.getShardId(), e);
+                asyncException.set(e);
+            }
+        }
+        if (!submitted) {
+            busy.set(false);
+            signalWorker();
+        }
+    }
+
+    /**
+     * ShutdownTask完成且Checkpoint已写为SHARD_END，此时子Shard可以开始处理。
+     */
+    private boolean isShardEnd(ITask task, TaskResult result) {
+        return shardLineageWaiter != null
+                && TaskType.SHUTDOWN.equals(task.getTaskType())
+                && result.getException() == null
+                && result.isPhaseCompleted()
+                && CheckpointPosition.SHARD_END.equals(recordProcessorCheckpointer.getLastCheckpointValue());
+    }
+
+    private void signalWorker() {
+        if (workerSignal != null) {
+            workerSignal.signal();
+        }
+    }
+
+    /**
+     * Shard是否处于空闲退避中。开始Shutdown或者IdleShardPoller探测到新数据后立即退出空闲状态。
+     */
+    private boolean isIdle() {
+        if (isShutdownRequested()) {
+            if (isIdlePolling) {
+                // 使正在进行的空闲探测失效
+                idlePollSeq++;
+                isIdlePolling = false;
+            }
+            idleUntilMillis = 0;
+            return false;
+        }
+        if (isIdlePolling) {
+            if (idleWakeSeq != idlePollSeq) {
+                return true;
+            }
+            isIdlePolling = false;
+            idleBackoffMillis = 0;
+            return false;
+        }
+        return System.currentTimeMillis() < idleUntilMillis;
+    }
+
+    private void enterIdle() {
+        if (idleBackoffMillis == 0) {
+            idleBackoffMillis = idleInitialBackoffMillis;
+        } else {
+            idleBackoffMillis = Math.min(idleBackoffMillis * 2, idleMaxBackoffMillis);
+        }
+        LOG.debug("ShardIdle, ShardId: {}, BackoffMillis: {}.", shardInfo.getShardId(), idleBackoffMillis);
+        scheduleIdlePoll();
+    }
+
+    private void scheduleIdlePoll() {
+        if (idleShardPoller != null) {
+            long seq = idlePollSeq + 1;
+            idlePollSeq = seq;
+            isIdlePolling = scheduleIdlePoll(seq, idleBackoffMillis);
+            if (isIdlePolling) {
+                return;
+            }
+        }
+        idleUntilMillis = System.currentTimeMillis() + idleBackoffMillis;
+    }
+
+    private boolean scheduleIdlePoll(final long seq, long backoffMillis) {
+        return idleShardPoller.schedule(new Runnable() {
+            public void run() {
+                pollIdleShard(seq);
+            }
+        }, backoffMillis);
+    }
+
+    /**
+     * 在IdleShardPoller线程中执行，探测到新数据(或出错)后唤醒Worker主线程退出空闲状态，由ProcessTask继续处理。
+     * 空闲探测期间没有Task在执行，IdleShardPoller线程只通过idleWakeSeq与所有权的持有者交互。
+     */
+    void pollIdleShard(long seq) {
+        if (seq != idlePollSeq || isShutdownRequested()) {
+            return;
+        }
+        int maxRecords = batchSizeController != null ?
+                batchSizeController.getRecordLimit() : streamConfig.getMaxRecords();
+
+        boolean hasData;
+        try {
+            hasData = dataFetcher.pollForRecords(maxRecords);
+        } catch (Exception e) {
+            LOG.debug("PollIdleShardFailed, ShardId: {}, Exception: {}.", shardInfo.getShardId(), e);
+            hasData = true;
+        }
+
+        if (seq != idlePollSeq) {
+            return;
+        }
+        if (!hasData) {
+            idleBackoffMillis = Math.min(idleBackoffMillis * 2, idleMaxBackoffMillis);
+            if (scheduleIdlePoll(seq, idleBackoffMillis)) {
+                return;
+            }
+            // IdleShardPoller已经停止，交给ProcessTask继续处理
+        } else {
+            LOG.debug("ShardActive, ShardId: {}.", shardInfo.getShardId());
+        }
+        idleWakeSeq = seq;
+        signalWorker();
+    }
+
+    boolean beginShutdown(ShutdownReason reason) throws StreamClientException, DependencyException {
         if (!isShutdown()) {
             markForShutdown(reason);
             checkAndSubmitNextTask();
@@ -196,69 +634,146 @@ class ShardConsumer {
         return isShutdown();
     }
 
-    synchronized void markForShutdown(ShutdownReason reason) {
-        beginShutdown = true;
-        shutdownReason = reason;
+    /**
+     * Worker正常退出时调用，若已经因为其他原因开始Shutdown，则保留原来的ShutdownReason。
+     *
+     * @return 是否已经Shutdown完毕
+     */
+    boolean beginWorkerShutdown() throws StreamClientException, DependencyException {
+        shutdownReason.compareAndSet(null, ShutdownReason.WORKER_SHUTDOWN);
+        if (!isShutdown()) {
+            checkAndSubmitNextTask();
+        }
+        return isShutdown();
+    }
+
+    /**
+     * 可以在任意线程中调用，不会阻塞。
+     * 已经有ShutdownReason时，只有优先级更高的ShutdownReason才会替换它，见{@link #getShutdownPriority}。
+     */
+    void markForShutdown(ShutdownReason reason) {
+        while (true) {
+            ShutdownReason current = shutdownReason.get();
+            if (current != null && getShutdownPriority(current) >= getShutdownPriority(reason)) {
+                return;
+            }
+            if (shutdownReason.compareAndSet(current, reason)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * ShutdownReason的优先级，数值越大越优先：
+     * Lease已经丢失时不能再写StatusTable，ZOMBIE最优先；Shard读完时需要为子Shard创建Lease，TERMINATE次之；
+     * 之后依次为STOLEN、用户触发的PROCESS_RESTART与PROCESS_DONE，WORKER_SHUTDOWN最低。
+     */
+    static int getShutdownPriority(ShutdownReason reason) {
+        switch (reason) {
+            case ZOMBIE:
+                return 5;
+            case TERMINATE:
+                return 4;
+            case STOLEN:
+                return 3;
+            case PROCESS_RESTART:
+                return 2;
+            case PROCESS_DONE:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private boolean isShutdownRequested() {
+        return shutdownReason.get() != null;
     }
 
     public boolean isShutdown() {
-        return currentState == ShardConsumerState.SHUTDOWN_COMPLETE;
+        return currentState.get() == ShardConsumerState.SHUTDOWN_COMPLETE;
     }
 
     public ShutdownReason getShutdownReason() {
-        return shutdownReason;
+        return shutdownReason.get();
+    }
+
+    /**
+     * 该Shard是通过偷取获得的，设置发起偷取的时间，第一批数据处理完成时统计从发起偷取到开始处理的转交延迟。
+     */
+    void setStealRequestMillis(long stealRequestMillis) {
+        this.stealRequestMillis = stealRequestMillis;
+    }
+
+    /**
+     * @return 转交延迟，不是通过偷取获得或者尚未处理完第一批数据时返回-1
+     */
+    public long getHandoffLatencyMillis() {
+        return handoffLatencyMillis;
+    }
+
+    /**
+     * 获取该Shard上一次采样至今的负载。
+     */
+    public LeaseLoad sampleLoad(long nowMillis) {
+        return loadMeter.sample(nowMillis);
     }
 
     void updateState(boolean isPhaseCompleted) {
-        switch (currentState) {
+        ShardConsumerState state = currentState.get();
+        boolean beginShutdown = isShutdownRequested();
+        switch (state) {
             case WAITING_ON_PARENT_SHARDS:
                 if (isPhaseCompleted && TaskType.BLOCK_ON_PARENT_SHARDS.equals(currentTask.getTaskType())) {
                     if (beginShutdown) {
-                        currentState = ShardConsumerState.SHUTDOWN_COMPLETE;
+                        transitionTo(state, ShardConsumerState.SHUTDOWN_COMPLETE);
                     } else {
-                        currentState = ShardConsumerState.INITIALIZING;
+                        transitionTo(state, ShardConsumerState.INITIALIZING);
                     }
                 } else if ((currentTask == null) && beginShutdown) {
-                    currentState = ShardConsumerState.SHUTDOWN_COMPLETE;
+                    transitionTo(state, ShardConsumerState.SHUTDOWN_COMPLETE);
                 }
                 break;
             case INITIALIZING:
                 if (isPhaseCompleted && TaskType.INITIALIZE.equals(currentTask.getTaskType())) {
                     if (beginShutdown) {
-                        currentState = ShardConsumerState.SHUTTING_DOWN;
+                        transitionTo(state, ShardConsumerState.SHUTTING_DOWN);
                     } else {
-                        currentState = ShardConsumerState.PROCESSING;
+                        transitionTo(state, ShardConsumerState.PROCESSING);
                     }
                 } else if ((currentTask == null) && beginShutdown) {
-                    currentState = ShardConsumerState.SHUTDOWN_COMPLETE;
+                    transitionTo(state, ShardConsumerState.SHUTDOWN_COMPLETE);
                 }
                 break;
             case PROCESSING:
                 if (TaskType.PROCESS.equals(currentTask.getTaskType())) {
-                    if (beginShutdown) {
-                        currentState = ShardConsumerState.SHUTTING_DOWN;
+                    if (isPhaseCompleted && shutdownReason.get() == ShutdownReason.WORKER_SHUTDOWN) {
+                        // Worker退出时Shard恰好读完，仍按TERMINATE处理，以便为子Shard创建Lease
+                        markForShutdown(ShutdownReason.TERMINATE);
+                        transitionTo(state, ShardConsumerState.SHUTTING_DOWN);
+                    } else if (beginShutdown) {
+                        transitionTo(state, ShardConsumerState.SHUTTING_DOWN);
                     } else if (isPhaseCompleted) {
                         markForShutdown(ShutdownReason.TERMINATE);
-                        currentState = ShardConsumerState.SHUTTING_DOWN;
+                        transitionTo(state, ShardConsumerState.SHUTTING_DOWN);
                     }
                 }
                 break;
             case SHUTTING_DOWN:
                 if (currentTask == null
                         || (isPhaseCompleted && TaskType.SHUTDOWN.equals(currentTask.getTaskType()))) {
-                    currentState = ShardConsumerState.SHUTDOWN_COMPLETE;
+                    transitionTo(state, ShardConsumerState.SHUTDOWN_COMPLETE);
                 }
                 break;
             case SHUTDOWN_COMPLETE:
                 break;
             default:
-                LOG.error("Unexpected state: " + currentState);
+                LOG.error("Unexpected state: " + state);
                 break;
         }
     }
 
     ShardConsumerState getCurrentState() {
-        return currentState;
+        return currentState.get();
     }
 
 }
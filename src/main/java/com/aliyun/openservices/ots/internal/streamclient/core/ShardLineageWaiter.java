@@ -0,0 +1,187 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseSnapshot;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseSnapshotService;
+import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
+import com.aliyun.openservices.ots.internal.streamclient.model.CheckpointPosition;
+import com.aliyun.openservices.ots.internal.streamclient.model.ShardInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 等待ParentShard处理完成，一个Worker内所有等待ParentShard的Shard共用。
+ * 1. 本地消费的Shard在ShutdownTask中读到SHARD_END后调用markShardEnd，等待它的子Shard立即完成等待。
+ * 2. 其余的ParentShard每个轮询周期只读取一次Lease快照，统一检查所有等待中的Shard。
+ * 等待期间不占用任何线程，只在定时器到期后向线程池提交一次检查。
+ */
+class ShardLineageWaiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardLineageWaiter.class);
+
+    /**
+     * 本地记录的已处理完的Shard数量上限，超出后淘汰最早的记录，被淘汰的Shard退化为通过Lease快照检查。
+     */
+    private static final int MAX_COMPLETED_SHARDS = 1024;
+
+    private final LeaseSnapshotService<ShardLease> leaseSnapshotService;
+    private final ExecutorService executorService;
+    private final ScheduledExecutorService scheduler;
+    private final long pollIntervalMillis;
+
+    private final Map<String, Waiting> waitings = new HashMap<String, Waiting>();
+    private final Set<String> completedShards = Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_COMPLETED_SHARDS;
+                }
+            });
+    private boolean isPollScheduled;
+
+    private static class Waiting {
+        private final Set<String> parentShardIds;
+        private final Runnable onComplete;
+
+        Waiting(Set<String> parentShardIds, Runnable onComplete) {
+            this.parentShardIds = parentShardIds;
+            this.onComplete = onComplete;
+        }
+    }
+
+    ShardLineageWaiter(LeaseSnapshotService<ShardLease> leaseSnapshotService,
+                       ExecutorService executorService,
+                       ScheduledExecutorService scheduler,
+                       long pollIntervalMillis) {
+        this.leaseSnapshotService = leaseSnapshotService;
+        this.executorService = executorService;
+        this.scheduler = scheduler;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * 等待shardInfo的全部ParentShard处理完成，完成后在调用方之外的线程(或当前线程)中执行onComplete。
+     * 同一个Shard重复调用时，以最后一次为准。
+     */
+    void await(ShardInfo shardInfo, Runnable onComplete) {
+        synchronized (this) {
+            Set<String> pending = new HashSet<String>(shardInfo.getParentShardIds());
+            pending.removeAll(completedShards);
+            if (!pending.isEmpty()) {
+                waitings.put(shardInfo.getShardId(), new Waiting(pending, onComplete));
+                LOG.debug("AwaitParentShards, ShardId: {}, PendingParentIds: {}.", shardInfo.getShardId(), pending);
+                schedulePoll(0);
+                return;
+            }
+        }
+        onComplete.run();
+    }
+
+    synchronized void cancel(String shardId) {
+        waitings.remove(shardId);
+    }
+
+    /**
+     * 本地消费的Shard已处理完(Checkpoint为SHARD_END)。
+     */
+    void markShardEnd(String shardId) {
+        LOG.debug("ShardEnd, ShardId: {}.", shardId);
+        complete(Collections.singleton(shardId));
+    }
+
+    synchronized int getWaitingCount() {
+        return waitings.size();
+    }
+
+    private void complete(Collection<String> shardIds) {
+        List<Runnable> callbacks = new ArrayList<Runnable>();
+        synchronized (this) {
+            completedShards.addAll(shardIds);
+            Iterator<Map.Entry<String, Waiting>> iter = waitings.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Waiting> entry = iter.next();
+                Waiting waiting = entry.getValue();
+                waiting.parentShardIds.removeAll(shardIds);
+                if (waiting.parentShardIds.isEmpty()) {
+                    LOG.info("Parent shard complete, ShardId: {}.", entry.getKey());
+                    callbacks.add(waiting.onComplete);
+                    iter.remove();
+                }
+            }
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    private void schedulePoll(long delayMillis) {
+        if (isPollScheduled) {
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        executorService.execute(new Runnable() {
+                            public void run() {
+                                poll();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        LOG.debug("Executor is stopped, stop polling parent shards.");
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            isPollScheduled = true;
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Scheduler is stopped, stop polling parent shards.");
+        }
+    }
+
+    /**
+     * 用一份不超过一个轮询周期的Lease快照检查所有等待中的ParentShard，
+     * ParentShard读完了的条件与BlockOnParentShardTask相同：对应Lease不存在，或者Checkpoint为SHARD_END。
+     */
+    void poll() {
+        Set<String> parentShardIds = new HashSet<String>();
+        synchronized (this) {
+            isPollScheduled = false;
+            for (Waiting waiting : waitings.values()) {
+                parentShardIds.addAll(waiting.parentShardIds);
+            }
+        }
+        if (parentShardIds.isEmpty()) {
+            return;
+        }
+
+        try {
+            LeaseSnapshot<ShardLease> snapshot = leaseSnapshotService.getSnapshot(pollIntervalMillis);
+            List<String> completed = new ArrayList<String>();
+            for (String parentShardId : parentShardIds) {
+                ShardLease lease = snapshot.getLease(parentShardId);
+                if (lease == null) {
+                    LOG.info("No lease found for parent shard: {}.", parentShardId);
+                    completed.add(parentShardId);
+                } else if (CheckpointPosition.SHARD_END.equals(lease.getCheckpoint())) {
+                    completed.add(parentShardId);
+                }
+            }
+            if (!completed.isEmpty()) {
+                complete(completed);
+            }
+        } catch (Exception e) {
+            LOG.warn("PollParentShardsFailed, Exception: {}.", e);
+        }
+
+        synchronized (this) {
+            if (!waitings.isEmpty()) {
+                schedulePoll(pollIntervalMillis);
+            }
+        }
+    }
+}
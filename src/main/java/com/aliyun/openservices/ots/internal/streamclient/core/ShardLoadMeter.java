@@ -0,0 +1,69 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseLoad;
+
+/**
+ * 每个Shard一个ShardLoadMeter，累计ProcessTask处理的数据条数、数据大小以及processRecords的耗时，
+ * 每次采样时换算为每秒的速率，并与上一次的结果做指数平滑，避免单个周期的波动导致Lease频繁迁移。
+ */
+public class ShardLoadMeter {
+
+    /**
+     * 新采样值所占的权重。
+     */
+    private static final double SMOOTHING_FACTOR = 0.5;
+
+    private long recordCount;
+    private long byteCount;
+    private long processMillis;
+    private long lastSampleMillis;
+    private boolean sampled;
+    private double recordsPerSecond;
+    private double bytesPerSecond;
+    private double processMillisPerSecond;
+
+    public ShardLoadMeter(long startMillis) {
+        this.lastSampleMillis = startMillis;
+    }
+
+    public synchronized void record(long recordCount, long byteCount, long processMillis) {
+        this.recordCount += recordCount;
+        this.byteCount += byteCount;
+        this.processMillis += processMillis;
+    }
+
+    /**
+     * 计算上一次采样至今的负载，并清空累计值。
+     *
+     * @param nowMillis 当前时间，不晚于上一次采样时间时直接返回上一次的结果
+     * @return
+     */
+    public synchronized LeaseLoad sample(long nowMillis) {
+        long elapsedMillis = nowMillis - lastSampleMillis;
+        if (elapsedMillis > 0) {
+            double records = recordCount * 1000.0 / elapsedMillis;
+            double bytes = byteCount * 1000.0 / elapsedMillis;
+            double millis = processMillis * 1000.0 / elapsedMillis;
+            if (sampled) {
+                recordsPerSecond = smooth(recordsPerSecond, records);
+                bytesPerSecond = smooth(bytesPerSecond, bytes);
+                processMillisPerSecond = smooth(processMillisPerSecond, millis);
+            } else {
+                recordsPerSecond = records;
+                bytesPerSecond = bytes;
+                processMillisPerSecond = millis;
+                sampled = true;
+            }
+            recordCount = 0;
+            byteCount = 0;
+            processMillis = 0;
+            lastSampleMillis = nowMillis;
+        }
+        return new LeaseLoad(Math.round(recordsPerSecond), Math.round(bytesPerSecond),
+                Math.round(processMillisPerSecond));
+    }
+
+    private static double smooth(double oldValue, double newValue) {
+        return oldValue * (1 - SMOOTHING_FACTOR) + newValue * SMOOTHING_FACTOR;
+    }
+}
@@ -7,14 +7,19 @@ import com.aliyun.openservices.ots.internal.streamclient.core.task.ITask;
 import com.aliyun.openservices.ots.internal.streamclient.core.task.RetryingTaskDecorator;
 import com.aliyun.openservices.ots.internal.streamclient.core.task.ShardSyncTask;
 import com.aliyun.openservices.ots.internal.streamclient.core.task.TaskResult;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseSnapshotService;
 import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.model.IRetryStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.model.RetryingCallableDecorator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * 同步Shard信息。
@@ -29,15 +34,56 @@ public class ShardSyncer {
     private final ILeaseManager<ShardLease> leaseManager;
     private final ExecutorService executorService;
     private final IRetryStrategy taskRetryStrategy;
+    private final ScheduledExecutorService retryScheduler;
+    private final ShardSyncTask shardSyncTask;
+    private volatile boolean syncRequested;
 
     public ShardSyncer(StreamConfig streamConfig,
                        ILeaseManager<ShardLease> leaseManager,
                        ExecutorService executorService,
                        IRetryStrategy taskRetryStrategy) {
+        this(streamConfig, leaseManager, executorService, taskRetryStrategy, null);
+    }
+
+    public ShardSyncer(StreamConfig streamConfig,
+                       ILeaseManager<ShardLease> leaseManager,
+                       ExecutorService executorService,
+                       IRetryStrategy taskRetryStrategy,
+                       ScheduledExecutorService retryScheduler) {
+        this(streamConfig, leaseManager, executorService, taskRetryStrategy, retryScheduler, 0, null);
+    }
+
+    /**
+     * @param retryScheduler 不为null时，同步任务失败后由retryScheduler在退避时间后重新提交，等待期间不占用executorService的线程
+     * @param fullSyncIntervalMillis 全量同步的间隔时间，两次全量同步之间只同步新增的Shard
+     * @param leaseSnapshotService 不为null时，全量同步复用该快照，不再单独读取全部Lease
+     */
+    public ShardSyncer(StreamConfig streamConfig,
+                       ILeaseManager<ShardLease> leaseManager,
+                       ExecutorService executorService,
+                       IRetryStrategy taskRetryStrategy,
+                       ScheduledExecutorService retryScheduler,
+                       long fullSyncIntervalMillis,
+                       LeaseSnapshotService<ShardLease> leaseSnapshotService) {
         this.streamConfig = streamConfig;
         this.leaseManager = leaseManager;
         this.executorService = executorService;
         this.taskRetryStrategy = taskRetryStrategy;
+        this.retryScheduler = retryScheduler;
+        this.shardSyncTask = new ShardSyncTask(streamConfig, leaseManager, fullSyncIntervalMillis, leaseSnapshotService);
+    }
+
+    /**
+     * 请求尽快进行一次同步，不等待定时同步。由Worker主线程在下一轮循环中调用syncShardAndLeaseInfo执行。
+     * 在Shard读到SHARD_END等Shard列表可能发生变化的时候调用。
+     */
+    public void requestSync() {
+        LOG.debug("Sync requested.");
+        syncRequested = true;
+    }
+
+    public boolean isSyncRequested() {
+        return syncRequested;
     }
 
     private synchronized boolean checkPreviousTask(boolean synchronous) throws DependencyException, StreamClientException {
@@ -46,7 +92,12 @@ public class ShardSyncer {
         }
         if (synchronous || future.isDone()) {
             try {
-                TaskResult result = future.get();
+                TaskResult result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
                 if (result.getException() != null) {
                     throw result.getException();
                 }
@@ -87,12 +138,29 @@ public class ShardSyncer {
         LOG.debug("check and submit next task. Synchronous: {}.", synchronous);
         boolean previousTaskDone = checkPreviousTask(synchronous);
         if (previousTaskDone) {
-            ITask task = new ShardSyncTask(streamConfig, leaseManager);
-            currentTask = new RetryingTaskDecorator(
-                    IRetryStrategy.RetryableAction.TASK_SHARDSYNC,
-                    taskRetryStrategy,
-                    task);
-            future = executorService.submit(currentTask);
+            syncRequested = false;
+            final ITask task = shardSyncTask;
+            if (retryScheduler != null) {
+                currentTask = task;
+                future = new RetryingCallableDecorator<TaskResult>(
+                        IRetryStrategy.RetryableAction.TASK_SHARDSYNC,
+                        taskRetryStrategy,
+                        new Callable<TaskResult>() {
+                            public TaskResult call() throws Exception {
+                                TaskResult result = task.call();
+                                if (result.getException() != null) {
+                                    throw result.getException();
+                                }
+                                return result;
+                            }
+                        }).submit(executorService, retryScheduler);
+            } else {
+                currentTask = new RetryingTaskDecorator(
+                        IRetryStrategy.RetryableAction.TASK_SHARDSYNC,
+                        taskRetryStrategy,
+                        task);
+                future = executorService.submit(currentTask);
+            }
             if (synchronous) {
                 checkPreviousTask(synchronous);
             }
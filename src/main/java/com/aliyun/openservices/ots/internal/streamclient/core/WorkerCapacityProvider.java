@@ -0,0 +1,86 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseCapacityProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 根据Worker的配置以及本机的资源使用情况计算Worker的处理能力。
+ * 未过载时处理能力为配置的maxLeasesPerWorker；CPU负载、堆内存使用率或执行任务的线程池排队任务数任一超过阈值时，
+ * 处理能力为当前持有的Lease数量，即不再获取新的Lease，已持有的Lease不会因此被释放。
+ * 阈值不大于0时不检查对应的资源。
+ */
+public class WorkerCapacityProvider implements ILeaseCapacityProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerCapacityProvider.class);
+
+    private final int maxLeases;
+    private final ExecutorService executorService;
+    private final double maxCpuLoad;
+    private final double maxHeapUsage;
+    private final int maxQueuedTasks;
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private boolean overloaded;
+
+    /**
+     * @param maxLeases      Worker最多持有的Lease数量，不大于0时不限制
+     * @param executorService 执行Task的线程池，不是ThreadPoolExecutor时不检查排队任务数
+     * @param maxCpuLoad     每个CPU核的平均系统负载（Load Average）的阈值
+     * @param maxHeapUsage   已使用的堆内存占最大堆内存的比例的阈值
+     * @param maxQueuedTasks 线程池排队任务数的阈值
+     */
+    public WorkerCapacityProvider(int maxLeases, ExecutorService executorService,
+                                  double maxCpuLoad, double maxHeapUsage, int maxQueuedTasks) {
+        this.maxLeases = maxLeases > 0 ? maxLeases : Integer.MAX_VALUE;
+        this.executorService = executorService;
+        this.maxCpuLoad = maxCpuLoad;
+        this.maxHeapUsage = maxHeapUsage;
+        this.maxQueuedTasks = maxQueuedTasks;
+    }
+
+    public synchronized int getLeaseCapacity(int heldLeases) {
+        double cpuLoad = getCpuLoad();
+        double heapUsage = getHeapUsage();
+        int queuedTasks = getQueuedTasks();
+        boolean nowOverloaded = (maxCpuLoad > 0 && cpuLoad > maxCpuLoad)
+                || (maxHeapUsage > 0 && heapUsage > maxHeapUsage)
+                || (maxQueuedTasks > 0 && queuedTasks > maxQueuedTasks);
+        if (nowOverloaded != overloaded) {
+            LOG.info("Worker overloaded: {}, CpuLoad: {}, HeapUsage: {}, QueuedTasks: {}, HeldLeases: {}.",
+                    nowOverloaded, cpuLoad, heapUsage, queuedTasks, heldLeases);
+            overloaded = nowOverloaded;
+        }
+        if (overloaded) {
+            return Math.min(heldLeases, maxLeases);
+        }
+        return maxLeases;
+    }
+
+    /**
+     * 每个CPU核的平均系统负载，系统不支持时返回-1。
+     */
+    double getCpuLoad() {
+        double loadAverage = operatingSystem.getSystemLoadAverage();
+        if (loadAverage < 0) {
+            return -1;
+        }
+        return loadAverage / operatingSystem.getAvailableProcessors();
+    }
+
+    double getHeapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+    }
+
+    int getQueuedTasks() {
+        if (executorService instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executorService).getQueue().size();
+        }
+        return 0;
+    }
+}
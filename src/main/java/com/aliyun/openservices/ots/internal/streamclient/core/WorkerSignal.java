@@ -0,0 +1,46 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 用于唤醒Worker主线程。
+ * Task完成、空闲Shard探测到新数据等需要Worker主线程处理的事件发生时调用signal，
+ * Worker主线程在没有事件时最多等待workerIdleTimeMillis。
+ */
+class WorkerSignal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerSignal.class);
+
+    private boolean signaled;
+
+    synchronized void signal() {
+        signaled = true;
+        notifyAll();
+    }
+
+    /**
+     * 等待直到被signal或超时，返回前清除signal状态。
+     *
+     * @return 是否是被signal唤醒的
+     */
+    synchronized boolean await(long maxWaitMillis) {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        while (!signaled) {
+            long waitMillis = deadline - System.currentTimeMillis();
+            if (waitMillis <= 0) {
+                break;
+            }
+            try {
+                wait(waitMillis);
+            } catch (InterruptedException ex) {
+                Thread.interrupted();
+                LOG.warn("Interrupted while waiting");
+                break;
+            }
+        }
+        boolean result = signaled;
+        signaled = false;
+        return result;
+    }
+}
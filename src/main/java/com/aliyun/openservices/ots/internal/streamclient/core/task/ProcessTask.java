@@ -1,6 +1,7 @@
 package com.aliyun.openservices.ots.internal.streamclient.core.task;
 
 import com.alicloud.openservices.tablestore.model.GetStreamRecordResponse;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
 import com.alicloud.openservices.tablestore.model.StreamRecord;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
@@ -8,6 +9,7 @@ import com.aliyun.openservices.ots.internal.streamclient.core.exceptions.Applica
 import com.aliyun.openservices.ots.internal.streamclient.core.exceptions.ShardEndReachedException;
 import com.aliyun.openservices.ots.internal.streamclient.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
+import com.aliyun.openservices.ots.internal.streamclient.core.BatchSizeController;
 import com.aliyun.openservices.ots.internal.streamclient.core.DataFetcher;
 import com.aliyun.openservices.ots.internal.streamclient.core.RecordProcessorCheckpointer;
 import org.slf4j.Logger;
@@ -17,6 +19,9 @@ import java.util.List;
 
 /**
  * 通过DataFetcher获取数据，执行用户的processRecords方法。
+ * 同一个ShardConsumer在PROCESSING状态下重复执行同一个ProcessTask，每批数据复用成功时的TaskResult。
+ * 同一时刻只会有一个线程执行call，返回的TaskResult在下一次call之前有效。
+ * 传给用户的ProcessRecordsInput每批数据都是新的对象，用户可以在processRecords返回后继续持有。
  */
 public class ProcessTask implements ITask {
 
@@ -28,6 +33,8 @@ public class ProcessTask implements ITask {
     private final DataFetcher dataFetcher;
     private final StreamConfig streamConfig;
     private final IShutdownMarker shutdownMarker;
+    private final BatchSizeController batchSizeController;
+    private final TaskResult taskResult = new TaskResult(false);
 
     public ProcessTask(ShardInfo shardInfo,
                        IRecordProcessor recordProcessor,
@@ -35,12 +42,26 @@ public class ProcessTask implements ITask {
                        DataFetcher dataFetcher,
                        StreamConfig streamConfig,
                        IShutdownMarker shutdownMarker) {
+        this(shardInfo, recordProcessor, recordProcessorCheckpointer, dataFetcher, streamConfig, shutdownMarker, null);
+    }
+
+    /**
+     * @param batchSizeController 为null时，每次请求固定获取streamConfig.getMaxRecords()条数据
+     */
+    public ProcessTask(ShardInfo shardInfo,
+                       IRecordProcessor recordProcessor,
+                       RecordProcessorCheckpointer recordProcessorCheckpointer,
+                       DataFetcher dataFetcher,
+                       StreamConfig streamConfig,
+                       IShutdownMarker shutdownMarker,
+                       BatchSizeController batchSizeController) {
         this.shardInfo = shardInfo;
         this.recordProcessor = recordProcessor;
         this.recordProcessorCheckpointer = recordProcessorCheckpointer;
         this.dataFetcher = dataFetcher;
         this.streamConfig = streamConfig;
         this.shutdownMarker = shutdownMarker;
+        this.batchSizeController = batchSizeController;
     }
 
     public TaskResult call() {
@@ -55,7 +76,14 @@ public class ProcessTask implements ITask {
             }
 
             List<StreamRecord> records = getStreamRecordResult.getRecords();
-            LOG.debug("GetRecords, ShardId: {}, Num: {}.", shardInfo.getShardId(), records.size());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("GetRecords, ShardId: {}, Num: {}.", shardInfo.getShardId(), records.size());
+            }
+            if (batchSizeController != null) {
+                batchSizeController.onRecordsFetched(dataFetcher.getLastFetchLimit(), records,
+                        getStreamRecordResult.getNextShardIterator() != null);
+                dataFetcher.setMaxPrefetchBatches(batchSizeController.getPrefetchDepth());
+            }
 
             String nextIterator = getStreamRecordResult.getNextShardIterator();
             if (nextIterator != null) {
@@ -68,13 +96,21 @@ public class ProcessTask implements ITask {
             processRecordsInput.setCheckpointer(recordProcessorCheckpointer);
             processRecordsInput.setShutdownMarker(shutdownMarker);
 
+            long processedBytes = getDataSize(records);
+            long processStartTime = System.currentTimeMillis();
             try {
                 recordProcessor.processRecords(processRecordsInput);
             } catch (Throwable e) {
                 throw new ApplicationException("ApplicationProcessError", e);
             }
+            recordProcessorCheckpointer.setProcessedCheckpointValue(
+                    recordProcessorCheckpointer.getLargestPermittedCheckpointValue());
             LOG.debug("Complete, ShardId: {}", shardInfo.getShardId());
-            return new TaskResult(false);
+            taskResult.setIsIdle(records.isEmpty() && nextIterator != null);
+            taskResult.setProcessedRecordCount(records.size());
+            taskResult.setProcessedBytes(processedBytes);
+            taskResult.setProcessMillis(System.currentTimeMillis() - processStartTime);
+            return taskResult;
         } catch (Exception e) {
             LOG.warn("ShardId: {}, Exception: {}", e);
             return new TaskResult(e);
@@ -85,7 +121,25 @@ public class ProcessTask implements ITask {
         return TaskType.PROCESS;
     }
 
+    private static long getDataSize(List<StreamRecord> records) {
+        long size = 0;
+        for (StreamRecord record : records) {
+            if (record.getPrimaryKey() != null) {
+                size += record.getPrimaryKey().getDataSize();
+            }
+            if (record.getColumns() != null) {
+                for (RecordColumn column : record.getColumns()) {
+                    size += column.getColumn().getDataSize();
+                }
+            }
+        }
+        return size;
+    }
+
     private GetStreamRecordResponse getRecordResult() throws DependencyException, StreamClientException {
+        if (batchSizeController != null) {
+            return dataFetcher.getRecords(batchSizeController.getRecordLimit());
+        }
         return dataFetcher.getRecords(streamConfig.getMaxRecords());
     }
 }
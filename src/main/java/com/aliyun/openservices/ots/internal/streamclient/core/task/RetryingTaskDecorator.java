@@ -7,6 +7,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * 为Task扩充重试逻辑。
+ * 若deferBackoff为true，需要重试时不在当前线程中等待，而是返回一个retryDelayMillis大于0的TaskResult，
+ * 由调用方在等待之后重新执行该对象，重试次数保存在该对象中。
  */
 public class RetryingTaskDecorator implements ITask {
 
@@ -15,22 +17,32 @@ public class RetryingTaskDecorator implements ITask {
     private final IRetryStrategy.RetryableAction actionName;
     private final IRetryStrategy retryStrategy;
     private final ITask task;
+    private final boolean deferBackoff;
+    private int retries;
 
     public RetryingTaskDecorator(IRetryStrategy.RetryableAction actionName,
                            IRetryStrategy retryStrategy,
                            ITask task) {
+        this(actionName, retryStrategy, task, false);
+    }
+
+    public RetryingTaskDecorator(IRetryStrategy.RetryableAction actionName,
+                                 IRetryStrategy retryStrategy,
+                                 ITask task,
+                                 boolean deferBackoff) {
         this.actionName = actionName;
         this.retryStrategy = retryStrategy;
         this.task = task;
+        this.deferBackoff = deferBackoff;
     }
 
     public TaskResult call() {
-        int retries = 0;
         while (true) {
             Exception exception = null;
             try {
                 TaskResult taskResult = task.call();
                 if (taskResult.getException() == null) {
+                    retries = 0;
                     return taskResult;
                 } else {
                     exception = taskResult.getException();
@@ -40,10 +52,17 @@ public class RetryingTaskDecorator implements ITask {
             }
             if (retryStrategy.shouldRetry(actionName, exception, retries)) {
                 LOG.debug("Retry, Action: {}, Exception: {}, Retries: {}", actionName, exception, retries);
-                TimeUtils.sleepMillis(retryStrategy.getBackoffTimeMillis(actionName, exception, retries));
+                long backoffTimeMillis = retryStrategy.getBackoffTimeMillis(actionName, exception, retries);
                 retries++;
+                if (deferBackoff) {
+                    TaskResult taskResult = new TaskResult(exception);
+                    taskResult.setRetryDelayMillis(Math.max(1, backoffTimeMillis));
+                    return taskResult;
+                }
+                TimeUtils.sleepMillis(backoffTimeMillis);
             } else {
                 LOG.debug("NoRetry, Action: {}, Exception: {}, Retries: {}", actionName, exception, retries);
+                retries = 0;
                 return new TaskResult(exception);
             }
         }
@@ -5,6 +5,7 @@ import com.alicloud.openservices.tablestore.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseSnapshotService;
 import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.model.CheckpointPosition;
@@ -18,6 +19,10 @@ import java.util.*;
  * 同步Shard列表，为新增的Shard创建Lease，同时清除已经过期的Shard的lease。
  * 新增Lease时，必须先为parent shard添加，后为child shard添加。
  * 当前我们支持的初始化Checkpoint只有TRIM_HORIZON，即oldest record。
+ *
+ * 同一个ShardSyncTask对象可以重复执行，并在内存中保存已知的Shard和Lease：
+ * 每隔fullSyncIntervalMillis进行一次全量同步(获取全部Shard和Lease，并清理过期的Lease)，
+ * 其余时候只从上次读到的Shard开始获取新增的Shard，基于缓存的Lease列表创建Lease，不再读取Lease表。
  */
 public class ShardSyncTask implements ITask {
 
@@ -27,19 +32,49 @@ public class ShardSyncTask implements ITask {
     private final String tableName;
     private final ILeaseManager<ShardLease> leaseManager;
 
+    private final long fullSyncIntervalMillis;
+    private final LeaseSnapshotService<ShardLease> leaseSnapshotService;
+
     private String streamId;
+    /**
+     * 已知的Shard，这些Shard的Lease都已创建。
+     */
+    private final Set<String> knownShardIds = new HashSet<String>();
+    /**
+     * 上次获取到的最后一个Shard，增量同步时从该Shard开始获取。
+     */
+    private String lastShardId;
+    private long lastFullSyncTimeMillis;
 
     public ShardSyncTask(StreamConfig streamConfig,
                          ILeaseManager<ShardLease> leaseManager) {
+        this(streamConfig, leaseManager, 0, null);
+    }
+
+    /**
+     * @param fullSyncIntervalMillis 全量同步的间隔时间，为0时每次执行都进行全量同步
+     * @param leaseSnapshotService   不为null时，全量同步从该快照获取Lease列表，为null时通过listLeases获取
+     */
+    public ShardSyncTask(StreamConfig streamConfig,
+                         ILeaseManager<ShardLease> leaseManager,
+                         long fullSyncIntervalMillis,
+                         LeaseSnapshotService<ShardLease> leaseSnapshotService) {
         this.ots = streamConfig.getOTSClient();
         this.tableName = streamConfig.getDataTableName();
         this.leaseManager = leaseManager;
+        this.fullSyncIntervalMillis = fullSyncIntervalMillis;
+        this.leaseSnapshotService = leaseSnapshotService;
     }
 
-    public TaskResult call() {
+    public synchronized TaskResult call() {
         LOG.debug("Start shard sync task.");
         try {
-            checkAndCreateLeasesForNewShards();
+            if (lastShardId == null
+                    || System.currentTimeMillis() - lastFullSyncTimeMillis >= fullSyncIntervalMillis) {
+                checkAndCreateLeasesForNewShards();
+            } else {
+                checkAndCreateLeasesForNewShardsIncrementally();
+            }
             LOG.debug("Shard Sync task completed.");
             return new TaskResult(true);
         } catch (Exception e) {
@@ -54,7 +89,9 @@ public class ShardSyncTask implements ITask {
 
     void checkAndCreateLeasesForNewShards() throws StreamClientException, DependencyException {
         List<StreamShard> shardList = OTSHelper.listShard(ots, getStreamId());
-        List<ShardLease> currentLeases = leaseManager.listLeases();
+        // 快照可能落后于其他Worker：多出的Lease删除时不存在也无妨，缺少的Lease以条件写创建，不会被覆盖
+        List<ShardLease> currentLeases = leaseSnapshotService != null ?
+                leaseSnapshotService.getSnapshot().getLeases() : leaseManager.listLeases();
         if (LOG.isDebugEnabled()) {
             LOG.debug("Current leases, count: {}." + currentLeases.size());
             for (ShardLease lease : currentLeases) {
@@ -63,11 +100,61 @@ public class ShardSyncTask implements ITask {
         }
 
         List<ShardLease> newLeasesToCreate = determineNewLeasesToCreate(shardList, currentLeases);
+        createLeases(newLeasesToCreate);
+        cleanupGarbageLeases(shardList, currentLeases);
+
+        knownShardIds.clear();
+        for (StreamShard shard : shardList) {
+            knownShardIds.add(shard.getShardId());
+        }
+        lastShardId = shardList.isEmpty() ? null : shardList.get(shardList.size() - 1).getShardId();
+        lastFullSyncTimeMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 只获取上次读到的Shard之后的Shard，为其中未知的Shard创建Lease。
+     * 本地缓存可能落后于其他Worker，因此以条件写的方式创建Lease，不会覆盖已存在的Lease。
+     * 失败时下次执行会退化为全量同步。
+     */
+    void checkAndCreateLeasesForNewShardsIncrementally() throws StreamClientException, DependencyException {
+        try {
+            List<StreamShard> shardList = OTSHelper.listShard(ots, getStreamId(), lastShardId);
+            List<StreamShard> newShards = new ArrayList<StreamShard>();
+            for (StreamShard shard : shardList) {
+                if (!knownShardIds.contains(shard.getShardId())) {
+                    newShards.add(shard);
+                }
+            }
+            LOG.debug("Incremental sync, ShardCount: {}, NewShardCount: {}.", shardList.size(), newShards.size());
+            if (newShards.isEmpty()) {
+                return;
+            }
+
+            createLeases(determineNewLeasesToCreate(newShards, knownShardIds));
+            for (StreamShard shard : newShards) {
+                knownShardIds.add(shard.getShardId());
+            }
+            lastShardId = shardList.get(shardList.size() - 1).getShardId();
+        } catch (StreamClientException e) {
+            lastShardId = null;
+            throw e;
+        } catch (DependencyException e) {
+            lastShardId = null;
+            throw e;
+        } catch (RuntimeException e) {
+            lastShardId = null;
+            throw e;
+        }
+    }
+
+    private void createLeases(List<ShardLease> newLeasesToCreate) throws StreamClientException, DependencyException {
         for (ShardLease lease : newLeasesToCreate) {
-            leaseManager.createLease(lease);
-            LOG.info("New lease created, Lease: {}.", lease);
+            if (leaseManager.createLeaseIfNotExists(lease)) {
+                LOG.info("New lease created, Lease: {}.", lease);
+            } else {
+                LOG.info("Lease already exists, LeaseKey: {}.", lease.getLeaseKey());
+            }
         }
-        cleanupGarbageLeases(shardList, currentLeases);
     }
 
     List<ShardLease> determineNewLeasesToCreate(List<StreamShard> shardList, List<ShardLease> currentLeases) throws DependencyException {
@@ -75,7 +162,10 @@ public class ShardSyncTask implements ITask {
         for (ShardLease lease : currentLeases) {
             leaseKeySet.add(lease.getLeaseKey());
         }
+        return determineNewLeasesToCreate(shardList, leaseKeySet);
+    }
 
+    List<ShardLease> determineNewLeasesToCreate(List<StreamShard> shardList, Set<String> leaseKeySet) throws DependencyException {
         Map<String, ShardLease> shardIdToNewShard = new HashMap<String, ShardLease>();
         for (StreamShard shard : shardList) {
             if (!leaseKeySet.contains(shard.getShardId())) {
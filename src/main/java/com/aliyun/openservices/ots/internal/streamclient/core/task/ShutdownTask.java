@@ -9,7 +9,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * 执行用户的shutdown方法。
- * 如果ShutdownReason为TERMINATE，需要做一次SyncShards。
+ * 如果ShutdownReason为TERMINATE，需要请求Worker尽快做一次SyncShards，以便为子Shard创建Lease。
+ * 如果Lease将被转交（STOLEN或WORKER_SHUTDOWN）且开启了checkpointOnLeaseHandoff，在shutdown之后写入最后一批已处理完的数据之后的位置。
  */
 public class ShutdownTask implements ITask {
 
@@ -20,12 +21,23 @@ public class ShutdownTask implements ITask {
     private final RecordProcessorCheckpointer recordProcessorCheckpointer;
     private final ShutdownReason shutdownReason;
     private final ShardSyncer shardSyncer;
+    private final boolean checkpointOnLeaseHandoff;
 
     public ShutdownTask(ShardInfo shardInfo,
                         IRecordProcessor recordProcessor,
                         RecordProcessorCheckpointer recordProcessorCheckpointer,
                         ShutdownReason shutdownReason,
                         ShardSyncer shardSyncer) {
+        this(shardInfo, recordProcessor, recordProcessorCheckpointer, shutdownReason, shardSyncer, false);
+    }
+
+    public ShutdownTask(ShardInfo shardInfo,
+                        IRecordProcessor recordProcessor,
+                        RecordProcessorCheckpointer recordProcessorCheckpointer,
+                        ShutdownReason shutdownReason,
+                        ShardSyncer shardSyncer,
+                        boolean checkpointOnLeaseHandoff) {
+        this.checkpointOnLeaseHandoff = checkpointOnLeaseHandoff;
         this.shardInfo = shardInfo;
         this.recordProcessor = recordProcessor;
         this.recordProcessorCheckpointer = recordProcessorCheckpointer;
@@ -47,9 +59,12 @@ public class ShutdownTask implements ITask {
             } catch (ApplicationException e) {
                 throw new ApplicationException("ApplicationShutDownError", e);
             }
+            if (checkpointOnLeaseHandoff && isLeaseHandoff()) {
+                checkpointBeforeHandoff();
+            }
             LOG.debug("Complete, ShardId: {}.", shardInfo.getShardId());
             if (shutdownReason == ShutdownReason.TERMINATE) {
-                shardSyncer.syncShardAndLeaseInfo(true);
+                shardSyncer.requestSync();
             }
             return new TaskResult(true);
         } catch (Exception e) {
@@ -58,6 +73,24 @@ public class ShutdownTask implements ITask {
         }
     }
 
+    private boolean isLeaseHandoff() {
+        return shutdownReason == ShutdownReason.STOLEN || shutdownReason == ShutdownReason.WORKER_SHUTDOWN;
+    }
+
+    /**
+     * 写入失败（如Lease已经丢失）不影响Shutdown，新的Owner从已有的Checkpoint继续处理。
+     */
+    private void checkpointBeforeHandoff() {
+        try {
+            if (recordProcessorCheckpointer.checkpointProcessed()) {
+                LOG.info("CheckpointBeforeHandoff, ShardId: {}, Checkpoint: {}.",
+                        shardInfo.getShardId(), recordProcessorCheckpointer.getLastCheckpointValue());
+            }
+        } catch (Exception e) {
+            LOG.warn("CheckpointBeforeHandoffFailed, ShardId: {}, Exception: {}.", shardInfo.getShardId(), e);
+        }
+    }
+
     public TaskType getTaskType() {
         return TaskType.SHUTDOWN;
     }
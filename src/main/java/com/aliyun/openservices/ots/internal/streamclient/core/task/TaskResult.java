@@ -16,6 +16,23 @@ public class TaskResult {
      */
     private Exception exception;
 
+    /**
+     * 本次是否没有获取到新数据，仅对ProcessTask有意义，用于决定Shard是否进入空闲退避。
+     */
+    private boolean isIdle;
+
+    /**
+     * 大于0时表示Task执行失败但需要重试，调用方应在等待该时间后重新执行同一个Task，exception为本次失败的原因。
+     */
+    private long retryDelayMillis;
+
+    /**
+     * 本次处理的数据条数、数据大小以及processRecords的耗时，仅对ProcessTask有意义，用于统计Shard的负载。
+     */
+    private long processedRecordCount;
+    private long processedBytes;
+    private long processMillis;
+
     public TaskResult(Exception e) {
         this(e, false);
     }
@@ -40,4 +57,44 @@ public class TaskResult {
     public void setIsPhaseCompleted(boolean isPhaseCompleted) {
         this.isPhaseCompleted = isPhaseCompleted;
     }
+
+    public boolean isIdle() {
+        return isIdle;
+    }
+
+    public void setIsIdle(boolean isIdle) {
+        this.isIdle = isIdle;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public long getProcessedRecordCount() {
+        return processedRecordCount;
+    }
+
+    public void setProcessedRecordCount(long processedRecordCount) {
+        this.processedRecordCount = processedRecordCount;
+    }
+
+    public long getProcessedBytes() {
+        return processedBytes;
+    }
+
+    public void setProcessedBytes(long processedBytes) {
+        this.processedBytes = processedBytes;
+    }
+
+    public long getProcessMillis() {
+        return processMillis;
+    }
+
+    public void setProcessMillis(long processMillis) {
+        this.processMillis = processMillis;
+    }
 }
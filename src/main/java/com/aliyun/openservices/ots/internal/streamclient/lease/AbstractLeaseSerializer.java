@@ -5,19 +5,25 @@ import com.alicloud.openservices.tablestore.model.condition.CompositeColumnValue
 import com.alicloud.openservices.tablestore.model.condition.SingleColumnValueCondition;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * 构造对应各种Lease操作的OTS请求。
  * Lease信息会保存在OTS的一张表中，表的结构为：
  * PrimaryKey：
  *     StreamId:string,    // dataTable的streamId
- *     StatusType:string,  // 保存Lease信息时恒为“LeaseKey”。
- *     StatusValue:string  // 对应Lease的LeaseKey。
- * Columns:
+ *     StatusType:string,  // 保存Lease信息时恒为“LeaseKey”，保存Worker心跳时恒为“WorkerKey”。
+ *     StatusValue:string  // 对应Lease的LeaseKey，或者Worker的WorkerIdentifier。
+ * Columns(Lease):
  *     LeaseOwner:string
  *     LeaseCounter:long
  *     LeaseStealer:string
+ *     LoadRecordsPerSecond:long        // 以下三列为Owner统计的Shard负载，可能不存在
+ *     LoadBytesPerSecond:long
+ *     LoadProcessMillisPerSecond:long
  *     ...
+ * Columns(Worker心跳):
+ *     HeartbeatCounter:long
  *
  * @param <T>
  */
@@ -30,6 +36,11 @@ abstract class AbstractLeaseSerializer<T extends Lease> {
     protected static final String LEASE_OWNER = "LeaseOwner";
     protected static final String LEASE_COUNTER = "LeaseCounter";
     protected static final String LEASE_STEALER = "LeaseStealer";
+    protected static final String LOAD_RECORDS_PER_SECOND = "LoadRecordsPerSecond";
+    protected static final String LOAD_BYTES_PER_SECOND = "LoadBytesPerSecond";
+    protected static final String LOAD_PROCESS_MILLIS_PER_SECOND = "LoadProcessMillisPerSecond";
+    protected static final String WORKER_KEY = "WorkerKey";
+    protected static final String HEARTBEAT_COUNTER = "HeartbeatCounter";
 
     protected final String statusTableName;
     protected final String dataTableStreamId;
@@ -67,6 +78,14 @@ abstract class AbstractLeaseSerializer<T extends Lease> {
         return primaryKey;
     }
 
+    PrimaryKey getWorkerPrimaryKey(PrimaryKeyValue workerIdentifier) {
+        PrimaryKey primaryKey = new PrimaryKey(
+                Arrays.asList(new PrimaryKeyColumn(STREAM_ID, PrimaryKeyValue.fromString(dataTableStreamId)),
+                        new PrimaryKeyColumn(STATUS_TYPE, PrimaryKeyValue.fromString(WORKER_KEY)),
+                        new PrimaryKeyColumn(STATUS_VALUE, workerIdentifier)));
+        return primaryKey;
+    }
+
     RangeIteratorParameter getRangeIteratorParameter() {
         RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(statusTableName);
         criteria.setMaxVersions(1);
@@ -76,6 +95,47 @@ abstract class AbstractLeaseSerializer<T extends Lease> {
         return parameter;
     }
 
+    RangeIteratorParameter getWorkerHeartbeatRangeIteratorParameter() {
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(statusTableName);
+        criteria.setMaxVersions(1);
+        criteria.setInclusiveStartPrimaryKey(getWorkerPrimaryKey(PrimaryKeyValue.INF_MIN));
+        criteria.setExclusiveEndPrimaryKey(getWorkerPrimaryKey(PrimaryKeyValue.INF_MAX));
+        RangeIteratorParameter parameter = new RangeIteratorParameter(criteria);
+        return parameter;
+    }
+
+    PutRowRequest getPutRowRequestForWorkerHeartbeat(String workerIdentifier, long heartbeatCounter) {
+        PrimaryKey pk = getWorkerPrimaryKey(PrimaryKeyValue.fromString(workerIdentifier));
+        RowPutChange change = new RowPutChange(statusTableName, pk);
+        change.addColumn(HEARTBEAT_COUNTER, ColumnValue.fromLong(heartbeatCounter));
+        PutRowRequest request = new PutRowRequest();
+        request.setRowChange(change);
+        return request;
+    }
+
+    DeleteRowRequest getDeleteRowRequestForWorkerHeartbeat(String workerIdentifier) {
+        PrimaryKey pk = getWorkerPrimaryKey(PrimaryKeyValue.fromString(workerIdentifier));
+        RowDeleteChange change = new RowDeleteChange(statusTableName, pk);
+        DeleteRowRequest request = new DeleteRowRequest();
+        request.setRowChange(change);
+        return request;
+    }
+
+    String getWorkerIdentifier(Row row) {
+        return row.getPrimaryKey().getPrimaryKeyColumn(2).getValue().asString();
+    }
+
+    /**
+     * @return 心跳行缺少HeartbeatCounter列时返回null。
+     */
+    Long getHeartbeatCounter(Row row) {
+        List<Column> columns = row.getColumn(HEARTBEAT_COUNTER);
+        if (columns == null || columns.isEmpty()) {
+            return null;
+        }
+        return columns.get(0).getValue().asLong();
+    }
+
     DeleteRowRequest getDeleteRowRequest(String leaseKey) {
         PrimaryKey pk = getPrimaryKey(PrimaryKeyValue.fromString(leaseKey));
         RowDeleteChange change = new RowDeleteChange(statusTableName, pk);
@@ -96,12 +156,29 @@ abstract class AbstractLeaseSerializer<T extends Lease> {
         PrimaryKey pk = getPrimaryKey(PrimaryKeyValue.fromString(lease.getLeaseKey()));
         RowUpdateChange change = new RowUpdateChange(statusTableName, pk);
         change.put(LEASE_COUNTER, ColumnValue.fromLong(lease.getLeaseCounter() + 1));
+        putLeaseLoad(change, lease.getLeaseLoad());
 
-        change.setCondition(getCounterCheckCondition(lease.getLeaseCounter()));
+        if (lease.getLeaseStealer() == null || lease.getLeaseStealer().isEmpty()) {
+            // Owner尚未感知到Stealer时，Stealer非空则续租失败，由Owner通过GetRow确认是否被偷
+            change.setCondition(getCounterAndNoStealerCheckCondition(lease.getLeaseCounter()));
+        } else {
+            change.setCondition(getCounterCheckCondition(lease.getLeaseCounter()));
+        }
         UpdateRowRequest request = new UpdateRowRequest(change);
         return request;
     }
 
+    /**
+     * 每一行的条件与getUpdateRowRequestForRenew相同，返回结果中的行号与leases中的下标一致。
+     */
+    BatchWriteRowRequest getBatchWriteRowRequestForRenew(List<T> leases) {
+        BatchWriteRowRequest request = new BatchWriteRowRequest();
+        for (T lease : leases) {
+            request.addRowChange(getUpdateRowRequestForRenew(lease).getRowChange());
+        }
+        return request;
+    }
+
     UpdateRowRequest getUpdateRowRequestForTake(T lease, String newOwner) {
         PrimaryKey pk = getPrimaryKey(PrimaryKeyValue.fromString(lease.getLeaseKey()));
         RowUpdateChange change = new RowUpdateChange(statusTableName, pk);
@@ -156,6 +233,45 @@ abstract class AbstractLeaseSerializer<T extends Lease> {
         return request;
     }
 
+    /**
+     * Shard负载随续租或更新Checkpoint一起写入，不单独发起请求。
+     */
+    void putLeaseLoad(RowUpdateChange change, LeaseLoad load) {
+        change.put(LOAD_RECORDS_PER_SECOND, ColumnValue.fromLong(load.getRecordsPerSecond()));
+        change.put(LOAD_BYTES_PER_SECOND, ColumnValue.fromLong(load.getBytesPerSecond()));
+        change.put(LOAD_PROCESS_MILLIS_PER_SECOND, ColumnValue.fromLong(load.getProcessMillisPerSecond()));
+    }
+
+    /**
+     * @return 负载列不存在时（尚未统计过或由旧版本写入）返回LeaseLoad.EMPTY。
+     */
+    LeaseLoad getLeaseLoad(Row row) {
+        return new LeaseLoad(getLongColumn(row, LOAD_RECORDS_PER_SECOND),
+                getLongColumn(row, LOAD_BYTES_PER_SECOND),
+                getLongColumn(row, LOAD_PROCESS_MILLIS_PER_SECOND));
+    }
+
+    private long getLongColumn(Row row, String columnName) {
+        List<Column> columns = row.getColumn(columnName);
+        if (columns == null || columns.isEmpty()) {
+            return 0;
+        }
+        return columns.get(0).getValue().asLong();
+    }
+
+    UpdateRowRequest getUpdateRowRequestForRelease(T lease) {
+        PrimaryKey pk = getPrimaryKey(PrimaryKeyValue.fromString(lease.getLeaseKey()));
+        RowUpdateChange change = new RowUpdateChange(statusTableName, pk);
+        change.put(LEASE_COUNTER, ColumnValue.fromLong(lease.getLeaseCounter() + 1));
+        change.put(LEASE_OWNER, ColumnValue.fromString(""));
+        change.put(LEASE_STEALER, ColumnValue.fromString(""));
+        putLeaseLoad(change, lease.getLeaseLoad());
+
+        change.setCondition(getCounterCheckCondition(lease.getLeaseCounter()));
+        UpdateRowRequest request = new UpdateRowRequest(change);
+        return request;
+    }
+
     Condition getCounterCheckCondition(long counter) {
         SingleColumnValueCondition counterCondition = new SingleColumnValueCondition(
                 LEASE_COUNTER,
@@ -169,8 +285,38 @@ abstract class AbstractLeaseSerializer<T extends Lease> {
         return condition;
     }
 
+    Condition getCounterAndNoStealerCheckCondition(long counter) {
+        SingleColumnValueCondition counterCondition = new SingleColumnValueCondition(
+                LEASE_COUNTER,
+                SingleColumnValueCondition.CompareOperator.EQUAL,
+                ColumnValue.fromLong(counter));
+        counterCondition.setPassIfMissing(false);
+        counterCondition.setLatestVersionsOnly(true);
+
+        SingleColumnValueCondition stealerCondition = new SingleColumnValueCondition(
+                LEASE_STEALER,
+                SingleColumnValueCondition.CompareOperator.EQUAL,
+                ColumnValue.fromString(""));
+        stealerCondition.setPassIfMissing(true);
+        stealerCondition.setLatestVersionsOnly(true);
+
+        CompositeColumnValueCondition compositeCond = new CompositeColumnValueCondition(CompositeColumnValueCondition.LogicOperator.AND);
+        compositeCond.addCondition(counterCondition);
+        compositeCond.addCondition(stealerCondition);
+
+        Condition condition = new Condition();
+        condition.setColumnCondition(compositeCond);
+        return condition;
+    }
+
     abstract PutRowRequest getPutRowRequest(T lease);
 
+    PutRowRequest getPutRowRequestForCreate(T lease) {
+        PutRowRequest request = getPutRowRequest(lease);
+        request.getRowChange().setCondition(new Condition(RowExistenceExpectation.EXPECT_NOT_EXIST));
+        return request;
+    }
+
     abstract UpdateRowRequest getUpdateRowRequestForUpdate(T lease);
 
     abstract T fromOTSRow(Row row);
@@ -0,0 +1,223 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.utils.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * 默认的分配策略，使各Worker持有的Lease数量（或按吞吐加权的负载）大致相同。
+ * 每个周期获取过期的Lease直到达到平均数量，开启偷取时再由LeaseStealPlanner从负载最高的Worker偷取。
+ * 平均数量超过本Worker的处理能力时以处理能力为准，其他Worker发现长时间无人获取的Lease后在其处理能力范围内获取。
+ * 排空时将持有的Lease按负载从大到小依次交给当前负载最低的其他Worker。
+ * @param <T>
+ */
+public class BalancedLeaseAssignmentStrategy<T extends Lease> implements ILeaseAssignmentStrategy<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BalancedLeaseAssignmentStrategy.class);
+
+    private final boolean autoSteal;
+    private final LeaseStealPlanner<T> stealPlanner;
+
+    /**
+     * @param autoSteal                   是否偷取其他Worker的Lease
+     * @param maxStealLeasesPerTake       每次TakeLease最多偷取的Lease数量
+     * @param loadBalanceThroughputWeight 偷取Lease时Shard吞吐所占的权重，为0时只按Lease数量均衡
+     */
+    public BalancedLeaseAssignmentStrategy(boolean autoSteal, int maxStealLeasesPerTake, double loadBalanceThroughputWeight) {
+        Preconditions.checkArgument(loadBalanceThroughputWeight >= 0 && loadBalanceThroughputWeight <= 1,
+                "LoadBalanceThroughputWeight must be in [0, 1].");
+        this.autoSteal = autoSteal;
+        this.stealPlanner = new LeaseStealPlanner<T>(maxStealLeasesPerTake, loadBalanceThroughputWeight);
+    }
+
+    public LeaseAssignment<T> assign(LeaseAssignmentContext<T> context) {
+        String workerIdentifier = context.getWorkerIdentifier();
+        Map<String, Integer> leaseCounts = context.getLeaseCounts();
+        if (LOG.isDebugEnabled()) {
+            for (Map.Entry<String, Integer> leaseCount : leaseCounts.entrySet()) {
+                LOG.debug("Owner: {}, Count: {}", leaseCount.getKey(), leaseCount.getValue());
+            }
+        }
+
+        int numLeases = context.getAllLeases().size();
+        int numWorkers = leaseCounts.size();
+        int target = Math.min(numLeases / numWorkers + (numLeases % numWorkers == 0 ? 0 : 1),
+                context.getLeaseCapacity());
+        int need = target - leaseCounts.get(workerIdentifier);
+        LOG.debug("Try to take lease. NumLeases: {}, NumWorkers: {}, Target: {}, Need: {}.",
+                numLeases, numWorkers, target, need);
+
+        Map<String, T> leasesToTake = computeLeasesToTake(context.getLeasesStealComplete(),
+                context.getExpiredLeases(), need);
+        takeOrphanedLeases(context, leasesToTake, leaseCounts.get(workerIdentifier));
+        LeaseAssignment<T> assignment = new LeaseAssignment<T>();
+        for (T lease : leasesToTake.values()) {
+            assignment.addLeaseToTake(lease);
+        }
+
+        if (autoSteal) {
+            double targetLoad = Math.min((double) numLeases / numWorkers, context.getLeaseCapacity());
+            if (stealPlanner.isCountBased()
+                    && computeOwnCount(context, leasesToTake, leaseCounts.get(workerIdentifier)) >= targetLoad) {
+                // 已达到目标数量，不需要计算负载以及遍历全部Lease
+                return assignment;
+            }
+            Map<String, Double> leaseWeights = stealPlanner.computeLeaseWeights(context.getAllLeases());
+            double ownLoad = computeOwnLoad(context, leasesToTake, leaseWeights);
+            LOG.debug("Try to steal lease. TargetLoad: {}, OwnLoad: {}.", targetLoad, ownLoad);
+            for (T lease : stealPlanner.plan(computeStealCandidates(context), leaseWeights,
+                    workerIdentifier, ownLoad, targetLoad)) {
+                LOG.debug("Plan to steal lease, LeaseKey: {}, Weight: {}.", lease.getLeaseKey(),
+                        leaseWeights.get(lease.getLeaseKey()));
+                assignment.addLeaseToSteal(lease);
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * 其他Worker达到处理能力上限时，平均数量之外的Lease会一直没有Worker获取，此时在处理能力范围内获取这些Lease。
+     */
+    private void takeOrphanedLeases(LeaseAssignmentContext<T> context, Map<String, T> leasesToTake, int ownCount) {
+        for (String leaseKey : context.getOrphanedLeaseKeys()) {
+            if (ownCount + leasesToTake.size() >= context.getLeaseCapacity()) {
+                return;
+            }
+            if (!leasesToTake.containsKey(leaseKey)) {
+                LOG.debug("Take orphaned lease, LeaseKey: {}.", leaseKey);
+                leasesToTake.put(leaseKey, context.getLease(leaseKey));
+            }
+        }
+    }
+
+    /**
+     * 按数量均衡时本Worker的负载，与computeOwnLoad的结果相同，但只遍历正在被偷的Lease。
+     */
+    private int computeOwnCount(LeaseAssignmentContext<T> context, Map<String, T> leasesToTake, int ownedCount) {
+        int count = ownedCount + leasesToTake.size();
+        for (T lease : context.getStolenLeases()) {
+            if (lease.getLeaseStealer().equals(context.getWorkerIdentifier())
+                    && !leasesToTake.containsKey(lease.getLeaseKey())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按负载从大到小依次将本Worker持有的Lease交给当前负载最低的其他存活Worker。
+     * Worker的负载为其持有的有效Lease以及正在偷取中的Lease的负载之和。
+     */
+    public Map<String, String> planHandOff(LeaseAssignmentContext<T> context) {
+        Map<String, String> targets = new HashMap<String, String>();
+        final Map<String, Double> leaseWeights = stealPlanner.computeLeaseWeights(context.getAllLeases());
+        Map<String, Double> workerLoads = new HashMap<String, Double>();
+        for (String worker : context.getLiveWorkers()) {
+            if (!worker.equals(context.getWorkerIdentifier())) {
+                workerLoads.put(worker, 0.0);
+            }
+        }
+        if (workerLoads.isEmpty()) {
+            return targets;
+        }
+        for (T lease : context.getAllLeases()) {
+            if (!context.isExpired(lease) && !lease.getLeaseOwner().isEmpty()) {
+                String worker = lease.getLeaseStealer().isEmpty() ? lease.getLeaseOwner() : lease.getLeaseStealer();
+                Double load = workerLoads.get(worker);
+                if (load != null) {
+                    workerLoads.put(worker, load + leaseWeights.get(lease.getLeaseKey()));
+                }
+            }
+        }
+
+        List<T> ownedLeases = context.getOwnedLeases();
+        Collections.sort(ownedLeases, new Comparator<T>() {
+            public int compare(T o1, T o2) {
+                return leaseWeights.get(o2.getLeaseKey()).compareTo(leaseWeights.get(o1.getLeaseKey()));
+            }
+        });
+        for (T lease : ownedLeases) {
+            String target = null;
+            for (Map.Entry<String, Double> entry : workerLoads.entrySet()) {
+                if (target == null || entry.getValue() < workerLoads.get(target)) {
+                    target = entry.getKey();
+                }
+            }
+            targets.put(lease.getLeaseKey(), target);
+            workerLoads.put(target, workerLoads.get(target) + leaseWeights.get(lease.getLeaseKey()));
+        }
+        return targets;
+    }
+
+    public long getMinLeaseScanIntervalMillis() {
+        return 0;
+    }
+
+    /**
+     * 本Worker持有的有效Lease、本轮将要获取的Lease，以及已经发起但还未完成的Steal的负载之和。
+     * 正在偷取中的Lease计入本Worker，避免在Transfer完成前重复偷取。
+     */
+    private double computeOwnLoad(LeaseAssignmentContext<T> context, Map<String, T> leasesToTake,
+                                  Map<String, Double> leaseWeights) {
+        String workerIdentifier = context.getWorkerIdentifier();
+        double load = 0;
+        for (T lease : context.getAllLeases()) {
+            String leaseKey = lease.getLeaseKey();
+            boolean owned = lease.getLeaseOwner().equals(workerIdentifier) && lease.getLeaseStealer().isEmpty()
+                    && !context.isExpired(lease);
+            boolean pendingSteal = lease.getLeaseStealer().equals(workerIdentifier);
+            if (owned || pendingSteal || leasesToTake.containsKey(leaseKey)) {
+                load += leaseWeights.get(leaseKey);
+            }
+        }
+        return load;
+    }
+
+    /**
+     * 先获取已经转交给本Worker的Lease，再从过期的Lease中随机选取，共need个。
+     */
+    static <T extends Lease> Map<String, T> computeLeasesToTake(List<T> leasesStealComplete, List<T> expiredLeases, int need) {
+        Map<String, T> leasesToTake = new HashMap<String, T>();
+        for (T lease : leasesStealComplete) {
+            leasesToTake.put(lease.getLeaseKey(), lease);
+            if (--need <= 0) {
+                return leasesToTake;
+            }
+        }
+
+        List<T> leaseToPick = new LinkedList<T>(expiredLeases);
+        Collections.shuffle(leaseToPick);
+        while (need > 0 && leaseToPick.size() > 0) {
+            T lease = leaseToPick.remove(0);
+            if (!leasesToTake.containsKey(lease.getLeaseKey())) {
+                leasesToTake.put(lease.getLeaseKey(), lease);
+                need--;
+            }
+        }
+        return leasesToTake;
+    }
+
+    /**
+     * 其他Worker持有的可以被偷取的Lease，不包含过期的以及正在被Steal的Lease。
+     *
+     * @return 每个Worker持有的可以被偷取的Lease
+     */
+    static <T extends Lease> Map<String, List<T>> computeStealCandidates(LeaseAssignmentContext<T> context) {
+        Map<String, List<T>> candidates = new HashMap<String, List<T>>();
+        for (T lease : context.getAllLeases()) {
+            if (!context.isStealable(lease)) {
+                continue;
+            }
+            List<T> list = candidates.get(lease.getLeaseOwner());
+            if (list == null) {
+                list = new ArrayList<T>();
+                candidates.put(lease.getLeaseOwner(), list);
+            }
+            list.add(lease);
+        }
+        return candidates;
+    }
+}
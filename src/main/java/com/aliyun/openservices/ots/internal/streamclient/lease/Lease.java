@@ -2,17 +2,19 @@ package com.aliyun.openservices.ots.internal.streamclient.lease;
 
 /**
  * Lease会被并发的访问，而Lease本身提供的函数均不是线程安全。
- * 所以需要在所有要对Lease并发访问的地方，访问之前加锁。
+ * LeaseRenewer中持有的Lease以快照的形式发布，发布后不再修改，需要修改时先copy；其他要对Lease并发访问的地方，访问之前加锁。
  */
 public class Lease {
     private String leaseKey;
     private String leaseOwner = "";
     private long leaseCounter = 0;
     private String leaseStealer = "";
+    private LeaseLoad leaseLoad = LeaseLoad.EMPTY;
 
     // below fields won't be stored into status table
     private long lastCounterIncrementMillis = 0;
     private String leaseIdentifier = "";
+    private long stealRequestMillis = 0;
 
     public Lease(String leaseKey) {
         this.leaseKey = leaseKey;
@@ -25,6 +27,8 @@ public class Lease {
         this.lastCounterIncrementMillis = lease.getLastCounterIncrementMillis();
         this.leaseIdentifier = lease.getLeaseIdentifier();
         this.leaseStealer = lease.getLeaseStealer();
+        this.leaseLoad = lease.getLeaseLoad();
+        this.stealRequestMillis = lease.getStealRequestMillis();
     }
 
     public <T extends Lease> void update(T other) {
@@ -83,6 +87,25 @@ public class Lease {
         this.leaseStealer = leaseStealer;
     }
 
+    public LeaseLoad getLeaseLoad() {
+        return leaseLoad;
+    }
+
+    public void setLeaseLoad(LeaseLoad leaseLoad) {
+        this.leaseLoad = leaseLoad;
+    }
+
+    /**
+     * 通过偷取获得的Lease，本Worker发起偷取的时间，用于统计转交延迟；不是通过偷取获得的Lease为0。
+     */
+    public long getStealRequestMillis() {
+        return stealRequestMillis;
+    }
+
+    public void setStealRequestMillis(long stealRequestMillis) {
+        this.stealRequestMillis = stealRequestMillis;
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends Lease> T copy() {
         return (T) new Lease(this);
@@ -0,0 +1,30 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分配策略的计算结果：本轮需要获取以及偷取的Lease。
+ * @param <T>
+ */
+public class LeaseAssignment<T extends Lease> {
+
+    private final List<T> leasesToTake = new ArrayList<T>();
+    private final List<T> leasesToSteal = new ArrayList<T>();
+
+    public List<T> getLeasesToTake() {
+        return leasesToTake;
+    }
+
+    public List<T> getLeasesToSteal() {
+        return leasesToSteal;
+    }
+
+    public void addLeaseToTake(T lease) {
+        leasesToTake.add(lease);
+    }
+
+    public void addLeaseToSteal(T lease) {
+        leasesToSteal.add(lease);
+    }
+}
@@ -0,0 +1,195 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.*;
+
+/**
+ * LeaseTaker每个周期提供给分配策略的信息，其中的Lease均为LeaseTaker最近一次读取的结果，分配策略不应修改。
+ * @param <T>
+ */
+public class LeaseAssignmentContext<T extends Lease> {
+
+    private final String workerIdentifier;
+    private final long leaseDurationMillis;
+    private final long snapshotTimeMillis;
+    private final LeaseIndex<T> leaseIndex;
+    private final Set<String> expiredLeaseKeys;
+    private final List<T> leasesStealComplete;
+    private final Set<String> liveWorkers;
+    private final Set<String> orphanedLeaseKeys;
+    private final int leaseCapacity;
+
+    /**
+     * @param snapshotTimeMillis  读取全部Lease的时间
+     * @param allLeases           全部Lease
+     * @param expiredLeaseKeys    已过期的Lease，包括没有Owner的Lease
+     * @param leasesStealComplete 本Worker偷取且已被原Owner转交给本Worker的Lease
+     * @param liveWorkers         当前存活的Worker，包括本Worker
+     */
+    public LeaseAssignmentContext(String workerIdentifier,
+                                  long leaseDurationMillis,
+                                  long snapshotTimeMillis,
+                                  Collection<T> allLeases,
+                                  Set<String> expiredLeaseKeys,
+                                  List<T> leasesStealComplete,
+                                  Set<String> liveWorkers) {
+        this(workerIdentifier, leaseDurationMillis, snapshotTimeMillis, allLeases, expiredLeaseKeys,
+                leasesStealComplete, liveWorkers, Collections.<String>emptySet(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param orphanedLeaseKeys 过期超过一个Lease周期仍没有Worker获取的Lease
+     * @param leaseCapacity     本Worker最多应持有的Lease数量
+     */
+    public LeaseAssignmentContext(String workerIdentifier,
+                                  long leaseDurationMillis,
+                                  long snapshotTimeMillis,
+                                  Collection<T> allLeases,
+                                  Set<String> expiredLeaseKeys,
+                                  List<T> leasesStealComplete,
+                                  Set<String> liveWorkers,
+                                  Set<String> orphanedLeaseKeys,
+                                  int leaseCapacity) {
+        this(workerIdentifier, leaseDurationMillis, snapshotTimeMillis, new LeaseIndex<T>(allLeases), expiredLeaseKeys,
+                leasesStealComplete, liveWorkers, orphanedLeaseKeys, leaseCapacity);
+    }
+
+    LeaseAssignmentContext(String workerIdentifier,
+                           long leaseDurationMillis,
+                           long snapshotTimeMillis,
+                           LeaseIndex<T> leaseIndex,
+                           Set<String> expiredLeaseKeys,
+                           List<T> leasesStealComplete,
+                           Set<String> liveWorkers,
+                           Set<String> orphanedLeaseKeys,
+                           int leaseCapacity) {
+        this.workerIdentifier = workerIdentifier;
+        this.leaseDurationMillis = leaseDurationMillis;
+        this.snapshotTimeMillis = snapshotTimeMillis;
+        this.leaseIndex = leaseIndex;
+        this.expiredLeaseKeys = expiredLeaseKeys;
+        this.leasesStealComplete = leasesStealComplete;
+        this.liveWorkers = liveWorkers;
+        this.orphanedLeaseKeys = orphanedLeaseKeys;
+        this.leaseCapacity = leaseCapacity;
+    }
+
+    public String getWorkerIdentifier() {
+        return workerIdentifier;
+    }
+
+    public long getLeaseDurationMillis() {
+        return leaseDurationMillis;
+    }
+
+    public long getSnapshotTimeMillis() {
+        return snapshotTimeMillis;
+    }
+
+    public Collection<T> getAllLeases() {
+        return leaseIndex.values();
+    }
+
+    public T getLease(String leaseKey) {
+        return leaseIndex.get(leaseKey);
+    }
+
+    public Set<String> getExpiredLeaseKeys() {
+        return expiredLeaseKeys;
+    }
+
+    public List<T> getLeasesStealComplete() {
+        return leasesStealComplete;
+    }
+
+    public Set<String> getLiveWorkers() {
+        return liveWorkers;
+    }
+
+    public Set<String> getOrphanedLeaseKeys() {
+        return orphanedLeaseKeys;
+    }
+
+    public int getLeaseCapacity() {
+        return leaseCapacity;
+    }
+
+    public boolean isExpired(T lease) {
+        return expiredLeaseKeys.contains(lease.getLeaseKey());
+    }
+
+    /**
+     * 是否过期超过一个Lease周期仍没有被任何Worker获取，通常是因为其他Worker都已达到处理能力上限。
+     */
+    public boolean isOrphaned(T lease) {
+        return orphanedLeaseKeys.contains(lease.getLeaseKey());
+    }
+
+    /**
+     * 本Worker持有的有效且未被偷的Lease。
+     */
+    public List<T> getOwnedLeases() {
+        List<T> ownedLeases = new ArrayList<T>();
+        for (String leaseKey : leaseIndex.getLeaseKeysByOwner(workerIdentifier)) {
+            T lease = leaseIndex.get(leaseKey);
+            if (lease.getLeaseStealer().isEmpty() && !isExpired(lease)) {
+                ownedLeases.add(lease);
+            }
+        }
+        return ownedLeases;
+    }
+
+    public List<T> getExpiredLeases() {
+        List<T> expiredLeases = new ArrayList<T>(expiredLeaseKeys.size());
+        for (String leaseKey : expiredLeaseKeys) {
+            expiredLeases.add(leaseIndex.get(leaseKey));
+        }
+        return expiredLeases;
+    }
+
+    /**
+     * Stealer不为空的Lease，包括已经转交但还未被Stealer获取的Lease。
+     */
+    public List<T> getStolenLeases() {
+        return leaseIndex.getStolenLeases();
+    }
+
+    /**
+     * 每个Worker持有的有效且未被偷的Lease的数量，包含本Worker。
+     * 只遍历过期以及正在被偷的Lease，与全部Lease的数量无关。
+     */
+    public Map<String, Integer> getLeaseCounts() {
+        Map<String, Integer> leaseCounts = new HashMap<String, Integer>();
+        for (String owner : leaseIndex.getOwners()) {
+            leaseCounts.put(owner, leaseIndex.getLeaseKeysByOwner(owner).size());
+        }
+        Set<String> excluded = new HashSet<String>(expiredLeaseKeys);
+        for (T lease : leaseIndex.getStolenLeases()) {
+            excluded.add(lease.getLeaseKey());
+        }
+        for (String leaseKey : excluded) {
+            String owner = leaseIndex.get(leaseKey).getLeaseOwner();
+            Integer count = leaseCounts.get(owner);
+            if (count == null) {
+                continue;
+            }
+            if (count == 1) {
+                leaseCounts.remove(owner);
+            } else {
+                leaseCounts.put(owner, count - 1);
+            }
+        }
+        if (!leaseCounts.containsKey(workerIdentifier)) {
+            leaseCounts.put(workerIdentifier, 0);
+        }
+        return leaseCounts;
+    }
+
+    /**
+     * 是否是其他Worker持有的有效且未被偷的Lease，即可以偷取的Lease。
+     */
+    public boolean isStealable(T lease) {
+        String leaseOwner = lease.getLeaseOwner();
+        return !leaseOwner.isEmpty() && !leaseOwner.equals(workerIdentifier)
+                && lease.getLeaseStealer().isEmpty() && !isExpired(lease);
+    }
+}
@@ -3,6 +3,8 @@ package com.aliyun.openservices.ots.internal.streamclient.lease;
 import com.aliyun.openservices.ots.internal.streamclient.ClientConfig;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseCapacityProvider;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseRenewer;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseTaker;
@@ -30,6 +32,7 @@ public class LeaseCoordinator<T extends Lease> {
     private final ILeaseManager<T> leaseManager;
     private final ILeaseRenewer<T> leaseRenewer;
     private final ILeaseTaker<T> leaseTaker;
+    private final LeaseSnapshotService<T> leaseSnapshotService;
     private final long renewerIntervalMillis;
     private final long takerIntervalMillis;
     private final long maxWaitTableReadyTimeMillis;
@@ -39,6 +42,8 @@ public class LeaseCoordinator<T extends Lease> {
     private ScheduledExecutorService scheduledExecutorService;
     private static final String THREAD_PREFIX = "LeaseCoordinator-";
     private volatile boolean running = false;
+    private volatile boolean takingLeases = true;
+    private volatile boolean draining = false;
     private Throwable lastTakeException;
     private Throwable lastRenewException;
     private long lastTimeOfSuccessfulTake;
@@ -49,13 +54,29 @@ public class LeaseCoordinator<T extends Lease> {
     public LeaseCoordinator(ILeaseManager<T> leaseManager,
                             String workerIdentifier,
                             ClientConfig config) {
+        this(leaseManager, workerIdentifier, config, LeaseCoordinator.<T>createAssignmentStrategy(config), null);
+    }
+
+    /**
+     * @param assignmentStrategy Lease的分配策略，替代ClientConfig中的AutoStealLease、粘性分配等分配相关的配置
+     * @param capacityProvider   本Worker的处理能力，为null时不限制本Worker持有的Lease数量
+     */
+    public LeaseCoordinator(ILeaseManager<T> leaseManager,
+                            String workerIdentifier,
+                            ClientConfig config,
+                            ILeaseAssignmentStrategy<T> assignmentStrategy,
+                            ILeaseCapacityProvider capacityProvider) {
         ThreadPoolExecutor renewPool = new ThreadPoolExecutor(config.getRenewThreadPoolSize(), config.getRenewThreadPoolSize(),
                 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
         renewPool.allowCoreThreadTimeOut(true);
 
         this.leaseManager = leaseManager;
-        this.leaseTaker = new LeaseTaker<T>(leaseManager, workerIdentifier, config.getLeaseDurationMillis(), config.isAutoStealLease());
-        this.leaseRenewer = new LeaseRenewer<T>(leaseManager, workerIdentifier, config.getLeaseDurationMillis(), renewPool);
+        this.leaseSnapshotService = new LeaseSnapshotService<T>(leaseManager, config.getTakerIntervalMillis());
+        this.leaseTaker = new LeaseTaker<T>(leaseManager, workerIdentifier, config.getLeaseDurationMillis(),
+                leaseSnapshotService, config.getTakerIntervalMillis(), config.isEnableWorkerHeartbeat(),
+                assignmentStrategy, capacityProvider);
+        this.leaseRenewer = new LeaseRenewer<T>(leaseManager, workerIdentifier, config.getLeaseDurationMillis(),
+                renewPool, leaseSnapshotService, config.isEnableWorkerHeartbeat());
         this.renewerIntervalMillis = config.getRenewerIntervalMillis();
         this.takerIntervalMillis = config.getTakerIntervalMillis();
         this.maxWaitTableReadyTimeMillis = config.getMaxWaitTableReadyTimeMillis();
@@ -63,6 +84,32 @@ public class LeaseCoordinator<T extends Lease> {
         this.statusTableWriteCapacity = config.getStatusTableWriteCapacity();
     }
 
+    /**
+     * 根据ClientConfig创建默认的分配策略：开启粘性分配时按Rendezvous哈希分配，否则按数量或吞吐均衡。
+     */
+    public static <T extends Lease> ILeaseAssignmentStrategy<T> createAssignmentStrategy(ClientConfig config) {
+        if (config.isEnableStickyLeaseAssignment()) {
+            return new StickyLeaseAssignmentStrategy<T>(config.isAutoStealLease(), config.getMaxStealLeasesPerTake(),
+                    config.getStickyLeaseGraceMillis());
+        }
+        return new BalancedLeaseAssignmentStrategy<T>(config.isAutoStealLease(), config.getMaxStealLeasesPerTake(),
+                config.getLoadBalanceThroughputWeight());
+    }
+
+    /**
+     * LeaseTaker每个周期刷新一次的StatusTable快照，Worker内其他需要读取全部Lease的组件应复用该快照。
+     */
+    public LeaseSnapshotService<T> getLeaseSnapshotService() {
+        return leaseSnapshotService;
+    }
+
+    /**
+     * 长时间没有被任何Worker获取的Lease的数量，大于0说明所有Worker都已达到处理能力上限，延迟在持续增加。
+     */
+    public int getUnassignedLeaseCount() {
+        return leaseTaker.getUnassignedLeaseCount();
+    }
+
     public Throwable getLastTakeException() {
         return lastTakeException;
     }
@@ -157,6 +204,13 @@ public class LeaseCoordinator<T extends Lease> {
     }
 
     private void runTaker() throws StreamClientException, DependencyException {
+        if (draining) {
+            leaseTaker.handOffLeases();
+            return;
+        }
+        if (!takingLeases) {
+            return;
+        }
         Map<String, T> takenLeases = leaseTaker.takeLeases();
 
         synchronized (shutdownLock) {
@@ -174,6 +228,13 @@ public class LeaseCoordinator<T extends Lease> {
         return leaseRenewer.getCurrentlyHeldLeases().values();
     }
 
+    /**
+     * 持有的Lease集合的版本号，版本号不变时不需要重新根据getCurrentlyHeldLeases()构建ShardConsumer。
+     */
+    public long getHeldLeasesVersion() {
+        return leaseRenewer.getHeldLeasesVersion();
+    }
+
     public T getCurrentlyHeldLease(String leaseKey) {
         return leaseRenewer.getCurrentlyHeldLease(leaseKey);
     }
@@ -182,10 +243,47 @@ public class LeaseCoordinator<T extends Lease> {
         return leaseRenewer.updateLease(lease, leaseIdentifier);
     }
 
+    public void updateLeaseLoad(String leaseKey, LeaseLoad leaseLoad) {
+        leaseRenewer.updateLeaseLoad(leaseKey, leaseLoad);
+    }
+
     public boolean transferLease(String leaseKey, String leaseIdentifier) throws StreamClientException, DependencyException {
         return leaseRenewer.transferLease(leaseKey, leaseIdentifier);
     }
 
+    public boolean releaseLease(String leaseKey, String leaseIdentifier) throws StreamClientException, DependencyException {
+        return leaseRenewer.releaseLease(leaseKey, leaseIdentifier);
+    }
+
+    /**
+     * 停止获取新的Lease，已持有的Lease仍会继续续租，用于Worker正常退出时逐个释放Lease。
+     */
+    public void stopTakingLeases() {
+        LOG.info("Stop taking leases.");
+        takingLeases = false;
+    }
+
+    /**
+     * 开始排空：停止获取新的Lease，此后每个Take周期将仍持有的Lease转交给负载最低的其他Worker。
+     * 转交以Stealer的形式写入，Worker在处理完当前数据后关闭对应的ShardConsumer并完成Transfer。
+     */
+    public void drain() {
+        LOG.info("Start draining leases.");
+        draining = true;
+        takingLeases = false;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 是否已排空，即已开始排空且不再持有任何Lease。
+     */
+    public boolean isDrained() {
+        return draining && leaseRenewer.getCurrentlyHeldLeases().isEmpty();
+    }
+
     public void checkRenewerAndTakerStatus(long maxDurationBeforeLastSuccess) throws StreamClientException {
         long now = System.currentTimeMillis();
         if (lastTimeOfSuccessfulRenew == 0) {
@@ -0,0 +1,198 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.*;
+
+/**
+ * LeaseTaker持有的全部Lease及其索引：按Owner索引、按LastCounterIncrementMillis排序的过期索引，以及正在被偷的Lease。
+ * LeaseTaker每次读取StatusTable后只对发生变化的Lease调用put，只有Owner、Stealer或LastCounterIncrementMillis发生变化时才会更新索引，
+ * 过期的Lease、各Owner持有的Lease等查询只与结果的大小有关，不需要遍历全部Lease。
+ *
+ * Lease对象会被LeaseManager的操作修改，索引记录的是put时的值，Lease被修改后需要再次put。
+ * 非线程安全，由LeaseTaker加锁访问。
+ * @param <T>
+ */
+class LeaseIndex<T extends Lease> {
+
+    private static class Entry<T> {
+        private T lease;
+        private String owner;
+        private String stealer;
+        private long lastCounterIncrementMillis;
+    }
+
+    private final Map<String, Entry<T>> entries = new HashMap<String, Entry<T>>();
+    private final Map<String, Set<String>> leaseKeysByOwner = new HashMap<String, Set<String>>();
+    private final TreeMap<Long, Set<String>> leaseKeysByLastUpdate = new TreeMap<Long, Set<String>>();
+    private final Set<String> stolenLeaseKeys = new HashSet<String>();
+    private final Collection<T> values = new AbstractCollection<T>() {
+        public Iterator<T> iterator() {
+            final Iterator<Entry<T>> iter = entries.values().iterator();
+            return new Iterator<T>() {
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                public T next() {
+                    return iter.next().lease;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public int size() {
+            return entries.size();
+        }
+    };
+
+    LeaseIndex() {
+    }
+
+    LeaseIndex(Collection<T> leases) {
+        for (T lease : leases) {
+            put(lease);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    T get(String leaseKey) {
+        Entry<T> entry = entries.get(leaseKey);
+        return entry == null ? null : entry.lease;
+    }
+
+    /**
+     * 全部Lease的只读视图。
+     */
+    Collection<T> values() {
+        return values;
+    }
+
+    Set<String> keySet() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * 添加或替换Lease，字段未变化时只替换Lease对象。
+     */
+    void put(T lease) {
+        Entry<T> entry = entries.get(lease.getLeaseKey());
+        if (entry == null) {
+            entry = new Entry<T>();
+            entries.put(lease.getLeaseKey(), entry);
+        } else if (entry.owner.equals(lease.getLeaseOwner()) && entry.stealer.equals(lease.getLeaseStealer())
+                && entry.lastCounterIncrementMillis == lease.getLastCounterIncrementMillis()) {
+            entry.lease = lease;
+            return;
+        } else {
+            unindex(lease.getLeaseKey(), entry);
+        }
+        entry.lease = lease;
+        entry.owner = lease.getLeaseOwner();
+        entry.stealer = lease.getLeaseStealer();
+        entry.lastCounterIncrementMillis = lease.getLastCounterIncrementMillis();
+        index(lease.getLeaseKey(), entry);
+    }
+
+    T remove(String leaseKey) {
+        Entry<T> entry = entries.remove(leaseKey);
+        if (entry == null) {
+            return null;
+        }
+        unindex(leaseKey, entry);
+        return entry.lease;
+    }
+
+    /**
+     * 删除不在leaseKeys中的Lease。
+     */
+    void retainAll(Set<String> leaseKeys) {
+        List<String> removed = new ArrayList<String>();
+        for (String leaseKey : entries.keySet()) {
+            if (!leaseKeys.contains(leaseKey)) {
+                removed.add(leaseKey);
+            }
+        }
+        for (String leaseKey : removed) {
+            remove(leaseKey);
+        }
+    }
+
+    /**
+     * 在now时已过期的Lease，即LastCounterIncrementMillis早于now - leaseDurationMillis的Lease，与Lease.isExpired一致。
+     */
+    List<T> getExpiredLeases(long leaseDurationMillis, long now) {
+        List<T> expiredLeases = new ArrayList<T>();
+        for (Set<String> leaseKeys : leaseKeysByLastUpdate.headMap(now - leaseDurationMillis).values()) {
+            for (String leaseKey : leaseKeys) {
+                expiredLeases.add(entries.get(leaseKey).lease);
+            }
+        }
+        return expiredLeases;
+    }
+
+    /**
+     * 持有Lease的Owner，不包括空Owner。
+     */
+    Set<String> getOwners() {
+        return Collections.unmodifiableSet(leaseKeysByOwner.keySet());
+    }
+
+    Set<String> getLeaseKeysByOwner(String owner) {
+        Set<String> leaseKeys = leaseKeysByOwner.get(owner);
+        return leaseKeys == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(leaseKeys);
+    }
+
+    /**
+     * Stealer不为空的Lease。
+     */
+    List<T> getStolenLeases() {
+        List<T> leases = new ArrayList<T>(stolenLeaseKeys.size());
+        for (String leaseKey : stolenLeaseKeys) {
+            leases.add(entries.get(leaseKey).lease);
+        }
+        return leases;
+    }
+
+    private void index(String leaseKey, Entry<T> entry) {
+        if (!entry.owner.isEmpty()) {
+            Set<String> leaseKeys = leaseKeysByOwner.get(entry.owner);
+            if (leaseKeys == null) {
+                leaseKeys = new HashSet<String>();
+                leaseKeysByOwner.put(entry.owner, leaseKeys);
+            }
+            leaseKeys.add(leaseKey);
+        }
+        if (!entry.stealer.isEmpty()) {
+            stolenLeaseKeys.add(leaseKey);
+        }
+        Set<String> leaseKeys = leaseKeysByLastUpdate.get(entry.lastCounterIncrementMillis);
+        if (leaseKeys == null) {
+            leaseKeys = new HashSet<String>();
+            leaseKeysByLastUpdate.put(entry.lastCounterIncrementMillis, leaseKeys);
+        }
+        leaseKeys.add(leaseKey);
+    }
+
+    private void unindex(String leaseKey, Entry<T> entry) {
+        if (!entry.owner.isEmpty()) {
+            removeFromMultimap(leaseKeysByOwner, entry.owner, leaseKey);
+        }
+        stolenLeaseKeys.remove(leaseKey);
+        removeFromMultimap(leaseKeysByLastUpdate, entry.lastCounterIncrementMillis, leaseKey);
+    }
+
+    private static <K> void removeFromMultimap(Map<K, Set<String>> map, K key, String leaseKey) {
+        Set<String> leaseKeys = map.get(key);
+        if (leaseKeys != null) {
+            leaseKeys.remove(leaseKey);
+            if (leaseKeys.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+/**
+ * Lease对应的Shard最近的处理负载，由持有该Lease的Worker统计并写入StatusTable，供LeaseTaker按负载进行均衡。
+ * 该类是不可变的。
+ */
+public class LeaseLoad {
+
+    public static final LeaseLoad EMPTY = new LeaseLoad(0, 0, 0);
+
+    private final long recordsPerSecond;
+    private final long bytesPerSecond;
+    private final long processMillisPerSecond;
+
+    /**
+     * @param recordsPerSecond       每秒处理的数据条数
+     * @param bytesPerSecond         每秒处理的数据大小
+     * @param processMillisPerSecond 每秒中用户processRecords的执行耗时
+     */
+    public LeaseLoad(long recordsPerSecond, long bytesPerSecond, long processMillisPerSecond) {
+        this.recordsPerSecond = recordsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.processMillisPerSecond = processMillisPerSecond;
+    }
+
+    public long getRecordsPerSecond() {
+        return recordsPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getProcessMillisPerSecond() {
+        return processMillisPerSecond;
+    }
+
+    public boolean isEmpty() {
+        return recordsPerSecond == 0 && bytesPerSecond == 0 && processMillisPerSecond == 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LeaseLoad)) {
+            return false;
+        }
+        LeaseLoad other = (LeaseLoad) obj;
+        return recordsPerSecond == other.recordsPerSecond
+                && bytesPerSecond == other.bytesPerSecond
+                && processMillisPerSecond == other.processMillisPerSecond;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (recordsPerSecond ^ (recordsPerSecond >>> 32));
+        result = 31 * result + (int) (bytesPerSecond ^ (bytesPerSecond >>> 32));
+        result = 31 * result + (int) (processMillisPerSecond ^ (processMillisPerSecond >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordsPerSecond: " + recordsPerSecond
+                + ", BytesPerSecond: " + bytesPerSecond
+                + ", ProcessMillisPerSecond: " + processMillisPerSecond;
+    }
+}
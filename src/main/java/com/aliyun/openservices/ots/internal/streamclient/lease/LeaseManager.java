@@ -13,8 +13,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 /**
@@ -76,6 +78,13 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
                 createLeaseCallable(lease)).call();
     }
 
+    public boolean createLeaseIfNotExists(T lease) throws StreamClientException, DependencyException {
+        return new RetryingCallableDecorator<Boolean>(
+                IRetryStrategy.RetryableAction.LEASE_ACTION_CREATE_LEASE,
+                retryStrategy,
+                createLeaseIfNotExistsCallable(lease)).call();
+    }
+
     public T getLease(String leaseKey) throws StreamClientException, DependencyException {
         return new RetryingCallableDecorator<T>(
                 IRetryStrategy.RetryableAction.LEASE_ACTION_GET_LEASE,
@@ -90,6 +99,13 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
                 renewLeaseCallable(lease)).call();
     }
 
+    public Map<String, Boolean> batchRenewLeases(List<T> leases) throws StreamClientException, DependencyException {
+        return new RetryingCallableDecorator<Map<String, Boolean>>(
+                IRetryStrategy.RetryableAction.LEASE_ACTION_BATCH_RENEW_LEASES,
+                retryStrategy,
+                batchRenewLeasesCallable(leases)).call();
+    }
+
     public boolean takeLease(T lease, String owner) throws StreamClientException, DependencyException {
         return new RetryingCallableDecorator<Boolean>(
                 IRetryStrategy.RetryableAction.LEASE_ACTION_TAKE_LEASE,
@@ -111,6 +127,13 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
                 transferLeaseCallable(lease)).call();
     }
 
+    public boolean releaseLease(T lease) throws StreamClientException, DependencyException {
+        return new RetryingCallableDecorator<Boolean>(
+                IRetryStrategy.RetryableAction.LEASE_ACTION_RELEASE_LEASE,
+                retryStrategy,
+                releaseLeaseCallable(lease)).call();
+    }
+
     public void deleteLease(String leaseKey) throws StreamClientException, DependencyException {
         new RetryingCallableDecorator<Void>(
                 IRetryStrategy.RetryableAction.LEASE_ACTION_DELETE_LEASE,
@@ -125,6 +148,27 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
                 updateLeaseCallable(lease)).call();
     }
 
+    public void renewWorkerHeartbeat(String workerIdentifier, long heartbeatCounter) throws StreamClientException, DependencyException {
+        new RetryingCallableDecorator<Void>(
+                IRetryStrategy.RetryableAction.LEASE_ACTION_RENEW_WORKER_HEARTBEAT,
+                retryStrategy,
+                renewWorkerHeartbeatCallable(workerIdentifier, heartbeatCounter)).call();
+    }
+
+    public Map<String, Long> listWorkerHeartbeats() throws StreamClientException, DependencyException {
+        return new RetryingCallableDecorator<Map<String, Long>>(
+                IRetryStrategy.RetryableAction.LEASE_ACTION_LIST_WORKER_HEARTBEATS,
+                retryStrategy,
+                listWorkerHeartbeatsCallable()).call();
+    }
+
+    public void deleteWorkerHeartbeat(String workerIdentifier) throws StreamClientException, DependencyException {
+        new RetryingCallableDecorator<Void>(
+                IRetryStrategy.RetryableAction.LEASE_ACTION_DELETE_WORKER_HEARTBEAT,
+                retryStrategy,
+                deleteWorkerHeartbeatCallable(workerIdentifier)).call();
+    }
+
     private Callable<Boolean> createLeaseTableIfNotExistsCallable(final int readCU, final int writeCU, final int ttl) {
         return new Callable<Boolean>() {
             public Boolean call() throws Exception {
@@ -217,6 +261,26 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
         };
     }
 
+    public Callable<Boolean> createLeaseIfNotExistsCallable(final T lease) {
+        return new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    PutRowRequest putRowRequest = serializer.getPutRowRequestForCreate(lease);
+                    ots.putRow(putRowRequest);
+                    return true;
+                } catch (TableStoreException ex) {
+                    if (ex.getErrorCode().equals(OTS_CONDITION_CHECK_FAIL)) {
+                        return false;
+                    }
+
+                    throw new DependencyException(ex.getMessage(), ex);
+                } catch (ClientException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
     public Callable<T> getLeaseCallable(final String leaseKey) {
         return new Callable<T>() {
             public T call() throws Exception {
@@ -258,6 +322,37 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
         };
     }
 
+    public Callable<Map<String, Boolean>> batchRenewLeasesCallable(final List<T> leases) {
+        return new Callable<Map<String, Boolean>>() {
+            public Map<String, Boolean> call() throws Exception {
+                try {
+                    BatchWriteRowRequest batchWriteRowRequest = serializer.getBatchWriteRowRequestForRenew(leases);
+                    BatchWriteRowResponse response = ots.batchWriteRow(batchWriteRowRequest);
+                    Map<String, Boolean> result = new HashMap<String, Boolean>();
+                    for (BatchWriteRowResponse.RowResult rowResult : response.getSucceedRows()) {
+                        T lease = leases.get(rowResult.getIndex());
+                        lease.setLeaseCounter(lease.getLeaseCounter() + 1);
+                        result.put(lease.getLeaseKey(), true);
+                    }
+                    for (BatchWriteRowResponse.RowResult rowResult : response.getFailedRows()) {
+                        T lease = leases.get(rowResult.getIndex());
+                        if (OTS_CONDITION_CHECK_FAIL.equals(rowResult.getError().getCode())) {
+                            result.put(lease.getLeaseKey(), false);
+                        } else {
+                            LOG.warn("Renew lease in batch failed, LeaseKey: {}, ErrorCode: {}, ErrorMessage: {}.",
+                                    lease.getLeaseKey(), rowResult.getError().getCode(), rowResult.getError().getMessage());
+                        }
+                    }
+                    return result;
+                } catch (TableStoreException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                } catch (ClientException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
     public Callable<Boolean> takeLeaseCallable(final T lease, final String owner) {
         return new Callable<Boolean>() {
             public Boolean call() throws Exception {
@@ -328,6 +423,29 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
         };
     }
 
+    public Callable<Boolean> releaseLeaseCallable(final T lease) {
+        return new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    UpdateRowRequest updateRowRequest = serializer.getUpdateRowRequestForRelease(lease);
+                    ots.updateRow(updateRowRequest);
+                    lease.setLeaseCounter(lease.getLeaseCounter() + 1);
+                    lease.setLeaseOwner("");
+                    lease.setLeaseStealer("");
+                    return true;
+                } catch (TableStoreException ex) {
+                    if (ex.getErrorCode().equals(OTS_CONDITION_CHECK_FAIL)) {
+                        return false;
+                    }
+
+                    throw new DependencyException(ex.getMessage(), ex);
+                } catch (ClientException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
     public Callable<Void> deleteLeaseCallable(final String leaseKey) {
         return new Callable<Void>() {
             public Void call() throws Exception {
@@ -364,5 +482,57 @@ public class LeaseManager<T extends Lease> implements ILeaseManager<T> {
             }
         };
     }
-}
 
+    public Callable<Void> renewWorkerHeartbeatCallable(final String workerIdentifier, final long heartbeatCounter) {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                try {
+                    ots.putRow(serializer.getPutRowRequestForWorkerHeartbeat(workerIdentifier, heartbeatCounter));
+                    return null;
+                } catch (TableStoreException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                } catch (ClientException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
+    public Callable<Map<String, Long>> listWorkerHeartbeatsCallable() {
+        return new Callable<Map<String, Long>>() {
+            public Map<String, Long> call() throws Exception {
+                try {
+                    Iterator<Row> iterator = ots.createRangeIterator(serializer.getWorkerHeartbeatRangeIteratorParameter());
+                    Map<String, Long> heartbeats = new HashMap<String, Long>();
+                    while (iterator.hasNext()) {
+                        Row row = iterator.next();
+                        Long heartbeatCounter = serializer.getHeartbeatCounter(row);
+                        if (heartbeatCounter != null) {
+                            heartbeats.put(serializer.getWorkerIdentifier(row), heartbeatCounter);
+                        }
+                    }
+                    return heartbeats;
+                } catch (TableStoreException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                } catch (ClientException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
+    public Callable<Void> deleteWorkerHeartbeatCallable(final String workerIdentifier) {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                try {
+                    ots.deleteRow(serializer.getDeleteRowRequestForWorkerHeartbeat(workerIdentifier));
+                    return null;
+                } catch (TableStoreException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                } catch (ClientException ex) {
+                    throw new DependencyException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+}
@@ -9,13 +9,20 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 管理当前已经分配到的Lease的更新。
- * 所有的lease加入LeaseRenewer或者被获取，都必须是经过copy，保证除了LeaseRenewer本身，其他人不会去修改其内部管理的Lease的状态。
+ * ownedLeases中保存的是每个Lease当前发布的快照，快照一经发布不再修改。
+ * Update等写操作按Lease串行执行，先copy当前快照，在副本上写入StatusTable，成功后以CAS替换快照；
+ * 批量续租不在RPC期间持有任何Lease的锁，结果返回后再逐个在各自的锁内检查Counter并发布。
+ * 读取持有的Lease时直接返回快照，不加锁也不copy，调用方不能修改返回的Lease。
  *
  * @param <T>
  */
@@ -23,78 +30,361 @@ public class LeaseRenewer<T extends Lease> implements ILeaseRenewer<T> {
 
     private static final Logger LOG = LoggerFactory.getLogger(LeaseRenewer.class);
 
+    /**
+     * 单次BatchWriteRow最多包含200行。
+     */
+    private static final int MAX_BATCH_RENEW_SIZE = 200;
+
+    /**
+     * 本Worker对一个Lease的一次持有，每次加入LeaseRenewer时新建。
+     * 同一个Lease的写操作以该对象为锁串行执行，避免并发的条件写使用相同的Counter而互相导致失败。
+     */
+    private static class OwnedLease<T extends Lease> {
+        private final AtomicReference<T> snapshot;
+        /**
+         * 正在进行的批量续租所使用的LeaseCounter，没有时为-1。
+         * 写操作与批量续租使用了相同的Counter而失败时，等待续租结果后用新的Counter重试。
+         */
+        private final AtomicLong renewingCounter = new AtomicLong(-1);
+
+        OwnedLease(T lease) {
+            this.snapshot = new AtomicReference<T>(lease);
+        }
+
+        T get() {
+            return snapshot.get();
+        }
+
+        /**
+         * 以CAS发布新的快照。只有updateLeaseLoad不持有写锁，CAS失败时保留其设置的负载后重试。
+         */
+        void publish(T expected, T next) {
+            while (!snapshot.compareAndSet(expected, next)) {
+                expected = snapshot.get();
+                next.setLeaseLoad(expected.getLeaseLoad());
+            }
+        }
+    }
+
     private final ILeaseManager<T> leaseManager;
     private final String workerIdentifier;
     private final long leaseDurationMillis;
-    private final ConcurrentNavigableMap<String, T> ownedLeases = new ConcurrentSkipListMap<String, T>();
+    private final ConcurrentNavigableMap<String, OwnedLease<T>> ownedLeases = new ConcurrentSkipListMap<String, OwnedLease<T>>();
     private final ExecutorService executorService;
+    private final LeaseSnapshotService<T> leaseSnapshotService;
+    private final boolean enableWorkerHeartbeat;
+    private final AtomicLong heartbeatCounter = new AtomicLong(0);
+    private final AtomicLong heldLeasesVersion = new AtomicLong(0);
+    /**
+     * 心跳模式下本地已不再持有、但StatusTable中的Owner可能仍为本Worker的Lease。
+     * 本Worker的心跳仍在更新，其他Worker不会认为这些Lease过期，因此每个心跳周期尝试释放，直到成功或者Owner已不是本Worker。
+     */
+    private final ConcurrentMap<String, T> leasesToRelease = new ConcurrentHashMap<String, T>();
 
     public LeaseRenewer(ILeaseManager<T> leaseManager,
                         String workerIdentifier,
                         long leaseDurationMillis,
                         ExecutorService executorService) {
+        this(leaseManager, workerIdentifier, leaseDurationMillis, executorService, null, false);
+    }
+
+    /**
+     * @param leaseSnapshotService  心跳模式下，通过LeaseTaker最近一次读取的快照发现Stealer以及被其他Worker获取的Lease
+     * @param enableWorkerHeartbeat 是否以Worker心跳代替逐个Lease的续租
+     */
+    public LeaseRenewer(ILeaseManager<T> leaseManager,
+                        String workerIdentifier,
+                        long leaseDurationMillis,
+                        ExecutorService executorService,
+                        LeaseSnapshotService<T> leaseSnapshotService,
+                        boolean enableWorkerHeartbeat) {
         this.leaseManager = leaseManager;
         this.workerIdentifier = workerIdentifier;
         this.leaseDurationMillis = leaseDurationMillis;
         this.executorService = executorService;
+        this.leaseSnapshotService = leaseSnapshotService;
+        this.enableWorkerHeartbeat = enableWorkerHeartbeat;
     }
 
     @Override
     public void renewLeases() throws StreamClientException, DependencyException {
         LOG.debug("Start renew leases.");
+        if (enableWorkerHeartbeat) {
+            renewWorkerHeartbeat();
+            return;
+        }
+        List<OwnedLease<T>> batch = new ArrayList<OwnedLease<T>>();
+        for (OwnedLease<T> ownedLease : ownedLeases.descendingMap().values()) {
+            batch.add(ownedLease);
+            if (batch.size() >= MAX_BATCH_RENEW_SIZE) {
+                submitBatchRenew(batch);
+                batch = new ArrayList<OwnedLease<T>>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            submitBatchRenew(batch);
+        }
+    }
+
+    private void submitBatchRenew(final List<OwnedLease<T>> leases) {
         executorService.submit(new Callable<Object>() {
             @Override
             public Object call() throws Exception {
-                findStealer();
+                batchRenewLeases(leases);
                 return null;
             }
         });
+    }
 
-        for (final T lease : ownedLeases.descendingMap().values()) {
-            executorService.submit(new Callable<Boolean>() {
-                @Override
-                public Boolean call() throws Exception {
-                    return renewLease(lease, false);
+    /**
+     * 以各Lease当前的快照构造请求，RPC期间不持有任何Lease的锁。
+     * 结果返回后逐个在该Lease的锁内应用：若续租期间有其他写操作改变了Counter，以其结果为准；
+     * 非条件检查导致的失败改为单独续租该Lease。
+     */
+    private void batchRenewLeases(List<OwnedLease<T>> leases) throws StreamClientException, DependencyException {
+        long now = System.currentTimeMillis();
+        List<OwnedLease<T>> ownedLeasesToRenew = new ArrayList<OwnedLease<T>>();
+        List<T> leasesToRenew = new ArrayList<T>();
+        for (OwnedLease<T> ownedLease : leases) {
+            T lease = ownedLease.get();
+            if (lease.isExpired(leaseDurationMillis, now)) {
+                LOG.info("Lease is expired: {}, now: {}.", lease, now);
+                LOG.error("Lease is lost, Lease: {}.", lease);
+                removeOwnedLease(lease.getLeaseKey(), ownedLease);
+            } else if (ownedLease.renewingCounter.compareAndSet(-1, lease.getLeaseCounter())) {
+                ownedLeasesToRenew.add(ownedLease);
+                leasesToRenew.add(lease.<T>copy());
+            } else {
+                LOG.debug("Lease is renewing, skip it. LeaseKey: {}.", lease.getLeaseKey());
+            }
+        }
+        if (leasesToRenew.isEmpty()) {
+            return;
+        }
+
+        Map<String, Boolean> results = null;
+        try {
+            results = leaseManager.batchRenewLeases(leasesToRenew);
+        } finally {
+            if (results == null) {
+                // 整个请求失败，Lease仍然有效，下个周期重试
+                for (OwnedLease<T> ownedLease : ownedLeasesToRenew) {
+                    finishRenew(ownedLease);
                 }
-            });
-        }
-    }
-
-    void findStealer() throws StreamClientException, DependencyException {
-        LOG.debug("Start find stealer.");
-        List<T> newList = leaseManager.listLeases(); // TODO it's a huge consumption of read capacity, need to optimize
-        for (T lease : newList) {
-            String leaseKey = lease.getLeaseKey();
-            T ownedLease = ownedLeases.get(leaseKey);
-            if (ownedLease != null) {
-                synchronized (ownedLease) {
-                    if (ownedLease.getLeaseStealer().isEmpty() && !lease.getLeaseStealer().isEmpty()
-                            && lease.getLeaseCounter() == ownedLease.getLeaseCounter()) {
-                        LOG.info("Stealer found. LeaseKey: {}, Stealer: {}.", lease.getLeaseKey(), lease.getLeaseStealer());
-                        ownedLease.setLeaseStealer(lease.getLeaseStealer());
+            }
+        }
+        for (int i = 0; i < leasesToRenew.size(); i++) {
+            T lease = leasesToRenew.get(i);
+            try {
+                applyRenewResult(ownedLeasesToRenew.get(i), lease, results.get(lease.getLeaseKey()));
+            } catch (Exception e) {
+                // 单独续租出错时Lease仍然有效，下个周期重试，不影响同一批中的其他Lease
+                LOG.warn("Renew lease failed. LeaseKey: {}, Exception: {}.", lease.getLeaseKey(), e);
+            }
+        }
+    }
+
+    /**
+     * @param renewed 批量续租中该Lease的副本，续租成功时其Counter已加一
+     * @param result  为null表示非条件检查导致的失败
+     */
+    private void applyRenewResult(OwnedLease<T> ownedLease, T renewed, Boolean result)
+            throws StreamClientException, DependencyException {
+        synchronized (ownedLease) {
+            try {
+                String leaseKey = renewed.getLeaseKey();
+                T current = ownedLease.get();
+                if (ownedLeases.get(leaseKey) != ownedLease
+                        || current.getLeaseCounter() != ownedLease.renewingCounter.get()) {
+                    // 已经不再持有，或者续租期间有其他写操作成功
+                    return;
+                }
+                boolean renewedLease;
+                T lease;
+                if (result != null && result) {
+                    renewedLease = true;
+                    lease = renewed;
+                    lease.setLeaseLoad(current.getLeaseLoad());
+                } else {
+                    if (result == null) {
+                        LOG.warn("Batch renew lease failed, renew it individually. LeaseKey: {}.", leaseKey);
+                    }
+                    lease = current.copy();
+                    renewedLease = result == null && leaseManager.renewLease(lease);
+                    if (!renewedLease && findStealer(lease)) {
+                        renewedLease = leaseManager.renewLease(lease);
+                    }
+                }
+                if (renewedLease) {
+                    LOG.debug("Renew lease, Lease: {}.", lease);
+                    lease.setLastCounterIncrementMillis(System.currentTimeMillis());
+                    publish(ownedLease, current, lease);
+                } else {
+                    LOG.error("Lease is lost, Lease: {}.", lease);
+                    removeOwnedLease(leaseKey, ownedLease);
+                }
+            } finally {
+                ownedLease.renewingCounter.set(-1);
+                ownedLease.notifyAll();
+            }
+        }
+    }
+
+    private void finishRenew(OwnedLease<T> ownedLease) {
+        synchronized (ownedLease) {
+            ownedLease.renewingCounter.set(-1);
+            ownedLease.notifyAll();
+        }
+    }
+
+    /**
+     * 写操作因条件检查失败时调用，若失败是因为与正在进行的批量续租使用了相同的Counter，等待续租结果。
+     *
+     * @return 是否需要以新的Counter重试
+     */
+    private boolean awaitRenew(OwnedLease<T> ownedLease, long leaseCounter) throws StreamClientException {
+        if (ownedLease.renewingCounter.get() != leaseCounter) {
+            return false;
+        }
+        waitForRenew(ownedLease);
+        return ownedLeases.get(ownedLease.get().getLeaseKey()) == ownedLease;
+    }
+
+    /**
+     * 在该Lease的锁内调用，等待正在进行的批量续租应用其结果，等待期间释放锁。
+     */
+    private void waitForRenew(OwnedLease<T> ownedLease) throws StreamClientException {
+        while (ownedLease.renewingCounter.get() != -1) {
+            try {
+                ownedLease.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StreamClientException("InterruptedWhileWaitingRenew", e);
+            }
+        }
+    }
+
+    /**
+     * 心跳模式下每个周期只写入一次Worker心跳，写入成功后本地持有的Lease均视为已续租。
+     * 心跳模式下Lease所在的行只在Checkpoint等操作时写入，Stealer及Lease的丢失通过LeaseTaker最近一次读取的快照发现，不额外读取StatusTable。
+     * 因过期而不再持有的Lease需要释放，否则其他Worker会按本Worker的心跳认为其一直有效。
+     */
+    private void renewWorkerHeartbeat() throws StreamClientException, DependencyException {
+        long startMillis = System.currentTimeMillis();
+        leaseManager.renewWorkerHeartbeat(workerIdentifier, heartbeatCounter.incrementAndGet());
+        LeaseSnapshot<T> snapshot = leaseSnapshotService == null ? null : leaseSnapshotService.getLatestSnapshot();
+
+        for (OwnedLease<T> ownedLease : ownedLeases.values()) {
+            synchronized (ownedLease) {
+                T current = ownedLease.get();
+                T lease = current.copy();
+                if (lease.isExpired(leaseDurationMillis, startMillis)) {
+                    LOG.info("Lease is expired: {}, now: {}.", lease, startMillis);
+                    if (removeOwnedLease(lease.getLeaseKey(), ownedLease)) {
+                        leasesToRelease.put(lease.getLeaseKey(), lease);
                     }
+                } else if (snapshot != null && isTakenByOthers(lease, snapshot)) {
+                    LOG.info("Lease is taken by others: {}.", lease);
+                    removeOwnedLease(lease.getLeaseKey(), ownedLease);
+                } else {
+                    lease.setLastCounterIncrementMillis(startMillis);
+                    publish(ownedLease, current, lease);
+                    continue;
+                }
+                LOG.error("Lease is lost, Lease: {}.", lease);
+            }
+        }
+        releaseLostLeases();
+    }
+
+    /**
+     * 释放心跳模式下本地已不再持有的Lease：StatusTable中的Owner仍为本Worker时，以最新的Counter释放，
+     * 有Stealer时直接转交给Stealer。释放失败时保留，下一个心跳周期重试。
+     */
+    private void releaseLostLeases() {
+        Iterator<Map.Entry<String, T>> iter = leasesToRelease.entrySet().iterator();
+        while (iter.hasNext()) {
+            String leaseKey = iter.next().getKey();
+            if (ownedLeases.containsKey(leaseKey)) {
+                // 已经重新获取
+                iter.remove();
+                continue;
+            }
+            try {
+                T latest = leaseManager.getLease(leaseKey);
+                if (latest == null || !workerIdentifier.equals(latest.getLeaseOwner())) {
+                    iter.remove();
+                } else if (!latest.getLeaseStealer().isEmpty() ? leaseManager.transferLease(latest)
+                        : leaseManager.releaseLease(latest)) {
+                    LOG.info("Release lost lease, Lease: {}.", latest);
+                    iter.remove();
                 }
+            } catch (Exception e) {
+                LOG.warn("Release lost lease failed, LeaseKey: {}, Exception: {}.", leaseKey, e);
             }
         }
     }
 
+    /**
+     * 快照中Counter比本地新且Owner已不是本Worker，说明Lease已被其他Worker获取；
+     * Counter与本地相同且Stealer非空，说明Lease正在被偷，记录Stealer。
+     */
+    private boolean isTakenByOthers(T lease, LeaseSnapshot<T> snapshot) {
+        T latest = snapshot.getLease(lease.getLeaseKey());
+        if (latest == null) {
+            return false;
+        }
+        if (latest.getLeaseCounter() > lease.getLeaseCounter()) {
+            return !workerIdentifier.equals(latest.getLeaseOwner());
+        }
+        if (latest.getLeaseCounter() == lease.getLeaseCounter()
+                && lease.getLeaseStealer().isEmpty() && !latest.getLeaseStealer().isEmpty()) {
+            LOG.info("Stealer found. LeaseKey: {}, Stealer: {}.", lease.getLeaseKey(), latest.getLeaseStealer());
+            lease.setLeaseStealer(latest.getLeaseStealer());
+        }
+        return false;
+    }
+
+    /**
+     * 续租失败后读取该Lease，判断失败是否因为Lease被偷。
+     * 被偷时Counter和Owner均不变，只有Stealer被设置，此时记录Stealer，后续续租不再要求Stealer为空。
+     * Stealer通过续租路径发现，不需要周期性的全表扫描。
+     *
+     * @return 若发现了新的Stealer，返回true。
+     */
+    boolean findStealer(T lease) throws StreamClientException, DependencyException {
+        if (!lease.getLeaseStealer().isEmpty()) {
+            return false;
+        }
+        T latest = leaseManager.getLease(lease.getLeaseKey());
+        if (latest != null && !latest.getLeaseStealer().isEmpty()
+                && latest.getLeaseCounter() == lease.getLeaseCounter()
+                && latest.getLeaseOwner().equals(lease.getLeaseOwner())) {
+            LOG.info("Stealer found. LeaseKey: {}, Stealer: {}.", lease.getLeaseKey(), latest.getLeaseStealer());
+            lease.setLeaseStealer(latest.getLeaseStealer());
+            return true;
+        }
+        return false;
+    }
+
     private boolean renewLease(T lease, boolean renewEvenIfExpired) throws StreamClientException, DependencyException {
         LOG.debug("Start renew lease: {}", lease);
         long now = System.currentTimeMillis();
         boolean renewedLease = false;
 
-        synchronized (lease) {
-            /**
-             * In startup, lease can be renewed even if it is expired.
-             */
-            if (renewEvenIfExpired || !lease.isExpired(leaseDurationMillis, now)) {
+        /**
+         * In startup, lease can be renewed even if it is expired.
+         */
+        if (renewEvenIfExpired || !lease.isExpired(leaseDurationMillis, now)) {
+            renewedLease = leaseManager.renewLease(lease);
+            if (!renewedLease && findStealer(lease)) {
                 renewedLease = leaseManager.renewLease(lease);
-                if (!renewedLease) {
-                    LOG.info("Lease renew failed: {}.", lease);
-                }
-            } else {
-                LOG.info("Lease is expired: {}, now: {}.", lease, now);
             }
+            if (!renewedLease) {
+                LOG.info("Lease renew failed: {}.", lease);
+            }
+        } else {
+            LOG.info("Lease is expired: {}, now: {}.", lease, now);
         }
 
         if (renewedLease) {
@@ -108,28 +398,37 @@ public class LeaseRenewer<T extends Lease> implements ILeaseRenewer<T> {
         return renewedLease;
     }
 
+    /**
+     * 返回的Lease为当前发布的快照，调用方不能修改。
+     */
     @Override
     public Map<String, T> getCurrentlyHeldLeases() {
         Map<String, T> result = new HashMap<String, T>();
         long now = System.currentTimeMillis();
-        for (Map.Entry<String, T> entry : ownedLeases.entrySet()) {
-            T lease = entry.getValue();
-            if (lease != null && !lease.isExpired(leaseDurationMillis, now)) {
-                T copy = lease.copy();
-                result.put(copy.getLeaseKey(), copy);
+        for (OwnedLease<T> ownedLease : ownedLeases.values()) {
+            T lease = ownedLease.get();
+            if (!lease.isExpired(leaseDurationMillis, now)) {
+                result.put(lease.getLeaseKey(), lease);
             }
         }
         return result;
     }
 
+    /**
+     * 返回的Lease为当前发布的快照，调用方不能修改。
+     */
     @Override
     public T getCurrentlyHeldLease(String leaseKey) {
-        T lease = ownedLeases.get(leaseKey);
+        OwnedLease<T> ownedLease = ownedLeases.get(leaseKey);
+        if (ownedLease == null) {
+            return null;
+        }
+        T lease = ownedLease.get();
         long now = System.currentTimeMillis();
-        if (lease == null || lease.isExpired(leaseDurationMillis, now)) {
+        if (lease.isExpired(leaseDurationMillis, now)) {
             return null;
         } else {
-            return lease.copy();
+            return lease;
         }
     }
 
@@ -144,21 +443,67 @@ public class LeaseRenewer<T extends Lease> implements ILeaseRenewer<T> {
             copy.setLeaseIdentifier(UUID.randomUUID().toString());
 
             LOG.info("New lease added: {}", copy);
-            ownedLeases.put(copy.getLeaseKey(), copy);
+            ownedLeases.put(copy.getLeaseKey(), new OwnedLease<T>(copy));
+        }
+        if (!newLeases.isEmpty()) {
+            heldLeasesVersion.incrementAndGet();
         }
     }
 
     @Override
     public void clearCurrentlyHeldLeases() {
         ownedLeases.clear();
+        leasesToRelease.clear();
+        heldLeasesVersion.incrementAndGet();
+    }
+
+    @Override
+    public long getHeldLeasesVersion() {
+        return heldLeasesVersion.get();
+    }
+
+    /**
+     * 发布新的快照，Stealer变化时持有的Lease集合视为发生了变化。
+     */
+    private void publish(OwnedLease<T> ownedLease, T current, T next) {
+        ownedLease.publish(current, next);
+        if (!current.getLeaseStealer().equals(next.getLeaseStealer())) {
+            heldLeasesVersion.incrementAndGet();
+        }
+    }
+
+    private boolean removeOwnedLease(String leaseKey, OwnedLease<T> ownedLease) {
+        if (ownedLeases.remove(leaseKey, ownedLease)) {
+            heldLeasesVersion.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 负载更新较频繁，不等待写锁，直接以CAS发布带有新负载的快照。
+     */
+    @Override
+    public void updateLeaseLoad(String leaseKey, LeaseLoad leaseLoad) {
+        OwnedLease<T> ownedLease = ownedLeases.get(leaseKey);
+        if (ownedLease == null) {
+            return;
+        }
+        T current;
+        T next;
+        do {
+            current = ownedLease.get();
+            next = current.copy();
+            next.setLeaseLoad(leaseLoad);
+        } while (!ownedLease.snapshot.compareAndSet(current, next));
     }
 
     @Override
     public boolean updateLease(T lease, String leaseIdentifier) throws StreamClientException, DependencyException {
         LOG.debug("Start update lease. Lease: {}, LeaseIdentifier: {}.", lease, leaseIdentifier);
         String leaseKey = lease.getLeaseKey();
-        T ownedLease = ownedLeases.get(leaseKey);
-        LOG.debug("Owned lease to update: {}.", ownedLease);
+        OwnedLease<T> ownedLease = ownedLeases.get(leaseKey);
+        LOG.debug("Owned lease to update: {}.", ownedLease == null ? null : ownedLease.get());
         if (ownedLease == null) {
             return false;
         }
@@ -166,29 +511,39 @@ public class LeaseRenewer<T extends Lease> implements ILeaseRenewer<T> {
         /**
          * If the lease identifier is different, it means that the lease is lost and regained during its last taken and next update.
          */
-        if (!ownedLease.getLeaseIdentifier().equals(leaseIdentifier)) {
-            LOG.error("Try update lease but identifier mismatch. OwnedLease: {}, LeaseToUpdate: {}.", ownedLease, lease);
+        if (!ownedLease.get().getLeaseIdentifier().equals(leaseIdentifier)) {
+            LOG.error("Try update lease but identifier mismatch. OwnedLease: {}, LeaseToUpdate: {}.", ownedLease.get(), lease);
             return false;
         }
 
         synchronized (ownedLease) {
-            ownedLease.update(lease);
-            boolean updatedLease = leaseManager.updateLease(ownedLease);
+            T current;
+            T updated;
+            boolean updatedLease;
+            do {
+                current = ownedLease.get();
+                updated = current.copy();
+                updated.update(lease);
+                updatedLease = leaseManager.updateLease(updated);
+            } while (!updatedLease && awaitRenew(ownedLease, current.getLeaseCounter()));
             if (updatedLease) {
-                ownedLease.setLastCounterIncrementMillis(System.currentTimeMillis());
+                updated.setLastCounterIncrementMillis(System.currentTimeMillis());
+                ownedLease.publish(current, updated);
             } else {
                 LOG.info("UpdateLease: lease is lost. Lease: {}", lease);
 
                 /**
-                 * Can't only remove by leaseKey, we should also check the value (exactly check the lease counter).
+                 * Can't only remove by leaseKey, we should also check the value (exactly the same ownership).
                  * Because it is possible that lease is lost and regained, plays like:
                  *  1. lease identifier check pass
                  *  2. lost lease; re-acquire lease;
-                 *  3. update lease <--- now the counter is different with step 1.
+                 *  3. update lease <--- now the owned lease is a new one.
                  *
-                 *  So we can't remove it if the counter has changed.
+                 *  So we can't remove it if the lease has been re-acquired.
                  */
-                ownedLeases.remove(leaseKey, ownedLease);
+                if (removeOwnedLease(leaseKey, ownedLease) && enableWorkerHeartbeat) {
+                    leasesToRelease.put(leaseKey, current);
+                }
             }
             return updatedLease;
         }
@@ -197,7 +552,7 @@ public class LeaseRenewer<T extends Lease> implements ILeaseRenewer<T> {
     @Override
     public boolean transferLease(String leaseKey, String leaseIdentifier) throws StreamClientException, DependencyException {
         LOG.debug("Start transfer lease. LeaseKey: {}, LeaseIdentifier: {}.", leaseKey, leaseIdentifier);
-        T ownedLease = ownedLeases.get(leaseKey);
+        OwnedLease<T> ownedLease = ownedLeases.get(leaseKey);
         if (ownedLease == null) {
             return false;
         }
@@ -205,30 +560,62 @@ public class LeaseRenewer<T extends Lease> implements ILeaseRenewer<T> {
         /**
          * If the lease identifier is different, it means that the lease is lost and regained during its last taken and next update.
          */
-        if (!ownedLease.getLeaseIdentifier().equals(leaseIdentifier)) {
-            LOG.error("Try transfer lease but identifier mismatch. OwnedLease: {}, LeaseIdentifier: {}.", ownedLease, leaseIdentifier);
+        if (!ownedLease.get().getLeaseIdentifier().equals(leaseIdentifier)) {
+            LOG.error("Try transfer lease but identifier mismatch. OwnedLease: {}, LeaseIdentifier: {}.", ownedLease.get(), leaseIdentifier);
             return false;
         }
 
         synchronized (ownedLease) {
+            // 转交后不再持有该Lease，需要在续租结果应用之后以最新的Counter写入
+            waitForRenew(ownedLease);
             /**
-             * Can't only remove by leaseKey, we should also check the value (exactly check the lease counter).
+             * Can't only remove by leaseKey, we should also check the value (exactly the same ownership).
              * Because it is possible that lease is lost and regained, plays like:
              *  1. lease identifier check pass
              *  2. lost lease; re-acquire lease;
-             *  3. update lease <--- now the counter is different with step 1.
+             *  3. update lease <--- now the owned lease is a new one.
              *
-             *  So we can't remove it if the counter has changed.
+             *  So we can't remove it if the lease has been re-acquired.
              */
-            if (ownedLeases.remove(ownedLease.getLeaseKey(), ownedLease)) {
-                LOG.info("Lease is removed from owned leases map and start to transfer. Lease: {}.", ownedLease);
-                return leaseManager.transferLease(ownedLease);
+            if (removeOwnedLease(leaseKey, ownedLease)) {
+                T lease = ownedLease.get().copy();
+                LOG.info("Lease is removed from owned leases map and start to transfer. Lease: {}.", lease);
+                return leaseManager.transferLease(lease);
             } else {
                 return false;
             }
         }
     }
 
+    @Override
+    public boolean releaseLease(String leaseKey, String leaseIdentifier) throws StreamClientException, DependencyException {
+        LOG.debug("Start release lease. LeaseKey: {}, LeaseIdentifier: {}.", leaseKey, leaseIdentifier);
+        OwnedLease<T> ownedLease = ownedLeases.get(leaseKey);
+        if (ownedLease == null) {
+            return false;
+        }
+
+        if (!ownedLease.get().getLeaseIdentifier().equals(leaseIdentifier)) {
+            LOG.error("Try release lease but identifier mismatch. OwnedLease: {}, LeaseIdentifier: {}.", ownedLease.get(), leaseIdentifier);
+            return false;
+        }
+
+        synchronized (ownedLease) {
+            waitForRenew(ownedLease);
+            // 与transferLease相同，只有仍是同一次持有时才能从ownedLeases中删除
+            if (!removeOwnedLease(leaseKey, ownedLease)) {
+                return false;
+            }
+            T lease = ownedLease.get().copy();
+            if (!lease.getLeaseStealer().isEmpty()) {
+                LOG.info("Lease is removed from owned leases map and start to transfer. Lease: {}.", lease);
+                return leaseManager.transferLease(lease);
+            }
+            LOG.info("Lease is removed from owned leases map and start to release. Lease: {}.", lease);
+            return leaseManager.releaseLease(lease);
+        }
+    }
+
     @Override
     public void initialize() throws StreamClientException, DependencyException {
         Collection<T> leases = leaseManager.listLeases();
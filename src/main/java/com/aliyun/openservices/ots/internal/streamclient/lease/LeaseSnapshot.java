@@ -0,0 +1,89 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.*;
+
+/**
+ * 某一时刻StatusTable中全部Lease的只读快照。
+ * 快照内部的Lease不会被修改：getLease、getLeases返回的是copy，调用方可以自由修改；
+ * getLeaseView返回快照内部的Lease，不进行拷贝，调用方不能修改。
+ *
+ * @param <T>
+ */
+public class LeaseSnapshot<T extends Lease> {
+
+    private final Map<String, T> leases;
+    private final Collection<T> leaseView;
+    private final long snapshotTimeMillis;
+    private final long version;
+
+    /**
+     * @param leases  listLeases读取到的Lease，快照直接持有这些对象，调用方之后不能再修改
+     * @param version 快照的版本，同一个LeaseSnapshotService每次读取StatusTable时递增
+     */
+    LeaseSnapshot(Collection<T> leases, long snapshotTimeMillis, long version) {
+        Map<String, T> map = new HashMap<String, T>();
+        for (T lease : leases) {
+            map.put(lease.getLeaseKey(), lease);
+        }
+        this.leases = map;
+        this.leaseView = Collections.unmodifiableCollection(map.values());
+        this.snapshotTimeMillis = snapshotTimeMillis;
+        this.version = version;
+    }
+
+    /**
+     * 快照对应的读取时间。
+     */
+    public long getSnapshotTimeMillis() {
+        return snapshotTimeMillis;
+    }
+
+    /**
+     * 快照的版本，版本相同说明是同一次读取的结果。
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return leases.size();
+    }
+
+    public boolean containsLease(String leaseKey) {
+        return leases.containsKey(leaseKey);
+    }
+
+    /**
+     * @return 全部LeaseKey的只读视图。
+     */
+    public Set<String> getLeaseKeys() {
+        return Collections.unmodifiableSet(leases.keySet());
+    }
+
+    /**
+     * @return Lease的copy，若快照中不存在该Lease，返回null。
+     */
+    public T getLease(String leaseKey) {
+        T lease = leases.get(leaseKey);
+        return lease == null ? null : lease.<T>copy();
+    }
+
+    /**
+     * @return 全部Lease的copy。
+     */
+    public List<T> getLeases() {
+        List<T> list = new ArrayList<T>(leases.size());
+        for (T lease : leases.values()) {
+            list.add(lease.<T>copy());
+        }
+        return list;
+    }
+
+    /**
+     * 全部Lease的只读视图，不进行拷贝，适用于每个周期都需要遍历全部Lease的调用方。
+     * 视图中的Lease对象不能被修改，需要修改时先copy。
+     */
+    public Collection<T> getLeaseView() {
+        return leaseView;
+    }
+}
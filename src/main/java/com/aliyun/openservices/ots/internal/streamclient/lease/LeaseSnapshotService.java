@@ -0,0 +1,73 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
+import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 一个Worker内共享的StatusTable快照。
+ * LeaseTaker、ShardSync等都需要读取全部Lease，它们通过该类获取快照，
+ * 快照的新旧程度满足要求时直接复用，否则才进行一次listLeases，避免每个组件各自全表扫描。
+ *
+ * @param <T>
+ */
+public class LeaseSnapshotService<T extends Lease> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeaseSnapshotService.class);
+
+    private final ILeaseManager<T> leaseManager;
+    private final long defaultMaxStalenessMillis;
+    private final Object refreshLock = new Object();
+    private volatile LeaseSnapshot<T> currentSnapshot;
+    private long snapshotVersion = 0;
+
+    /**
+     * @param defaultMaxStalenessMillis getSnapshot()允许的快照最长存在时间
+     */
+    public LeaseSnapshotService(ILeaseManager<T> leaseManager, long defaultMaxStalenessMillis) {
+        this.leaseManager = leaseManager;
+        this.defaultMaxStalenessMillis = defaultMaxStalenessMillis;
+    }
+
+    public LeaseSnapshot<T> getSnapshot() throws StreamClientException, DependencyException {
+        return getSnapshot(defaultMaxStalenessMillis);
+    }
+
+    /**
+     * 获取存在时间不超过maxStalenessMillis的快照，没有满足条件的快照时进行一次listLeases。
+     * 多个线程同时需要刷新时，只有一个线程会读取StatusTable，其余线程复用其结果。
+     *
+     * @param maxStalenessMillis 不大于0时总是重新读取
+     */
+    public LeaseSnapshot<T> getSnapshot(long maxStalenessMillis) throws StreamClientException, DependencyException {
+        long requestTimeMillis = System.currentTimeMillis();
+        LeaseSnapshot<T> snapshot = currentSnapshot;
+        if (isFresh(snapshot, maxStalenessMillis, requestTimeMillis)) {
+            return snapshot;
+        }
+        synchronized (refreshLock) {
+            snapshot = currentSnapshot;
+            if (isFresh(snapshot, maxStalenessMillis, requestTimeMillis)) {
+                return snapshot;
+            }
+            snapshot = new LeaseSnapshot<T>(leaseManager.listLeases(), System.currentTimeMillis(), ++snapshotVersion);
+            LOG.debug("Refresh lease snapshot, LeaseCount: {}.", snapshot.size());
+            currentSnapshot = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * 获取最近一次的快照，不读取StatusTable，尚未读取过时返回null。
+     */
+    public LeaseSnapshot<T> getLatestSnapshot() {
+        return currentSnapshot;
+    }
+
+    private boolean isFresh(LeaseSnapshot<T> snapshot, long maxStalenessMillis, long now) {
+        return snapshot != null && maxStalenessMillis > 0
+                && now - snapshot.getSnapshotTimeMillis() <= maxStalenessMillis;
+    }
+}
@@ -0,0 +1,161 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.*;
+
+/**
+ * 根据各Worker当前持有的Lease的负载，计算本Worker本轮需要偷取哪些Lease。
+ * 每次从负载最高的Worker偷取一个Lease，直到本Worker达到目标负载或者达到单轮偷取上限，
+ * 一轮内可以从多个Worker偷取多个Lease。
+ *
+ * 每个Lease的负载由computeLeaseWeights计算，throughputWeight为0时每个Lease的负载均为1，即按Lease数量均衡。
+ *
+ * 为避免Lease在Worker之间来回迁移，只有偷取后被偷的Worker的负载仍不低于本Worker时才会偷取该Lease，
+ * 即Lease的负载不超过两者差值的一半，偷取后它不会再反过来偷回。满足条件的Lease中优先偷取负载最大的。
+ *
+ * @param <T>
+ */
+class LeaseStealPlanner<T extends Lease> {
+
+    /**
+     * 比较负载时允许的误差，避免浮点运算导致本应满足条件的Lease无法偷取。
+     */
+    private static final double EPSILON = 1e-9;
+
+    private final int maxStealLeasesPerTake;
+    private final double throughputWeight;
+
+    LeaseStealPlanner(int maxStealLeasesPerTake) {
+        this(maxStealLeasesPerTake, 0);
+    }
+
+    /**
+     * @param throughputWeight Shard吞吐在Lease负载中所占的权重，取值范围[0, 1]
+     */
+    LeaseStealPlanner(int maxStealLeasesPerTake, double throughputWeight) {
+        this.maxStealLeasesPerTake = maxStealLeasesPerTake;
+        this.throughputWeight = throughputWeight;
+    }
+
+    /**
+     * 是否只按Lease数量均衡，此时每个Lease的负载均为1。
+     */
+    boolean isCountBased() {
+        return throughputWeight <= 0;
+    }
+
+    /**
+     * 计算每个Lease的负载，全部Lease的负载之和等于Lease的数量。
+     * Lease的吞吐取其每秒数据条数、数据大小、处理耗时各自占全部Lease总量的比例的平均值，总量为0的维度不参与计算；
+     * 所有Lease都没有吞吐数据时，每个Lease的负载均为1。
+     *
+     * @param leases 全部Lease
+     * @return LeaseKey到负载的映射
+     */
+    Map<String, Double> computeLeaseWeights(Collection<T> leases) {
+        Map<String, Double> weights = new HashMap<String, Double>();
+        double totalRecords = 0;
+        double totalBytes = 0;
+        double totalMillis = 0;
+        for (T lease : leases) {
+            LeaseLoad load = lease.getLeaseLoad();
+            totalRecords += load.getRecordsPerSecond();
+            totalBytes += load.getBytesPerSecond();
+            totalMillis += load.getProcessMillisPerSecond();
+        }
+        int dimensions = (totalRecords > 0 ? 1 : 0) + (totalBytes > 0 ? 1 : 0) + (totalMillis > 0 ? 1 : 0);
+        for (T lease : leases) {
+            if (throughputWeight <= 0 || dimensions == 0) {
+                weights.put(lease.getLeaseKey(), 1.0);
+                continue;
+            }
+            LeaseLoad load = lease.getLeaseLoad();
+            double share = 0;
+            if (totalRecords > 0) {
+                share += load.getRecordsPerSecond() / totalRecords;
+            }
+            if (totalBytes > 0) {
+                share += load.getBytesPerSecond() / totalBytes;
+            }
+            if (totalMillis > 0) {
+                share += load.getProcessMillisPerSecond() / totalMillis;
+            }
+            share /= dimensions;
+            weights.put(lease.getLeaseKey(), (1 - throughputWeight) + throughputWeight * share * leases.size());
+        }
+        return weights;
+    }
+
+    /**
+     * @param candidates       各Worker持有的有效且未被偷的Lease，不包含过期的以及正在被偷的Lease
+     * @param leaseWeights     各Lease的负载
+     * @param workerIdentifier 本Worker
+     * @param ownLoad          本Worker已持有以及正在偷取中的Lease的负载之和
+     * @param targetLoad       每个Worker的目标负载
+     * @return 需要偷取的Lease
+     */
+    List<T> plan(Map<String, List<T>> candidates, final Map<String, Double> leaseWeights,
+                 String workerIdentifier, double ownLoad, double targetLoad) {
+        List<T> leasesToSteal = new ArrayList<T>();
+        PriorityQueue<WorkerLoad> workers = new PriorityQueue<WorkerLoad>(Math.max(1, candidates.size()));
+        for (Map.Entry<String, List<T>> entry : candidates.entrySet()) {
+            if (entry.getKey().equals(workerIdentifier) || entry.getValue().isEmpty()) {
+                continue;
+            }
+            List<T> leases = new ArrayList<T>(entry.getValue());
+            // 打乱后按负载从大到小排序，负载相同的Lease随机选取
+            Collections.shuffle(leases);
+            Collections.sort(leases, new Comparator<T>() {
+                public int compare(T o1, T o2) {
+                    return leaseWeights.get(o2.getLeaseKey()).compareTo(leaseWeights.get(o1.getLeaseKey()));
+                }
+            });
+            double load = 0;
+            for (T lease : leases) {
+                load += leaseWeights.get(lease.getLeaseKey());
+            }
+            workers.add(new WorkerLoad(leases, load));
+        }
+
+        while (leasesToSteal.size() < maxStealLeasesPerTake && ownLoad + EPSILON < targetLoad && !workers.isEmpty()) {
+            WorkerLoad mostLoadedWorker = workers.poll();
+            double maxWeight = (mostLoadedWorker.load - ownLoad) / 2;
+            T lease = mostLoadedWorker.removeLargestLeaseNotAbove(maxWeight, leaseWeights);
+            if (lease == null) {
+                // 该Worker上没有可以偷取的Lease，继续尝试负载次高的Worker
+                continue;
+            }
+            double weight = leaseWeights.get(lease.getLeaseKey());
+            leasesToSteal.add(lease);
+            mostLoadedWorker.load -= weight;
+            ownLoad += weight;
+            workers.add(mostLoadedWorker);
+        }
+        return leasesToSteal;
+    }
+
+    private class WorkerLoad implements Comparable<WorkerLoad> {
+        private final List<T> leases;
+        private double load;
+
+        WorkerLoad(List<T> leases, double load) {
+            this.leases = leases;
+            this.load = load;
+        }
+
+        T removeLargestLeaseNotAbove(double maxWeight, Map<String, Double> leaseWeights) {
+            Iterator<T> iter = leases.iterator();
+            while (iter.hasNext()) {
+                T lease = iter.next();
+                if (leaseWeights.get(lease.getLeaseKey()) <= maxWeight + EPSILON) {
+                    iter.remove();
+                    return lease;
+                }
+            }
+            return null;
+        }
+
+        public int compareTo(WorkerLoad other) {
+            return Double.compare(other.load, load);
+        }
+    }
+}
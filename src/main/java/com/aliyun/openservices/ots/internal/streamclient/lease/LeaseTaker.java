@@ -2,8 +2,11 @@ package com.aliyun.openservices.ots.internal.streamclient.lease;
 
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseCapacityProvider;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseTaker;
+import com.aliyun.openservices.ots.internal.streamclient.utils.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,62 +23,169 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
     private final ILeaseManager<T> leaseManager;
     private final String workerIdentifier;
     private final long leaseDurationMillis;
-    private boolean autoSteal;
     private long lastUpdateLeasesMillis = 0;
-    private final Map<String, T> allLeases = new HashMap<String, T>();
+    /**
+     * 上一次处理的快照的版本，快照未刷新时不需要重新处理。
+     */
+    private long lastSnapshotVersion = -1;
+    private final LeaseIndex<T> allLeases = new LeaseIndex<T>();
+    private final LeaseSnapshotService<T> leaseSnapshotService;
+    private final long maxSnapshotStalenessMillis;
+    private final long leaseScanIntervalMillis;
+    private final boolean enableWorkerHeartbeat;
+    private final Map<String, Long> heartbeatCounters = new HashMap<String, Long>();
+    private final Map<String, Long> lastHeartbeatChangeMillis = new HashMap<String, Long>();
+    private final ILeaseAssignmentStrategy<T> assignmentStrategy;
+    private final ILeaseCapacityProvider capacityProvider;
+    /**
+     * 过期的Lease，LeaseKey到本Worker第一次发现其过期的时间的映射。
+     */
+    private final Map<String, Long> expiredSinceMillis = new HashMap<String, Long>();
+    private volatile int unassignedLeaseCount = 0;
+    /**
+     * 本Worker发起且尚未完成的偷取，LeaseKey到发起时间的映射。
+     */
+    private final Map<String, Long> stealRequestMillis = new HashMap<String, Long>();
 
     public LeaseTaker(ILeaseManager<T> leaseManager,
                       String workerIdentifier,
                       long leaseDurationMillis,
                       boolean autoSteal) {
+        this(leaseManager, workerIdentifier, leaseDurationMillis, new LeaseSnapshotService<T>(leaseManager, 0), 0,
+                false, new BalancedLeaseAssignmentStrategy<T>(autoSteal, 1, 0), null);
+    }
+
+    /**
+     * @param leaseSnapshotService       与Worker内其他组件共享的StatusTable快照
+     * @param maxSnapshotStalenessMillis 每次TakeLease允许使用的快照的最长存在时间，不大于0时每次都重新读取
+     * @param enableWorkerHeartbeat      心跳模式下，Owner的心跳在更新时，其持有的Lease都不会过期
+     * @param assignmentStrategy         决定本Worker获取、偷取以及排空时转交哪些Lease，
+     *                                   可通过{@link LeaseCoordinator#createAssignmentStrategy}按ClientConfig创建
+     * @param capacityProvider           本Worker的处理能力，为null时不限制本Worker持有的Lease数量
+     */
+    public LeaseTaker(ILeaseManager<T> leaseManager,
+                      String workerIdentifier,
+                      long leaseDurationMillis,
+                      LeaseSnapshotService<T> leaseSnapshotService,
+                      long maxSnapshotStalenessMillis,
+                      boolean enableWorkerHeartbeat,
+                      ILeaseAssignmentStrategy<T> assignmentStrategy,
+                      ILeaseCapacityProvider capacityProvider) {
+        Preconditions.checkNotNull(assignmentStrategy, "AssignmentStrategy should not be null.");
         this.leaseManager = leaseManager;
         this.workerIdentifier = workerIdentifier;
         this.leaseDurationMillis = leaseDurationMillis;
-        this.autoSteal = autoSteal;
+        this.leaseSnapshotService = leaseSnapshotService;
+        this.maxSnapshotStalenessMillis = maxSnapshotStalenessMillis;
+        this.leaseScanIntervalMillis = Math.max(maxSnapshotStalenessMillis,
+                assignmentStrategy.getMinLeaseScanIntervalMillis());
+        this.enableWorkerHeartbeat = enableWorkerHeartbeat;
+        this.assignmentStrategy = assignmentStrategy;
+        this.capacityProvider = capacityProvider;
     }
 
     @Override
     public synchronized Map<String, T> takeLeases() throws StreamClientException, DependencyException {
         LOG.debug("Start take leases.");
-        Map<String, T> takenLeases = new HashMap<String, T>();
-
-        List<T> leasesStealComplete = new ArrayList<T>();
-        updateAllLeases(leasesStealComplete);
-
-        List<T> expiredLeases = getExpiredLeases();
-        Map<String, Integer> leaseCounts = computeLeaseCounts(expiredLeases);
 
+        LeaseAssignmentContext<T> context = buildAssignmentContext(leaseScanIntervalMillis);
         if (LOG.isDebugEnabled()) {
             LOG.debug("Lease after updated.");
             for (T lease : allLeases.values()) {
                 LOG.debug("Lease: {}", lease);
             }
 
-            for (T lease : leasesStealComplete) {
+            for (T lease : context.getLeasesStealComplete()) {
                 LOG.debug("Steal lease has been transferred to this worker. Lease: {}.", lease.getLeaseKey());
             }
 
-            for (T lease : expiredLeases) {
-                LOG.debug("LeaseExpired, LeaseKey: {}.", lease.getLeaseKey());
+            for (String leaseKey : context.getExpiredLeaseKeys()) {
+                LOG.debug("LeaseExpired, LeaseKey: {}.", leaseKey);
+            }
+        }
+
+        LeaseAssignment<T> assignment = assignmentStrategy.assign(context);
+        int heldLeases = countHeldLeases(context.getExpiredLeaseKeys());
+        long available = (long) context.getLeaseCapacity() - heldLeases;
+        Map<String, T> takenLeases = doTakeLeases(limit(assignment.getLeasesToTake(), available));
+        available -= takenLeases.size();
+        LOG.debug("Worker: {}, TakenLeases: {}, LeasesToSteal: {}, Capacity: {}", workerIdentifier, takenLeases.size(),
+                assignment.getLeasesToSteal().size(), context.getLeaseCapacity());
+
+        for (T lease : limit(assignment.getLeasesToSteal(), available)) {
+            LOG.info("Steal lease, Lease: {}.", lease);
+            if (leaseManager.stealLease(lease, workerIdentifier)) {
+                stealRequestMillis.put(lease.getLeaseKey(), System.currentTimeMillis());
+                allLeases.put(lease);
             }
+        }
+        reportUnassignedLeases(context, takenLeases, heldLeases);
+        return takenLeases;
+    }
 
-            for (Map.Entry<String, Integer> leaseCount : leaseCounts.entrySet()) {
-                LOG.debug("Owner: {}, Count: {}", leaseCount.getKey(), leaseCount.getValue());
+    /**
+     * 过期超过一个Lease周期仍没有被任何Worker获取的Lease，说明其他Worker都已达到处理能力上限，这些Shard的延迟会持续增加。
+     */
+    private void reportUnassignedLeases(LeaseAssignmentContext<T> context, Map<String, T> takenLeases, int heldLeases) {
+        int count = 0;
+        for (String leaseKey : context.getOrphanedLeaseKeys()) {
+            if (!takenLeases.containsKey(leaseKey)) {
+                count++;
             }
         }
+        if (count > 0 && count != unassignedLeaseCount) {
+            LOG.warn("Leases are not taken by any worker for more than a lease duration, all workers may be saturated "
+                    + "and lag is growing. UnassignedLeases: {}, HeldLeases: {}, Capacity: {}.",
+                    count, heldLeases + takenLeases.size(), context.getLeaseCapacity());
+        } else if (count == 0 && unassignedLeaseCount > 0) {
+            LOG.info("All leases are taken.");
+        }
+        unassignedLeaseCount = count;
+    }
 
-        int numLeases = allLeases.size();
-        int numWorkers = leaseCounts.size();
-        int target = numLeases / numWorkers + (numLeases % numWorkers == 0 ? 0 : 1);
-        int need = target - leaseCounts.get(workerIdentifier);
-        LOG.debug("Try to take lease. NumLeases: {}, NumWorkers: {}, Target: {}, Need: {}.",
-                numLeases, numWorkers, target, need);
+    @Override
+    public int getUnassignedLeaseCount() {
+        return unassignedLeaseCount;
+    }
 
-        Map<String, T> leasesToTake = computeLeasesToTake(leasesStealComplete, expiredLeases, need);
+    private List<T> limit(List<T> leases, long maxSize) {
+        if (leases.size() <= maxSize) {
+            return leases;
+        }
+        return leases.subList(0, (int) Math.max(0, maxSize));
+    }
 
-        for (T lease : leasesToTake.values()) {
+    /**
+     * 本Worker持有的有效且未被偷的Lease，以及正在偷取中的Lease的数量。
+     */
+    private int countHeldLeases(Set<String> expiredLeaseKeys) {
+        int count = 0;
+        for (String leaseKey : allLeases.getLeaseKeysByOwner(workerIdentifier)) {
+            if (allLeases.get(leaseKey).getLeaseStealer().isEmpty() && !expiredLeaseKeys.contains(leaseKey)) {
+                count++;
+            }
+        }
+        for (T lease : allLeases.getStolenLeases()) {
+            if (lease.getLeaseStealer().equals(workerIdentifier) && !lease.getLeaseOwner().equals(workerIdentifier)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Map<String, T> doTakeLeases(Collection<T> leasesToTake) throws StreamClientException, DependencyException {
+        Map<String, T> takenLeases = new HashMap<String, T>();
+        for (T lease : leasesToTake) {
+            if (takenLeases.containsKey(lease.getLeaseKey())) {
+                continue;
+            }
             if (leaseManager.takeLease(lease, workerIdentifier)) {
                 lease.setLastCounterIncrementMillis(System.currentTimeMillis());
+                allLeases.put(lease);
+                Long requestMillis = stealRequestMillis.remove(lease.getLeaseKey());
+                if (requestMillis != null) {
+                    lease.setStealRequestMillis(requestMillis);
+                }
 
                 LOG.info("Successfully take lease. Lease: {}.", lease);
                 takenLeases.put(lease.getLeaseKey(), lease);
@@ -83,29 +193,135 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
                 LOG.info("Failed to take lease. Lease: {}.", lease);
             }
         }
+        return takenLeases;
+    }
 
-        LOG.debug("Worker: {}, AutoSteal: {}, TakenLeases: {}, Need: {}", workerIdentifier, autoSteal, takenLeases.size(), need);
-        if (autoSteal) {
-            if (need > takenLeases.size()) {
-                T lease = chooseLeaseToSteal(leaseCounts, need, target); // TODO optimize to take more than one lease each time
-                if (lease != null) {
-                    LOG.info("Steal lease, Lease: {}.", lease);
-                    leaseManager.stealLease(lease, workerIdentifier);
+    /**
+     * 读取全部Lease，并计算分配策略所需的过期Lease与存活Worker。
+     *
+     * @param maxStalenessMillis 允许使用的快照的最长存在时间
+     */
+    private LeaseAssignmentContext<T> buildAssignmentContext(long maxStalenessMillis)
+            throws StreamClientException, DependencyException {
+        List<T> leasesStealComplete = new ArrayList<T>();
+        updateAllLeases(leasesStealComplete, maxStalenessMillis);
+        Set<String> expiredLeaseKeys = getLeaseKeys(allLeases.getExpiredLeases(leaseDurationMillis, lastUpdateLeasesMillis));
+        int leaseCapacity = capacityProvider == null
+                ? Integer.MAX_VALUE : capacityProvider.getLeaseCapacity(countHeldLeases(expiredLeaseKeys));
+        return new LeaseAssignmentContext<T>(workerIdentifier, leaseDurationMillis, lastUpdateLeasesMillis,
+                allLeases, expiredLeaseKeys, leasesStealComplete,
+                computeLiveWorkers(expiredLeaseKeys), computeOrphanedLeaseKeys(expiredLeaseKeys), leaseCapacity);
+    }
+
+    /**
+     * 本Worker发现其过期已超过一个Lease周期的Lease。正常情况下过期的Lease会在一个Take周期内被某个Worker获取。
+     */
+    private Set<String> computeOrphanedLeaseKeys(Set<String> expiredLeaseKeys) {
+        expiredSinceMillis.keySet().retainAll(expiredLeaseKeys);
+        Set<String> orphanedLeaseKeys = new HashSet<String>();
+        for (String leaseKey : expiredLeaseKeys) {
+            Long sinceMillis = expiredSinceMillis.get(leaseKey);
+            if (sinceMillis == null) {
+                expiredSinceMillis.put(leaseKey, lastUpdateLeasesMillis);
+            } else if (lastUpdateLeasesMillis - sinceMillis > leaseDurationMillis) {
+                orphanedLeaseKeys.add(leaseKey);
+            }
+        }
+        return orphanedLeaseKeys;
+    }
+
+    /**
+     * 当前存活的Worker：本Worker、持有有效Lease或正在偷取Lease的Worker，以及心跳模式下心跳仍在更新的Worker。
+     */
+    private Set<String> computeLiveWorkers(Set<String> expiredLeaseKeys) {
+        Set<String> workers = new HashSet<String>();
+        workers.add(workerIdentifier);
+        if (enableWorkerHeartbeat) {
+            for (Map.Entry<String, Long> entry : lastHeartbeatChangeMillis.entrySet()) {
+                if (lastUpdateLeasesMillis - entry.getValue() <= leaseDurationMillis) {
+                    workers.add(entry.getKey());
                 }
             }
         }
-        return takenLeases;
+        // 持有的Lease不全部过期的Owner
+        Map<String, Integer> expiredCounts = new HashMap<String, Integer>();
+        for (String leaseKey : expiredLeaseKeys) {
+            String owner = allLeases.get(leaseKey).getLeaseOwner();
+            Integer count = expiredCounts.get(owner);
+            expiredCounts.put(owner, count == null ? 1 : count + 1);
+        }
+        for (String owner : allLeases.getOwners()) {
+            Integer expiredCount = expiredCounts.get(owner);
+            if (expiredCount == null || expiredCount < allLeases.getLeaseKeysByOwner(owner).size()) {
+                workers.add(owner);
+            }
+        }
+        for (T lease : allLeases.getStolenLeases()) {
+            workers.add(lease.getLeaseStealer());
+        }
+        return workers;
+    }
+
+    /**
+     * 将本Worker持有的有效Lease按分配策略的规划交给其他Worker。
+     * 没有其他Worker时不转交，Lease仍由本Worker处理。
+     */
+    @Override
+    public synchronized List<T> handOffLeases() throws StreamClientException, DependencyException {
+        LeaseAssignmentContext<T> context = buildAssignmentContext(maxSnapshotStalenessMillis);
+        for (T lease : context.getLeasesStealComplete()) {
+            // 排空前发起的偷取在此之后才完成，不再获取，直接释放
+            LOG.info("Release lease transferred to draining worker, Lease: {}.", lease);
+            leaseManager.releaseLease(lease);
+            allLeases.put(lease);
+        }
+
+        List<T> handedOffLeases = new ArrayList<T>();
+        List<T> ownedLeases = context.getOwnedLeases();
+        if (ownedLeases.isEmpty()) {
+            return handedOffLeases;
+        }
+        Map<String, String> targets = assignmentStrategy.planHandOff(context);
+        if (targets.isEmpty()) {
+            LOG.warn("No other worker to hand off leases, HeldLeases: {}.", ownedLeases.size());
+            return handedOffLeases;
+        }
+
+        for (T lease : ownedLeases) {
+            String target = targets.get(lease.getLeaseKey());
+            if (target == null || target.equals(workerIdentifier)) {
+                continue;
+            }
+            if (leaseManager.stealLease(lease, target)) {
+                LOG.info("Hand off lease, Lease: {}, Target: {}.", lease, target);
+                allLeases.put(lease);
+                handedOffLeases.add(lease);
+            } else {
+                LOG.info("Failed to hand off lease, Lease: {}, Target: {}.", lease, target);
+            }
+        }
+        return handedOffLeases;
+    }
+
+    private Set<String> getLeaseKeys(List<T> leases) {
+        Set<String> leaseKeys = new HashSet<String>(leases.size() * 2);
+        for (T lease : leases) {
+            leaseKeys.add(lease.getLeaseKey());
+        }
+        return leaseKeys;
     }
 
     /**
      * 更新当前Lease的更新时间。
-     * 若是新的Lease，且没有owner，则将更新时间设置为0。
+     * 若Lease没有owner（新的Lease，或者被Owner主动释放的Lease），则将更新时间设置为0，可以立即获取。
      * 若是新的Lease，且有owner，则将更新时间设置为当前时间。
      * 若是旧的Lease，且counter被更新，则将更新时间设置为当前时间。
      * 若是旧的Lease，且counter未更新，则不必更新其更新时间。
      * 若Lease已经不存在，则从当前列表中删除。
+     * 只有Owner、Stealer或更新时间发生变化的Lease才会更新索引；所有Lease都仍存在时不需要查找被删除的Lease。
      *
      * 若发现当前lease owner与lease stealer均为本Worker，则认为该lease已经被transfer，当前worker steal成功。
+     * 心跳模式下，若Owner的心跳在Counter之后更新过，则以心跳的更新时间作为Lease的更新时间。
      *
      * package level for test purpose
      * @param leasesStealComplete
@@ -113,56 +329,136 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
      * @throws DependencyException
      */
     void updateAllLeases(List<T> leasesStealComplete) throws StreamClientException, DependencyException {
-        List<T> newList = leaseManager.listLeases();
-        lastUpdateLeasesMillis = System.currentTimeMillis();
+        updateAllLeases(leasesStealComplete, maxSnapshotStalenessMillis);
+    }
+
+    private void updateAllLeases(List<T> leasesStealComplete, long maxStalenessMillis)
+            throws StreamClientException, DependencyException {
+        LeaseSnapshot<T> snapshot = leaseSnapshotService.getSnapshot(maxStalenessMillis);
+        lastUpdateLeasesMillis = snapshot.getSnapshotTimeMillis();
 
         LOG.debug("Update all leases: {}.", lastUpdateLeasesMillis);
-        Set<String> notUpdated = new HashSet<String>(allLeases.keySet());
-        for (T lease : newList) {
-            String leaseKey = lease.getLeaseKey();
-            T oldLease = allLeases.get(leaseKey);
-            notUpdated.remove(leaseKey);
-            if (oldLease != null) {
-                if (oldLease.getLeaseCounter() == lease.getLeaseCounter()) {
-                    lease.setLastCounterIncrementMillis(oldLease.getLastCounterIncrementMillis());
-                } else {
-                    lease.setLastCounterIncrementMillis(lastUpdateLeasesMillis);
-                }
-            } else {
-                if (lease.getLeaseOwner().isEmpty()) {
-                    lease.setLastCounterIncrementMillis(0);
-                } else {
+        Set<String> heartbeatChangedWorkers = enableWorkerHeartbeat
+                ? updateWorkerHeartbeats() : Collections.<String>emptySet();
+        if (snapshot.getVersion() != lastSnapshotVersion) {
+            applySnapshot(snapshot);
+            lastSnapshotVersion = snapshot.getVersion();
+        }
+        for (String worker : heartbeatChangedWorkers) {
+            for (String leaseKey : new ArrayList<String>(allLeases.getLeaseKeysByOwner(worker))) {
+                T lease = allLeases.get(leaseKey);
+                if (lastUpdateLeasesMillis > lease.getLastCounterIncrementMillis()) {
                     lease.setLastCounterIncrementMillis(lastUpdateLeasesMillis);
+                    allLeases.put(lease);
                 }
             }
+        }
+        for (T lease : allLeases.getStolenLeases()) {
             if (lease.getLeaseOwner().equals(workerIdentifier) && lease.getLeaseStealer().equals(workerIdentifier)) {
                 leasesStealComplete.add(lease);
             }
-            allLeases.put(leaseKey, lease);
         }
 
-        for (String key : notUpdated) {
-            allLeases.remove(key);
+        // 偷取已经完成或被放弃
+        Iterator<String> iter = stealRequestMillis.keySet().iterator();
+        while (iter.hasNext()) {
+            T lease = allLeases.get(iter.next());
+            if (lease == null || !lease.getLeaseStealer().equals(workerIdentifier)) {
+                iter.remove();
+            }
+        }
+
+        if (enableWorkerHeartbeat) {
+            cleanupExpiredWorkerHeartbeats();
         }
     }
 
-    public Map<String, T> getAllLeases() {
-        Map<String, T> copy = new HashMap<String, T>();
-        for (Map.Entry<String, T> entry : allLeases.entrySet()) {
-            copy.put(entry.getKey(), entry.getValue().<T>copy());
+    /**
+     * 只处理与上一个快照相比Counter、Owner或Stealer发生变化的Lease，未变化的Lease不拷贝，也不更新索引。
+     * 变化的Lease会被LeaseManager的操作修改，因此保存其copy，不能直接使用快照中的对象。
+     */
+    private void applySnapshot(LeaseSnapshot<T> snapshot) {
+        int oldSize = allLeases.size();
+        int matched = 0;
+        for (T lease : snapshot.getLeaseView()) {
+            T oldLease = allLeases.get(lease.getLeaseKey());
+            if (oldLease != null) {
+                matched++;
+                if (oldLease.getLeaseCounter() == lease.getLeaseCounter()
+                        && oldLease.getLeaseOwner().equals(lease.getLeaseOwner())
+                        && oldLease.getLeaseStealer().equals(lease.getLeaseStealer())) {
+                    continue;
+                }
+            }
+            T newLease = lease.copy();
+            if (newLease.getLeaseOwner().isEmpty()) {
+                newLease.setLastCounterIncrementMillis(0);
+            } else if (oldLease != null && oldLease.getLeaseCounter() == newLease.getLeaseCounter()) {
+                newLease.setLastCounterIncrementMillis(oldLease.getLastCounterIncrementMillis());
+            } else {
+                newLease.setLastCounterIncrementMillis(lastUpdateLeasesMillis);
+            }
+            Long heartbeatMillis = lastHeartbeatChangeMillis.get(newLease.getLeaseOwner());
+            if (heartbeatMillis != null && heartbeatMillis > newLease.getLastCounterIncrementMillis()) {
+                newLease.setLastCounterIncrementMillis(heartbeatMillis);
+            }
+            allLeases.put(newLease);
+        }
+
+        if (matched < oldSize) {
+            allLeases.retainAll(snapshot.getLeaseKeys());
         }
-        return copy;
     }
 
-    private List<T> getExpiredLeases() {
-        List<T> expiredLeases = new ArrayList<T>();
-        for (T lease : allLeases.values()) {
-            // new lease is treated as expired because its counter update time is initialized to 0.
-            if (lease.isExpired(leaseDurationMillis, lastUpdateLeasesMillis)) {
-                expiredLeases.add(lease);
+    /**
+     * 与Lease的Counter相同，心跳的HeartbeatCounter发生变化时，记录其更新时间为本次读取的时间。
+     *
+     * @return 本次心跳发生变化的Worker
+     */
+    private Set<String> updateWorkerHeartbeats() throws StreamClientException, DependencyException {
+        Map<String, Long> heartbeats = leaseManager.listWorkerHeartbeats();
+        Set<String> changedWorkers = new HashSet<String>();
+        for (Map.Entry<String, Long> heartbeat : heartbeats.entrySet()) {
+            Long oldCounter = heartbeatCounters.get(heartbeat.getKey());
+            if (oldCounter == null || !oldCounter.equals(heartbeat.getValue())) {
+                lastHeartbeatChangeMillis.put(heartbeat.getKey(), lastUpdateLeasesMillis);
+                changedWorkers.add(heartbeat.getKey());
             }
         }
-        return expiredLeases;
+        heartbeatCounters.clear();
+        heartbeatCounters.putAll(heartbeats);
+        lastHeartbeatChangeMillis.keySet().retainAll(heartbeats.keySet());
+        return changedWorkers;
+    }
+
+    /**
+     * 删除已过期且不再持有任何Lease的Worker的心跳，避免StatusTable中积累已下线Worker的心跳。
+     */
+    private void cleanupExpiredWorkerHeartbeats() throws StreamClientException, DependencyException {
+        Set<String> owners = allLeases.getOwners();
+        Iterator<Map.Entry<String, Long>> iter = lastHeartbeatChangeMillis.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            String worker = entry.getKey();
+            if (!worker.equals(workerIdentifier) && !owners.contains(worker)
+                    && lastUpdateLeasesMillis - entry.getValue() > leaseDurationMillis) {
+                LOG.info("Delete expired worker heartbeat, Worker: {}.", worker);
+                leaseManager.deleteWorkerHeartbeat(worker);
+                heartbeatCounters.remove(worker);
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * 全部Lease的拷贝，用于测试与诊断，TakeLease的过程中不会调用。
+     */
+    public Map<String, T> getAllLeases() {
+        Map<String, T> copy = new HashMap<String, T>();
+        for (T lease : allLeases.values()) {
+            copy.put(lease.getLeaseKey(), lease.<T>copy());
+        }
+        return copy;
     }
 
     /**
@@ -174,24 +470,7 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
      * @return
      */
     Map<String, T> computeLeasesToTake(List<T> leasesStealComplete, List<T> expiredLeases, int need) {
-        Map<String, T> leasesToTake = new HashMap<String, T>();
-        for (T lease : leasesStealComplete) {
-            leasesToTake.put(lease.getLeaseKey(), lease);
-            if (--need <= 0) {
-                return leasesToTake;
-            }
-        }
-
-        List<T> leaseToPick = new LinkedList<T>(expiredLeases);
-        Collections.shuffle(leaseToPick);
-        while (need > 0 && leaseToPick.size() > 0) {
-           T lease = leaseToPick.remove(0);
-            if (!leasesToTake.containsKey(lease.getLeaseKey())) {
-                leasesToTake.put(lease.getLeaseKey(), lease);
-                need--;
-            }
-        }
-        return leasesToTake;
+        return BalancedLeaseAssignmentStrategy.computeLeasesToTake(leasesStealComplete, expiredLeases, need);
     }
 
     /**
@@ -201,61 +480,23 @@ public class LeaseTaker<T extends Lease> implements ILeaseTaker<T> {
      * @return
      */
     Map<String, Integer> computeLeaseCounts(List<T> expiredLeases) {
-        Map<String, Integer> leaseCounts = new HashMap<String, Integer>();
-        for (T lease : allLeases.values()) {
-            if (!expiredLeases.contains(lease) && lease.getLeaseStealer().isEmpty()) {
-                String leaseOwner = lease.getLeaseOwner();
-                Integer oldCount = leaseCounts.get(leaseOwner);
-                if (oldCount == null) {
-                    leaseCounts.put(leaseOwner, 1);
-                } else {
-                    leaseCounts.put(leaseOwner, oldCount + 1);
-                }
-            }
-        }
-
-        if (leaseCounts.get(workerIdentifier) == null) {
-            leaseCounts.put(workerIdentifier, 0);
-        }
-        return leaseCounts;
+        return newAssignmentContext(getLeaseKeys(expiredLeases)).getLeaseCounts();
     }
 
     /**
-     * Steal one lease randomly from worker who has the most count of leases.
+     * 其他Worker持有的可以被偷取的Lease，不包含过期的以及正在被Steal的Lease。
      *
-     * @param leaseCounts
-     * @param target
-     * @return
+     * package level for test purpose
+     * @param expiredLeases
+     * @return 每个Worker持有的可以被偷取的Lease
      */
-    T chooseLeaseToSteal(Map<String, Integer> leaseCounts, int need, int target) {
-        if (leaseCounts.isEmpty()) {
-            return null;
-        }
-
-        Map.Entry<String, Integer> mostLoadedWorker = null;
-        for (Map.Entry<String, Integer> worker : leaseCounts.entrySet()) {
-            if (mostLoadedWorker == null || mostLoadedWorker.getValue() < worker.getValue()) {
-                mostLoadedWorker = worker;
-            }
-        }
-
-        if (mostLoadedWorker.getValue() <= target - 1 || (need <= 1 && mostLoadedWorker.getValue() == target)) {
-            return null;
-        }
-
-        String mostLoadedWorkerIdentifier = mostLoadedWorker.getKey();
-        List<T> candidates = new ArrayList<T>();
-        for (T lease : allLeases.values()) {
-            if (mostLoadedWorkerIdentifier.equals(lease.getLeaseOwner())) {
-                candidates.add(lease);
-            }
-        }
-
-        if (candidates.isEmpty()) {
-            return null;
-        }
+    Map<String, List<T>> computeStealCandidates(List<T> expiredLeases) {
+        return BalancedLeaseAssignmentStrategy.computeStealCandidates(newAssignmentContext(getLeaseKeys(expiredLeases)));
+    }
 
-        int randomIndex = new Random().nextInt(candidates.size());
-        return candidates.get(randomIndex);
+    private LeaseAssignmentContext<T> newAssignmentContext(Set<String> expiredLeaseKeys) {
+        return new LeaseAssignmentContext<T>(workerIdentifier, leaseDurationMillis, lastUpdateLeasesMillis, allLeases,
+                expiredLeaseKeys, new ArrayList<T>(), computeLiveWorkers(expiredLeaseKeys),
+                Collections.<String>emptySet(), Integer.MAX_VALUE);
     }
 }
@@ -3,13 +3,16 @@ package com.aliyun.openservices.ots.internal.streamclient.lease;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 public class MemoryLeaseManager implements ILeaseManager<ShardLease> {
 
     private NavigableMap<String, ShardLease> table = new ConcurrentSkipListMap<String, ShardLease>();
+    private NavigableMap<String, Long> heartbeats = new ConcurrentSkipListMap<String, Long>();
 
     public boolean createLeaseTableIfNotExists(int readCU, int writeCU, int ttl) {
         return true;
@@ -34,6 +37,16 @@ public class MemoryLeaseManager implements ILeaseManager<ShardLease> {
         table.put(lease.getLeaseKey(), copy);
     }
 
+    public boolean createLeaseIfNotExists(ShardLease lease) {
+        synchronized (table) {
+            if (table.containsKey(lease.getLeaseKey())) {
+                return false;
+            }
+            createLease(lease);
+            return true;
+        }
+    }
+
     public ShardLease getLease(String leaseKey) {
         if (table.get(leaseKey) == null) {
             return null;
@@ -46,14 +59,26 @@ public class MemoryLeaseManager implements ILeaseManager<ShardLease> {
             if (table.get(lease.getLeaseKey()).getLeaseCounter() != lease.getLeaseCounter()) {
                 return false;
             }
+            if (lease.getLeaseStealer().isEmpty() && !table.get(lease.getLeaseKey()).getLeaseStealer().isEmpty()) {
+                return false;
+            }
             lease.setLeaseCounter(lease.getLeaseCounter() + 1);
             ShardLease newLease = table.get(lease.getLeaseKey());
             newLease.setLeaseCounter(newLease.getLeaseCounter() + 1);
+            newLease.setLeaseLoad(lease.getLeaseLoad());
             table.put(newLease.getLeaseKey(), newLease);
             return true;
         }
     }
 
+    public Map<String, Boolean> batchRenewLeases(List<ShardLease> leases) {
+        Map<String, Boolean> result = new HashMap<String, Boolean>();
+        for (ShardLease lease : leases) {
+            result.put(lease.getLeaseKey(), renewLease(lease));
+        }
+        return result;
+    }
+
     public boolean takeLease(ShardLease lease, String owner) {
         synchronized (table) {
             if (table.get(lease.getLeaseKey()).getLeaseCounter() != lease.getLeaseCounter()) {
@@ -103,6 +128,25 @@ public class MemoryLeaseManager implements ILeaseManager<ShardLease> {
         }
     }
 
+    public boolean releaseLease(ShardLease lease) {
+        synchronized (table) {
+            if (table.get(lease.getLeaseKey()).getLeaseCounter() != lease.getLeaseCounter()) {
+                return false;
+            }
+            lease.setLeaseOwner("");
+            lease.setLeaseStealer("");
+            lease.setLeaseCounter(lease.getLeaseCounter() + 1);
+
+            ShardLease newLease = table.get(lease.getLeaseKey());
+            newLease.setLeaseCounter(newLease.getLeaseCounter() + 1);
+            newLease.setLeaseOwner("");
+            newLease.setLeaseStealer("");
+            newLease.setLeaseLoad(lease.getLeaseLoad());
+            table.put(newLease.getLeaseKey(), newLease);
+            return true;
+        }
+    }
+
     public void deleteLease(String leaseKey) {
         synchronized (table) {
             table.remove(leaseKey);
@@ -118,12 +162,26 @@ public class MemoryLeaseManager implements ILeaseManager<ShardLease> {
             ShardLease newLease = table.get(lease.getLeaseKey());
             newLease.setLeaseCounter(newLease.getLeaseCounter() + 1);
             newLease.setCheckpoint(lease.getCheckpoint());
+            newLease.setLeaseLoad(lease.getLeaseLoad());
             table.put(newLease.getLeaseKey(), newLease);
             return true;
         }
     }
 
+    public void renewWorkerHeartbeat(String workerIdentifier, long heartbeatCounter) {
+        heartbeats.put(workerIdentifier, heartbeatCounter);
+    }
+
+    public Map<String, Long> listWorkerHeartbeats() {
+        return new HashMap<String, Long>(heartbeats);
+    }
+
+    public void deleteWorkerHeartbeat(String workerIdentifier) {
+        heartbeats.remove(workerIdentifier);
+    }
+
     public void clear() {
         table.clear();
+        heartbeats.clear();
     }
 }
@@ -0,0 +1,56 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.Collection;
+
+/**
+ * 最高随机权重（Rendezvous）哈希，每个Lease分配给与其哈希权重最高的Worker。
+ * Worker集合变化时只有分配给新增或移除的Worker的Lease会改变归属，N个Worker扩容到N+1个时约有1/(N+1)的Lease迁移。
+ * 所有Worker对相同的输入得到相同的结果，不依赖String.hashCode以外的任何本地状态。
+ */
+class RendezvousHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private RendezvousHash() {
+    }
+
+    /**
+     * @param leaseKey
+     * @param workers  候选Worker，为空时返回null
+     * @return 权重最高的Worker，权重相同时取字典序较小的Worker
+     */
+    static String select(String leaseKey, Collection<String> workers) {
+        String selected = null;
+        long maxWeight = 0;
+        for (String worker : workers) {
+            long weight = weight(leaseKey, worker);
+            if (selected == null || weight > maxWeight || (weight == maxWeight && worker.compareTo(selected) < 0)) {
+                selected = worker;
+                maxWeight = weight;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 对LeaseKey与Worker做FNV-1a哈希，再经过一次混合使权重分布均匀。
+     */
+    static long weight(String leaseKey, String worker) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = fnv(hash, leaseKey);
+        // 以'\0'分隔LeaseKey与Worker
+        hash *= FNV_PRIME;
+        hash = fnv(hash, worker);
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
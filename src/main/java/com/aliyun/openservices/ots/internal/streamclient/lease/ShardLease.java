@@ -132,7 +132,9 @@ public class ShardLease extends Lease {
         sb.append("" + getLastCounterIncrementMillis());
         sb.append(", leaseStealer=");
         sb.append(getLeaseStealer());
-        sb.append(", checkpoint=");
+        sb.append(", leaseLoad=[");
+        sb.append(getLeaseLoad());
+        sb.append("], checkpoint=");
         sb.append(checkpoint);
         sb.append(", streamId=");
         sb.append(streamId);
@@ -42,6 +42,7 @@ public class ShardLeaseSerializer extends AbstractLeaseSerializer<ShardLease> {
         RowUpdateChange change = new RowUpdateChange(statusTableName, pk);
         change.put(LEASE_COUNTER, ColumnValue.fromLong(lease.getLeaseCounter() + 1));
         change.put(CHECKPOINT, ColumnValue.fromString(lease.getCheckpoint()));
+        putLeaseLoad(change, lease.getLeaseLoad());
 
         change.setCondition(getCounterCheckCondition(lease.getLeaseCounter()));
         UpdateRowRequest request = new UpdateRowRequest(change);
@@ -68,6 +69,7 @@ public class ShardLeaseSerializer extends AbstractLeaseSerializer<ShardLease> {
         result.setCheckpoint(row.getColumn(CHECKPOINT).get(0).getValue().asString());
         String parentShardIds = row.getColumn(PARENT_SHARD_IDS).get(0).getValue().asString();
         result.setParentShardIds(deserializeParentShardIds(parentShardIds));
+        result.setLeaseLoad(getLeaseLoad(row));
         return result;
     }
 
@@ -0,0 +1,126 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.utils.Preconditions;
+
+import java.util.*;
+
+/**
+ * 静态分配策略：每个Worker只处理固定分配给它的Lease，适用于Worker数量固定的场景，没有动态均衡的开销。
+ * 分配方式为显式指定本Worker负责的LeaseKey（即ShardId），或者按取模规则：LeaseKey的哈希值对Worker总数取模等于本Worker的序号。
+ *
+ * 分配给本Worker的Lease在过期或没有Owner时获取；若被其他Worker持有（如刚从其他分配策略切换过来，或者本Worker排空后重新加入），
+ * 则以偷取的方式请求其转交，不会偷取未分配给本Worker的Lease。
+ * 分配结果不随Worker集合变化，不需要每个Take周期都读取全部Lease，读取间隔由minLeaseScanIntervalMillis决定。
+ * @param <T>
+ */
+public class StaticLeaseAssignmentStrategy<T extends Lease> implements ILeaseAssignmentStrategy<T> {
+
+    private final Set<String> assignedLeaseKeys;
+    private final int workerIndex;
+    private final int workerCount;
+    private final long minLeaseScanIntervalMillis;
+
+    /**
+     * 显式指定本Worker负责的Lease。
+     *
+     * @param assignedLeaseKeys          本Worker负责的LeaseKey
+     * @param minLeaseScanIntervalMillis 两次读取全部Lease的最小间隔，决定发现新Shard以及过期Lease的延迟
+     */
+    public StaticLeaseAssignmentStrategy(Collection<String> assignedLeaseKeys, long minLeaseScanIntervalMillis) {
+        Preconditions.checkNotNull(assignedLeaseKeys, "AssignedLeaseKeys should not be null.");
+        this.assignedLeaseKeys = new HashSet<String>(assignedLeaseKeys);
+        this.workerIndex = -1;
+        this.workerCount = 0;
+        this.minLeaseScanIntervalMillis = minLeaseScanIntervalMillis;
+    }
+
+    /**
+     * 按取模规则分配，所有Worker需要使用相同的workerCount以及各不相同的workerIndex。
+     *
+     * @param workerIndex                本Worker的序号，取值范围[0, workerCount)
+     * @param workerCount                Worker总数
+     * @param minLeaseScanIntervalMillis 两次读取全部Lease的最小间隔，决定发现新Shard以及过期Lease的延迟
+     */
+    public StaticLeaseAssignmentStrategy(int workerIndex, int workerCount, long minLeaseScanIntervalMillis) {
+        Preconditions.checkArgument(workerCount > 0, "WorkerCount must be positive.");
+        Preconditions.checkArgument(workerIndex >= 0 && workerIndex < workerCount,
+                "WorkerIndex must be in [0, WorkerCount).");
+        this.assignedLeaseKeys = null;
+        this.workerIndex = workerIndex;
+        this.workerCount = workerCount;
+        this.minLeaseScanIntervalMillis = minLeaseScanIntervalMillis;
+    }
+
+    /**
+     * LeaseKey是否分配给本Worker。取模规则使用String.hashCode，在不同的JVM上结果一致。
+     */
+    public boolean isAssigned(String leaseKey) {
+        if (assignedLeaseKeys != null) {
+            return assignedLeaseKeys.contains(leaseKey);
+        }
+        return (leaseKey.hashCode() & Integer.MAX_VALUE) % workerCount == workerIndex;
+    }
+
+    public LeaseAssignment<T> assign(LeaseAssignmentContext<T> context) {
+        LeaseAssignment<T> assignment = new LeaseAssignment<T>();
+        Set<String> leaseKeysToTake = new HashSet<String>();
+        for (T lease : context.getLeasesStealComplete()) {
+            assignment.addLeaseToTake(lease);
+            leaseKeysToTake.add(lease.getLeaseKey());
+        }
+        for (T lease : getAssignedLeases(context)) {
+            if (leaseKeysToTake.contains(lease.getLeaseKey())) {
+                continue;
+            }
+            if (context.isExpired(lease)) {
+                assignment.addLeaseToTake(lease);
+            } else if (context.isStealable(lease)) {
+                assignment.addLeaseToSteal(lease);
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * 显式指定时只查找指定的Lease，不遍历全部Lease。
+     */
+    private List<T> getAssignedLeases(LeaseAssignmentContext<T> context) {
+        List<T> leases = new ArrayList<T>();
+        if (assignedLeaseKeys != null) {
+            for (String leaseKey : assignedLeaseKeys) {
+                T lease = context.getLease(leaseKey);
+                if (lease != null) {
+                    leases.add(lease);
+                }
+            }
+        } else {
+            for (T lease : context.getAllLeases()) {
+                if (isAssigned(lease.getLeaseKey())) {
+                    leases.add(lease);
+                }
+            }
+        }
+        return leases;
+    }
+
+    /**
+     * 接收方不知道各Worker负责哪些Lease，按Rendezvous哈希交给其他存活的Worker，本Worker重新加入后再通过偷取收回。
+     */
+    public Map<String, String> planHandOff(LeaseAssignmentContext<T> context) {
+        Set<String> workers = new HashSet<String>(context.getLiveWorkers());
+        workers.remove(context.getWorkerIdentifier());
+        Map<String, String> targets = new HashMap<String, String>();
+        if (workers.isEmpty()) {
+            return targets;
+        }
+        for (T lease : context.getOwnedLeases()) {
+            targets.put(lease.getLeaseKey(), RendezvousHash.select(lease.getLeaseKey(), workers));
+        }
+        return targets;
+    }
+
+    public long getMinLeaseScanIntervalMillis() {
+        return minLeaseScanIntervalMillis;
+    }
+}
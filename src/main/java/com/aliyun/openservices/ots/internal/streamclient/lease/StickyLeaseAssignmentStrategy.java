@@ -0,0 +1,118 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseAssignmentStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 粘性分配策略：每个Lease按Rendezvous哈希分配给当前存活Worker中权重最高的Worker。
+ * 过期的Lease在宽限期内只由原Owner重新获取（如原Owner重启），超过宽限期后由分配到的Worker获取；
+ * 分配到的Worker可能不再获取Lease（如正在排空或已达到处理能力上限），过期超过一个Lease周期仍无人获取的Lease不再按哈希分配，由任意Worker获取；
+ * 开启偷取时，只偷取其他Worker持有的、分配给本Worker的Lease。
+ * Worker集合不变时Lease不会迁移，增减Worker时只有分配结果发生变化的Lease迁移。
+ * @param <T>
+ */
+public class StickyLeaseAssignmentStrategy<T extends Lease> implements ILeaseAssignmentStrategy<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StickyLeaseAssignmentStrategy.class);
+
+    private final boolean autoSteal;
+    private final int maxStealLeasesPerTake;
+    private final long stickyLeaseGraceMillis;
+
+    /**
+     * @param autoSteal              是否偷取分配给本Worker的Lease
+     * @param maxStealLeasesPerTake  每次TakeLease最多偷取的Lease数量
+     * @param stickyLeaseGraceMillis Lease过期后只允许原Owner重新获取的时间
+     */
+    public StickyLeaseAssignmentStrategy(boolean autoSteal, int maxStealLeasesPerTake, long stickyLeaseGraceMillis) {
+        this.autoSteal = autoSteal;
+        this.maxStealLeasesPerTake = maxStealLeasesPerTake;
+        this.stickyLeaseGraceMillis = stickyLeaseGraceMillis;
+    }
+
+    public LeaseAssignment<T> assign(LeaseAssignmentContext<T> context) {
+        LeaseAssignment<T> assignment = new LeaseAssignment<T>();
+        Set<String> leaseKeysToTake = new HashSet<String>();
+        for (T lease : context.getLeasesStealComplete()) {
+            assignment.addLeaseToTake(lease);
+            leaseKeysToTake.add(lease.getLeaseKey());
+        }
+        for (T lease : context.getExpiredLeases()) {
+            if (!leaseKeysToTake.contains(lease.getLeaseKey()) && isStickyTarget(lease, context)) {
+                assignment.addLeaseToTake(lease);
+                leaseKeysToTake.add(lease.getLeaseKey());
+            }
+        }
+        for (String leaseKey : context.getOrphanedLeaseKeys()) {
+            T lease = context.getLease(leaseKey);
+            if (!leaseKeysToTake.contains(leaseKey) && !isInGrace(lease, context)) {
+                LOG.debug("Take orphaned lease, LeaseKey: {}.", leaseKey);
+                assignment.addLeaseToTake(lease);
+                leaseKeysToTake.add(leaseKey);
+            }
+        }
+
+        if (autoSteal) {
+            for (T lease : context.getAllLeases()) {
+                if (assignment.getLeasesToSteal().size() >= maxStealLeasesPerTake) {
+                    break;
+                }
+                if (context.isStealable(lease) && context.getWorkerIdentifier().equals(
+                        RendezvousHash.select(lease.getLeaseKey(), context.getLiveWorkers()))) {
+                    assignment.addLeaseToSteal(lease);
+                }
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * 交给除本Worker外Rendezvous哈希分配到的Worker，本Worker退出后该Lease不会再次迁移。
+     */
+    public Map<String, String> planHandOff(LeaseAssignmentContext<T> context) {
+        Set<String> workers = new HashSet<String>(context.getLiveWorkers());
+        workers.remove(context.getWorkerIdentifier());
+        Map<String, String> targets = new HashMap<String, String>();
+        if (workers.isEmpty()) {
+            return targets;
+        }
+        for (T lease : context.getOwnedLeases()) {
+            targets.put(lease.getLeaseKey(), RendezvousHash.select(lease.getLeaseKey(), workers));
+        }
+        return targets;
+    }
+
+    public long getMinLeaseScanIntervalMillis() {
+        return 0;
+    }
+
+    /**
+     * 过期的Lease是否应由本Worker获取：原Owner为本Worker时直接获取；
+     * 原Owner为其他Worker且过期时间未超过宽限期时等待原Owner重新获取；否则按Rendezvous哈希分配。
+     */
+    private boolean isStickyTarget(T lease, LeaseAssignmentContext<T> context) {
+        String leaseOwner = lease.getLeaseOwner();
+        if (leaseOwner.equals(context.getWorkerIdentifier())) {
+            return true;
+        }
+        if (isInGrace(lease, context)) {
+            return false;
+        }
+        return context.getWorkerIdentifier().equals(RendezvousHash.select(lease.getLeaseKey(), context.getLiveWorkers()));
+    }
+
+    /**
+     * 原Owner为其他Worker且过期时间未超过宽限期，等待原Owner重新获取。
+     */
+    private boolean isInGrace(T lease, LeaseAssignmentContext<T> context) {
+        return !lease.getLeaseOwner().isEmpty() && !lease.getLeaseOwner().equals(context.getWorkerIdentifier())
+                && context.getSnapshotTimeMillis() - lease.getLastCounterIncrementMillis()
+                <= context.getLeaseDurationMillis() + stickyLeaseGraceMillis;
+    }
+}
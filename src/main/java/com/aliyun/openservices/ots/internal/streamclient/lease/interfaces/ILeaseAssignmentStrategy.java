@@ -0,0 +1,42 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease.interfaces;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.Lease;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseAssignment;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseAssignmentContext;
+
+import java.util.Map;
+
+/**
+ * Lease分配策略，决定本Worker每个Take周期获取、偷取哪些Lease，以及排空时将持有的Lease交给哪个Worker。
+ * LeaseTaker负责读取StatusTable、判断Lease是否过期以及执行Take、Steal等操作，分配策略只根据LeaseAssignmentContext做出决定。
+ * 同一个Stream下的所有Worker需要使用相同的分配策略。
+ * @param <T>
+ */
+public interface ILeaseAssignmentStrategy<T extends Lease> {
+
+    /**
+     * 计算本轮需要获取以及偷取的Lease。
+     * 需要获取的Lease只能从context中已经转交给本Worker的Lease以及过期的Lease中选取，
+     * 需要偷取的Lease只能是其他Worker持有的有效且未被偷的Lease。
+     *
+     * @param context
+     * @return
+     */
+    public LeaseAssignment<T> assign(LeaseAssignmentContext<T> context);
+
+    /**
+     * 计算排空时本Worker持有的各Lease的接收方。
+     *
+     * @param context
+     * @return LeaseKey到接收方Worker的映射，没有合适的接收方时不包含该Lease
+     */
+    public Map<String, String> planHandOff(LeaseAssignmentContext<T> context);
+
+    /**
+     * 两次读取全部Lease的最小间隔，LeaseTaker取该值与其自身配置的较大值。
+     * 分配结果很少变化的策略可以返回较大的值，避免每个Take周期都读取全部Lease。
+     *
+     * @return 不大于0时使用LeaseTaker的配置
+     */
+    public long getMinLeaseScanIntervalMillis();
+}
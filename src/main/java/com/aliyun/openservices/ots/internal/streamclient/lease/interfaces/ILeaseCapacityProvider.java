@@ -0,0 +1,14 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease.interfaces;
+
+/**
+ * Worker的处理能力，即本Worker最多应持有的Lease数量。
+ * LeaseTaker每次TakeLease前获取一次，获取与偷取的Lease不会使本Worker持有的Lease超过该数量，超出的部分留给其他Worker。
+ */
+public interface ILeaseCapacityProvider {
+
+    /**
+     * @param heldLeases 本Worker当前持有以及正在偷取中的Lease数量
+     * @return 本Worker最多应持有的Lease数量，没有限制时返回Integer.MAX_VALUE
+     */
+    public int getLeaseCapacity(int heldLeases);
+}
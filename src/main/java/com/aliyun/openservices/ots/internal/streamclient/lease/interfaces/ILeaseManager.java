@@ -5,6 +5,7 @@ import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.lease.Lease;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Lease的CURD等操作。
@@ -47,6 +48,15 @@ public interface ILeaseManager<T extends Lease> {
      */
     public void createLease(T lease) throws StreamClientException, DependencyException;
 
+    /**
+     * 仅当Lease不存在时创建Lease，不会覆盖其他Worker已创建(可能已有Checkpoint)的Lease。
+     * @param lease
+     * @return 创建成功，返回true，若Lease已经存在，返回false。
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public boolean createLeaseIfNotExists(T lease) throws StreamClientException, DependencyException;
+
     /**
      * 获取指定Lease的信息。
      * @param leaseKey
@@ -58,6 +68,7 @@ public interface ILeaseManager<T extends Lease> {
 
     /**
      * 尝试续租Lease，条件更新LeaseCounter。
+     * 若传入的Lease的Stealer为空，还要求表中的Stealer为空，Lease被偷时续租失败，Owner可以借此发现Stealer。
      * @param lease
      * @return 续租成功，返回true，否则返回false。
      * @throws StreamClientException
@@ -65,6 +76,17 @@ public interface ILeaseManager<T extends Lease> {
      */
     public boolean renewLease(T lease) throws StreamClientException, DependencyException;
 
+    /**
+     * 批量续租Lease，每个Lease各自条件更新LeaseCounter，条件与renewLease相同。
+     * 续租成功的Lease的LeaseCounter会加一。
+     * @param leases
+     * @return 每个LeaseKey的续租结果，续租成功为true，条件检查失败为false；
+     *         因其他错误未能续租的Lease不在结果中，可在下次续租时重试。
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public Map<String, Boolean> batchRenewLeases(List<T> leases) throws StreamClientException, DependencyException;
+
     /**
      * Owner尝试获得一个Lease，条件更新LeaseCounter，设置Owner。
      * @param lease
@@ -94,6 +116,16 @@ public interface ILeaseManager<T extends Lease> {
      */
     public boolean transferLease(T lease) throws StreamClientException, DependencyException;
 
+    /**
+     * Owner主动释放Lease，条件更新Counter，设置Owner和Stealer为空。
+     * 其他Worker在下一次TakeLease时即可获取该Lease，不需要等待Lease过期。
+     * @param lease
+     * @return 若释放成功，返回true，否则返回false。
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public boolean releaseLease(T lease) throws StreamClientException, DependencyException;
+
     /**
      * 删除一个Lease。
      * @param leaseKey
@@ -110,4 +142,29 @@ public interface ILeaseManager<T extends Lease> {
      * @throws DependencyException
      */
     public boolean updateLease(T lease) throws StreamClientException, DependencyException;
+
+    /**
+     * 写入Worker的心跳，心跳模式下代替逐个Lease的续租。
+     * @param workerIdentifier
+     * @param heartbeatCounter 每次写入时递增，其他Worker通过该值是否变化判断心跳是否在更新
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public void renewWorkerHeartbeat(String workerIdentifier, long heartbeatCounter) throws StreamClientException, DependencyException;
+
+    /**
+     * 获取所有Worker的心跳。
+     * @return WorkerIdentifier到HeartbeatCounter的映射。
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public Map<String, Long> listWorkerHeartbeats() throws StreamClientException, DependencyException;
+
+    /**
+     * 删除一个Worker的心跳。
+     * @param workerIdentifier
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public void deleteWorkerHeartbeat(String workerIdentifier) throws StreamClientException, DependencyException;
 }
@@ -3,6 +3,7 @@ package com.aliyun.openservices.ots.internal.streamclient.lease.interfaces;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.lease.Lease;
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseLoad;
 
 import java.util.Collection;
 import java.util.Map;
@@ -24,17 +25,26 @@ public interface ILeaseRenewer<T extends Lease> {
 
     /**
      * 获取当前持有的全部Lease的信息。
+     * 返回的Lease为只读的快照，需要修改时先copy。
      * @return
      */
     public Map<String, T> getCurrentlyHeldLeases();
 
     /**
      * 在当前持有的Lease中获取指定Lease的信息。
+     * 返回的Lease为只读的快照，需要修改时先copy。
      * @param leaseKey
      * @return
      */
     public T getCurrentlyHeldLease(String leaseKey);
 
+    /**
+     * 当前持有的Lease集合的版本号。Lease的加入、移除以及发现Stealer时递增，续租、Update等不改变版本号。
+     * 版本号不变时getCurrentlyHeldLeases()中除过期以外的变化只有Checkpoint、负载等信息。
+     * @return
+     */
+    public long getHeldLeasesVersion();
+
     /**
      * LeaseTaker获取到Lease后，通过该方法将这些Lease加入Renewer中进行续约。
      * @param newLeases
@@ -46,6 +56,15 @@ public interface ILeaseRenewer<T extends Lease> {
      */
     public void clearCurrentlyHeldLeases();
 
+    /**
+     * 设置本Worker持有的Lease对应Shard的负载，在下一次续租或Update时随之写入StatusTable。
+     * 若未持有该Lease，则忽略。
+     *
+     * @param leaseKey
+     * @param leaseLoad
+     */
+    public void updateLeaseLoad(String leaseKey, LeaseLoad leaseLoad);
+
     /**
      * Update指定的Lease，检查LeaseIdentifier是否一致。
      *
@@ -67,4 +86,16 @@ public interface ILeaseRenewer<T extends Lease> {
      * @throws DependencyException
      */
     public boolean transferLease(String leaseKey, String leaseIdentifier) throws StreamClientException, DependencyException;
+
+    /**
+     * 主动释放指定的Lease，检查LeaseIdentifier是否一致，释放后不再续租。
+     * 若该Lease正在被偷，则直接转交给Stealer，否则将Owner置为空，由其他Worker获取。
+     *
+     * @param leaseKey
+     * @param leaseIdentifier
+     * @return 释放或转交成功，返回true，否则返回false。
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public boolean releaseLease(String leaseKey, String leaseIdentifier) throws StreamClientException, DependencyException;
 }
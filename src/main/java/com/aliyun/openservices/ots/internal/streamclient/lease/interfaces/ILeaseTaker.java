@@ -4,6 +4,7 @@ import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.lease.Lease;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,4 +22,22 @@ public interface ILeaseTaker<T extends Lease> {
      */
     public Map<String, T> takeLeases() throws StreamClientException, DependencyException;
 
+    /**
+     * 将本Worker持有的Lease转交给其他Worker，每个Lease以分配策略选择的Worker作为Stealer写入，
+     * 由本Worker在处理完当前数据后通过Transfer完成转交。已经转交给本Worker的Lease直接释放。
+     *
+     * @return 本次发起转交的Lease
+     * @throws StreamClientException
+     * @throws DependencyException
+     */
+    public List<T> handOffLeases() throws StreamClientException, DependencyException;
+
+    /**
+     * 最近一次TakeLease时，过期超过一个Lease周期仍没有被任何Worker获取的Lease的数量。
+     * 大于0说明所有Worker都已达到处理能力上限，这些Shard的延迟在持续增加。
+     *
+     * @return
+     */
+    public int getUnassignedLeaseCount();
+
 }
@@ -14,11 +14,16 @@ public interface IRetryStrategy {
         LEASE_ACTION_CREATE_LEASE,
         LEASE_ACTION_GET_LEASE,
         LEASE_ACTION_RENEW_LEASE,
+        LEASE_ACTION_BATCH_RENEW_LEASES,
         LEASE_ACTION_TAKE_LEASE,
         LEASE_ACTION_STEAL_LEASE,
         LEASE_ACTION_TRANSFER_LEASE,
+        LEASE_ACTION_RELEASE_LEASE,
         LEASE_ACTION_DELETE_LEASE,
         LEASE_ACTION_UPDATE_LEASE,
+        LEASE_ACTION_RENEW_WORKER_HEARTBEAT,
+        LEASE_ACTION_LIST_WORKER_HEARTBEATS,
+        LEASE_ACTION_DELETE_WORKER_HEARTBEAT,
     }
 
     boolean shouldRetry(RetryableAction actionName, Exception ex, int retries);
@@ -7,10 +7,11 @@ import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Callable;
+import java.util.concurrent.*;
 
 /**
  * 为Callable扩充重试逻辑。
+ * call()在当前线程中等待重试；submit()则以非阻塞的方式执行，重试的等待由定时器完成，不占用执行线程。
  * @param <T>
  */
 public class RetryingCallableDecorator<T> implements Callable<T>{
@@ -48,4 +49,128 @@ public class RetryingCallableDecorator<T> implements Callable<T>{
             }
         }
     }
+
+    /**
+     * 非阻塞地执行：每次尝试都提交到executorService中执行，失败后由retryScheduler在退避时间之后重新提交，
+     * 等待重试期间不占用任何线程。最终失败时，返回的Future会抛出以DependencyException或StreamClientException为cause的ExecutionException。
+     */
+    public Future<T> submit(ExecutorService executorService, ScheduledExecutorService retryScheduler) {
+        RetryingFuture future = new RetryingFuture(executorService, retryScheduler);
+        future.submitAttempt();
+        return future;
+    }
+
+    private Exception toFinalException(Exception ex) {
+        if (ex instanceof DependencyException) {
+            return ex;
+        } else {
+            return new StreamClientException(ex.getMessage(), ex);
+        }
+    }
+
+    private class RetryingFuture implements Future<T>, Runnable {
+
+        private final ExecutorService executorService;
+        private final ScheduledExecutorService retryScheduler;
+        private int retries;
+        private boolean done;
+        private boolean cancelled;
+        private T result;
+        private Exception exception;
+
+        RetryingFuture(ExecutorService executorService, ScheduledExecutorService retryScheduler) {
+            this.executorService = executorService;
+            this.retryScheduler = retryScheduler;
+        }
+
+        void submitAttempt() {
+            try {
+                executorService.execute(this);
+            } catch (RejectedExecutionException e) {
+                complete(null, e);
+            }
+        }
+
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                complete(callable.call(), null);
+            } catch (Exception ex) {
+                if (!isDone() && retryStrategy.shouldRetry(actionName, ex, retries)) {
+                    long backoffTimeMillis = retryStrategy.getBackoffTimeMillis(actionName, ex, retries);
+                    LOG.debug("Retry, Action: {}, Exception: {}, Retries: {}", actionName, ex, retries);
+                    retries++;
+                    try {
+                        retryScheduler.schedule(new Runnable() {
+                            public void run() {
+                                submitAttempt();
+                            }
+                        }, backoffTimeMillis, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        complete(null, toFinalException(ex));
+                    }
+                } else {
+                    complete(null, toFinalException(ex));
+                }
+            }
+        }
+
+        private synchronized void complete(T result, Exception exception) {
+            if (done) {
+                return;
+            }
+            this.result = result;
+            this.exception = exception;
+            this.done = true;
+            notifyAll();
+        }
+
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            complete(null, new CancellationException());
+            return true;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        public synchronized T get() throws InterruptedException, ExecutionException {
+            while (!done) {
+                wait();
+            }
+            return getResult();
+        }
+
+        public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            while (!done) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if (waitMillis <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(waitMillis);
+            }
+            return getResult();
+        }
+
+        private T getResult() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (exception != null) {
+                throw new ExecutionException(exception);
+            }
+            return result;
+        }
+    }
 }
@@ -31,6 +31,13 @@ public enum ShutdownReason {
      * 由用户通过ShutdownMarker触发“PROCESS_RESTART”类型的Shutdown。
      * Shutdown后，Worker会启动一个新的ShardConsumer处理该Shard。
      */
-    PROCESS_RESTART
+    PROCESS_RESTART,
+
+    /**
+     * 由用户调用Worker.gracefulShutdown触发“WORKER_SHUTDOWN”类型的Shutdown，
+     * 发生在Worker正常退出时，用户可以在shutdown中做最后一次Checkpoint。
+     * Shutdown完毕后，Worker主动释放该Shard的Lease，其他Worker不需要等待Lease过期即可接手。
+     */
+    WORKER_SHUTDOWN
 }
 
@@ -16,7 +16,17 @@ public class OTSHelper {
     }
 
     public static List<StreamShard> listShard(SyncClientInterface ots, String streamId) {
+        return listShard(ots, streamId, null);
+    }
+
+    /**
+     * 从inclusiveStartShardId(包含)开始获取Shard列表，为null时获取全部Shard。
+     */
+    public static List<StreamShard> listShard(SyncClientInterface ots, String streamId, String inclusiveStartShardId) {
         DescribeStreamRequest describeStreamRequest = new DescribeStreamRequest(streamId);
+        if (inclusiveStartShardId != null) {
+            describeStreamRequest.setInclusiveStartShardId(inclusiveStartShardId);
+        }
         DescribeStreamResponse describeStreamResult = ots.describeStream(describeStreamRequest);
         List<StreamShard> shardList = new ArrayList<StreamShard>();
         shardList.addAll(describeStreamResult.getShards());
@@ -0,0 +1,121 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.alicloud.openservices.tablestore.model.*;
+import com.aliyun.openservices.ots.internal.streamclient.ClientConfig;
+import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
+import com.aliyun.openservices.ots.internal.streamclient.core.task.TaskRetryStrategy;
+import com.aliyun.openservices.ots.internal.streamclient.lease.MemoryLeaseManager;
+import com.aliyun.openservices.ots.internal.streamclient.mock.MockOTS;
+import com.aliyun.openservices.ots.internal.streamclient.mock.SimpleMockCheckpointTracker;
+import com.aliyun.openservices.ots.internal.streamclient.model.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量ShardConsumer在PROCESSING状态下每处理一批数据在线程池线程上分配的内存。
+ * GetStreamRecord始终返回同一个预先构造的Response，不计入SDK构造Response的分配；
+ * Record不包含主键和属性列，不计入SDK计算数据大小的开销；
+ * processRecords本身不分配内存，测量结果只包含Task的创建、提交以及执行路径上的分配。
+ * 依赖HotSpot的com.sun.management.ThreadMXBean统计线程分配的字节数。
+ *
+ * processTimeSliceMillis为0时每批数据都重新提交一次Task，测量的是提交路径上的分配。
+ *
+ * 用法：ShardConsumerAllocationBenchmark [batches] [processTimeSliceMillis]，默认为200000、0。
+ * 类名不以Test开头，不会在单元测试中运行，需要手动执行。
+ */
+public class ShardConsumerAllocationBenchmark {
+
+    private static final int WARMUP_BATCHES = 100000;
+    private static final int RECORDS_PER_BATCH = 100;
+
+    public static void main(String[] args) throws Exception {
+        int batches = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long processTimeSliceMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        MockOTS ots = new MockOTS() {
+            private GetStreamRecordResponse response;
+
+            @Override
+            public GetStreamRecordResponse getStreamRecord(GetStreamRecordRequest request) {
+                if (response == null) {
+                    response = super.getStreamRecord(request);
+                }
+                return response;
+            }
+        };
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+        List<StreamRecord> records = new ArrayList<StreamRecord>();
+        for (int i = 0; i < RECORDS_PER_BATCH * 2; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            records.add(record);
+        }
+        ots.appendRecords(shardInfo.getShardId(), records);
+
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+        config.setMaxRecords(RECORDS_PER_BATCH);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setIdleShardMaxBackoffMillis(0);
+        clientConfig.setProcessTimeSliceMillis(processTimeSliceMillis);
+
+        final int endBatch = WARMUP_BATCHES + batches;
+        final long[] allocatedBytes = new long[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            private int count;
+
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+                count++;
+                if (count == WARMUP_BATCHES) {
+                    allocatedBytes[0] = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                } else if (count == endBatch) {
+                    allocatedBytes[1] = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    processRecordsInput.getShutdownMarker().markForProcessDone();
+                    done.countDown();
+                }
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+            }
+        };
+
+        // 单线程的线程池，Task完成后在同一个线程中直接提交并执行下一个Task
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        TaskRetryStrategy retryStrategy = new TaskRetryStrategy();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy);
+        WorkerSignal workerSignal = new WorkerSignal();
+        ShardConsumer consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(), recordProcessor,
+                leaseManager, 10, executorService, shardSyncer, retryStrategy, clientConfig, null, workerSignal, null, null);
+        try {
+            while (consumer.getCurrentState() != ShardConsumer.ShardConsumerState.PROCESSING) {
+                consumer.consumeShard();
+                workerSignal.await(10);
+            }
+            consumer.consumeShard();
+            if (!done.await(10, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Benchmark timeout.");
+            }
+            System.out.println(String.format("Batches: %d, RecordsPerBatch: %d, ProcessTimeSliceMillis: %d, BytesPerBatch: %.1f",
+                    batches, RECORDS_PER_BATCH, processTimeSliceMillis,
+                    (double) (allocatedBytes[1] - allocatedBytes[0]) / batches));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
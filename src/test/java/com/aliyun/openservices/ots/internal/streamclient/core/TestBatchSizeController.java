@@ -0,0 +1,102 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.alicloud.openservices.tablestore.model.*;
+import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBatchSizeController {
+
+    private List<StreamRecord> genRecords(int num, long timestamp) {
+        List<StreamRecord> list = new ArrayList<StreamRecord>();
+        for (int i = 0; i < num; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+            record.setColumns(Arrays.asList(new RecordColumn(new Column("col", ColumnValue.fromLong(i), timestamp), RecordColumn.ColumnType.PUT)));
+            list.add(record);
+        }
+        return list;
+    }
+
+    @Test
+    public void testAdjustBatchSize() {
+        StreamConfig streamConfig = new StreamConfig();
+        streamConfig.setMaxRecords(100);
+        streamConfig.setAdaptiveMinRecords(50);
+        streamConfig.setAdaptiveMaxRecords(1000);
+        streamConfig.setMaxPrefetchBatches(2);
+        streamConfig.setCatchUpLagMillis(60000);
+
+        BatchSizeController controller = new BatchSizeController("TestShard", streamConfig);
+        assertEquals(100, controller.getRecordLimit());
+        assertEquals(0, controller.getPrefetchDepth());
+
+        long oldTimestamp = System.currentTimeMillis() - 3600 * 1000;
+
+        // 满批且数据落后，增大limit和预取深度
+        controller.onRecordsFetched(100, genRecords(100, oldTimestamp));
+        assertEquals(200, controller.getRecordLimit());
+        assertEquals(1, controller.getPrefetchDepth());
+        assertTrue(controller.getLastObservedLagMillis() >= 3600 * 1000);
+
+        for (int i = 0; i < 10; i++) {
+            controller.onRecordsFetched(controller.getRecordLimit(), genRecords(controller.getRecordLimit(), oldTimestamp));
+        }
+        assertEquals(1000, controller.getRecordLimit());
+        assertEquals(2, controller.getPrefetchDepth());
+
+        // 满批但数据是新的，保持不变
+        controller.onRecordsFetched(1000, genRecords(1000, System.currentTimeMillis()));
+        assertEquals(1000, controller.getRecordLimit());
+        assertEquals(2, controller.getPrefetchDepth());
+
+        // 已追上尾部，减小limit和预取深度
+        controller.onRecordsFetched(1000, genRecords(10, System.currentTimeMillis()));
+        assertEquals(500, controller.getRecordLimit());
+        assertEquals(1, controller.getPrefetchDepth());
+
+        for (int i = 0; i < 10; i++) {
+            controller.onRecordsFetched(controller.getRecordLimit(), new ArrayList<StreamRecord>());
+        }
+        assertEquals(50, controller.getRecordLimit());
+        assertEquals(0, controller.getPrefetchDepth());
+        assertEquals(-1, controller.getLastObservedLagMillis());
+    }
+
+    @Test
+    public void testServerCappedBatch() {
+        StreamConfig streamConfig = new StreamConfig();
+        streamConfig.setMaxRecords(1000);
+        streamConfig.setAdaptiveMinRecords(50);
+        streamConfig.setEnableAdaptiveBatchSize(true);
+        assertEquals(StreamConfig.MAX_RECORDS_PER_REQUEST, streamConfig.getAdaptiveMaxRecords());
+        try {
+            streamConfig.setAdaptiveMaxRecords(StreamConfig.MAX_RECORDS_PER_REQUEST + 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        BatchSizeController controller = new BatchSizeController("TestShard", streamConfig);
+        long oldTimestamp = System.currentTimeMillis() - 3600 * 1000;
+
+        // 服务端按数据大小截断，还有后续数据且数据仍然落后，视为满批
+        controller.onRecordsFetched(1000, genRecords(300, oldTimestamp), true);
+        assertEquals(1000, controller.getRecordLimit());
+
+        // 没有后续数据，说明已经读到尾部
+        controller.onRecordsFetched(1000, genRecords(300, oldTimestamp), false);
+        assertEquals(500, controller.getRecordLimit());
+
+        // 数据是新的，说明已经追上尾部
+        controller.onRecordsFetched(500, genRecords(300, System.currentTimeMillis()), true);
+        assertEquals(250, controller.getRecordLimit());
+    }
+}
@@ -3,17 +3,23 @@ package com.aliyun.openservices.ots.internal.streamclient.core;
 import com.alicloud.openservices.tablestore.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.core.exceptions.ShardEndReachedException;
 import com.aliyun.openservices.ots.internal.streamclient.mock.MockOTS;
 import com.aliyun.openservices.ots.internal.streamclient.model.CheckpointPosition;
 import com.aliyun.openservices.ots.internal.streamclient.model.ShardInfo;
+import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TestDataFetcher {
@@ -70,5 +76,131 @@ public class TestDataFetcher {
         assertEquals(iterator, dataFetcher.getShardIterator());
     }
 
+    @Test
+    public void testDataFetcherWithPrefetch() throws DependencyException, StreamClientException, InterruptedException {
+        MockOTS ots = new MockOTS();
+
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+
+        List<StreamRecord> list = new ArrayList<StreamRecord>();
+        for (int i = 0; i < 100; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+            record.setColumns(Arrays.asList(new RecordColumn(new Column("col", ColumnValue.fromLong(i), i), RecordColumn.ColumnType.PUT)));
+            list.add(record);
+        }
+        ots.createShard(shardInfo.getShardId(), null, null);
+        ots.appendRecords(shardInfo.getShardId(), list);
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            DataFetcher dataFetcher = new DataFetcher(ots, shardInfo, executorService, 3);
+            dataFetcher.initialize(CheckpointPosition.TRIM_HORIZON);
 
+            long expected = 0;
+            for (int i = 0; i < 10; i++) {
+                GetStreamRecordResponse response = dataFetcher.getRecords(10);
+                assertEquals(10, response.getRecords().size());
+                for (StreamRecord record : response.getRecords()) {
+                    assertEquals(expected++, record.getPrimaryKey().getPrimaryKeyColumn(0).getValue().asLong());
+                }
+                assertEquals(response.getNextShardIterator(), dataFetcher.getShardIterator());
+                assertTrue(dataFetcher.getPrefetchedBatchCount() <= 3);
+            }
+            assertEquals(0, dataFetcher.getRecords(10).getRecords().size());
+
+            // 将Checkpoint回退到其他位置，预取的数据应被丢弃
+            String iterator = shardInfo.getShardId() + "\t" + 50;
+            dataFetcher.updateCheckpoint(iterator);
+            GetStreamRecordResponse response = dataFetcher.getRecords(10);
+            assertEquals(10, response.getRecords().size());
+            assertEquals(50, response.getRecords().get(0).getPrimaryKey().getPrimaryKeyColumn(0).getValue().asLong());
+
+            // 分区关闭后nextShardIterator为null，Checkpoint应为SHARD_END
+            ots.splitShard(shardInfo.getShardId(), "TestShard1", "TestShard2");
+            int count = 0;
+            while (true) {
+                try {
+                    count += dataFetcher.getRecords(10).getRecords().size();
+                } catch (ShardEndReachedException e) {
+                    break;
+                }
+            }
+            assertEquals(40, count);
+
+            dataFetcher.stopPrefetch();
+            assertEquals(0, dataFetcher.getPrefetchedBatchCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 读到尾部后停止预取，由pollForRecords探测新数据，getRecords返回新数据后重新开始预取。
+     */
+    @Test
+    public void testIdleShardStopsPrefetch() throws DependencyException, StreamClientException {
+        final AtomicInteger requestCount = new AtomicInteger(0);
+        MockOTS ots = new MockOTS() {
+            @Override
+            public GetStreamRecordResponse getStreamRecord(GetStreamRecordRequest request) {
+                requestCount.incrementAndGet();
+                return super.getStreamRecord(request);
+            }
+        };
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+        ots.appendRecords(shardInfo.getShardId(), genRecords(0, 20));
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            DataFetcher dataFetcher = new DataFetcher(ots, shardInfo, executorService, 3);
+            dataFetcher.initialize(CheckpointPosition.TRIM_HORIZON);
+            assertEquals(10, dataFetcher.getRecords(10).getRecords().size());
+            assertEquals(10, dataFetcher.getRecords(10).getRecords().size());
+            assertEquals(0, dataFetcher.getRecords(10).getRecords().size());
+
+            // 拉取到空的数据后不再预取
+            TimeUtils.sleepMillis(200);
+            int count = requestCount.get();
+            TimeUtils.sleepMillis(200);
+            assertEquals(count, requestCount.get());
+
+            // 缓存中只有空的数据时，重新探测且不视为有新数据
+            assertEquals(false, dataFetcher.pollForRecords(10));
+            assertEquals(count + 1, requestCount.get());
+            TimeUtils.sleepMillis(200);
+            assertEquals(count + 1, requestCount.get());
+
+            ots.appendRecords(shardInfo.getShardId(), genRecords(20, 10));
+            assertEquals(true, dataFetcher.pollForRecords(10));
+            GetStreamRecordResponse response = dataFetcher.getRecords(10);
+            assertEquals(10, response.getRecords().size());
+            assertEquals(20, response.getRecords().get(0).getPrimaryKey().getPrimaryKeyColumn(0).getValue().asLong());
+
+            // 重新开始预取
+            long startTime = System.currentTimeMillis();
+            while (dataFetcher.getPrefetchedBatchCount() == 0 && System.currentTimeMillis() - startTime < 5000) {
+                TimeUtils.sleepMillis(10);
+            }
+            assertEquals(1, dataFetcher.getPrefetchedBatchCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static List<StreamRecord> genRecords(int start, int num) {
+        List<StreamRecord> list = new ArrayList<StreamRecord>();
+        for (int i = start; i < start + num; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+            list.add(record);
+        }
+        return list;
+    }
 }
@@ -1,6 +1,6 @@
 package com.aliyun.openservices.ots.internal.streamclient.core;
 
-import com.alicloud.openservices.tablestore.model.ListStreamRequest;
+import com.alicloud.openservices.tablestore.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.ClientConfig;
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
@@ -10,16 +10,22 @@ import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseCoordinator;
 import com.aliyun.openservices.ots.internal.streamclient.lease.MemoryLeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
 import com.aliyun.openservices.ots.internal.streamclient.mock.MockOTS;
+import com.aliyun.openservices.ots.internal.streamclient.mock.SimpleMockCheckpointTracker;
 import com.aliyun.openservices.ots.internal.streamclient.model.*;
 import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestShardConsumer {
 
@@ -103,4 +109,364 @@ public class TestShardConsumer {
         assertEquals(ShardConsumer.ShardConsumerState.SHUTDOWN_COMPLETE, consumer.getCurrentState());
     }
 
+    private void runIdleShardBackoff(boolean useIdleShardPoller) throws StreamClientException, DependencyException {
+        final AtomicInteger getRecordsCount = new AtomicInteger(0);
+        MockOTS ots = new MockOTS() {
+            @Override
+            public GetStreamRecordResponse getStreamRecord(GetStreamRecordRequest request) {
+                getRecordsCount.incrementAndGet();
+                return super.getStreamRecord(request);
+            }
+        };
+
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+
+        final AtomicInteger processCount = new AtomicInteger(0);
+        final AtomicInteger recordCount = new AtomicInteger(0);
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+                processCount.incrementAndGet();
+                recordCount.addAndGet(processRecordsInput.getRecords().size());
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+            }
+        };
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        IRetryStrategy retryStrategy = new TaskRetryStrategy();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy);
+        IdleShardPoller idleShardPoller = useIdleShardPoller ? new IdleShardPoller("worker") : null;
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setIdleShardInitialBackoffMillis(50);
+        clientConfig.setIdleShardMaxBackoffMillis(400);
+
+        ShardConsumer consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(), recordProcessor,
+                leaseManager, 10, executorService, shardSyncer, retryStrategy, clientConfig, idleShardPoller, null, null, null);
+        try {
+            long startTime = System.currentTimeMillis();
+            while (System.currentTimeMillis() - startTime < 2000) {
+                consumer.consumeShard();
+                TimeUtils.sleepMillis(20);
+            }
+            assertEquals(ShardConsumer.ShardConsumerState.PROCESSING, consumer.getCurrentState());
+            // 不做退避时约有100次请求
+            assertTrue(getRecordsCount.get() < 20);
+            if (useIdleShardPoller) {
+                assertEquals(1, processCount.get());
+            }
+
+            List<StreamRecord> list = new ArrayList<StreamRecord>();
+            for (int i = 0; i < 10; i++) {
+                StreamRecord record = new StreamRecord();
+                record.setRecordType(StreamRecord.RecordType.PUT);
+                record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+                record.setColumns(Arrays.asList(new RecordColumn(new Column("col", ColumnValue.fromLong(i), i), RecordColumn.ColumnType.PUT)));
+                list.add(record);
+            }
+            ots.appendRecords(shardInfo.getShardId(), list);
+
+            startTime = System.currentTimeMillis();
+            while (recordCount.get() < 10 && System.currentTimeMillis() - startTime < 2000) {
+                consumer.consumeShard();
+                TimeUtils.sleepMillis(20);
+            }
+            assertEquals(10, recordCount.get());
+        } finally {
+            if (idleShardPoller != null) {
+                idleShardPoller.shutdown();
+            }
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIdleShardBackoff() throws StreamClientException, DependencyException {
+        runIdleShardBackoff(false);
+    }
+
+    @Test
+    public void testIdleShardPoller() throws StreamClientException, DependencyException {
+        runIdleShardBackoff(true);
+    }
+
+    @Test
+    public void testCompletionDrivenProcessing() throws StreamClientException, DependencyException {
+        MockOTS ots = new MockOTS();
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+
+        List<StreamRecord> list = new ArrayList<StreamRecord>();
+        for (int i = 0; i < 1000; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+            record.setColumns(Arrays.asList(new RecordColumn(new Column("col", ColumnValue.fromLong(i), i), RecordColumn.ColumnType.PUT)));
+            list.add(record);
+        }
+        ots.appendRecords(shardInfo.getShardId(), list);
+
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+        config.setMaxRecords(10);
+
+        final AtomicInteger recordCount = new AtomicInteger(0);
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+                recordCount.addAndGet(processRecordsInput.getRecords().size());
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+            }
+        };
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        IRetryStrategy retryStrategy = new TaskRetryStrategy();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy);
+        WorkerSignal workerSignal = new WorkerSignal();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setProcessTimeSliceMillis(5);
+
+        ShardConsumer consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(), recordProcessor,
+                leaseManager, 10, executorService, shardSyncer, retryStrategy, clientConfig, null, workerSignal, null, null);
+        try {
+            // 状态切换由Worker主线程驱动，Task完成后会唤醒Worker主线程
+            assertEquals(true, consumer.consumeShard());
+            assertEquals(true, workerSignal.await(1000));
+            assertEquals(true, consumer.consumeShard());
+            assertEquals(ShardConsumer.ShardConsumerState.INITIALIZING, consumer.getCurrentState());
+            assertEquals(true, workerSignal.await(1000));
+            assertEquals(true, consumer.consumeShard());
+            assertEquals(ShardConsumer.ShardConsumerState.PROCESSING, consumer.getCurrentState());
+
+            // 有数据时不需要Worker主线程参与，ProcessTask完成后直接提交下一个
+            long startTime = System.currentTimeMillis();
+            while (recordCount.get() < 1000 && System.currentTimeMillis() - startTime < 5000) {
+                TimeUtils.sleepMillis(10);
+            }
+            assertEquals(1000, recordCount.get());
+
+            // 没有数据后唤醒Worker主线程
+            assertEquals(true, workerSignal.await(1000));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Worker正常退出时，等待正在处理的数据处理完毕后，以WORKER_SHUTDOWN调用用户的shutdown。
+     */
+    @Test
+    public void testWorkerShutdown() throws StreamClientException, DependencyException {
+        MockOTS ots = new MockOTS();
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+
+        final AtomicInteger processing = new AtomicInteger(0);
+        final List<ShutdownReason> shutdownReasons = new ArrayList<ShutdownReason>();
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+                processing.incrementAndGet();
+                TimeUtils.sleepMillis(300);
+                processing.decrementAndGet();
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+                assertEquals(0, processing.get());
+                shutdownReasons.add(shutdownInput.getShutdownReason());
+            }
+        };
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        IRetryStrategy retryStrategy = new TaskRetryStrategy();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy);
+        ShardConsumer consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(), recordProcessor,
+                leaseManager, 10, executorService, shardSyncer, retryStrategy);
+        try {
+            long startTime = System.currentTimeMillis();
+            while (processing.get() == 0 && System.currentTimeMillis() - startTime < 5000) {
+                consumer.consumeShard();
+                TimeUtils.sleepMillis(20);
+            }
+            assertEquals(ShardConsumer.ShardConsumerState.PROCESSING, consumer.getCurrentState());
+
+            startTime = System.currentTimeMillis();
+            while (!consumer.beginWorkerShutdown() && System.currentTimeMillis() - startTime < 5000) {
+                TimeUtils.sleepMillis(20);
+            }
+            assertEquals(ShardConsumer.ShardConsumerState.SHUTDOWN_COMPLETE, consumer.getCurrentState());
+            assertEquals(Arrays.asList(ShutdownReason.WORKER_SHUTDOWN), shutdownReasons);
+            assertEquals(ShutdownReason.WORKER_SHUTDOWN, consumer.getShutdownReason());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 已有的ShutdownReason只会被优先级更高的替换，Worker退出不会覆盖其他原因。
+     */
+    @Test
+    public void testShutdownReasonPriority() throws StreamClientException, DependencyException {
+        MockOTS ots = new MockOTS();
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+            }
+        };
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        IRetryStrategy retryStrategy = new TaskRetryStrategy();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy);
+        try {
+            ShardConsumer consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(),
+                    recordProcessor, leaseManager, 10, executorService, shardSyncer, retryStrategy);
+            assertEquals(null, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.WORKER_SHUTDOWN);
+            assertEquals(ShutdownReason.WORKER_SHUTDOWN, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.PROCESS_DONE);
+            assertEquals(ShutdownReason.PROCESS_DONE, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.STOLEN);
+            assertEquals(ShutdownReason.STOLEN, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.PROCESS_RESTART);
+            consumer.markForShutdown(ShutdownReason.WORKER_SHUTDOWN);
+            assertEquals(ShutdownReason.STOLEN, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.TERMINATE);
+            assertEquals(ShutdownReason.TERMINATE, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.ZOMBIE);
+            assertEquals(ShutdownReason.ZOMBIE, consumer.getShutdownReason());
+            consumer.markForShutdown(ShutdownReason.TERMINATE);
+            assertEquals(ShutdownReason.ZOMBIE, consumer.getShutdownReason());
+
+            // beginWorkerShutdown保留原来的ShutdownReason
+            consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(),
+                    recordProcessor, leaseManager, 10, executorService, shardSyncer, retryStrategy);
+            consumer.markForShutdown(ShutdownReason.PROCESS_RESTART);
+            consumer.beginWorkerShutdown();
+            assertEquals(ShutdownReason.PROCESS_RESTART, consumer.getShutdownReason());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 多个线程同时驱动同一个ShardConsumer，同一时刻只有一个Task在执行，IShutdownMarker的回调不会阻塞。
+     */
+    @Test
+    public void testConcurrentDrivers() throws Exception {
+        MockOTS ots = new MockOTS();
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+
+        List<StreamRecord> list = new ArrayList<StreamRecord>();
+        for (int i = 0; i < 1000; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+            list.add(record);
+        }
+        ots.appendRecords(shardInfo.getShardId(), list);
+
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+        config.setMaxRecords(10);
+
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final AtomicInteger recordCount = new AtomicInteger(0);
+        final AtomicInteger shutdownCount = new AtomicInteger(0);
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                if (recordCount.addAndGet(processRecordsInput.getRecords().size()) >= 500) {
+                    processRecordsInput.getShutdownMarker().markForProcessDone();
+                }
+                running.decrementAndGet();
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                shutdownCount.incrementAndGet();
+                running.decrementAndGet();
+            }
+        };
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        IRetryStrategy retryStrategy = new TaskRetryStrategy();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setIdleShardMaxBackoffMillis(0);
+        final ShardConsumer consumer = new ShardConsumer(shardInfo, config, new SimpleMockCheckpointTracker(),
+                recordProcessor, leaseManager, 10, executorService, shardSyncer, retryStrategy, clientConfig,
+                null, null, null, null);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        List<Thread> drivers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            drivers.add(new Thread(new Runnable() {
+                public void run() {
+                    long startTime = System.currentTimeMillis();
+                    while (!consumer.isShutdown() && System.currentTimeMillis() - startTime < 10000) {
+                        try {
+                            consumer.consumeShard();
+                        } catch (Exception e) {
+                            failed.set(true);
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            for (Thread driver : drivers) {
+                driver.start();
+            }
+            for (Thread driver : drivers) {
+                driver.join();
+            }
+            assertEquals(false, failed.get());
+            assertEquals(ShardConsumer.ShardConsumerState.SHUTDOWN_COMPLETE, consumer.getCurrentState());
+            assertEquals(ShutdownReason.PROCESS_DONE, consumer.getShutdownReason());
+            assertEquals(1, maxRunning.get());
+            assertEquals(1, shutdownCount.get());
+            assertTrue(recordCount.get() >= 500);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseSnapshotService;
+import com.aliyun.openservices.ots.internal.streamclient.lease.MemoryLeaseManager;
+import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
+import com.aliyun.openservices.ots.internal.streamclient.model.CheckpointPosition;
+import com.aliyun.openservices.ots.internal.streamclient.model.ShardInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestShardLineageWaiter {
+
+    private static class CountingLeaseManager extends MemoryLeaseManager {
+        final AtomicInteger listCount = new AtomicInteger();
+
+        @Override
+        public List<ShardLease> listLeases() {
+            listCount.incrementAndGet();
+            return super.listLeases();
+        }
+    }
+
+    private ExecutorService executorService;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newCachedThreadPool();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private ShardInfo shardInfo(String shardId, String... parentShardIds) {
+        return new ShardInfo(shardId, "", new HashSet<String>(Arrays.asList(parentShardIds)), "");
+    }
+
+    private Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private void createLease(MemoryLeaseManager leaseManager, String shardId, String checkpoint) {
+        ShardLease lease = new ShardLease(shardId);
+        lease.setCheckpoint(checkpoint);
+        leaseManager.createLease(lease);
+    }
+
+    /**
+     * 本地ParentShard处理完成后，子Shard立即完成等待，不需要等到下一个轮询周期。
+     */
+    @Test
+    public void testMarkShardEnd() throws InterruptedException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        createLease(leaseManager, "Parent", CheckpointPosition.TRIM_HORIZON);
+        ShardLineageWaiter waiter = new ShardLineageWaiter(new LeaseSnapshotService<ShardLease>(leaseManager, 0), executorService, scheduler, 3600 * 1000);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        waiter.await(shardInfo("Child", "Parent"), countDown(latch));
+        assertEquals(1, waiter.getWaitingCount());
+
+        long startTime = System.currentTimeMillis();
+        waiter.markShardEnd("Parent");
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertEquals(0, waiter.getWaitingCount());
+
+        // 已知处理完的Shard，之后的等待直接完成
+        CountDownLatch sibling = new CountDownLatch(1);
+        waiter.await(shardInfo("Sibling", "Parent"), countDown(sibling));
+        assertEquals(0, sibling.getCount());
+    }
+
+    /**
+     * 所有等待中的Shard共用一次listLeases，且等待期间不占用线程。
+     */
+    @Test
+    public void testBatchedPoll() throws InterruptedException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        createLease(leaseManager, "ParentA", CheckpointPosition.TRIM_HORIZON);
+        createLease(leaseManager, "ParentB", CheckpointPosition.TRIM_HORIZON);
+        ShardLineageWaiter waiter = new ShardLineageWaiter(new LeaseSnapshotService<ShardLease>(leaseManager, 0), executorService, scheduler, 200);
+
+        CountDownLatch latchA = new CountDownLatch(1);
+        CountDownLatch latchB = new CountDownLatch(1);
+        CountDownLatch latchMerged = new CountDownLatch(1);
+        waiter.await(shardInfo("ChildA", "ParentA"), countDown(latchA));
+        waiter.await(shardInfo("ChildB", "ParentB"), countDown(latchB));
+        waiter.await(shardInfo("Merged", "ParentA", "ParentB"), countDown(latchMerged));
+        assertEquals(3, waiter.getWaitingCount());
+
+        Thread.sleep(1000);
+        int listCount = leaseManager.listCount.get();
+        assertTrue(listCount >= 2 && listCount <= 8);
+        assertEquals(1, latchA.getCount());
+
+        createLease(leaseManager, "ParentA", CheckpointPosition.SHARD_END);
+        assertTrue(latchA.await(2, TimeUnit.SECONDS));
+        assertEquals(1, latchMerged.getCount());
+
+        // Lease已被删除的ParentShard视为已处理完
+        leaseManager.deleteLease("ParentB");
+        assertTrue(latchB.await(2, TimeUnit.SECONDS));
+        assertTrue(latchMerged.await(2, TimeUnit.SECONDS));
+        assertEquals(0, waiter.getWaitingCount());
+
+        // 没有等待中的Shard时停止轮询
+        Thread.sleep(500);
+        int count = leaseManager.listCount.get();
+        Thread.sleep(500);
+        assertEquals(count, leaseManager.listCount.get());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        createLease(leaseManager, "Parent", CheckpointPosition.TRIM_HORIZON);
+        ShardLineageWaiter waiter = new ShardLineageWaiter(new LeaseSnapshotService<ShardLease>(leaseManager, 0), executorService, scheduler, 100);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        waiter.await(shardInfo("Child", "Parent"), countDown(latch));
+        waiter.cancel("Child");
+        waiter.markShardEnd("Parent");
+        assertEquals(1, latch.getCount());
+        assertEquals(0, waiter.getWaitingCount());
+    }
+}
@@ -0,0 +1,30 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.LeaseLoad;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestShardLoadMeter {
+
+    @Test
+    public void testSample() {
+        ShardLoadMeter meter = new ShardLoadMeter(0);
+
+        // 第一次采样直接使用本周期的速率
+        meter.record(100, 10000, 200);
+        meter.record(100, 10000, 200);
+        assertEquals(new LeaseLoad(100, 10000, 200), meter.sample(2000));
+
+        // 时间未前进时返回上一次的结果
+        meter.record(1000, 1000, 1000);
+        assertEquals(new LeaseLoad(100, 10000, 200), meter.sample(2000));
+
+        // 之后与上一次的结果做平滑
+        assertEquals(new LeaseLoad(550, 5500, 600), meter.sample(3000));
+
+        // 没有数据时逐渐衰减
+        assertEquals(new LeaseLoad(275, 2750, 300), meter.sample(4000));
+        assertEquals(new LeaseLoad(138, 1375, 150), meter.sample(5000));
+    }
+}
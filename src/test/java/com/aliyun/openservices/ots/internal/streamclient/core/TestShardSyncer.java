@@ -13,13 +13,14 @@ import com.aliyun.openservices.ots.internal.streamclient.lease.MemoryLeaseManage
 import com.aliyun.openservices.ots.internal.streamclient.lease.ShardLease;
 import com.aliyun.openservices.ots.internal.streamclient.mock.MockOTS;
 import com.aliyun.openservices.ots.internal.streamclient.model.*;
+import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 
@@ -53,4 +54,90 @@ public class TestShardSyncer {
         assertEquals(shardInfo.getShardId(), leaseManager.getLease(shardInfo.getShardId()).getLeaseKey());
         assertEquals(shardInfo.getStreamId(), leaseManager.getLease(shardInfo.getShardId()).getStreamId());
     }
+
+    @Test
+    public void testRequestSync() throws StreamClientException, DependencyException {
+        MockOTS ots = new MockOTS();
+        ots.createShard("TestShard", null, null);
+
+        StreamConfig config = new StreamConfig();
+        config.setDataTableName("testTable");
+        config.setStatusTableName("statusTable");
+        config.setOTSClient(ots);
+
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, Executors.newCachedThreadPool(), new TaskRetryStrategy());
+        shardSyncer.syncShardAndLeaseInfo(true);
+        assertEquals(false, shardSyncer.isSyncRequested());
+
+        // 请求同步只记录标记，由Worker主线程执行同步
+        ots.splitShard("TestShard", "ChildShard1", "ChildShard2");
+        shardSyncer.requestSync();
+        assertEquals(true, shardSyncer.isSyncRequested());
+        assertEquals(null, leaseManager.getLease("ChildShard1"));
+
+        shardSyncer.syncShardAndLeaseInfo(true);
+        assertEquals(false, shardSyncer.isSyncRequested());
+        assertEquals("ChildShard1", leaseManager.getLease("ChildShard1").getLeaseKey());
+        assertEquals("ChildShard2", leaseManager.getLease("ChildShard2").getLeaseKey());
+    }
+
+    @Test
+    public void testNonBlockingRetry() throws Exception {
+        MockOTS ots = new MockOTS();
+
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+        ots.createShard(shardInfo.getShardId(), null, null);
+
+        StreamConfig config = new StreamConfig();
+        config.setDataTableName("testTable");
+        config.setStatusTableName("statusTable");
+        config.setOTSClient(ots);
+
+        final AtomicInteger listCount = new AtomicInteger(0);
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager() {
+            @Override
+            public List<ShardLease> listLeases() {
+                if (listCount.incrementAndGet() <= 3) {
+                    throw new RuntimeException(new DependencyException("test"));
+                }
+                return super.listLeases();
+            }
+        };
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+        IRetryStrategy retryStrategy = new IRetryStrategy() {
+            public boolean shouldRetry(RetryableAction actionName, Exception ex, int retries) {
+                return retries < 10;
+            }
+
+            public long getBackoffTimeMillis(RetryableAction actionName, Exception ex, int retries) {
+                return 200;
+            }
+        };
+
+        try {
+            ShardSyncer shardSyncer = new ShardSyncer(config, leaseManager, executorService, retryStrategy, retryScheduler);
+            assertEquals(true, shardSyncer.syncShardAndLeaseInfo(false));
+            TimeUtils.sleepMillis(20);
+
+            // 等待重试期间不占用线程，其他任务可以立即执行
+            Future<Boolean> other = executorService.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return true;
+                }
+            });
+            assertEquals(true, other.get(100, TimeUnit.MILLISECONDS));
+            assertEquals(false, shardSyncer.syncShardAndLeaseInfo(false));
+
+            shardSyncer.syncShardAndLeaseInfo(true);
+            assertEquals(5, listCount.get());
+            assertEquals(shardInfo.getShardId(), leaseManager.getLease(shardInfo.getShardId()).getLeaseKey());
+        } finally {
+            executorService.shutdownNow();
+            retryScheduler.shutdownNow();
+        }
+    }
 }
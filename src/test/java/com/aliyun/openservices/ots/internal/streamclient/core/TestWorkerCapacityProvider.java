@@ -0,0 +1,60 @@
+package com.aliyun.openservices.ots.internal.streamclient.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestWorkerCapacityProvider {
+
+    private static class MockCapacityProvider extends WorkerCapacityProvider {
+        double cpuLoad;
+        double heapUsage;
+        int queuedTasks;
+
+        MockCapacityProvider(int maxLeases) {
+            super(maxLeases, null, 1.0, 0.9, 100);
+        }
+
+        @Override
+        double getCpuLoad() {
+            return cpuLoad;
+        }
+
+        @Override
+        double getHeapUsage() {
+            return heapUsage;
+        }
+
+        @Override
+        int getQueuedTasks() {
+            return queuedTasks;
+        }
+    }
+
+    @Test
+    public void testGetLeaseCapacity() {
+        MockCapacityProvider provider = new MockCapacityProvider(0);
+        assertEquals(Integer.MAX_VALUE, provider.getLeaseCapacity(5));
+
+        // 任一资源超过阈值时不再获取新的Lease
+        provider.cpuLoad = 1.5;
+        assertEquals(5, provider.getLeaseCapacity(5));
+        provider.cpuLoad = 0.5;
+        provider.heapUsage = 0.95;
+        assertEquals(5, provider.getLeaseCapacity(5));
+        provider.heapUsage = 0.5;
+        provider.queuedTasks = 101;
+        assertEquals(5, provider.getLeaseCapacity(5));
+        provider.queuedTasks = 0;
+
+        // 不支持的指标不参与判断
+        provider.cpuLoad = -1;
+        assertEquals(Integer.MAX_VALUE, provider.getLeaseCapacity(5));
+
+        provider = new MockCapacityProvider(3);
+        assertEquals(3, provider.getLeaseCapacity(5));
+        provider.queuedTasks = 101;
+        assertEquals(3, provider.getLeaseCapacity(5));
+        assertEquals(2, provider.getLeaseCapacity(2));
+    }
+}
@@ -2,6 +2,7 @@ package com.aliyun.openservices.ots.internal.streamclient.core.task;
 
 import com.alicloud.openservices.tablestore.TableStoreException;
 import com.alicloud.openservices.tablestore.model.*;
+import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamConfig;
 import com.aliyun.openservices.ots.internal.streamclient.core.DataFetcher;
@@ -123,6 +124,64 @@ public class TestProcessTask {
         }
     }
 
+    /**
+     * 同一个ProcessTask重复执行时，每批数据都使用新的ProcessRecordsInput，用户持有的上一批数据不会被替换。
+     */
+    @Test
+    public void testNewInputPerBatch() throws StreamClientException {
+        MockOTS ots = new MockOTS();
+        String streamId = ots.listStream(new ListStreamRequest("testTable")).getStreams().get(0).getStreamId();
+        ShardInfo shardInfo = new ShardInfo("TestShard", streamId, new HashSet<String>(), "");
+
+        final List<ProcessRecordsInput> inputs = new ArrayList<ProcessRecordsInput>();
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+                inputs.add(processRecordsInput);
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+            }
+        };
+
+        DataFetcher dataFetcher = new DataFetcher(ots, shardInfo);
+        RecordProcessorCheckpointer checkpointer = new RecordProcessorCheckpointer(shardInfo,
+                new SimpleMockCheckpointTracker(), dataFetcher);
+        IShutdownMarker shutdownMarker = new IShutdownMarker() {
+            public void markForProcessDone() {
+            }
+
+            public void markForProcessRestart() {
+            }
+        };
+        StreamConfig config = new StreamConfig();
+        config.setMaxRecords(10);
+
+        dataFetcher.initialize(CheckpointPosition.TRIM_HORIZON);
+        ots.createShard(shardInfo.getShardId(), null, null);
+        List<StreamRecord> list = new ArrayList<StreamRecord>();
+        for (int i = 0; i < 20; i++) {
+            StreamRecord record = new StreamRecord();
+            record.setRecordType(StreamRecord.RecordType.PUT);
+            record.setPrimaryKey(new PrimaryKey(Arrays.asList(new PrimaryKeyColumn("pk", PrimaryKeyValue.fromLong(i)))));
+            record.setColumns(Arrays.asList(new RecordColumn(new Column("col", ColumnValue.fromLong(i), i), RecordColumn.ColumnType.PUT)));
+            list.add(record);
+        }
+        ots.appendRecords(shardInfo.getShardId(), list);
+
+        ProcessTask processTask = new ProcessTask(shardInfo, recordProcessor, checkpointer, dataFetcher, config, shutdownMarker);
+        assertEquals(null, processTask.call().getException());
+        assertEquals(null, processTask.call().getException());
+
+        assertEquals(2, inputs.size());
+        assertTrue(inputs.get(0) != inputs.get(1));
+        assertEquals(10, inputs.get(0).getRecords().size());
+        assertEquals(0, inputs.get(0).getRecords().get(0).getPrimaryKey().getPrimaryKeyColumn(0).getValue().asLong());
+        assertEquals(10, inputs.get(1).getRecords().get(0).getPrimaryKey().getPrimaryKeyColumn(0).getValue().asLong());
+    }
+
     @Test
     public void testRetry() throws StreamClientException {
 
@@ -183,4 +242,37 @@ public class TestProcessTask {
 
         decorator.call();
     }
+
+    @Test
+    public void testDeferredRetry() {
+        final int[] callCount = {0};
+        ITask task = new ITask() {
+            public TaskResult call() {
+                callCount[0]++;
+                return new TaskResult(new DependencyException("test"));
+            }
+
+            public TaskType getTaskType() {
+                return TaskType.PROCESS;
+            }
+        };
+
+        TaskRetryStrategy retryStrategy = new TaskRetryStrategy();
+        RetryingTaskDecorator decorator = new RetryingTaskDecorator(IRetryStrategy.RetryableAction.TASK_PROCESS, retryStrategy, task, true);
+
+        for (int i = 0; i < 10; i++) {
+            long startTime = System.currentTimeMillis();
+            TaskResult result = decorator.call();
+            assertTrue(System.currentTimeMillis() - startTime < 100);
+            assertEquals(i + 1, callCount[0]);
+            assertEquals(retryStrategy.getBackoffTimeMillis(IRetryStrategy.RetryableAction.TASK_PROCESS, result.getException(), i),
+                    result.getRetryDelayMillis());
+            assertEquals("test", result.getException().getMessage());
+        }
+
+        TaskResult result = decorator.call();
+        assertEquals(11, callCount[0]);
+        assertEquals(0, result.getRetryDelayMillis());
+        assertEquals("test", result.getException().getMessage());
+    }
 }
@@ -12,6 +12,7 @@ import com.aliyun.openservices.ots.internal.streamclient.mock.MockOTS;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
@@ -111,6 +112,60 @@ public class TestShardSyncTask {
         checkLeaseOrder(leaseToCreate, shards, Arrays.asList("a", "b", "f"));
     }
 
+    /**
+     * 两次全量同步之间只获取新增的Shard，不读取Lease表，也不覆盖其他Worker已创建的Lease。
+     */
+    @Test
+    public void testIncrementalSync() throws Exception {
+        MockOTS ots = new MockOTS();
+        for (int i = 0; i < 3; i++) {
+            ots.createShard("shard" + i, null, null);
+        }
+        final AtomicInteger listCount = new AtomicInteger();
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager() {
+            @Override
+            public List<ShardLease> listLeases() {
+                listCount.incrementAndGet();
+                return super.listLeases();
+            }
+        };
+        StreamConfig config = new StreamConfig();
+        config.setOTSClient(ots);
+        config.setDataTableName("testTable");
+        ShardSyncTask task = new ShardSyncTask(config, leaseManager, 3600 * 1000, null);
+
+        assertEquals(true, task.call().isPhaseCompleted());
+        assertEquals(1, listCount.get());
+        assertEquals(3, leaseManager.listLeases().size());
+        listCount.set(0);
+
+        ots.splitShard("shard2", "shard3", "shard4");
+        assertEquals(true, task.call().isPhaseCompleted());
+        assertEquals(0, listCount.get());
+        assertEquals(5, leaseManager.listLeases().size());
+        listCount.set(0);
+        assertEquals(new HashSet<String>(Arrays.asList("shard2")), leaseManager.getLease("shard3").getParentShardIds());
+
+        // 其他Worker已经创建并更新了Lease
+        ShardLease lease = new ShardLease("shard5");
+        lease.setStreamId(task.getStreamId());
+        lease.setCheckpoint("checkpoint");
+        leaseManager.createLease(lease);
+        ots.createShard("shard5", null, null);
+        // 过期的Lease只在全量同步时清理
+        leaseManager.createLease(new ShardLease("expired"));
+        assertEquals(true, task.call().isPhaseCompleted());
+        assertEquals(0, listCount.get());
+        assertEquals("checkpoint", leaseManager.getLease("shard5").getCheckpoint());
+        assertTrue(leaseManager.getLease("expired") != null);
+
+        ShardSyncTask fullSyncTask = new ShardSyncTask(config, leaseManager, 0, null);
+        assertEquals(true, fullSyncTask.call().isPhaseCompleted());
+        assertEquals(1, listCount.get());
+        assertEquals(null, leaseManager.getLease("expired"));
+        assertEquals(6, leaseManager.listLeases().size());
+    }
+
     private void checkLeaseOrder(List<ShardLease> leaseToCreate, List<StreamShard> shards, List<String> createdShards) {
         Map<String, Integer> leaseToId =  new HashMap<String, Integer>();
         for (int id = 0; id < leaseToCreate.size(); id++) {
@@ -15,6 +15,7 @@ import java.util.HashSet;
 import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class TestShutdownTask {
 
@@ -59,6 +60,65 @@ public class TestShutdownTask {
             ShutdownInput shutdownInput = input[0];
             assertEquals(checkpointer, shutdownInput.getCheckpointer());
             assertEquals(reason, shutdownInput.getShutdownReason());
+            assertEquals(true, shardSyncer.isSyncRequested());
         }
     }
+
+    /**
+     * Lease转交前写入最后一批已处理完的数据之后的位置，用户已经写入或未开启时不写。
+     */
+    @Test
+    public void testCheckpointBeforeHandoff() throws Exception {
+        ShardInfo shardInfo = new ShardInfo("TestShard", "", new HashSet<String>(), "");
+        IRecordProcessor recordProcessor = new IRecordProcessor() {
+            public void initialize(InitializationInput initializationInput) {
+            }
+
+            public void processRecords(ProcessRecordsInput processRecordsInput) {
+            }
+
+            public void shutdown(ShutdownInput shutdownInput) {
+            }
+        };
+        ICheckpointTracker checkpointTracker = new SimpleMockCheckpointTracker();
+        MockOTS ots = new MockOTS();
+        DataFetcher dataFetcher = new DataFetcher(ots, shardInfo);
+        dataFetcher.initialize("iterator_0");
+        RecordProcessorCheckpointer checkpointer = new RecordProcessorCheckpointer(shardInfo, checkpointTracker, dataFetcher);
+
+        StreamConfig config = new StreamConfig();
+        config.setDataTableName("testTable");
+        config.setOTSClient(ots);
+        ShardSyncer shardSyncer = new ShardSyncer(config, new MemoryLeaseManager(), Executors.newCachedThreadPool(), new TaskRetryStrategy());
+
+        // 尚未处理完任何数据
+        assertEquals(null, new ShutdownTask(shardInfo, recordProcessor, checkpointer, ShutdownReason.STOLEN,
+                shardSyncer, true).call().getException());
+        assertEquals(null, checkpointTracker.getCheckpoint("TestShard"));
+
+        // 未开启
+        checkpointer.setLargestPermittedCheckpointValue("iterator_2");
+        checkpointer.setProcessedCheckpointValue("iterator_1");
+        new ShutdownTask(shardInfo, recordProcessor, checkpointer, ShutdownReason.STOLEN, shardSyncer, false).call();
+        assertEquals(null, checkpointTracker.getCheckpoint("TestShard"));
+
+        // 只对转交Lease的ShutdownReason生效
+        new ShutdownTask(shardInfo, recordProcessor, checkpointer, ShutdownReason.ZOMBIE, shardSyncer, true).call();
+        assertEquals(null, checkpointTracker.getCheckpoint("TestShard"));
+
+        // 写入已处理完的位置，而不是尚未处理完的一批数据之后的位置
+        new ShutdownTask(shardInfo, recordProcessor, checkpointer, ShutdownReason.STOLEN, shardSyncer, true).call();
+        assertEquals("iterator_1", checkpointTracker.getCheckpoint("TestShard"));
+        assertEquals("iterator_1", checkpointer.getLastCheckpointValue());
+
+        // 用户已经写入时不再写入
+        checkpointer.setProcessedCheckpointValue("iterator_2");
+        checkpointer.checkpoint("iterator_2");
+        assertFalse(checkpointer.checkpointProcessed());
+
+        // Shard读完时只在TERMINATE时写入SHARD_END
+        checkpointer.setProcessedCheckpointValue(CheckpointPosition.SHARD_END);
+        new ShutdownTask(shardInfo, recordProcessor, checkpointer, ShutdownReason.WORKER_SHUTDOWN, shardSyncer, true).call();
+        assertEquals("iterator_2", checkpointTracker.getCheckpoint("TestShard"));
+    }
 }
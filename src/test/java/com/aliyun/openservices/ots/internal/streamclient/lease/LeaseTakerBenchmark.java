@@ -0,0 +1,77 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 测量StatusTable中有大量Lease时单次TakeLease的CPU耗时。
+ * 100个Worker平均持有全部Lease，每轮有1%的Lease被续约，本Worker已持有其平均数量，不需要获取或偷取。
+ * 每轮之前在计时之外读取StatusTable，计时只包含LeaseTaker处理快照以及分配的耗时。
+ *
+ * 用法：LeaseTakerBenchmark [leaseCount...]，默认为10000 50000 100000。
+ * 类名不以Test开头，不会在单元测试中运行，需要手动执行。
+ */
+public class LeaseTakerBenchmark {
+
+    private static final int WORKER_COUNT = 100;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+    private static final double RENEW_RATIO = 0.01;
+
+    public static void main(String[] args) throws Exception {
+        int[] leaseCounts = {10000, 50000, 100000};
+        if (args.length > 0) {
+            leaseCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                leaseCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int leaseCount : leaseCounts) {
+            run(leaseCount);
+        }
+    }
+
+    private static void run(int leaseCount) throws Exception {
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager();
+        for (int i = 0; i < leaseCount; i++) {
+            ShardLease lease = new ShardLease("lease_" + i);
+            lease.setLeaseCounter(1);
+            lease.setLeaseOwner("worker" + (i % WORKER_COUNT));
+            lease.setLeaseStealer("");
+            leaseManager.createLease(lease);
+        }
+
+        LeaseSnapshotService<ShardLease> snapshotService = new LeaseSnapshotService<ShardLease>(leaseManager, 0);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker0", 3600 * 1000,
+                snapshotService, 3600 * 1000, false, new BalancedLeaseAssignmentStrategy<ShardLease>(true, 1, 0), null);
+
+        Random random = new Random(0);
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            renewLeases(leaseManager, leaseCount, random);
+            snapshotService.getSnapshot(0);
+
+            long startNanos = System.nanoTime();
+            leaseTaker.takeLeases();
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (round >= WARMUP_ROUNDS) {
+                totalNanos += elapsedNanos;
+                maxNanos = Math.max(maxNanos, elapsedNanos);
+            }
+        }
+        System.out.println(String.format("Leases: %d, Workers: %d, AvgTakeMillis: %.3f, MaxTakeMillis: %.3f",
+                leaseCount, WORKER_COUNT, totalNanos / 1e6 / ROUNDS, maxNanos / 1e6));
+    }
+
+    private static void renewLeases(MemoryLeaseManager leaseManager, int leaseCount, Random random) {
+        List<String> leaseKeys = new ArrayList<String>();
+        for (int i = 0; i < leaseCount * RENEW_RATIO; i++) {
+            leaseKeys.add("lease_" + random.nextInt(leaseCount));
+        }
+        for (String leaseKey : leaseKeys) {
+            leaseManager.renewLease(leaseManager.getLease(leaseKey));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestLeaseIndex {
+
+    private ShardLease newLease(String leaseKey, String owner, String stealer, long lastCounterIncrementMillis) {
+        ShardLease lease = new ShardLease(leaseKey);
+        lease.setLeaseOwner(owner);
+        lease.setLeaseStealer(stealer);
+        lease.setLastCounterIncrementMillis(lastCounterIncrementMillis);
+        return lease;
+    }
+
+    private Set<String> keys(Collection<ShardLease> leases) {
+        Set<String> keys = new HashSet<String>();
+        for (ShardLease lease : leases) {
+            keys.add(lease.getLeaseKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testIndex() {
+        LeaseIndex<ShardLease> index = new LeaseIndex<ShardLease>();
+        index.put(newLease("lease_0", "", "", 0));
+        index.put(newLease("lease_1", "worker1", "", 1000));
+        index.put(newLease("lease_2", "worker1", "worker2", 2000));
+        index.put(newLease("lease_3", "worker2", "", 3000));
+        assertEquals(4, index.size());
+
+        assertEquals(new HashSet<String>(Arrays.asList("worker1", "worker2")), index.getOwners());
+        assertEquals(new HashSet<String>(Arrays.asList("lease_1", "lease_2")), index.getLeaseKeysByOwner("worker1"));
+        assertTrue(index.getLeaseKeysByOwner("worker3").isEmpty());
+        assertEquals(Collections.singleton("lease_2"), keys(index.getStolenLeases()));
+
+        // 与Lease.isExpired一致，恰好等于Lease周期时不过期
+        assertEquals(new HashSet<String>(Arrays.asList("lease_0", "lease_1")), keys(index.getExpiredLeases(1000, 2001)));
+        for (long now = 0; now < 5000; now += 500) {
+            Set<String> expected = new HashSet<String>();
+            for (ShardLease lease : index.values()) {
+                if (lease.isExpired(1000, now)) {
+                    expected.add(lease.getLeaseKey());
+                }
+            }
+            assertEquals(expected, keys(index.getExpiredLeases(1000, now)));
+        }
+    }
+
+    /**
+     * Lease被修改后再次put，索引随之更新。
+     */
+    @Test
+    public void testUpdate() {
+        LeaseIndex<ShardLease> index = new LeaseIndex<ShardLease>();
+        ShardLease lease = newLease("lease_0", "worker1", "", 1000);
+        index.put(lease);
+
+        lease.setLeaseOwner("worker2");
+        lease.setLeaseStealer("worker3");
+        lease.setLastCounterIncrementMillis(5000);
+        // put之前索引仍为原来的值
+        assertEquals(Collections.singleton("lease_0"), index.getLeaseKeysByOwner("worker1"));
+        index.put(lease);
+        assertTrue(index.getLeaseKeysByOwner("worker1").isEmpty());
+        assertEquals(Collections.singleton("worker2"), index.getOwners());
+        assertEquals(1, index.getStolenLeases().size());
+        assertTrue(index.getExpiredLeases(1000, 5500).isEmpty());
+
+        // 字段未变化的新对象替换原对象
+        ShardLease newLease = lease.copy();
+        index.put(newLease);
+        assertSame(newLease, index.get("lease_0"));
+
+        index.put(newLease("lease_1", "worker2", "", 0));
+        index.retainAll(Collections.singleton("lease_1"));
+        assertNull(index.get("lease_0"));
+        assertEquals(Collections.singleton("lease_1"), index.getLeaseKeysByOwner("worker2"));
+        assertTrue(index.getStolenLeases().isEmpty());
+        assertEquals(1, index.getExpiredLeases(1000, 5000).size());
+    }
+}
@@ -83,6 +83,7 @@ public class TestLeaseManager {
         testCreateAndGet(leaseManager);
         testListLeases(leaseManager);
         testRenewLease(leaseManager);
+        testBatchRenewLeases(leaseManager);
         testTakeLease(leaseManager);
         testStealLease(leaseManager);
         testUpdateLease(leaseManager);
@@ -96,6 +97,7 @@ public class TestLeaseManager {
         testCreateAndGet(leaseManager);
         testListLeases(leaseManager);
         testRenewLease(leaseManager);
+        testBatchRenewLeases(leaseManager);
         testTakeLease(leaseManager);
         testStealLease(leaseManager);
         testUpdateLease(leaseManager);
@@ -224,6 +226,41 @@ public class TestLeaseManager {
         assertTrue(!succeed);
     }
 
+    public void testBatchRenewLeases(ILeaseManager<ShardLease> leaseManager) throws StreamClientException, DependencyException {
+        clearData(leaseManager);
+        createTable(leaseManager);
+
+        List<ShardLease> leases = new ArrayList<ShardLease>();
+        for (int i = 0; i < 10; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner("owner");
+            lease.setLeaseCounter(10);
+            lease.setStreamId(streamId);
+            leaseManager.createLease(lease);
+            leases.add(lease);
+        }
+
+        // 条件不满足的行单独失败，不影响其他行
+        leases.get(3).setLeaseCounter(9);
+        leaseManager.stealLease(leases.get(5).<ShardLease>copy(), "stealer");
+        Map<String, Boolean> result = leaseManager.batchRenewLeases(leases);
+        assertEquals(10, result.size());
+        for (int i = 0; i < 10; i++) {
+            ShardLease lease = leases.get(i);
+            if (i == 3) {
+                assertEquals(false, result.get(lease.getLeaseKey()));
+                assertEquals(9, lease.getLeaseCounter());
+            } else if (i == 5) {
+                assertEquals(false, result.get(lease.getLeaseKey()));
+                assertEquals(10, lease.getLeaseCounter());
+            } else {
+                assertEquals(true, result.get(lease.getLeaseKey()));
+                assertEquals(11, lease.getLeaseCounter());
+                assertEquals(11, leaseManager.getLease(lease.getLeaseKey()).getLeaseCounter());
+            }
+        }
+    }
+
     public void testTakeLease(ILeaseManager<ShardLease> leaseManager) throws StreamClientException, DependencyException {
         createTable(leaseManager);
 
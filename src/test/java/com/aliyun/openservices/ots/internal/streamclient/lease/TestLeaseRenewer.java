@@ -4,15 +4,21 @@ import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.model.CheckpointPosition;
+import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TestLeaseRenewer {
@@ -22,9 +28,37 @@ public class TestLeaseRenewer {
         return leaseManager;
     }
 
+    private static class CountingLeaseManager extends MemoryLeaseManager {
+        final AtomicInteger listCount = new AtomicInteger();
+        final AtomicInteger getCount = new AtomicInteger();
+
+        @Override
+        public List<ShardLease> listLeases() {
+            listCount.incrementAndGet();
+            return super.listLeases();
+        }
+
+        final AtomicInteger batchRenewCount = new AtomicInteger();
+
+        @Override
+        public ShardLease getLease(String leaseKey) {
+            getCount.incrementAndGet();
+            return super.getLease(leaseKey);
+        }
+
+        @Override
+        public Map<String, Boolean> batchRenewLeases(List<ShardLease> leases) {
+            batchRenewCount.incrementAndGet();
+            return super.batchRenewLeases(leases);
+        }
+    }
+
+    /**
+     * Stealer通过续租失败发现，只读取续租失败的Lease，不扫描全表。
+     */
     @Test
     public void testFindStealer() throws StreamClientException, DependencyException {
-        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
         String workerIdentifier = "worker";
         long leaseDurationMillis = 20 * 1000;
         LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
@@ -52,8 +86,11 @@ public class TestLeaseRenewer {
         leaseManager.stealLease(leases.get(4), "stealer");
         leaseManager.stealLease(leases.get(6), "stealer");
 
-        leaseRenewer.findStealer();
+        int listCount = leaseManager.listCount.get();
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
         heldLeases = leaseRenewer.getCurrentlyHeldLeases();
+        assertEquals(5, heldLeases.size());
         for (int i = 0; i < 5; i++) {
             assertEquals("lease" + i, heldLeases.get("lease" + i).getLeaseKey());
             assertEquals(workerIdentifier, heldLeases.get("lease" + i).getLeaseOwner());
@@ -63,6 +100,137 @@ public class TestLeaseRenewer {
                 assertEquals("", heldLeases.get("lease" + i).getLeaseStealer());
             }
         }
+        assertEquals(listCount, leaseManager.listCount.get());
+        assertEquals(2, leaseManager.getCount.get());
+
+        // 已知Stealer的Lease继续续租，直到转交完成
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        assertEquals(5, leaseRenewer.getCurrentlyHeldLeases().size());
+        assertEquals(2, leaseManager.getCount.get());
+    }
+
+    /**
+     * 续租按照BatchWriteRow的行数上限分批进行。
+     */
+    @Test
+    public void testBatchRenewLeases() throws StreamClientException, DependencyException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        String workerIdentifier = "worker";
+        long leaseDurationMillis = 20 * 1000;
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, leaseDurationMillis, Executors.newFixedThreadPool(10));
+
+        for (int i = 0; i < 450; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner(workerIdentifier);
+            leaseManager.createLease(lease);
+        }
+        leaseRenewer.initialize();
+        assertEquals(450, leaseRenewer.getCurrentlyHeldLeases().size());
+
+        // 其中一个Lease被其他Worker获取
+        ShardLease lost = leaseManager.getLease("lease7");
+        leaseManager.takeLease(lost, "otherWorker");
+
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(1000);
+        assertEquals(3, leaseManager.batchRenewCount.get());
+
+        Map<String, ShardLease> heldLeases = leaseRenewer.getCurrentlyHeldLeases();
+        assertEquals(449, heldLeases.size());
+        assertFalse(heldLeases.containsKey("lease7"));
+        for (ShardLease lease : heldLeases.values()) {
+            assertEquals(2, lease.getLeaseCounter());
+            assertEquals(2, leaseManager.getLease(lease.getLeaseKey()).getLeaseCounter());
+        }
+    }
+
+    /**
+     * 心跳模式下每个周期只写一次心跳，不再逐个续租Lease；Stealer以及被其他Worker获取的Lease通过快照发现。
+     */
+    @Test
+    public void testWorkerHeartbeat() throws StreamClientException, DependencyException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        String workerIdentifier = "worker";
+        long leaseDurationMillis = 500;
+        LeaseSnapshotService<ShardLease> leaseSnapshotService = new LeaseSnapshotService<ShardLease>(leaseManager, 0);
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, leaseDurationMillis, Executors.newFixedThreadPool(10),
+                leaseSnapshotService, true);
+
+        for (int i = 0; i < 10; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner(workerIdentifier);
+            leaseManager.createLease(lease);
+        }
+        leaseRenewer.initialize();
+        assertEquals(10, leaseRenewer.getCurrentlyHeldLeases().size());
+
+        for (int i = 0; i < 6; i++) {
+            leaseRenewer.renewLeases();
+            TimeUtils.sleepMillis(200);
+        }
+        assertEquals(0, leaseManager.batchRenewCount.get());
+        assertEquals(Long.valueOf(6), leaseManager.listWorkerHeartbeats().get(workerIdentifier));
+        Map<String, ShardLease> heldLeases = leaseRenewer.getCurrentlyHeldLeases();
+        assertEquals(10, heldLeases.size());
+        for (ShardLease lease : heldLeases.values()) {
+            assertEquals(1, leaseManager.getLease(lease.getLeaseKey()).getLeaseCounter());
+        }
+
+        leaseManager.stealLease(leaseManager.getLease("lease1"), "stealer");
+        leaseManager.takeLease(leaseManager.getLease("lease2"), "otherWorker");
+        leaseSnapshotService.getSnapshot();
+        leaseRenewer.renewLeases();
+        heldLeases = leaseRenewer.getCurrentlyHeldLeases();
+        assertEquals(9, heldLeases.size());
+        assertEquals("stealer", heldLeases.get("lease1").getLeaseStealer());
+        assertFalse(heldLeases.containsKey("lease2"));
+    }
+
+    /**
+     * 心跳模式下本地不再持有的Lease会被释放，心跳继续更新时其他Worker仍可以获取这些Lease。
+     */
+    @Test
+    public void testReleaseLostLeaseWithHeartbeat() throws StreamClientException, DependencyException {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDurationMillis = 300;
+        LeaseSnapshotService<ShardLease> leaseSnapshotService = new LeaseSnapshotService<ShardLease>(leaseManager, 0);
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, "worker1", leaseDurationMillis, Executors.newFixedThreadPool(10),
+                leaseSnapshotService, true);
+        for (int i = 0; i < 3; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner("worker1");
+            leaseManager.createLease(lease);
+        }
+        leaseRenewer.initialize();
+        leaseRenewer.renewLeases();
+        assertEquals(3, leaseRenewer.getCurrentlyHeldLeases().size());
+
+        // Checkpoint时条件检查失败，StatusTable中的Owner仍为worker1
+        assertTrue(leaseManager.updateLease(leaseManager.getLease("lease0")));
+        ShardLease lease0 = leaseRenewer.getCurrentlyHeldLease("lease0").copy();
+        assertFalse(leaseRenewer.updateLease(lease0, lease0.getLeaseIdentifier()));
+        assertEquals("worker1", leaseManager.getLease("lease0").getLeaseOwner());
+        leaseRenewer.renewLeases();
+        assertEquals("", leaseManager.getLease("lease0").getLeaseOwner());
+
+        // 心跳中断超过一个Lease周期，本地认为全部过期
+        TimeUtils.sleepMillis(leaseDurationMillis + 50);
+        leaseRenewer.renewLeases();
+        assertEquals(0, leaseRenewer.getCurrentlyHeldLeases().size());
+
+        // worker1的心跳继续更新，其他Worker仍然可以获取全部Lease
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker2", leaseDurationMillis,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, true,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(false, 1, 0), null);
+        assertEquals(3, leaseTaker.takeLeases().size());
+        leaseRenewer.renewLeases();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("worker2", leaseManager.getLease("lease" + i).getLeaseOwner());
+        }
     }
 
     @Test
@@ -125,7 +293,7 @@ public class TestLeaseRenewer {
             assertEquals(CheckpointPosition.TRIM_HORIZON, heldLeases.get(lease.getLeaseKey()).getCheckpoint());
         }
 
-        ShardLease lease = heldLeases.get(leases.get(0).getLeaseKey());
+        ShardLease lease = heldLeases.get(leases.get(0).getLeaseKey()).copy();
         lease.setCheckpoint("testCheckpoint");
         assertTrue(leaseRenewer.updateLease(lease, lease.getLeaseIdentifier()));
 
@@ -164,9 +332,10 @@ public class TestLeaseRenewer {
             assertEquals(CheckpointPosition.TRIM_HORIZON, heldLeases.get(lease.getLeaseKey()).getCheckpoint());
         }
 
-        ShardLease lease = heldLeases.get(leases.get(0).getLeaseKey());
+        ShardLease lease = heldLeases.get(leases.get(0).getLeaseKey()).copy();
         leaseManager.stealLease(lease, "otherWorker");
-        leaseRenewer.findStealer();
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
 
         assertEquals("otherWorker", leaseManager.getLease(lease.getLeaseKey()).getLeaseStealer());
         assertEquals("otherWorker", leaseRenewer.getCurrentlyHeldLease(lease.getLeaseKey()).getLeaseStealer());
@@ -181,4 +350,236 @@ public class TestLeaseRenewer {
         assertFalse(leaseRenewer.transferLease(lease.getLeaseKey(), "otherIdentifier"));
     }
 
+    @Test
+    public void testReleaseLease() throws StreamClientException, DependencyException {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        String workerIdentifier = "worker";
+        long leaseDurationMillis = 20 * 1000;
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, leaseDurationMillis, Executors.newFixedThreadPool(10));
+
+        for (int i = 0; i < 3; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner(workerIdentifier);
+            leaseManager.createLease(lease);
+        }
+        leaseRenewer.initialize();
+        Map<String, ShardLease> heldLeases = leaseRenewer.getCurrentlyHeldLeases();
+        assertEquals(3, heldLeases.size());
+
+        // identifier mismatch
+        ShardLease lease = heldLeases.get("lease0");
+        assertFalse(leaseRenewer.releaseLease(lease.getLeaseKey(), "otherIdentifier"));
+        assertEquals(3, leaseRenewer.getCurrentlyHeldLeases().size());
+
+        // 释放后Owner为空，不再续租
+        assertTrue(leaseRenewer.releaseLease(lease.getLeaseKey(), lease.getLeaseIdentifier()));
+        assertEquals("", leaseManager.getLease(lease.getLeaseKey()).getLeaseOwner());
+        assertEquals(null, leaseRenewer.getCurrentlyHeldLease(lease.getLeaseKey()));
+        assertFalse(leaseRenewer.releaseLease(lease.getLeaseKey(), lease.getLeaseIdentifier()));
+        long counter = leaseManager.getLease(lease.getLeaseKey()).getLeaseCounter();
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        assertEquals(counter, leaseManager.getLease(lease.getLeaseKey()).getLeaseCounter());
+
+        // 正在被偷的Lease直接转交给Stealer
+        lease = heldLeases.get("lease1").copy();
+        leaseManager.stealLease(lease, "otherWorker");
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        assertTrue(leaseRenewer.releaseLease(lease.getLeaseKey(), lease.getLeaseIdentifier()));
+        assertEquals("otherWorker", leaseManager.getLease(lease.getLeaseKey()).getLeaseOwner());
+        assertEquals(1, leaseRenewer.getCurrentlyHeldLeases().size());
+    }
+
+    /**
+     * 读取持有的Lease直接返回快照，不copy；续租、Update以及负载更新均发布新的快照，已返回的快照不会被修改。
+     */
+    @Test
+    public void testLeaseSnapshot() throws StreamClientException, DependencyException {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        String workerIdentifier = "worker";
+        long leaseDurationMillis = 20 * 1000;
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, leaseDurationMillis, Executors.newFixedThreadPool(10));
+
+        ShardLease lease = new ShardLease("lease0");
+        lease.setLeaseOwner(workerIdentifier);
+        leaseManager.createLease(lease);
+        leaseRenewer.initialize();
+
+        ShardLease snapshot = leaseRenewer.getCurrentlyHeldLease("lease0");
+        assertSame(snapshot, leaseRenewer.getCurrentlyHeldLease("lease0"));
+        assertSame(snapshot, leaseRenewer.getCurrentlyHeldLeases().get("lease0"));
+        long counter = snapshot.getLeaseCounter();
+
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        ShardLease renewed = leaseRenewer.getCurrentlyHeldLease("lease0");
+        assertNotSame(snapshot, renewed);
+        assertEquals(counter, snapshot.getLeaseCounter());
+        assertEquals(counter + 1, renewed.getLeaseCounter());
+
+        LeaseLoad leaseLoad = new LeaseLoad(100, 10, System.currentTimeMillis());
+        leaseRenewer.updateLeaseLoad("lease0", leaseLoad);
+        ShardLease loaded = leaseRenewer.getCurrentlyHeldLease("lease0");
+        assertNotSame(renewed, loaded);
+        assertSame(LeaseLoad.EMPTY, renewed.getLeaseLoad());
+        assertSame(leaseLoad, loaded.getLeaseLoad());
+
+        ShardLease toUpdate = loaded.copy();
+        toUpdate.setCheckpoint("testCheckpoint");
+        assertTrue(leaseRenewer.updateLease(toUpdate, loaded.getLeaseIdentifier()));
+        ShardLease updated = leaseRenewer.getCurrentlyHeldLease("lease0");
+        assertEquals(CheckpointPosition.TRIM_HORIZON, loaded.getCheckpoint());
+        assertEquals("testCheckpoint", updated.getCheckpoint());
+        assertEquals(counter + 2, updated.getLeaseCounter());
+        assertSame(leaseLoad, updated.getLeaseLoad());
+    }
+
+    /**
+     * 持有的Lease集合的版本号只在Lease加入、移除以及发现Stealer时变化，续租与Update不改变版本号。
+     */
+    @Test
+    public void testHeldLeasesVersion() throws StreamClientException, DependencyException {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        String workerIdentifier = "worker";
+        long leaseDurationMillis = 20 * 1000;
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, leaseDurationMillis, Executors.newFixedThreadPool(10));
+
+        for (int i = 0; i < 3; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner(workerIdentifier);
+            leaseManager.createLease(lease);
+        }
+        long version = leaseRenewer.getHeldLeasesVersion();
+        leaseRenewer.initialize();
+        assertTrue(leaseRenewer.getHeldLeasesVersion() > version);
+
+        // 续租、Update以及负载更新不改变版本号
+        version = leaseRenewer.getHeldLeasesVersion();
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        ShardLease lease = leaseRenewer.getCurrentlyHeldLease("lease0").copy();
+        lease.setCheckpoint("testCheckpoint");
+        assertTrue(leaseRenewer.updateLease(lease, lease.getLeaseIdentifier()));
+        leaseRenewer.updateLeaseLoad("lease0", new LeaseLoad(100, 10, System.currentTimeMillis()));
+        assertEquals(version, leaseRenewer.getHeldLeasesVersion());
+
+        // 发现Stealer
+        leaseManager.stealLease(leaseManager.getLease("lease1"), "otherWorker");
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        assertEquals("otherWorker", leaseRenewer.getCurrentlyHeldLease("lease1").getLeaseStealer());
+        assertTrue(leaseRenewer.getHeldLeasesVersion() > version);
+
+        // 转交以及丢失
+        version = leaseRenewer.getHeldLeasesVersion();
+        lease = leaseRenewer.getCurrentlyHeldLease("lease1");
+        assertTrue(leaseRenewer.transferLease(lease.getLeaseKey(), lease.getLeaseIdentifier()));
+        assertTrue(leaseRenewer.getHeldLeasesVersion() > version);
+
+        version = leaseRenewer.getHeldLeasesVersion();
+        leaseManager.takeLease(leaseManager.getLease("lease2"), "otherWorker");
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        assertEquals(null, leaseRenewer.getCurrentlyHeldLease("lease2"));
+        assertTrue(leaseRenewer.getHeldLeasesVersion() > version);
+        assertEquals(1, leaseRenewer.getCurrentlyHeldLeases().size());
+    }
+
+    /**
+     * 批量续租中因非条件检查失败的Lease改为单独续租，不会被忽略或丢弃。
+     */
+    @Test
+    public void testBatchRenewRowFailure() throws StreamClientException, DependencyException {
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager() {
+            @Override
+            public Map<String, Boolean> batchRenewLeases(List<ShardLease> leases) {
+                // lease3所在的行因非条件检查的错误写入失败
+                List<ShardLease> succeeded = new ArrayList<ShardLease>();
+                for (ShardLease lease : leases) {
+                    if (!lease.getLeaseKey().equals("lease3")) {
+                        succeeded.add(lease);
+                    }
+                }
+                return super.batchRenewLeases(succeeded);
+            }
+        };
+        String workerIdentifier = "worker";
+        LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, 20 * 1000, Executors.newFixedThreadPool(10));
+        for (int i = 0; i < 5; i++) {
+            ShardLease lease = new ShardLease("lease" + i);
+            lease.setLeaseOwner(workerIdentifier);
+            leaseManager.createLease(lease);
+        }
+        leaseRenewer.initialize();
+
+        leaseRenewer.renewLeases();
+        TimeUtils.sleepMillis(500);
+        Map<String, ShardLease> heldLeases = leaseRenewer.getCurrentlyHeldLeases();
+        assertEquals(5, heldLeases.size());
+        for (ShardLease lease : heldLeases.values()) {
+            assertEquals(2, lease.getLeaseCounter());
+            assertEquals(2, leaseManager.getLease(lease.getLeaseKey()).getLeaseCounter());
+        }
+    }
+
+    /**
+     * 批量续租期间不持有Lease的锁，与其使用相同Counter的updateLease在续租结果应用后以新的Counter重试。
+     */
+    @Test
+    public void testUpdateLeaseDuringBatchRenew() throws Exception {
+        final CountDownLatch renewStarted = new CountDownLatch(1);
+        final CountDownLatch renewBlocked = new CountDownLatch(1);
+        MemoryLeaseManager leaseManager = new MemoryLeaseManager() {
+            @Override
+            public Map<String, Boolean> batchRenewLeases(List<ShardLease> leases) {
+                Map<String, Boolean> result = super.batchRenewLeases(leases);
+                renewStarted.countDown();
+                try {
+                    renewBlocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return result;
+            }
+        };
+        String workerIdentifier = "worker";
+        final LeaseRenewer<ShardLease> leaseRenewer = new LeaseRenewer<ShardLease>(
+                leaseManager, workerIdentifier, 20 * 1000, Executors.newFixedThreadPool(10));
+        ShardLease created = new ShardLease("lease0");
+        created.setLeaseOwner(workerIdentifier);
+        leaseManager.createLease(created);
+        leaseRenewer.initialize();
+
+        leaseRenewer.renewLeases();
+        assertTrue(renewStarted.await(5, TimeUnit.SECONDS));
+        final ShardLease lease = leaseRenewer.getCurrentlyHeldLease("lease0").copy();
+        lease.setCheckpoint("testCheckpoint");
+        final boolean[] updated = new boolean[1];
+        Thread updater = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    updated[0] = leaseRenewer.updateLease(lease, lease.getLeaseIdentifier());
+                } catch (Exception e) {
+                    updated[0] = false;
+                }
+            }
+        });
+        updater.start();
+        // 续租的RPC尚未返回，读取持有的Lease不被阻塞
+        TimeUtils.sleepMillis(200);
+        assertEquals(1, leaseRenewer.getCurrentlyHeldLease("lease0").getLeaseCounter());
+        renewBlocked.countDown();
+        updater.join();
+
+        assertTrue(updated[0]);
+        ShardLease held = leaseRenewer.getCurrentlyHeldLease("lease0");
+        assertEquals(3, held.getLeaseCounter());
+        assertEquals("testCheckpoint", held.getCheckpoint());
+        assertEquals(3, leaseManager.getLease("lease0").getLeaseCounter());
+    }
 }
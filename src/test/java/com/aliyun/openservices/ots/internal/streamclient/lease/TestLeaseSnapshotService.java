@@ -0,0 +1,98 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
+import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLeaseSnapshotService {
+
+    private static class CountingLeaseManager extends MemoryLeaseManager {
+        final AtomicInteger listCount = new AtomicInteger();
+
+        @Override
+        public List<ShardLease> listLeases() {
+            listCount.incrementAndGet();
+            return super.listLeases();
+        }
+    }
+
+    @Test
+    public void testSharedSnapshot() throws StreamClientException, DependencyException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        for (int i = 0; i < 10; i++) {
+            leaseManager.createLease(new ShardLease("shard" + i));
+        }
+        LeaseSnapshotService<ShardLease> service = new LeaseSnapshotService<ShardLease>(leaseManager, 500);
+        assertEquals(null, service.getLatestSnapshot());
+
+        LeaseSnapshot<ShardLease> snapshot = service.getSnapshot();
+        assertEquals(10, snapshot.size());
+        assertEquals(1, leaseManager.listCount.get());
+
+        // 快照未过期时复用
+        assertTrue(snapshot == service.getSnapshot());
+        assertTrue(snapshot == service.getSnapshot(500));
+        assertEquals(1, leaseManager.listCount.get());
+
+        // 快照中的Lease不会被调用方修改
+        ShardLease lease = snapshot.getLease("shard0");
+        lease.setLeaseOwner("worker");
+        snapshot.getLeases().get(0).setLeaseOwner("worker");
+        assertEquals("", snapshot.getLease("shard0").getLeaseOwner());
+        assertEquals(null, snapshot.getLease("notExist"));
+
+        // 视图不拷贝Lease，且不能修改
+        assertEquals(10, snapshot.getLeaseView().size());
+        try {
+            snapshot.getLeaseView().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            snapshot.getLeaseKeys().remove("shard0");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+
+        // 要求更新的快照时重新读取
+        leaseManager.createLease(new ShardLease("shard10"));
+        LeaseSnapshot<ShardLease> newSnapshot = service.getSnapshot(0);
+        assertEquals(11, newSnapshot.size());
+        assertTrue(newSnapshot.getVersion() > snapshot.getVersion());
+        assertEquals(2, leaseManager.listCount.get());
+
+        TimeUtils.sleepMillis(600);
+        assertTrue(service.getSnapshot().containsLease("shard10"));
+        assertEquals(3, leaseManager.listCount.get());
+    }
+
+    /**
+     * LeaseTaker与ShardSync等共用同一份快照，一个周期内只读取一次。
+     */
+    @Test
+    public void testShareWithLeaseTaker() throws StreamClientException, DependencyException {
+        CountingLeaseManager leaseManager = new CountingLeaseManager();
+        for (int i = 0; i < 10; i++) {
+            ShardLease lease = new ShardLease("shard" + i);
+            lease.setLeaseOwner("worker");
+            leaseManager.createLease(lease);
+        }
+        LeaseSnapshotService<ShardLease> service = new LeaseSnapshotService<ShardLease>(leaseManager, 10000);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker", 10000, service, 10000, false,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(false, 1, 0), null);
+
+        leaseTaker.updateAllLeases(new ArrayList<ShardLease>());
+        service.getSnapshot();
+        assertEquals(1, leaseManager.listCount.get());
+        assertEquals(10, leaseTaker.getAllLeases().size());
+    }
+}
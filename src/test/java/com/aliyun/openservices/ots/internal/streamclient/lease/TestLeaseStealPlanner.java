@@ -0,0 +1,213 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLeaseStealPlanner {
+
+    /**
+     * 第i个Worker持有counts[i]个负载相同的Lease。
+     */
+    private Map<String, List<ShardLease>> candidates(int... counts) {
+        Map<String, List<ShardLease>> candidates = new HashMap<String, List<ShardLease>>();
+        for (int i = 0; i < counts.length; i++) {
+            String owner = "worker" + (i + 1);
+            List<ShardLease> leases = new ArrayList<ShardLease>();
+            for (int j = 0; j < counts[i]; j++) {
+                leases.add(newLease(owner + "_lease" + j, owner, LeaseLoad.EMPTY));
+            }
+            candidates.put(owner, leases);
+        }
+        return candidates;
+    }
+
+    private ShardLease newLease(String leaseKey, String owner, LeaseLoad load) {
+        ShardLease lease = new ShardLease(leaseKey);
+        lease.setLeaseOwner(owner);
+        lease.setLeaseLoad(load);
+        return lease;
+    }
+
+    private List<ShardLease> allLeases(Map<String, List<ShardLease>> candidates) {
+        List<ShardLease> leases = new ArrayList<ShardLease>();
+        for (List<ShardLease> list : candidates.values()) {
+            leases.addAll(list);
+        }
+        return leases;
+    }
+
+    private Map<String, Integer> countByOwner(List<ShardLease> leases) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (ShardLease lease : leases) {
+            Integer count = counts.get(lease.getLeaseOwner());
+            counts.put(lease.getLeaseOwner(), count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    private List<ShardLease> plan(LeaseStealPlanner<ShardLease> planner, Map<String, List<ShardLease>> candidates,
+                                  double ownLoad, double targetLoad) {
+        Map<String, Double> weights = planner.computeLeaseWeights(allLeases(candidates));
+        return planner.plan(candidates, weights, "worker", ownLoad, targetLoad);
+    }
+
+    @Test
+    public void testPlan() {
+        LeaseStealPlanner<ShardLease> planner = new LeaseStealPlanner<ShardLease>(10);
+
+        // 没有其他Worker
+        assertTrue(plan(planner, new HashMap<String, List<ShardLease>>(), 0, 10).isEmpty());
+
+        // 一轮内从多个Worker偷取，每次从Lease最多的Worker偷取
+        Map<String, Integer> counts = countByOwner(plan(planner, candidates(9, 8, 7, 6, 5), 0, 6));
+        assertEquals(new Integer(3), counts.get("worker1"));
+        assertEquals(new Integer(2), counts.get("worker2"));
+        assertEquals(new Integer(1), counts.get("worker3"));
+        assertEquals(null, counts.get("worker4"));
+        assertEquals(null, counts.get("worker5"));
+
+        // 单轮偷取数量上限
+        assertEquals(2, plan(new LeaseStealPlanner<ShardLease>(2), candidates(100, 100, 100), 0, 75).size());
+    }
+
+    /**
+     * 与原来每轮只偷取一个Lease的行为一致：5个Worker分别持有9/8/7/6/5个Lease，每次从Lease最多的Worker偷取。
+     */
+    @Test
+    public void testChooseLeaseToSteal() {
+        LeaseStealPlanner<ShardLease> planner = new LeaseStealPlanner<ShardLease>(1);
+
+        // 没有可以偷取的Worker
+        assertTrue(plan(planner, new HashMap<String, List<ShardLease>>(), 0, 10).isEmpty());
+
+        Map<String, List<ShardLease>> candidates = candidates(9, 8, 7, 6, 5);
+
+        // 已达到目标
+        assertTrue(plan(planner, candidates, 9, 9).isEmpty());
+        assertTrue(plan(planner, candidates, 10, 9).isEmpty());
+
+        // 所有Worker都不比本Worker多2个Lease以上
+        assertTrue(plan(planner, candidates, 8, 10).isEmpty());
+
+        // 从Lease最多的Worker偷取，且每轮只偷取一个
+        List<ShardLease> leases = plan(planner, candidates, 7, 9);
+        assertEquals(1, leases.size());
+        assertEquals("worker1", leases.get(0).getLeaseOwner());
+
+        leases = plan(planner, candidates, 0, 7);
+        assertEquals(1, leases.size());
+        assertEquals("worker1", leases.get(0).getLeaseOwner());
+
+        // 偷取后worker1与worker2持有的数量相同，下一次从两者之一偷取，之后不会再从worker3以下偷取
+        candidates.get("worker1").remove(leases.get(0));
+        leases = plan(planner, candidates, 1, 7);
+        assertEquals(1, leases.size());
+        assertTrue(leases.get(0).getLeaseOwner().equals("worker1") || leases.get(0).getLeaseOwner().equals("worker2"));
+    }
+
+    /**
+     * 被偷的Worker至少比本Worker多2个Lease才偷取，已达到目标时不偷取。
+     */
+    @Test
+    public void testHysteresis() {
+        LeaseStealPlanner<ShardLease> planner = new LeaseStealPlanner<ShardLease>(10);
+
+        // 10个Lease，3个Worker，4/3/3 已均衡
+        assertTrue(plan(planner, candidates(4, 3), 3, 10.0 / 3).isEmpty());
+
+        // 4/4/2，偷取一个后变为3/4/3
+        assertEquals(1, plan(planner, candidates(4, 4), 2, 10.0 / 3).size());
+
+        // 已达到目标
+        assertTrue(plan(planner, candidates(9), 5, 5).isEmpty());
+
+        // 正在偷取中的Lease计入本Worker
+        assertTrue(plan(planner, candidates(5, 5), 5, 5).isEmpty());
+    }
+
+    @Test
+    public void testComputeLeaseWeights() {
+        List<ShardLease> leases = new ArrayList<ShardLease>();
+        leases.add(newLease("hot", "worker1", new LeaseLoad(300, 3000, 600)));
+        leases.add(newLease("cold", "worker1", new LeaseLoad(100, 1000, 200)));
+        leases.add(newLease("idle", "worker1", LeaseLoad.EMPTY));
+        leases.add(newLease("unknown", "worker1", LeaseLoad.EMPTY));
+
+        // 只按数量均衡
+        for (Double weight : new LeaseStealPlanner<ShardLease>(10, 0).computeLeaseWeights(leases).values()) {
+            assertEquals(1.0, weight, 1e-9);
+        }
+
+        // 完全按吞吐均衡，hot占75%，cold占25%
+        Map<String, Double> weights = new LeaseStealPlanner<ShardLease>(10, 1).computeLeaseWeights(leases);
+        assertEquals(3.0, weights.get("hot"), 1e-9);
+        assertEquals(1.0, weights.get("cold"), 1e-9);
+        assertEquals(0.0, weights.get("idle"), 1e-9);
+
+        // 数量与吞吐各占一半，总和仍等于Lease数量
+        weights = new LeaseStealPlanner<ShardLease>(10, 0.5).computeLeaseWeights(leases);
+        assertEquals(2.0, weights.get("hot"), 1e-9);
+        assertEquals(1.0, weights.get("cold"), 1e-9);
+        assertEquals(0.5, weights.get("idle"), 1e-9);
+        double total = 0;
+        for (Double weight : weights.values()) {
+            total += weight;
+        }
+        assertEquals(4.0, total, 1e-9);
+
+        // 没有任何吞吐数据时退化为按数量均衡
+        leases.remove(0);
+        leases.remove(0);
+        for (Double weight : new LeaseStealPlanner<ShardLease>(10, 1).computeLeaseWeights(leases).values()) {
+            assertEquals(1.0, weight, 1e-9);
+        }
+    }
+
+    /**
+     * 数量相同但负载不同时，从负载高的Worker偷取热点Lease，但不会偷取使对方负载低于本Worker的热点Lease。
+     */
+    @Test
+    public void testPlanByThroughput() {
+        LeaseStealPlanner<ShardLease> planner = new LeaseStealPlanner<ShardLease>(10, 1);
+        Map<String, List<ShardLease>> candidates = new HashMap<String, List<ShardLease>>();
+        List<ShardLease> own = new ArrayList<ShardLease>();
+        for (int i = 0; i < 4; i++) {
+            addLease(candidates, newLease("hot" + i, "worker1", new LeaseLoad(1000, 0, 0)));
+            addLease(candidates, newLease("cold" + i, "worker2", new LeaseLoad(100, 0, 0)));
+            own.add(newLease("own" + i, "worker", new LeaseLoad(100, 0, 0)));
+        }
+
+        List<ShardLease> all = allLeases(candidates);
+        all.addAll(own);
+        Map<String, Double> weights = planner.computeLeaseWeights(all);
+        assertEquals(2.5, weights.get("hot0"), 1e-9);
+        assertEquals(0.25, weights.get("cold0"), 1e-9);
+        double ownLoad = 0;
+        for (ShardLease lease : own) {
+            ownLoad += weights.get(lease.getLeaseKey());
+        }
+
+        // 按数量已经均衡，按负载则worker1上有4个热点Shard，偷取其中一个
+        List<ShardLease> leasesToSteal = planner.plan(candidates, weights, "worker", ownLoad, all.size() / 3.0);
+        assertEquals(1, leasesToSteal.size());
+        assertEquals("worker1", leasesToSteal.get(0).getLeaseOwner());
+
+        // 再偷取一个热点Shard会使worker1的负载低于本Worker，不再偷取
+        candidates.get("worker1").remove(leasesToSteal.get(0));
+        ownLoad += weights.get(leasesToSteal.get(0).getLeaseKey());
+        assertTrue(planner.plan(candidates, weights, "worker", ownLoad, all.size() / 3.0).isEmpty());
+    }
+
+    private void addLease(Map<String, List<ShardLease>> candidates, ShardLease lease) {
+        List<ShardLease> leases = candidates.get(lease.getLeaseOwner());
+        if (leases == null) {
+            leases = new ArrayList<ShardLease>();
+            candidates.put(lease.getLeaseOwner(), leases);
+        }
+        leases.add(lease);
+    }
+}
@@ -2,6 +2,7 @@ package com.aliyun.openservices.ots.internal.streamclient.lease;
 
 import com.aliyun.openservices.ots.internal.streamclient.DependencyException;
 import com.aliyun.openservices.ots.internal.streamclient.StreamClientException;
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseCapacityProvider;
 import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
 import com.aliyun.openservices.ots.internal.streamclient.utils.TimeUtils;
 import org.junit.Test;
@@ -124,6 +125,47 @@ public class TestLeaseTaker {
         assertEquals(allLeases2.get("lease_5").getLastCounterIncrementMillis(), allLeases.get("lease_5").getLastCounterIncrementMillis());
     }
 
+    /**
+     * 快照未刷新时不重新处理，本Worker在此之后获取的Lease不会被快照中的旧值覆盖；快照刷新后只更新变化的Lease。
+     */
+    @Test
+    public void testUpdateAllLeasesBySnapshotVersion() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = new MemoryLeaseManager();
+        createLease("", 0, 3, leaseManager);
+        createLease("worker1", 3, 5, leaseManager);
+        LeaseSnapshotService<ShardLease> service = new LeaseSnapshotService<ShardLease>(leaseManager, 60 * 1000);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker", 60 * 1000,
+                service, 60 * 1000, false, new BalancedLeaseAssignmentStrategy<ShardLease>(true, 1, 0), null);
+
+        Map<String, ShardLease> takenLeases = leaseTaker.takeLeases();
+        assertEquals(3, takenLeases.size());
+
+        // 复用同一个快照
+        leaseTaker.updateAllLeases(new ArrayList<ShardLease>());
+        Map<String, ShardLease> allLeases = leaseTaker.getAllLeases();
+        for (String leaseKey : takenLeases.keySet()) {
+            assertEquals("worker", allLeases.get(leaseKey).getLeaseOwner());
+            assertEquals(2, allLeases.get(leaseKey).getLeaseCounter());
+        }
+
+        // 刷新快照，只有lease_3发生了变化
+        assertTrue(leaseManager.renewLease(allLeases.get("lease_3").<ShardLease>copy()));
+        leaseManager.deleteLease("lease_4");
+        TimeUtils.sleepMillis(10);
+        service.getSnapshot(0);
+        leaseTaker.updateAllLeases(new ArrayList<ShardLease>());
+        Map<String, ShardLease> allLeases2 = leaseTaker.getAllLeases();
+        assertEquals(4, allLeases2.size());
+        assertTrue(!allLeases2.containsKey("lease_4"));
+        assertEquals(2, allLeases2.get("lease_3").getLeaseCounter());
+        assertTrue(allLeases2.get("lease_3").getLastCounterIncrementMillis()
+                > allLeases.get("lease_3").getLastCounterIncrementMillis());
+        for (String leaseKey : takenLeases.keySet()) {
+            assertEquals(allLeases.get(leaseKey).getLastCounterIncrementMillis(),
+                    allLeases2.get(leaseKey).getLastCounterIncrementMillis());
+        }
+    }
+
     private void createLease(String owner, int start, int end, ILeaseManager<ShardLease> leaseManager) throws Exception {
         for (int i = start; i < end; i++) {
             ShardLease lease = new ShardLease("lease_" + i);
@@ -193,7 +235,7 @@ public class TestLeaseTaker {
     }
 
     @Test
-    public void testChooseLeaseToSteal() throws Exception {
+    public void testComputeStealCandidates() throws Exception {
         ILeaseManager<ShardLease> leaseManager = getLeaseManager();
         String workerIdentifier = "worker";
         long leaseDuration = 3 * 1000;
@@ -202,44 +244,419 @@ public class TestLeaseTaker {
 
         createLease("worker1", 0, 9, leaseManager);
         createLease("worker2", 9, 17, leaseManager);
-        createLease("worker3", 17, 24, leaseManager);
-        createLease("worker4", 24, 30, leaseManager);
-        createLease("worker5", 30, 35, leaseManager);
+        createLease(workerIdentifier, 17, 20, leaseManager);
+        leaseManager.stealLease(leaseManager.getLease("lease_0"), "otherWorker");
         leaseTaker.updateAllLeases(new ArrayList<ShardLease>());
 
-        // take from empty worker
-        {
-            Map<String, Integer> leaseCounts = new HashMap<String, Integer>();
-            ShardLease lease = leaseTaker.chooseLeaseToSteal(leaseCounts, 2, 10);
-            assertNull(lease);
+        // skip the lease being stolen and the leases owned by this worker
+        Map<String, List<ShardLease>> candidates = leaseTaker.computeStealCandidates(new ArrayList<ShardLease>());
+        assertEquals(2, candidates.size());
+        assertEquals(8, candidates.get("worker1").size());
+        assertEquals(8, candidates.get("worker2").size());
+        for (ShardLease lease : candidates.get("worker1")) {
+            assertTrue(lease.getLeaseStealer().isEmpty());
         }
 
-        // all worker's count is less than target
-        {
-            Map<String, Integer> leaseCounts = leaseTaker.computeLeaseCounts(new ArrayList<ShardLease>());
+        // skip expired leases
+        List<ShardLease> expiredLeases = new ArrayList<ShardLease>();
+        for (ShardLease lease : leaseTaker.getAllLeases().values()) {
+            if (lease.getLeaseOwner().equals("worker2")) {
+                expiredLeases.add(lease);
+            }
+        }
+        candidates = leaseTaker.computeStealCandidates(expiredLeases);
+        assertEquals(1, candidates.size());
+        assertEquals(8, candidates.get("worker1").size());
+    }
 
-            ShardLease lease = leaseTaker.chooseLeaseToSteal(leaseCounts, 1, 9);
-            assertNull(lease);
+    /**
+     * 两个Worker持有的Lease数量相同，但其中一个Worker的Shard吞吐远高于另一个，按吞吐均衡时偷取热点Shard。
+     */
+    @Test
+    public void testStealByThroughput() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 600 * 1000;
+        for (int i = 0; i < 4; i++) {
+            createLease("worker1", "hot" + i, new LeaseLoad(1000, 100000, 500), leaseManager);
+            createLease("worker2", "cold" + i, new LeaseLoad(10, 1000, 5), leaseManager);
+        }
 
-            lease = leaseTaker.chooseLeaseToSteal(leaseCounts, 2, 9);
-            assertTrue(lease != null);
+        // 只按数量均衡时不偷取
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker2", leaseDuration,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, false,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(true, 10, 0), null);
+        leaseTaker.takeLeases();
+        for (ShardLease lease : leaseManager.listLeases()) {
+            assertTrue(lease.getLeaseStealer().isEmpty());
+        }
 
-            lease = leaseTaker.chooseLeaseToSteal(leaseCounts, 2, 10);
-            assertNull(lease);
+        leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker2", leaseDuration,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, false,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(true, 10, 0.5), null);
+        leaseTaker.takeLeases();
+        List<String> stolen = new ArrayList<String>();
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (lease.getLeaseStealer().equals("worker2")) {
+                stolen.add(lease.getLeaseKey());
+            }
+        }
+        assertEquals(1, stolen.size());
+        assertTrue(stolen.get(0).startsWith("hot"));
+
+        // 正在偷取中的Lease计入本Worker，不再偷取
+        leaseTaker.takeLeases();
+        int stealCount = 0;
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (!lease.getLeaseStealer().isEmpty()) {
+                stealCount++;
+            }
         }
+        assertEquals(1, stealCount);
+    }
 
-        // test take lease from the random worker who has the largest count
-        {
-            Map<String, Integer> leaseCounts = leaseTaker.computeLeaseCounts(new ArrayList<ShardLease>());
+    private void createLease(String owner, String leaseKey, LeaseLoad load, ILeaseManager<ShardLease> leaseManager) throws Exception {
+        ShardLease lease = new ShardLease(leaseKey);
+        lease.setLeaseCounter(1);
+        lease.setLeaseOwner(owner);
+        lease.setLeaseLoad(load);
+        leaseManager.createLease(lease);
+    }
+
+    /**
+     * Owner主动释放的Lease不需要等待过期，其他Worker在下一次TakeLease时即可获取。
+     */
+    @Test
+    public void testTakeReleasedLease() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 600 * 1000;
+        createLease("worker1", 0, 2, leaseManager);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker2", leaseDuration, false);
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+
+        assertTrue(leaseManager.releaseLease(leaseManager.getLease("lease_0")));
+        Map<String, ShardLease> takenLeases = leaseTaker.takeLeases();
+        assertEquals(1, takenLeases.size());
+        assertTrue(takenLeases.containsKey("lease_0"));
+        assertEquals("worker2", leaseManager.getLease("lease_0").getLeaseOwner());
+        assertEquals("worker1", leaseManager.getLease("lease_1").getLeaseOwner());
+    }
+
+    /**
+     * 排空时将持有的Lease逐个交给负载最低的其他Worker，由本Worker Transfer后对方即可获取。
+     */
+    @Test
+    public void testHandOffLeases() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 600 * 1000;
+        createLease("worker", 0, 6, leaseManager);
+        createLease("worker1", 6, 7, leaseManager);
+        createLease("worker2", 7, 10, leaseManager);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker", leaseDuration, true);
+
+        List<ShardLease> handedOff = leaseTaker.handOffLeases();
+        assertEquals(6, handedOff.size());
+        Map<String, Integer> stealers = new HashMap<String, Integer>();
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (lease.getLeaseOwner().equals("worker")) {
+                Integer count = stealers.get(lease.getLeaseStealer());
+                stealers.put(lease.getLeaseStealer(), count == null ? 1 : count + 1);
+            } else {
+                assertTrue(lease.getLeaseStealer().isEmpty());
+            }
+        }
+        assertEquals(new Integer(4), stealers.get("worker1"));
+        assertEquals(new Integer(2), stealers.get("worker2"));
+
+        // 正在转交中的Lease不重复转交
+        assertTrue(leaseTaker.handOffLeases().isEmpty());
+
+        // Transfer之后由对方获取
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (lease.getLeaseOwner().equals("worker")) {
+                assertTrue(leaseManager.transferLease(lease));
+            }
+        }
+        LeaseTaker<ShardLease> peerTaker = new LeaseTaker<ShardLease>(leaseManager, "worker1", leaseDuration, false);
+        assertEquals(4, peerTaker.takeLeases().size());
+        assertEquals(new Integer(5), countAllOwnedLeases(leaseManager).get("worker1"));
+        assertEquals(null, countAllOwnedLeases(leaseManager).get("worker"));
+    }
+
+    /**
+     * 没有其他Worker时不转交；排空前发起并在之后完成的偷取直接释放。
+     */
+    @Test
+    public void testHandOffLeasesWithoutPeer() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 600 * 1000;
+        createLease("worker", 0, 2, leaseManager);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker", leaseDuration, true);
+        assertTrue(leaseTaker.handOffLeases().isEmpty());
+        for (ShardLease lease : leaseManager.listLeases()) {
+            assertEquals("worker", lease.getLeaseOwner());
+            assertTrue(lease.getLeaseStealer().isEmpty());
+        }
+
+        createLease("worker1", 2, 4, leaseManager);
+        ShardLease stolen = leaseManager.getLease("lease_2");
+        assertTrue(leaseManager.stealLease(stolen, "worker"));
+        assertTrue(leaseManager.transferLease(stolen));
+        assertEquals(2, leaseTaker.handOffLeases().size());
+        assertTrue(leaseManager.getLease("lease_2").getLeaseOwner().isEmpty());
+    }
+
+    /**
+     * 粘性分配：10个Worker收敛后Lease不再迁移；增加一个Worker后只有分配给新Worker的Lease迁移。
+     */
+    @Test
+    public void testStickyAssignment() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 600 * 1000;
+        createLease("", 0, 200, leaseManager);
+        List<LeaseTaker<ShardLease>> leaseTakers = new ArrayList<LeaseTaker<ShardLease>>();
+        List<String> workers = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            workers.add("worker" + i);
+            leaseTakers.add(newStickyLeaseTaker(leaseManager, "worker" + i, leaseDuration, 0));
+        }
+        Map<String, String> owners = runUntilStable(leaseManager, leaseTakers);
+        for (Map.Entry<String, String> entry : owners.entrySet()) {
+            assertEquals(RendezvousHash.select(entry.getKey(), workers), entry.getValue());
+        }
+
+        workers.add("newWorker");
+        leaseTakers.add(newStickyLeaseTaker(leaseManager, "newWorker", leaseDuration, 0));
+        Map<String, String> newOwners = runUntilStable(leaseManager, leaseTakers);
+        int moved = 0;
+        for (Map.Entry<String, String> entry : newOwners.entrySet()) {
+            assertEquals(RendezvousHash.select(entry.getKey(), workers), entry.getValue());
+            if (!entry.getValue().equals(owners.get(entry.getKey()))) {
+                assertEquals("newWorker", entry.getValue());
+                moved++;
+            }
+        }
+        assertTrue(moved > 0 && moved < 200 / 11 * 2);
+    }
+
+    /**
+     * 粘性分配：Lease过期后宽限期内只由原Owner重新获取，超过宽限期后由其他Worker获取。
+     */
+    @Test
+    public void testStickyGrace() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 100;
+        createLease("worker1", 0, 1, leaseManager);
+        LeaseTaker<ShardLease> leaseTaker = newStickyLeaseTaker(leaseManager, "worker2", leaseDuration, 60 * 1000);
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+        TimeUtils.sleepMillis(leaseDuration * 2);
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+
+        // 原Owner重启后同样在Lease过期后重新获取
+        LeaseTaker<ShardLease> ownerTaker = newStickyLeaseTaker(leaseManager, "worker1", leaseDuration, 60 * 1000);
+        assertTrue(ownerTaker.takeLeases().isEmpty());
+        TimeUtils.sleepMillis(leaseDuration * 2);
+        assertEquals(1, ownerTaker.takeLeases().size());
+
+        leaseTaker = newStickyLeaseTaker(leaseManager, "worker2", leaseDuration, 0);
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+        TimeUtils.sleepMillis(leaseDuration * 2);
+        assertEquals(1, leaseTaker.takeLeases().size());
+        assertEquals("worker2", leaseManager.getLease("lease_0").getLeaseOwner());
+    }
+
+    /**
+     * 粘性分配：哈希分配到的Worker不获取Lease（如正在排空）时，其他Worker在Lease过期超过一个周期后获取。
+     */
+    @Test
+    public void testStickyOrphanedLease() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 200;
+        Set<String> workers = new HashSet<String>(Arrays.asList("worker1", "worker2"));
+        List<String> leaseKeys = new ArrayList<String>();
+        for (int i = 0; leaseKeys.size() < 2; i++) {
+            if ("worker1".equals(RendezvousHash.select("lease_" + i, workers))) {
+                leaseKeys.add("lease_" + i);
+            }
+        }
+        // worker1持有一个有效的Lease，另一个已释放的Lease也分配给worker1，但worker1不再获取
+        ShardLease heldLease = new ShardLease(leaseKeys.get(0));
+        heldLease.setLeaseOwner("worker1");
+        leaseManager.createLease(heldLease);
+        leaseManager.createLease(new ShardLease(leaseKeys.get(1)));
+
+        LeaseTaker<ShardLease> leaseTaker = newStickyLeaseTaker(leaseManager, "worker2", leaseDuration, 0);
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+        renewAfterLeaseDuration(leaseManager, leaseDuration);
+        Map<String, ShardLease> takenLeases = leaseTaker.takeLeases();
+        assertEquals(1, takenLeases.size());
+        assertTrue(takenLeases.containsKey(leaseKeys.get(1)));
+        assertEquals("worker1", leaseManager.getLease(leaseKeys.get(0)).getLeaseOwner());
+    }
+
+    /**
+     * 平均数量超过本Worker的处理能力时只获取处理能力范围内的Lease，其余的由其他Worker在发现长时间无人获取后获取。
+     * 所有Worker都达到处理能力上限时，报告无人获取的Lease数量。
+     */
+    @Test
+    public void testLeaseCapacity() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 200;
+        createLease("", 0, 10, leaseManager);
+        LeaseTaker<ShardLease> smallTaker = newCapacityLeaseTaker(leaseManager, "worker1", leaseDuration, 2);
+        LeaseTaker<ShardLease> largeTaker = newCapacityLeaseTaker(leaseManager, "worker2", leaseDuration, 6);
+        assertEquals(2, smallTaker.takeLeases().size());
+        assertEquals(5, largeTaker.takeLeases().size());
+
+        renewAfterLeaseDuration(leaseManager, leaseDuration);
+        assertTrue(smallTaker.takeLeases().isEmpty());
+        assertEquals(1, largeTaker.takeLeases().size());
+        assertEquals(2, largeTaker.getUnassignedLeaseCount());
+
+        renewAfterLeaseDuration(leaseManager, leaseDuration);
+        assertTrue(smallTaker.takeLeases().isEmpty());
+        assertEquals(2, smallTaker.getUnassignedLeaseCount());
+
+        // 新加入的Worker在平均数量内获取
+        LeaseTaker<ShardLease> newTaker = newCapacityLeaseTaker(leaseManager, "worker3", leaseDuration, Integer.MAX_VALUE);
+        assertEquals(2, newTaker.takeLeases().size());
+        assertEquals(0, newTaker.getUnassignedLeaseCount());
+    }
 
-            ShardLease lease = leaseTaker.chooseLeaseToSteal(leaseCounts, 3, 8);
-            assertEquals(lease.getLeaseOwner(), "worker1");
+    private LeaseTaker<ShardLease> newCapacityLeaseTaker(ILeaseManager<ShardLease> leaseManager, String workerIdentifier,
+                                                         long leaseDuration, final int capacity) {
+        return new LeaseTaker<ShardLease>(leaseManager, workerIdentifier, leaseDuration,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, false,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(true, 1, 0),
+                new ILeaseCapacityProvider() {
+                    public int getLeaseCapacity(int heldLeases) {
+                        return capacity;
+                    }
+                });
+    }
 
-            lease = leaseTaker.chooseLeaseToSteal(leaseCounts, 3, 6);
-            assertEquals(lease.getLeaseOwner(), "worker1");
+    /**
+     * 等待超过一个Lease周期后续约所有有Owner的Lease，使其不会过期。
+     */
+    private void renewAfterLeaseDuration(ILeaseManager<ShardLease> leaseManager, long leaseDuration) throws Exception {
+        TimeUtils.sleepMillis(leaseDuration + 50);
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (!lease.getLeaseOwner().isEmpty()) {
+                assertTrue(leaseManager.renewLease(lease));
+            }
         }
     }
 
+    private LeaseTaker<ShardLease> newStickyLeaseTaker(ILeaseManager<ShardLease> leaseManager, String workerIdentifier,
+                                                       long leaseDuration, long graceMillis) {
+        return new LeaseTaker<ShardLease>(leaseManager, workerIdentifier, leaseDuration,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, false,
+                new StickyLeaseAssignmentStrategy<ShardLease>(true, 50, graceMillis), null);
+    }
+
+    /**
+     * 反复执行TakeLease和Transfer直到没有Lease迁移，返回每个Lease的Owner。
+     */
+    private Map<String, String> runUntilStable(ILeaseManager<ShardLease> leaseManager,
+                                               List<LeaseTaker<ShardLease>> leaseTakers) throws Exception {
+        Map<String, String> owners = null;
+        for (int rounds = 0; rounds < 100; rounds++) {
+            runRound(leaseManager, leaseTakers);
+            Map<String, String> newOwners = new HashMap<String, String>();
+            boolean stealing = false;
+            for (ShardLease lease : leaseManager.listLeases()) {
+                newOwners.put(lease.getLeaseKey(), lease.getLeaseOwner());
+                stealing |= !lease.getLeaseStealer().isEmpty();
+            }
+            if (!stealing && newOwners.equals(owners)) {
+                return owners;
+            }
+            owners = newOwners;
+        }
+        fail("Lease assignment is not stable.");
+        return null;
+    }
+
+    /**
+     * 20个Worker各持有100个Lease，新加入一个Worker，统计达到均衡需要的TakeLease轮数。
+     * 每轮偷取后由原Owner完成Transfer，均衡后再运行若干轮，不应再有Lease迁移。
+     */
+    @Test
+    public void testRebalanceConvergence() throws Exception {
+        int numWorkers = 20;
+        int leasesPerWorker = 100;
+        long leaseDuration = 600 * 1000;
+
+        int singleStealRounds = rebalance(numWorkers, leasesPerWorker, leaseDuration, 1);
+        int plannedRounds = rebalance(numWorkers, leasesPerWorker, leaseDuration, 50);
+        assertTrue(singleStealRounds >= 90);
+        assertTrue(plannedRounds <= 4);
+    }
+
+    private int rebalance(int numWorkers, int leasesPerWorker, long leaseDuration, int maxStealLeasesPerTake) throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        List<LeaseTaker<ShardLease>> leaseTakers = new ArrayList<LeaseTaker<ShardLease>>();
+        for (int i = 0; i < numWorkers; i++) {
+            createLease("worker" + i, i * leasesPerWorker, (i + 1) * leasesPerWorker, leaseManager);
+            leaseTakers.add(newLeaseTaker(leaseManager, "worker" + i, leaseDuration, maxStealLeasesPerTake));
+        }
+        leaseTakers.add(newLeaseTaker(leaseManager, "newWorker", leaseDuration, maxStealLeasesPerTake));
+        int target = numWorkers * leasesPerWorker / (numWorkers + 1);
+
+        int rounds = 0;
+        while (countOwnedLeases(leaseManager, "newWorker") < target) {
+            assertTrue(++rounds < 1000);
+            runRound(leaseManager, leaseTakers);
+        }
+
+        // 均衡后不再迁移
+        Map<String, Integer> balanced = countAllOwnedLeases(leaseManager);
+        for (int i = 0; i < 5; i++) {
+            runRound(leaseManager, leaseTakers);
+        }
+        assertEquals(balanced, countAllOwnedLeases(leaseManager));
+        for (ShardLease lease : leaseManager.listLeases()) {
+            assertTrue(lease.getLeaseStealer().isEmpty());
+        }
+        return rounds;
+    }
+
+    private LeaseTaker<ShardLease> newLeaseTaker(ILeaseManager<ShardLease> leaseManager, String workerIdentifier,
+                                                 long leaseDuration, int maxStealLeasesPerTake) {
+        return new LeaseTaker<ShardLease>(leaseManager, workerIdentifier, leaseDuration,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, false,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(true, maxStealLeasesPerTake, 0), null);
+    }
+
+    /**
+     * 每个Worker执行一次TakeLease，然后Owner将被偷的Lease Transfer给Stealer。
+     */
+    private void runRound(ILeaseManager<ShardLease> leaseManager, List<LeaseTaker<ShardLease>> leaseTakers) throws Exception {
+        for (LeaseTaker<ShardLease> leaseTaker : leaseTakers) {
+            leaseTaker.takeLeases();
+        }
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (!lease.getLeaseStealer().isEmpty() && !lease.getLeaseStealer().equals(lease.getLeaseOwner())) {
+                assertTrue(leaseManager.transferLease(lease));
+            }
+        }
+    }
+
+    private int countOwnedLeases(ILeaseManager<ShardLease> leaseManager, String owner) throws Exception {
+        Integer count = countAllOwnedLeases(leaseManager).get(owner);
+        return count == null ? 0 : count;
+    }
+
+    private Map<String, Integer> countAllOwnedLeases(ILeaseManager<ShardLease> leaseManager) throws Exception {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (lease.getLeaseStealer().isEmpty()) {
+                Integer count = counts.get(lease.getLeaseOwner());
+                counts.put(lease.getLeaseOwner(), count == null ? 1 : count + 1);
+            }
+        }
+        return counts;
+    }
+
     /**
      * 新增一批lease，新增一个worker，尝试take lease成功。
      * @throws Exception
@@ -324,6 +741,36 @@ public class TestLeaseTaker {
         assertTrue(takenLeases.containsKey(leaseKey));
     }
 
+    /**
+     * 通过偷取获得的Lease带有发起偷取的时间，用于统计转交延迟。
+     */
+    @Test
+    public void testStealRequestMillis() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        long leaseDuration = 600 * 1000;
+        createLease("worker1", 0, 3, leaseManager);
+        createLease("", 3, 4, leaseManager);
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker", leaseDuration, true);
+
+        long beforeSteal = System.currentTimeMillis();
+        Map<String, ShardLease> takenLeases = leaseTaker.takeLeases();
+        assertEquals(1, takenLeases.size());
+        assertEquals(0, takenLeases.get("lease_3").getStealRequestMillis());
+
+        ShardLease stolen = null;
+        for (ShardLease lease : leaseManager.listLeases()) {
+            if (lease.getLeaseStealer().equals("worker")) {
+                stolen = lease;
+            }
+        }
+        assertNotNull(stolen);
+        assertTrue(leaseManager.transferLease(stolen));
+        takenLeases = leaseTaker.takeLeases();
+        assertEquals(1, takenLeases.size());
+        long stealRequestMillis = takenLeases.get(stolen.getLeaseKey()).getStealRequestMillis();
+        assertTrue(stealRequestMillis >= beforeSteal && stealRequestMillis <= System.currentTimeMillis());
+    }
+
     private void renewLease(int start, int end, Map<String, ShardLease> allLeases, ILeaseManager<ShardLease> leaseManager) throws Exception {
         for (int i = start; i < end; i++) {
             ShardLease lease = allLeases.get("lease_" + i);
@@ -377,4 +824,43 @@ public class TestLeaseTaker {
         leases = leaseTaker.computeLeasesToTake(leaseSteal, leaseExpired, 8);
         assertEquals(leases.size(), 6);
     }
+
+    /**
+     * 心跳模式下Lease的Counter不变，只要Owner的心跳在更新，Lease就不会过期；
+     * 心跳停止后Lease过期可被获取，不再持有Lease的Worker的心跳会被删除。
+     */
+    @Test
+    public void testWorkerHeartbeat() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = getLeaseManager();
+        for (int i = 0; i < 4; i++) {
+            ShardLease lease = new ShardLease("lease_" + i);
+            lease.setLeaseCounter(1);
+            lease.setLeaseOwner("worker_1");
+            leaseManager.createLease(lease);
+        }
+
+        long leaseDuration = 500;
+        LeaseTaker<ShardLease> leaseTaker = new LeaseTaker<ShardLease>(leaseManager, "worker", leaseDuration,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, true,
+                new BalancedLeaseAssignmentStrategy<ShardLease>(false, 1, 0), null);
+
+        for (int i = 0; i < 6; i++) {
+            leaseManager.renewWorkerHeartbeat("worker_1", i);
+            assertTrue(leaseTaker.takeLeases().isEmpty());
+            TimeUtils.sleepMillis(200);
+        }
+
+        // 心跳停止后Lease过期
+        TimeUtils.sleepMillis(leaseDuration);
+        Map<String, ShardLease> takenLeases = leaseTaker.takeLeases();
+        assertEquals(4, takenLeases.size());
+        for (ShardLease lease : leaseManager.listLeases()) {
+            assertEquals("worker", lease.getLeaseOwner());
+        }
+
+        TimeUtils.sleepMillis(leaseDuration);
+        leaseTaker.takeLeases();
+        assertFalse(leaseManager.listWorkerHeartbeats().containsKey("worker_1"));
+    }
+
 }
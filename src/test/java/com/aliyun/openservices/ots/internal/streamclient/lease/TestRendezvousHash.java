@@ -0,0 +1,63 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRendezvousHash {
+
+    private List<String> workers(int count) {
+        List<String> workers = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            workers.add("worker" + i);
+        }
+        return workers;
+    }
+
+    @Test
+    public void testSelect() {
+        assertNull(RendezvousHash.select("lease", new ArrayList<String>()));
+        assertEquals("worker", RendezvousHash.select("lease", Collections.singletonList("worker")));
+
+        // 结果与Worker的顺序无关
+        List<String> workers = workers(10);
+        String selected = RendezvousHash.select("lease", workers);
+        Collections.reverse(workers);
+        assertEquals(selected, RendezvousHash.select("lease", workers));
+    }
+
+    /**
+     * 分配大致均匀，增加一个Worker时只有分配给新Worker的Lease改变归属，约为1/(N+1)。
+     */
+    @Test
+    public void testMinimalMovement() {
+        int numLeases = 10000;
+        List<String> workers = workers(10);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Map<String, String> before = new HashMap<String, String>();
+        for (int i = 0; i < numLeases; i++) {
+            String worker = RendezvousHash.select("lease_" + i, workers);
+            before.put("lease_" + i, worker);
+            Integer count = counts.get(worker);
+            counts.put(worker, count == null ? 1 : count + 1);
+        }
+        for (Integer count : counts.values()) {
+            assertTrue(count > numLeases / 10 * 0.8 && count < numLeases / 10 * 1.2);
+        }
+
+        workers.add("newWorker");
+        int moved = 0;
+        for (int i = 0; i < numLeases; i++) {
+            String worker = RendezvousHash.select("lease_" + i, workers);
+            if (!worker.equals(before.get("lease_" + i))) {
+                assertEquals("newWorker", worker);
+                moved++;
+            }
+        }
+        assertTrue(moved > numLeases / 11 * 0.8 && moved < numLeases / 11 * 1.2);
+    }
+}
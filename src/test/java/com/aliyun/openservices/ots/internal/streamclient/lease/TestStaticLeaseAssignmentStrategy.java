@@ -0,0 +1,102 @@
+package com.aliyun.openservices.ots.internal.streamclient.lease;
+
+import com.aliyun.openservices.ots.internal.streamclient.lease.interfaces.ILeaseManager;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestStaticLeaseAssignmentStrategy {
+
+    private void createLease(String owner, int start, int end, ILeaseManager<ShardLease> leaseManager) throws Exception {
+        for (int i = start; i < end; i++) {
+            ShardLease lease = new ShardLease("lease_" + i);
+            lease.setLeaseCounter(1);
+            lease.setLeaseOwner(owner);
+            lease.setLeaseStealer("");
+            leaseManager.createLease(lease);
+        }
+    }
+
+    private LeaseTaker<ShardLease> newLeaseTaker(ILeaseManager<ShardLease> leaseManager, String workerIdentifier,
+                                                 StaticLeaseAssignmentStrategy<ShardLease> strategy) {
+        return new LeaseTaker<ShardLease>(leaseManager, workerIdentifier, 600 * 1000,
+                new LeaseSnapshotService<ShardLease>(leaseManager, 0), 0, false, strategy, null);
+    }
+
+    /**
+     * 按取模规则分配，每个Worker只获取分配给自己的Lease，不偷取其他Lease。
+     */
+    @Test
+    public void testAssignByModulo() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = new MemoryLeaseManager();
+        createLease("", 0, 30, leaseManager);
+
+        int workerCount = 3;
+        Set<String> takenLeaseKeys = new HashSet<String>();
+        for (int i = 0; i < workerCount; i++) {
+            StaticLeaseAssignmentStrategy<ShardLease> strategy =
+                    new StaticLeaseAssignmentStrategy<ShardLease>(i, workerCount, 0);
+            Map<String, ShardLease> takenLeases = newLeaseTaker(leaseManager, "worker" + i, strategy).takeLeases();
+            for (String leaseKey : takenLeases.keySet()) {
+                assertTrue(strategy.isAssigned(leaseKey));
+                assertTrue(takenLeaseKeys.add(leaseKey));
+            }
+        }
+        assertEquals(30, takenLeaseKeys.size());
+        for (ShardLease lease : leaseManager.listLeases()) {
+            assertTrue(lease.getLeaseStealer().isEmpty());
+        }
+    }
+
+    /**
+     * 分配给本Worker的Lease被其他Worker持有时请求转交，其他Lease不偷取。
+     */
+    @Test
+    public void testAssignByList() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = new MemoryLeaseManager();
+        createLease("worker1", 0, 10, leaseManager);
+
+        LeaseTaker<ShardLease> leaseTaker = newLeaseTaker(leaseManager, "worker2",
+                new StaticLeaseAssignmentStrategy<ShardLease>(Arrays.asList("lease_0", "lease_1"), 0));
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+        for (ShardLease lease : leaseManager.listLeases()) {
+            boolean assigned = lease.getLeaseKey().equals("lease_0") || lease.getLeaseKey().equals("lease_1");
+            assertEquals(assigned ? "worker2" : "", lease.getLeaseStealer());
+            if (assigned) {
+                assertTrue(leaseManager.transferLease(lease));
+            }
+        }
+
+        Map<String, ShardLease> takenLeases = leaseTaker.takeLeases();
+        assertEquals(new HashSet<String>(Arrays.asList("lease_0", "lease_1")), takenLeases.keySet());
+        assertEquals("worker2", leaseManager.getLease("lease_0").getLeaseOwner());
+        assertEquals("worker1", leaseManager.getLease("lease_2").getLeaseOwner());
+    }
+
+    /**
+     * 读取全部Lease的间隔不小于分配策略要求的间隔。
+     */
+    @Test
+    public void testMinLeaseScanInterval() throws Exception {
+        ILeaseManager<ShardLease> leaseManager = new MemoryLeaseManager();
+        createLease("", 0, 2, leaseManager);
+        LeaseTaker<ShardLease> leaseTaker = newLeaseTaker(leaseManager, "worker",
+                new StaticLeaseAssignmentStrategy<ShardLease>(0, 1, 60 * 1000));
+        assertEquals(2, leaseTaker.takeLeases().size());
+
+        createLease("", 2, 4, leaseManager);
+        assertTrue(leaseTaker.takeLeases().isEmpty());
+        assertEquals(2, leaseTaker.getAllLeases().size());
+    }
+
+    @Test
+    public void testInvalidWorkerIndex() {
+        try {
+            new StaticLeaseAssignmentStrategy<ShardLease>(3, 3, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
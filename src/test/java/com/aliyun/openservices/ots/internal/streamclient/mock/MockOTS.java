@@ -25,7 +25,11 @@ public class MockOTS implements SyncClientInterface {
 
     public DescribeStreamResponse describeStream(DescribeStreamRequest describeStreamRequest) throws TableStoreException, ClientException {
         List<StreamShard> shards = new ArrayList<StreamShard>();
-        for (String shardId : shardMap.keySet()) {
+        NavigableMap<String, StreamShard> shardsToList = shardMap;
+        if (describeStreamRequest.getInclusiveStartShardId() != null) {
+            shardsToList = shardMap.tailMap(describeStreamRequest.getInclusiveStartShardId(), true);
+        }
+        for (String shardId : shardsToList.keySet()) {
             shards.add(shardMap.get(shardId));
         }
         return otsModelGenerator.genDescribeStreamResponse(describeStreamRequest.getStreamId().split("_")[0],